@@ -16,6 +16,7 @@
 package com.redsaz.lognition.api;
 
 import com.redsaz.lognition.api.model.ImportInfo;
+import com.redsaz.lognition.api.model.ImportStatus;
 import com.redsaz.lognition.api.model.Log;
 import java.io.InputStream;
 import java.util.List;
@@ -36,4 +37,52 @@ public interface ImportService {
     public ImportInfo update(ImportInfo source);
 
     public void delete(long id);
+
+    /**
+     * @return the imports that are queued or in progress, with those in progress first, followed
+     * by the queued imports in the order they will start.
+     */
+    public List<ImportStatus> listStatuses();
+
+    /**
+     * Starts the import of a log that is still being written, such as by a test that is running.
+     * The log is not imported until it is sealed, but can be added to until then.
+     *
+     * @param raw the start of the log, which must at least have the first row
+     * @param log the log being imported
+     * @param importedFilename the name of the log being imported
+     * @param uploadedUtcMillis when the import was started
+     * @return the import
+     */
+    public ImportInfo uploadLive(InputStream raw, Log log, String importedFilename, long uploadedUtcMillis);
+
+    /**
+     * Adds to the end of a live import.
+     *
+     * @param id the import to add to
+     * @param raw the next part of the log, which can end part of the way through a row
+     * @return the import
+     */
+    public ImportInfo append(long id, InputStream raw);
+
+    /**
+     * Ends a live import, so that nothing more can be added to it, and imports the log.
+     *
+     * @param id the import to end
+     * @return the import
+     */
+    public ImportInfo seal(long id);
+
+    /**
+     * Imports the logs of a distributed test, one from each load generator, as one log. The
+     * samples of all of the logs are merged in the order they were taken, and each is tagged with
+     * its generator.
+     *
+     * @param raw a zip with the log of each load generator, each named for its generator
+     * @param log the log the logs are merged into
+     * @param importedFilename the name of the zip being imported
+     * @param uploadedUtcMillis when the zip was uploaded
+     * @return the import
+     */
+    public ImportInfo uploadMerged(InputStream raw, Log log, String importedFilename, long uploadedUtcMillis);
 }
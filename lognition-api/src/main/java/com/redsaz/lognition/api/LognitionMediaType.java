@@ -25,4 +25,7 @@ public class LognitionMediaType {
     public static final String LOGBRIEFS_V1_JSON = "application/x-lognition-v1-logbriefs+json";
     public static final String LOGBRIEF_V1_JSON = "application/x-lognition-v1-logbrief+json";
     public static final String REVIEW_V1_JSON = "application/x-lognition-v1-review+json";
+    public static final String IMPORTSTATUSES_V1_JSON = "application/x-lognition-v1-importstatuses+json";
+    public static final String IMPORTDIAGNOSTICS_V1_JSON = "application/x-lognition-v1-importdiagnostics+json";
+    public static final String WINDOWSTATS_V1_JSON = "application/x-lognition-v1-windowstats+json";
 }
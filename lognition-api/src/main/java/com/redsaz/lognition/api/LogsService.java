@@ -16,6 +16,7 @@
 package com.redsaz.lognition.api;
 
 import com.redsaz.lognition.api.labelselector.LabelSelectorExpression;
+import com.redsaz.lognition.api.model.ImportDiagnostics;
 import com.redsaz.lognition.api.model.Label;
 import com.redsaz.lognition.api.model.Log;
 import java.io.File;
@@ -54,4 +55,19 @@ public interface LogsService {
 
     public List<Label> getLabels(long logId);
 
+    /**
+     * Stores the rows that were skipped when the log was imported, replacing any stored for an
+     * earlier import of it.
+     *
+     * @param diagnostics the skipped rows of the log
+     */
+    public void setImportDiagnostics(ImportDiagnostics diagnostics);
+
+    /**
+     * @param logId the log
+     * @return the rows that were skipped when the log was imported, which are none if the log has
+     * not been imported.
+     */
+    public ImportDiagnostics getImportDiagnostics(long logId);
+
 }
@@ -15,11 +15,14 @@
  */
 package com.redsaz.lognition.api;
 
+import com.redsaz.lognition.api.model.BinHistogram;
 import com.redsaz.lognition.api.model.CodeCounts;
 import com.redsaz.lognition.api.model.Histogram;
 import com.redsaz.lognition.api.model.Percentiles;
 import com.redsaz.lognition.api.model.Stats;
 import com.redsaz.lognition.api.model.Timeseries;
+import com.redsaz.lognition.api.model.Timing;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -30,6 +33,14 @@ import java.util.Map;
  */
 public interface StatsService {
 
+    /**
+     * Stores the labels of a log, with the label id being the position in the list. If labels
+     * were already stored for the log, then they are replaced, but the stats of the label ids
+     * that remain are kept.
+     *
+     * @param logId The log identifier
+     * @param labels The labels, starting with the "Overall" label
+     */
     public void createSampleLabels(long logId, List<String> labels);
 
     public List<String> getSampleLabels(long logId);
@@ -42,6 +53,38 @@ public interface StatsService {
 
     public Percentiles getPercentiles(long logId, long labelId);
 
+    /**
+     * Retrieves the aggregate of one of the timings of the samples. The stats retrieved without a
+     * timing are those of {@link Timing#ELAPSED}.
+     *
+     * @param logId The log identifier
+     * @param labelId The sample label identifier
+     * @param timing Which time of the samples
+     * @return The aggregate if found, or null otherwise, such as when the log did not have the
+     * timing.
+     */
+    public Stats getAggregate(long logId, long labelId, Timing timing);
+
+    public Timeseries getTimeseries(long logId, long labelId, Timing timing);
+
+    public Histogram getHistogram(long logId, long labelId, Timing timing);
+
+    public Percentiles getPercentiles(long logId, long labelId, Timing timing);
+
+    /**
+     * Retrieves the timeseries at a resolution other than the default of 1 minute. Imports store
+     * the fixed resolutions from 1 second to 1 hour, as well as the resolutions that split the
+     * test into 100 and into 600 frames.
+     *
+     * @param logId The log identifier
+     * @param labelId The sample label identifier
+     * @param spanMillis The time each bin of the timeseries spans
+     * @return The timeseries if found, or null otherwise.
+     */
+    public Timeseries getTimeseries(long logId, long labelId, long spanMillis);
+
+    public Timeseries getTimeseries(long logId, long labelId, Timing timing, long spanMillis);
+
     /**
      * Retrieves a specific code count for a given log, label, and spansize.
      *
@@ -70,6 +113,14 @@ public interface StatsService {
 
     public void createOrUpdatePercentiles(long logId, long labelId, Percentiles percentiles);
 
+    public void createOrUpdateAggregate(long logId, long labelId, Timing timing, Stats aggregate);
+
+    public void createOrUpdateTimeseries(long logId, long labelId, Timing timing, Timeseries timeseries);
+
+    public void createOrUpdateHistogram(long logId, long labelId, Timing timing, Histogram histogram);
+
+    public void createOrUpdatePercentiles(long logId, long labelId, Timing timing, Percentiles percentiles);
+
     /**
      * Stores or updates the code counts for a given log, label, and spansize. The spansize is
      * looked up in the given codeCounts parameter. A spansize of 0 defines the aggregate code count
@@ -80,4 +131,26 @@ public interface StatsService {
      * @param codeCounts The count of status codes, including spansize.
      */
     public void createOrUpdateCodeCounts(long logId, long labelId, CodeCounts codeCounts);
+
+    /**
+     * Stores the histograms of the finest time bins of a label, replacing any already stored for
+     * it, so that the stats of any window of time can be made later without the samples.
+     *
+     * @param logId The log identifier
+     * @param labelId The sample label identifier
+     * @param bins The bins with samples, in any order
+     */
+    public void createOrUpdateBinHistograms(long logId, long labelId, List<BinHistogram> bins);
+
+    /**
+     * Retrieves the histograms of the time bins of some labels that start within a window.
+     *
+     * @param logId The log identifier
+     * @param labelIds The sample label identifiers
+     * @param fromMillis The start of the window, inclusive
+     * @param toMillis The end of the window, exclusive
+     * @return The bins, ordered by offset, or empty if there are none, such as for logs imported
+     * before the bins were stored.
+     */
+    public List<BinHistogram> getBinHistograms(long logId, Collection<Long> labelIds, long fromMillis, long toMillis);
 }
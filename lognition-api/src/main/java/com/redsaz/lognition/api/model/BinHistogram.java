@@ -0,0 +1,123 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.api.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * What is needed to add the samples of one time bin of a label to those of other bins and labels,
+ * without the samples themselves. The elapsed times are kept in a compressed HdrHistogram, and
+ * the rest of the stats are kept as exact totals, so that the stats of any window of time can be
+ * made from the bins within it.
+ * <p>
+ * Only bins with at least one sample are kept.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class BinHistogram {
+
+    private final long offsetMillis;
+    private final long spanMillis;
+    private final long numSamples;
+    private final long min;
+    private final long max;
+    private final long totalDuration;
+    private final long totalResponseBytes;
+    private final long numErrors;
+    private final byte[] histogram;
+
+    /**
+     * @param inOffsetMillis when the bin starts, from the start of the test
+     * @param inSpanMillis how long the bin is
+     * @param inNumSamples how many samples are in the bin, at least 1
+     * @param inMin the shortest elapsed time
+     * @param inMax the longest elapsed time
+     * @param inTotalDuration the elapsed times added together
+     * @param inTotalResponseBytes the response sizes added together
+     * @param inNumErrors how many samples failed
+     * @param inHistogram the elapsed times, as a compressed HdrHistogram
+     */
+    @JsonCreator
+    public BinHistogram(
+            @JsonProperty("offsetMillis") long inOffsetMillis,
+            @JsonProperty("spanMillis") long inSpanMillis,
+            @JsonProperty("numSamples") long inNumSamples,
+            @JsonProperty("min") long inMin,
+            @JsonProperty("max") long inMax,
+            @JsonProperty("totalDuration") long inTotalDuration,
+            @JsonProperty("totalResponseBytes") long inTotalResponseBytes,
+            @JsonProperty("numErrors") long inNumErrors,
+            @JsonProperty("histogram") byte[] inHistogram) {
+        if (inHistogram == null) {
+            throw new NullPointerException("The histogram of a bin must be specified.");
+        }
+        offsetMillis = inOffsetMillis;
+        spanMillis = inSpanMillis;
+        numSamples = inNumSamples;
+        min = inMin;
+        max = inMax;
+        totalDuration = inTotalDuration;
+        totalResponseBytes = inTotalResponseBytes;
+        numErrors = inNumErrors;
+        histogram = inHistogram.clone();
+    }
+
+    public long getOffsetMillis() {
+        return offsetMillis;
+    }
+
+    public long getSpanMillis() {
+        return spanMillis;
+    }
+
+    public long getNumSamples() {
+        return numSamples;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getTotalDuration() {
+        return totalDuration;
+    }
+
+    public long getTotalResponseBytes() {
+        return totalResponseBytes;
+    }
+
+    public long getNumErrors() {
+        return numErrors;
+    }
+
+    /**
+     * @return a copy of the compressed HdrHistogram of the elapsed times.
+     */
+    public byte[] getHistogram() {
+        return histogram.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "offsetMillis=" + offsetMillis + " spanMillis=" + spanMillis
+                + " numSamples=" + numSamples + " histogramBytes=" + histogram.length;
+    }
+}
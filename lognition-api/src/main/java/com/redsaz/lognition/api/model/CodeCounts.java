@@ -15,14 +15,14 @@
  */
 package com.redsaz.lognition.api.model;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 
 /**
  * Stores an immutable count of how many times different status codes appear, grouped by time
@@ -34,6 +34,9 @@ import java.util.Set;
  * This structure can be used for both aggregate data (a count of codes across the entire run) and
  * timeseries data (a count of codes, grouped into time slices). The way to do the aggregate form is
  * to specify a timespan of the length of the entire run, and have a single bin of all the counts.
+ * <p>
+ * The counts are kept in a single array, bin after bin, rather than as lists of boxed integers.
+ * {@link #getCounts()} gives a read-only view of them as lists.
  *
  * @author Redsaz <redsaz@gmail.com>
  */
@@ -41,13 +44,40 @@ public class CodeCounts {
 
     private final long spanMs;
     private final List<String> codes;
-    // int[bins][codes]
-    private final List<List<Integer>> counts;
+    // [bin * codes.size() + code]
+    private final int[] counts;
+    private final int numBins;
+    private final List<List<Integer>> countsView = new CountsView();
 
     public CodeCounts(long spanMillis, List<String> codeList, List<List<Integer>> codeCounts) {
         spanMs = spanMillis;
         codes = Collections.unmodifiableList(new ArrayList<>(codeList));
-        counts = twoDCopy(codeCounts);
+        numBins = codeCounts.size();
+        int numCodes = codes.size();
+        counts = new int[numBins * numCodes];
+        for (int bin = 0; bin < numBins; ++bin) {
+            List<Integer> binCounts = codeCounts.get(bin);
+            if (binCounts.size() != numCodes) {
+                throw new IllegalArgumentException("Bin " + bin + " has " + binCounts.size()
+                        + " counts, but there are " + numCodes + " codes.");
+            }
+            for (int code = 0; code < numCodes; ++code) {
+                counts[bin * numCodes + code] = binCounts.get(code);
+            }
+        }
+    }
+
+    /**
+     * @param spanMillis the time each bin spans
+     * @param codeList the codes, already copied and unmodifiable
+     * @param codeCounts the counts of each bin in turn, not copied
+     * @param binCount how many bins there are
+     */
+    private CodeCounts(long spanMillis, List<String> codeList, int[] codeCounts, int binCount) {
+        spanMs = spanMillis;
+        codes = codeList;
+        counts = codeCounts;
+        numBins = binCount;
     }
 
     public long getSpanMillis() {
@@ -58,8 +88,28 @@ public class CodeCounts {
         return codes;
     }
 
+    /**
+     * @return by bin, the count of each code. The lists are read-only views of the counts.
+     */
     public List<List<Integer>> getCounts() {
-        return counts;
+        return countsView;
+    }
+
+    public int getNumBins() {
+        return numBins;
+    }
+
+    /**
+     * @param bin which bin
+     * @param codeIndex the index of the code in {@link #getCodes()}
+     * @return how many times the code appears in the bin.
+     */
+    public int getCount(int bin, int codeIndex) {
+        if (bin < 0 || bin >= numBins || codeIndex < 0 || codeIndex >= codes.size()) {
+            throw new IndexOutOfBoundsException("bin=" + bin + " codeIndex=" + codeIndex
+                    + " but there are " + numBins + " bins and " + codes.size() + " codes.");
+        }
+        return counts[bin * codes.size() + codeIndex];
     }
 
     /**
@@ -82,78 +132,156 @@ public class CodeCounts {
         }
         // If the new code list is empty, then return an empty CodeCounts.
         // Or, if our CodeCounts is empty (no codes and no bins), then return an empty CodeCounts.
-        if (codeList.isEmpty() || (codes.isEmpty() && counts.isEmpty())) {
+        if (codeList.isEmpty() || (codes.isEmpty() && numBins == 0)) {
             return new CodeCounts(this.getSpanMillis(), Collections.emptyList(), Collections.emptyList());
         }
 
-        // Since counts are stored [bin][counts], this means we're rearranging the counts based on
-        // the new positions of the codes (it is stored in lexicographical order), and must repeat
-        // that for every bin.
-        // (If it was stored [counts][bin], then it'd be a matter of finding the index and grabbing
-        // the bin list once per code, but this is not the case here.)
-        //
-        // The algorithm is to go through every code in the current CodeCount, and find its position
-        // in the given codeList (or -1 if not in the given codeList). These are put into a list in
-        // the order of the current CodeCount.
-        // So if the original index is 0, but the new is 1, then newIdx[0] == 1. Or, if the
-        // original index was 1, but the new counts won't have that code, then newIdx[1] == -1.
-        List<Integer> newIdx = new ArrayList<>(codes.size());
-        for (String code : codes) {
-            int newPos = codeList.indexOf(code);
-
-            newIdx.add(newPos);
+        // Find where each of our codes goes in the new code list, or -1 if it is dropped. The
+        // positions are looked up once, rather than searching the list for every code.
+        Map<String, Integer> newPositions = new HashMap<>();
+        for (int i = 0; i < codeList.size(); ++i) {
+            newPositions.putIfAbsent(codeList.get(i), i);
+        }
+        int[] newIdx = new int[codes.size()];
+        for (int i = 0; i < newIdx.length; ++i) {
+            newIdx[i] = newPositions.getOrDefault(codes.get(i), -1);
         }
 
-        // Next, for each bin, we create a new 0-filled list, and copy the values from the original
-        // list for the bin into the new one.
+        // Then copy each bin's counts to their new positions. Codes that are new stay at 0.
+        int oldSize = codes.size();
         int newSize = codeList.size();
-        List<List<Integer>> newCounts = new ArrayList<>(counts.size());
-        for (List<Integer> bin : counts) {
-            List<Integer> newBin = new ArrayList<>(Collections.nCopies(newSize, 0));
-
-            for (int i = 0; i < newIdx.size(); ++i) {
-                int newPos = newIdx.get(i);
-                if (newPos >= 0) {
-                    newBin.set(newPos, bin.get(i));
+        int[] newCounts = new int[numBins * newSize];
+        for (int bin = 0; bin < numBins; ++bin) {
+            for (int i = 0; i < oldSize; ++i) {
+                if (newIdx[i] >= 0) {
+                    newCounts[bin * newSize + newIdx[i]] = counts[bin * oldSize + i];
                 }
             }
+        }
 
-            newCounts.add(newBin);
+        return new CodeCounts(spanMs, Collections.unmodifiableList(new ArrayList<>(codeList)),
+                newCounts, numBins);
+    }
+
+    private class CountsView extends AbstractList<List<Integer>> {
+
+        @Override
+        public List<Integer> get(int bin) {
+            if (bin < 0 || bin >= numBins) {
+                throw new IndexOutOfBoundsException("bin=" + bin + " but there are " + numBins + " bins.");
+            }
+            return new BinView(bin * codes.size());
         }
 
-        return new CodeCounts(spanMs, codeList, newCounts);
+        @Override
+        public int size() {
+            return numBins;
+        }
     }
 
-    private static List<List<Integer>> twoDCopy(List<List<Integer>> arry) {
-        List<List<Integer>> result = new ArrayList<>(arry.size());
+    private class BinView extends AbstractList<Integer> {
+
+        private final int start;
 
-        arry.stream()
-                .forEachOrdered(c -> result.add(
-                Collections.unmodifiableList(new ArrayList<>(c))
-        ));
+        BinView(int binStart) {
+            start = binStart;
+        }
 
-        return Collections.unmodifiableList(result);
+        @Override
+        public Integer get(int codeIndex) {
+            if (codeIndex < 0 || codeIndex >= codes.size()) {
+                throw new IndexOutOfBoundsException("codeIndex=" + codeIndex + " but there are " + codes.size() + " codes.");
+            }
+            return counts[start + codeIndex];
+        }
+
+        @Override
+        public int size() {
+            return codes.size();
+        }
     }
 
+    /**
+     * Counts the codes of each bin in turn. Each code is given a slot the first time it is seen,
+     * and the counts are kept in arrays by slot, so counting does not create any objects once the
+     * arrays are large enough. For counting many samples, look up the slot of each code once with
+     * {@link #slot(String)}, and then count by slot.
+     */
     public static class Builder {
 
         private final long spanMs;
-        private final Set<String> codes = new HashSet<>();
-        private Map<String, Integer> currentBin = new HashMap<>();
-        private final List<Map<String, Integer>> binsOfCodeCounts
-                = new ArrayList<>();
+        private final Map<String, Integer> slots = new HashMap<>();
+        private final List<String> slotCodes = new ArrayList<>();
+        // by slot, whether the code is in a committed bin.
+        private boolean[] committed = new boolean[16];
+        // by slot, the counts of the current bin, and whether the code was counted in it.
+        private int[] currentBin = new int[16];
+        private boolean[] touched = new boolean[16];
+        // The committed bins, one after another. Each bin has as many counts as there were slots
+        // when it was committed.
+        private int[] bins = new int[64];
+        private int binsLength;
+        // by bin, where it starts in bins. The bin ends where the next one starts.
+        private int[] binStarts = new int[16];
+        private int numBins;
 
         public Builder(long spanMillis) {
             spanMs = spanMillis;
         }
 
-        public Builder increment(String code) {
+        /**
+         * Gives the slot of a code, adding it if it has not been seen. A code only appears in the
+         * built counts if it is counted in a committed bin.
+         *
+         * @param code the status code
+         * @return the slot to count the code in.
+         */
+        public int slot(String code) {
             if (Objects.requireNonNull(code).isEmpty()) {
                 throw new NullPointerException("Code cannot be null or empty.");
             }
+            Integer slot = slots.get(code);
+            if (slot == null) {
+                slot = slotCodes.size();
+                slotCodes.add(code);
+                slots.put(code, slot);
+                if (slot == currentBin.length) {
+                    int newLength = currentBin.length * 2;
+                    currentBin = Arrays.copyOf(currentBin, newLength);
+                    touched = Arrays.copyOf(touched, newLength);
+                    committed = Arrays.copyOf(committed, newLength);
+                }
+            }
+            return slot;
+        }
 
-            currentBin.merge(code, 1, (oldValue, u) -> oldValue + 1);
+        public Builder increment(String code) {
+            return increment(code, 1);
+        }
 
+        /**
+         * Adds to the count of a code in the current bin, for when the samples were already
+         * counted by code.
+         *
+         * @param code the status code
+         * @param count how many more samples have the code
+         */
+        public Builder increment(String code, int count) {
+            return incrementSlot(slot(code), count);
+        }
+
+        /**
+         * Adds to the count of a code in the current bin.
+         *
+         * @param slot the slot of the code, from {@link #slot(String)}
+         * @param count how many more samples have the code
+         */
+        public Builder incrementSlot(int slot, int count) {
+            if (slot < 0 || slot >= slotCodes.size()) {
+                throw new IndexOutOfBoundsException("slot=" + slot + " but there are " + slotCodes.size() + " codes.");
+            }
+            currentBin[slot] += count;
+            touched[slot] = true;
             return this;
         }
 
@@ -161,36 +289,53 @@ public class CodeCounts {
          * Commits the current bin of counts and prepares a new bin of counts.
          */
         public Builder commitBin() {
-            codes.addAll(currentBin.keySet());
-            binsOfCodeCounts.add(currentBin);
-            currentBin = new HashMap<>();
+            int numSlots = slotCodes.size();
+            if (numBins == binStarts.length) {
+                binStarts = Arrays.copyOf(binStarts, numBins * 2);
+            }
+            if (binsLength + numSlots > bins.length) {
+                bins = Arrays.copyOf(bins, Math.max(bins.length * 2, binsLength + numSlots));
+            }
+            binStarts[numBins++] = binsLength;
+            System.arraycopy(currentBin, 0, bins, binsLength, numSlots);
+            binsLength += numSlots;
+            for (int slot = 0; slot < numSlots; ++slot) {
+                committed[slot] |= touched[slot];
+            }
+            Arrays.fill(currentBin, 0, numSlots, 0);
+            Arrays.fill(touched, 0, numSlots, false);
 
             return this;
         }
 
         public CodeCounts build() {
-            List<String> orderedCodes = new ArrayList<>(codes);
+            List<String> orderedCodes = new ArrayList<>(slotCodes.size());
+            for (int slot = 0; slot < slotCodes.size(); ++slot) {
+                if (committed[slot]) {
+                    orderedCodes.add(slotCodes.get(slot));
+                }
+            }
             Collections.sort(orderedCodes);
-            Map<String, Integer> lookup = new HashMap<>();
-            for (int i = 0; i < orderedCodes.size(); ++i) {
-                lookup.put(orderedCodes.get(i), i);
+            int numCodes = orderedCodes.size();
+            int[] codeIndexOfSlot = new int[slotCodes.size()];
+            Arrays.fill(codeIndexOfSlot, -1);
+            for (int i = 0; i < numCodes; ++i) {
+                codeIndexOfSlot[slots.get(orderedCodes.get(i))] = i;
             }
 
-            List<List<Integer>> bins = new ArrayList<>(binsOfCodeCounts.size());
-            for (int i = 0; i < binsOfCodeCounts.size(); ++i) {
-                // Create a new bin of code counts, with all counts initialized to 0.
-                ArrayList<Integer> binCodes
-                        = new ArrayList<Integer>(Collections.nCopies(orderedCodes.size(), 0));
-                bins.add(binCodes);
-                // Insert each count into the position of the list for the code.
-                binsOfCodeCounts.get(i).entrySet().stream()
-                        .forEachOrdered(e -> {
-                            int codeIndex = lookup.get(e.getKey());
-                            binCodes.set(codeIndex, e.getValue());
-                        });
+            int[] counts = new int[numBins * numCodes];
+            for (int bin = 0; bin < numBins; ++bin) {
+                int start = binStarts[bin];
+                int end = bin + 1 < numBins ? binStarts[bin + 1] : binsLength;
+                for (int slot = 0; slot < end - start; ++slot) {
+                    int codeIndex = codeIndexOfSlot[slot];
+                    if (codeIndex >= 0) {
+                        counts[bin * numCodes + codeIndex] = bins[start + slot];
+                    }
+                }
             }
 
-            return new CodeCounts(spanMs, orderedCodes, bins);
+            return new CodeCounts(spanMs, Collections.unmodifiableList(orderedCodes), counts, numBins);
         }
     }
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.api.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The rows of a log that were skipped when it was imported, because they could not be converted
+ * into samples. Every skipped row is counted, but only the first few are kept as examples.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class ImportDiagnostics {
+
+    public static enum Problem {
+        /**
+         * The row has more or fewer columns than the header, such as when the row was cut short.
+         */
+        WRONG_COLUMN_COUNT,
+        /**
+         * A column that must be a number has something else in it.
+         */
+        BAD_NUMBER,
+        /**
+         * A column that must have a value is empty.
+         */
+        MISSING_REQUIRED_FIELD
+    }
+
+    private final long logId;
+    private final long wrongColumnCount;
+    private final long badNumberCount;
+    private final long missingRequiredFieldCount;
+    private final List<BadRow> examples;
+
+    @JsonCreator
+    public ImportDiagnostics(
+            @JsonProperty("logId") long inLogId,
+            @JsonProperty("wrongColumnCount") long inWrongColumnCount,
+            @JsonProperty("badNumberCount") long inBadNumberCount,
+            @JsonProperty("missingRequiredFieldCount") long inMissingRequiredFieldCount,
+            @JsonProperty("examples") List<BadRow> inExamples) {
+        logId = inLogId;
+        wrongColumnCount = inWrongColumnCount;
+        badNumberCount = inBadNumberCount;
+        missingRequiredFieldCount = inMissingRequiredFieldCount;
+        if (inExamples == null) {
+            examples = Collections.emptyList();
+        } else {
+            examples = Collections.unmodifiableList(new ArrayList<>(inExamples));
+        }
+    }
+
+    /**
+     * @param logId the log that was imported
+     * @return the diagnostics of a log that had no rows skipped.
+     */
+    public static ImportDiagnostics none(long logId) {
+        return new ImportDiagnostics(logId, 0L, 0L, 0L, null);
+    }
+
+    public long getLogId() {
+        return logId;
+    }
+
+    public long getWrongColumnCount() {
+        return wrongColumnCount;
+    }
+
+    public long getBadNumberCount() {
+        return badNumberCount;
+    }
+
+    public long getMissingRequiredFieldCount() {
+        return missingRequiredFieldCount;
+    }
+
+    /**
+     * @param problem the kind of problem
+     * @return how many rows were skipped because of the problem.
+     */
+    public long getCount(Problem problem) {
+        switch (problem) {
+            case WRONG_COLUMN_COUNT:
+                return wrongColumnCount;
+            case BAD_NUMBER:
+                return badNumberCount;
+            case MISSING_REQUIRED_FIELD:
+                return missingRequiredFieldCount;
+            default:
+                throw new IllegalArgumentException("Unknown problem " + problem);
+        }
+    }
+
+    /**
+     * @return how many rows were skipped for any problem.
+     */
+    @JsonIgnore
+    public long getTotal() {
+        return wrongColumnCount + badNumberCount + missingRequiredFieldCount;
+    }
+
+    /**
+     * @return the first few of the skipped rows, in the order they were found.
+     */
+    public List<BadRow> getExamples() {
+        return examples;
+    }
+
+    @Override
+    public String toString() {
+        return "log_id=" + logId
+                + " wrongColumnCount=" + wrongColumnCount
+                + " badNumberCount=" + badNumberCount
+                + " missingRequiredFieldCount=" + missingRequiredFieldCount
+                + " examples=" + examples.size();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(logId, wrongColumnCount, badNumberCount, missingRequiredFieldCount, examples);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        } else if (obj == null) {
+            return false;
+        } else if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final ImportDiagnostics other = (ImportDiagnostics) obj;
+        return this.logId == other.logId
+                && this.wrongColumnCount == other.wrongColumnCount
+                && this.badNumberCount == other.badNumberCount
+                && this.missingRequiredFieldCount == other.missingRequiredFieldCount
+                && Objects.equals(this.examples, other.examples);
+    }
+
+    /**
+     * A row that was skipped, and why.
+     */
+    public static class BadRow {
+
+        private final Problem problem;
+        private final String detail;
+        private final String contents;
+
+        @JsonCreator
+        public BadRow(
+                @JsonProperty("problem") Problem inProblem,
+                @JsonProperty("detail") String inDetail,
+                @JsonProperty("contents") String inContents) {
+            problem = inProblem;
+            detail = inDetail;
+            contents = inContents;
+        }
+
+        public Problem getProblem() {
+            return problem;
+        }
+
+        /**
+         * @return what was wrong with the row, such as which column could not be converted.
+         */
+        public String getDetail() {
+            return detail;
+        }
+
+        /**
+         * @return the row as it was read, which may be shortened if it was long.
+         */
+        public String getContents() {
+            return contents;
+        }
+
+        @Override
+        public String toString() {
+            return problem + ": " + detail + ": " + contents;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(problem, detail, contents);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (obj == null) {
+                return false;
+            } else if (getClass() != obj.getClass()) {
+                return false;
+            }
+            final BadRow other = (BadRow) obj;
+            return this.problem == other.problem
+                    && Objects.equals(this.detail, other.detail)
+                    && Objects.equals(this.contents, other.contents);
+        }
+    }
+}
@@ -27,15 +27,22 @@ public class ImportInfo {
     private final long id;
     private final String importedFilename;
     private final long uploadedUtcMillis;
+    private final int importAttempts;
+
+    public ImportInfo(long inId, String inImportedFilename, long inUploadedUtcMillis) {
+        this(inId, inImportedFilename, inUploadedUtcMillis, 0);
+    }
 
     @JsonCreator
     public ImportInfo(
             @JsonProperty("id") long inId,
             @JsonProperty("importedFilename") String inImportedFilename,
-            @JsonProperty("uploadedUtcMillis") long inUploadedUtcMillis) {
+            @JsonProperty("uploadedUtcMillis") long inUploadedUtcMillis,
+            @JsonProperty("importAttempts") int inImportAttempts) {
         id = inId;
         importedFilename = inImportedFilename;
         uploadedUtcMillis = inUploadedUtcMillis;
+        importAttempts = inImportAttempts;
     }
 
     public long getId() {
@@ -50,16 +57,24 @@ public class ImportInfo {
         return uploadedUtcMillis;
     }
 
+    /**
+     * @return how many times importing the file has been started, including one in progress.
+     */
+    public int getImportAttempts() {
+        return importAttempts;
+    }
+
     @Override
     public String toString() {
         return "imported_id=" + id
                 + " importedFilename=" + importedFilename
-                + " uploadedUtcMillis=" + uploadedUtcMillis;
+                + " uploadedUtcMillis=" + uploadedUtcMillis
+                + " importAttempts=" + importAttempts;
     }
 
     @Override
     public int hashCode() {
-        return Long.hashCode(id) ^ Long.hashCode(uploadedUtcMillis)
+        return Long.hashCode(id) ^ Long.hashCode(uploadedUtcMillis) ^ importAttempts
                 ^ Objects.hash(importedFilename);
     }
 
@@ -75,6 +90,7 @@ public class ImportInfo {
         final ImportInfo other = (ImportInfo) obj;
         return this.id == other.id
                 && this.uploadedUtcMillis == other.uploadedUtcMillis
+                && this.importAttempts == other.importAttempts
                 && Objects.equals(this.importedFilename, other.importedFilename);
     }
 }
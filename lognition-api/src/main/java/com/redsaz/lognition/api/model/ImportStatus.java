@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.api.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.Objects;
+
+/**
+ * Where an uploaded file is in the import queue, and how long it has waited there.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class ImportStatus {
+
+    public static enum State {
+        QUEUED, IMPORTING
+    }
+
+    private final long id;
+    private final String importedFilename;
+    private final State state;
+    private final long sizeBytes;
+    private final int position;
+    private final int queueDepth;
+    private final long queuedUtcMillis;
+    private final long waitMillis;
+
+    @JsonCreator
+    public ImportStatus(
+            @JsonProperty("id") long inId,
+            @JsonProperty("importedFilename") String inImportedFilename,
+            @JsonProperty("state") State inState,
+            @JsonProperty("sizeBytes") long inSizeBytes,
+            @JsonProperty("position") int inPosition,
+            @JsonProperty("queueDepth") int inQueueDepth,
+            @JsonProperty("queuedUtcMillis") long inQueuedUtcMillis,
+            @JsonProperty("waitMillis") long inWaitMillis) {
+        id = inId;
+        importedFilename = inImportedFilename;
+        state = inState;
+        sizeBytes = inSizeBytes;
+        position = inPosition;
+        queueDepth = inQueueDepth;
+        queuedUtcMillis = inQueuedUtcMillis;
+        waitMillis = inWaitMillis;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getImportedFilename() {
+        return importedFilename;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * @return how many queued imports will start before this one, or -1 if already importing.
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return how many imports were waiting in the queue, including this one if queued.
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public long getQueuedUtcMillis() {
+        return queuedUtcMillis;
+    }
+
+    /**
+     * @return how long the import has waited so far if queued, or how long it waited before
+     * starting if importing.
+     */
+    public long getWaitMillis() {
+        return waitMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "imported_id=" + id
+                + " importedFilename=" + importedFilename
+                + " state=" + state
+                + " sizeBytes=" + sizeBytes
+                + " position=" + position
+                + " queueDepth=" + queueDepth
+                + " queuedUtcMillis=" + queuedUtcMillis
+                + " waitMillis=" + waitMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id) ^ Long.hashCode(queuedUtcMillis) ^ Long.hashCode(waitMillis)
+                ^ Objects.hash(importedFilename, state, sizeBytes, position, queueDepth);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        } else if (obj == null) {
+            return false;
+        } else if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final ImportStatus other = (ImportStatus) obj;
+        return this.id == other.id
+                && this.sizeBytes == other.sizeBytes
+                && this.position == other.position
+                && this.queueDepth == other.queueDepth
+                && this.queuedUtcMillis == other.queuedUtcMillis
+                && this.waitMillis == other.waitMillis
+                && this.state == other.state
+                && Objects.equals(this.importedFilename, other.importedFilename);
+    }
+}
@@ -131,6 +131,7 @@ public class Log {
         QUEUED,
         IMPORTING,
         IMPORT_FAILED,
-        COMPLETE
+        COMPLETE,
+        LIVE
     }
 }
@@ -13,6 +13,13 @@ public class Sample implements Comparable<Sample> {
     private boolean success;
     private long responseBytes;
     private int totalThreads;
+    private String generator;
+    private String url;
+    // The timings and sent bytes are -1 when not known, such as when the JTL did not have them.
+    private long latency = -1L;
+    private long connect = -1L;
+    private long sentBytes = -1L;
+    private long idleTime = -1L;
 
     public Sample() {
     }
@@ -205,6 +212,118 @@ public class Sample implements Comparable<Sample> {
         this.totalThreads = value;
     }
 
+    /**
+     * Gets the value of the 'generator' field, which is the load generator that took the sample,
+     * or null if not known.
+     *
+     * @return The value of the 'generator' field.
+     */
+    public String getGenerator() {
+        return generator;
+    }
+
+    /**
+     * Sets the value of the 'generator' field.
+     *
+     * @param value the value to set.
+     */
+    public void setGenerator(String value) {
+        this.generator = value;
+    }
+
+    /**
+     * Gets the value of the 'url' field, or null if not known.
+     *
+     * @return The value of the 'url' field.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Sets the value of the 'url' field.
+     *
+     * @param value the value to set.
+     */
+    public void setUrl(String value) {
+        this.url = value;
+    }
+
+    /**
+     * Gets the value of the 'latency' field, which is the time in milliseconds until the first
+     * byte of the response, or -1 if not known.
+     *
+     * @return The value of the 'latency' field.
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+    /**
+     * Sets the value of the 'latency' field.
+     *
+     * @param value the value to set.
+     */
+    public void setLatency(long value) {
+        this.latency = value;
+    }
+
+    /**
+     * Gets the value of the 'connect' field, which is the time in milliseconds to establish the
+     * connection, or -1 if not known.
+     *
+     * @return The value of the 'connect' field.
+     */
+    public long getConnect() {
+        return connect;
+    }
+
+    /**
+     * Sets the value of the 'connect' field.
+     *
+     * @param value the value to set.
+     */
+    public void setConnect(long value) {
+        this.connect = value;
+    }
+
+    /**
+     * Gets the value of the 'sentBytes' field, or -1 if not known.
+     *
+     * @return The value of the 'sentBytes' field.
+     */
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * Sets the value of the 'sentBytes' field.
+     *
+     * @param value the value to set.
+     */
+    public void setSentBytes(long value) {
+        this.sentBytes = value;
+    }
+
+    /**
+     * Gets the value of the 'idleTime' field, which is the time in milliseconds of the sample
+     * that was not spent sampling, or -1 if not known.
+     *
+     * @return The value of the 'idleTime' field.
+     */
+    public long getIdleTime() {
+        return idleTime;
+    }
+
+    /**
+     * Sets the value of the 'idleTime' field.
+     *
+     * @param value the value to set.
+     */
+    public void setIdleTime(long value) {
+        this.idleTime = value;
+    }
+
     @Override
     public int compareTo(Sample obj) {
         if (this == obj) {
@@ -262,7 +381,39 @@ public class Sample implements Comparable<Sample> {
         } else if (this.totalThreads > obj.totalThreads) {
             return 1;
         }
-        return 0;
+        if (this.generator == null && obj.generator != null) {
+            return -1;
+        } else if (this.generator != null && obj.generator == null) {
+            return 1;
+        } else if (this.generator != null) {
+            comp = this.generator.compareTo(obj.generator);
+            if (comp != 0) {
+                return comp;
+            }
+        }
+        if (this.url == null && obj.url != null) {
+            return -1;
+        } else if (this.url != null && obj.url == null) {
+            return 1;
+        } else if (this.url != null) {
+            comp = this.url.compareTo(obj.url);
+            if (comp != 0) {
+                return comp;
+            }
+        }
+        comp = Long.compare(this.latency, obj.latency);
+        if (comp != 0) {
+            return comp;
+        }
+        comp = Long.compare(this.connect, obj.connect);
+        if (comp != 0) {
+            return comp;
+        }
+        comp = Long.compare(this.sentBytes, obj.sentBytes);
+        if (comp != 0) {
+            return comp;
+        }
+        return Long.compare(this.idleTime, obj.idleTime);
     }
 
     @Override
@@ -277,6 +428,12 @@ public class Sample implements Comparable<Sample> {
         hash = 47 * hash + (this.success ? 1 : 0);
         hash = 47 * hash + (int) (this.responseBytes ^ (this.responseBytes >>> 32));
         hash = 47 * hash + Objects.hashCode(this.totalThreads);
+        hash = 47 * hash + Objects.hashCode(this.generator);
+        hash = 47 * hash + Objects.hashCode(this.url);
+        hash = 47 * hash + Long.hashCode(this.latency);
+        hash = 47 * hash + Long.hashCode(this.connect);
+        hash = 47 * hash + Long.hashCode(this.sentBytes);
+        hash = 47 * hash + Long.hashCode(this.idleTime);
         return hash;
     }
 
@@ -319,6 +476,24 @@ public class Sample implements Comparable<Sample> {
         if (!Objects.equals(this.totalThreads, other.totalThreads)) {
             return false;
         }
+        if (!Objects.equals(this.generator, other.generator)) {
+            return false;
+        }
+        if (!Objects.equals(this.url, other.url)) {
+            return false;
+        }
+        if (this.latency != other.latency) {
+            return false;
+        }
+        if (this.connect != other.connect) {
+            return false;
+        }
+        if (this.sentBytes != other.sentBytes) {
+            return false;
+        }
+        if (this.idleTime != other.idleTime) {
+            return false;
+        }
         return true;
     }
 
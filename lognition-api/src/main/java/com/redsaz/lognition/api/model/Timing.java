@@ -0,0 +1,50 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.api.model;
+
+/**
+ * The times of a sample that stats are kept for. The elapsed time is the whole sample, the latency
+ * is until the first byte of the response, and connect is how long the connection took to
+ * establish, which is part of the latency.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public enum Timing {
+    ELAPSED {
+        @Override
+        public long of(Sample sample) {
+            return sample.getDuration();
+        }
+    },
+    LATENCY {
+        @Override
+        public long of(Sample sample) {
+            return sample.getLatency();
+        }
+    },
+    CONNECT {
+        @Override
+        public long of(Sample sample) {
+            return sample.getConnect();
+        }
+    };
+
+    /**
+     * @param sample the sample to get the time of
+     * @return the time in milliseconds, or -1 if the sample does not have it.
+     */
+    public abstract long of(Sample sample);
+}
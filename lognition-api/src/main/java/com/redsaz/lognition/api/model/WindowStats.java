@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.api.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The stats of the samples of some labels of a log, within a window of time, such as from the
+ * end of the ramp-up to the start of the ramp-down. The window covers whole bins, those that
+ * start at or after the from offset and before the to offset.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class WindowStats {
+
+    private final long fromMillis;
+    private final long toMillis;
+    private final List<Long> labelIds;
+    private final Stats aggregate;
+    private final Histogram histogram;
+    private final Percentiles percentiles;
+
+    @JsonCreator
+    public WindowStats(
+            @JsonProperty("fromMillis") long inFromMillis,
+            @JsonProperty("toMillis") long inToMillis,
+            @JsonProperty("labelIds") List<Long> inLabelIds,
+            @JsonProperty("aggregate") Stats inAggregate,
+            @JsonProperty("histogram") Histogram inHistogram,
+            @JsonProperty("percentiles") Percentiles inPercentiles) {
+        fromMillis = inFromMillis;
+        toMillis = inToMillis;
+        if (inLabelIds == null) {
+            labelIds = Collections.emptyList();
+        } else {
+            labelIds = Collections.unmodifiableList(new ArrayList<>(inLabelIds));
+        }
+        aggregate = inAggregate;
+        histogram = inHistogram;
+        percentiles = inPercentiles;
+    }
+
+    /**
+     * @return the start of the window, inclusive, in milliseconds from the start of the test.
+     */
+    public long getFromMillis() {
+        return fromMillis;
+    }
+
+    /**
+     * @return the end of the window, exclusive, in milliseconds from the start of the test.
+     */
+    public long getToMillis() {
+        return toMillis;
+    }
+
+    /**
+     * @return the labels whose samples are included, where 0 is all of the samples.
+     */
+    public List<Long> getLabelIds() {
+        return labelIds;
+    }
+
+    public Stats getAggregate() {
+        return aggregate;
+    }
+
+    public Histogram getHistogram() {
+        return histogram;
+    }
+
+    public Percentiles getPercentiles() {
+        return percentiles;
+    }
+}
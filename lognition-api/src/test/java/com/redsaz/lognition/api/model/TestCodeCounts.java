@@ -78,6 +78,30 @@ public class TestCodeCounts {
         assertEquals("Incorrect spanMillis", 15000L, counts.getSpanMillis());
     }
 
+    @Test
+    public void testBuilder_bySlot() {
+        // Given codes looked up once, and counted by slot across several bins,
+        CodeCounts.Builder builder = new CodeCounts.Builder(1000L);
+        int notFound = builder.slot("404");
+        int ok = builder.slot("200");
+        assertEquals("A code seen before keeps its slot", ok, builder.slot("200"));
+        builder.incrementSlot(ok, 3).incrementSlot(notFound, 1).commitBin();
+        builder.commitBin();
+        builder.increment("503", 2).incrementSlot(ok, 1).commitBin();
+
+        // When the code counts are built,
+        CodeCounts counts = builder.build();
+
+        // then the codes are still in order, and bins committed before a code was first seen
+        // have a count of 0 for it.
+        assertEquals(Arrays.asList("200", "404", "503"), counts.getCodes());
+        assertEquals(3, counts.getNumBins());
+        assertEquals(Arrays.asList(3, 1, 0), counts.getCounts().get(0));
+        assertEquals(Arrays.asList(0, 0, 0), counts.getCounts().get(1));
+        assertEquals(Arrays.asList(1, 0, 2), counts.getCounts().get(2));
+        assertEquals(2, counts.getCount(2, 2));
+    }
+
     @Test
     public void testBuilder_oneBin() {
         CodeCounts.Builder builder = new CodeCounts.Builder(15000L);
@@ -298,6 +322,20 @@ public class TestCodeCounts {
         assertEquals("count for 400 shouldn't change", label1.getCounts().get(0).get(1), actual.getCounts().get(0).get(2));
     }
 
+    @Test
+    public void testNormalizeUsing_droppedAndReorderedCodes() {
+        // Given code counts for 200, 301 and 404 over two bins,
+        CodeCounts original = new CodeCounts(15000L, Arrays.asList("200", "301", "404"),
+                Arrays.asList(Arrays.asList(1, 2, 3), Arrays.asList(4, 5, 6)));
+
+        // When normalized to codes that leave one out, add one and change the order,
+        CodeCounts actual = original.normalizeUsing(Arrays.asList("404", "500", "200"));
+
+        // Then each bin has the counts of those codes in that order.
+        assertEquals(Arrays.asList("404", "500", "200"), actual.getCodes());
+        assertEquals(Arrays.asList(Arrays.asList(3, 0, 1), Arrays.asList(6, 0, 4)), actual.getCounts());
+    }
+
     @Test
     public void testNormalizeUsing_emptyCodesList() {
         // Given one CodeCounts with counts for 200 and 404,
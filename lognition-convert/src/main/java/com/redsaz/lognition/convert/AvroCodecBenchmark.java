@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.convert.model.HttpSample;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.specific.SpecificDatumReader;
+
+/**
+ * Writes and reads back the same JTL with each codec, and reports how many bytes each sample
+ * takes and how quickly samples are written and read, to help choose the codec and sync interval
+ * for a deployment. Best run on a large log from a real test.
+ * <p>
+ * Arguments: the JTL to use, then optionally the sync interval, then optionally the codecs to
+ * compare. For example: {@code real.jtl 64000 null deflate-1 deflate-6 snappy xz-6}
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class AvroCodecBenchmark {
+
+    private static final List<String> DEFAULT_CODECS = Arrays.asList(
+            "null", "deflate-1", "deflate-6", "deflate-9", "snappy", "bzip2", "xz-1", "xz-6");
+
+    // The first round of each codec warms up the JIT, and is not reported.
+    private static final int ROUNDS = 3;
+
+    private AvroCodecBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        File source = new File(args.length > 0 ? args[0] : "../lognition/jtls/target/real-550cps-1hour.jtl");
+        int syncInterval = args.length > 1 ? Integer.parseInt(args[1]) : AvroWriterSettings.DEFAULT_SYNC_INTERVAL;
+        List<String> codecs = args.length > 2 ? Arrays.asList(args).subList(2, args.length) : DEFAULT_CODECS;
+
+        CsvJtlSource samples = new CsvJtlSource(source);
+        samples.sort();
+        int numSamples = samples.size();
+        File dest = File.createTempFile("codec-benchmark-", ".avro");
+        try {
+            System.out.printf("%s: %d samples, %d bytes, sync interval %d%n",
+                    source, numSamples, source.length(), syncInterval);
+            System.out.printf("%-10s %12s %14s %16s %16s%n",
+                    "codec", "bytes", "bytes/sample", "write samples/s", "read samples/s");
+            for (String codec : codecs) {
+                AvroWriterSettings settings = new AvroWriterSettings.Builder()
+                        .codec(codec)
+                        .syncInterval(syncInterval)
+                        .build();
+                AvroSamplesWriter writer = new AvroSamplesWriter(settings);
+                long writeNanos = 0L;
+                long readNanos = 0L;
+                for (int round = 0; round < ROUNDS; ++round) {
+                    long startNanos = System.nanoTime();
+                    writer.write(samples, dest);
+                    long writtenNanos = System.nanoTime();
+                    long numRead = readAll(dest);
+                    long readDoneNanos = System.nanoTime();
+                    if (numRead != numSamples) {
+                        throw new IllegalStateException("Wrote " + numSamples + " samples with "
+                                + codec + " but read back " + numRead + ".");
+                    }
+                    if (round > 0) {
+                        writeNanos += writtenNanos - startNanos;
+                        readNanos += readDoneNanos - writtenNanos;
+                    }
+                }
+                int measured = ROUNDS - 1;
+                System.out.printf("%-10s %12d %14.2f %16.0f %16.0f%n",
+                        settings.getCodec(),
+                        dest.length(),
+                        (double) dest.length() / numSamples,
+                        perSecond(numSamples * (long) measured, writeNanos),
+                        perSecond(numSamples * (long) measured, readNanos));
+            }
+        } finally {
+            if (!dest.delete()) {
+                System.err.println("Could not delete " + dest);
+            }
+        }
+    }
+
+    private static long readAll(File avro) throws IOException {
+        DatumReader<HttpSample> datumReader = new SpecificDatumReader<>(HttpSample.class);
+        long numRead = 0L;
+        try (DataFileReader<HttpSample> reader = new DataFileReader<>(avro, datumReader)) {
+            HttpSample reuse = null;
+            while (reader.hasNext()) {
+                reuse = reader.next(reuse);
+                ++numRead;
+            }
+        }
+        return numRead;
+    }
+
+    private static double perSecond(long count, long nanos) {
+        return count * 1_000_000_000.0 / Math.max(1L, nanos);
+    }
+}
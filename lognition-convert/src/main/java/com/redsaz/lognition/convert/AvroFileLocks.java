@@ -0,0 +1,59 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.google.common.util.concurrent.Striped;
+import java.io.File;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * Locks for the Avro files of logs that are already written, so that a file is not replaced while
+ * it is being read. Anything that reads a log file by its path more than once, such as reading its
+ * block index and then its blocks, or sending it in a response, holds the read lock for as long as
+ * it reads. Anything that replaces or deletes the file holds the write lock.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class AvroFileLocks {
+
+    // Held only while in use, and shared by files whose paths hash the same, so this does not
+    // grow with the number of logs.
+    private static final Striped<ReadWriteLock> LOCKS = Striped.lazyWeakReadWriteLock(64);
+
+    private AvroFileLocks() {
+    }
+
+    /**
+     * @param avro the Avro file of a log
+     * @return the lock to hold while reading the file
+     */
+    public static Lock readLock(File avro) {
+        return lockOf(avro).readLock();
+    }
+
+    /**
+     * @param avro the Avro file of a log
+     * @return the lock to hold while replacing or deleting the file
+     */
+    public static Lock writeLock(File avro) {
+        return lockOf(avro).writeLock();
+    }
+
+    private static ReadWriteLock lockOf(File avro) {
+        return LOCKS.get(avro.getAbsolutePath());
+    }
+}
@@ -26,11 +26,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import org.apache.avro.file.DataFileWriter;
 import org.apache.avro.io.DatumWriter;
 import org.apache.avro.io.Encoder;
@@ -55,6 +51,19 @@ public class AvroSamplesWriter implements SamplesWriter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AvroSamplesWriter.class);
 
+    private final AvroWriterSettings avroSettings;
+
+    public AvroSamplesWriter() {
+        this(AvroWriterSettings.defaults());
+    }
+
+    /**
+     * @param avroSettings how the samples are compressed and blocked
+     */
+    public AvroSamplesWriter(AvroWriterSettings avroSettings) {
+        this.avroSettings = avroSettings;
+    }
+
     @Override
     public String write(Samples sourceSamples, File dest) throws IOException {
         String sha256Hash = null;
@@ -62,22 +71,31 @@ public class AvroSamplesWriter implements SamplesWriter {
             LOGGER.debug("File \"{}\" already exists. It will be replaced.", dest);
         }
         DatumWriter<HttpSample> httpSampleDatumWriter = new SpecificDatumWriter<>(HttpSample.class);
-        List<CharSequence> labels = createSortedList(sourceSamples.getLabels());
-        Map<CharSequence, Integer> labelLookup = createLookup(labels);
-        List<CharSequence> threadNames = createSortedList(sourceSamples.getThreadNames());
-        Map<CharSequence, Integer> threadNameLookup = createLookup(threadNames);
+        StringDictionary labels = createSortedDictionary(sourceSamples.getLabels());
+        StringDictionary threadNames = createSortedDictionary(sourceSamples.getThreadNames());
+        StringDictionary generators = createSortedDictionary(sourceSamples.getGenerators());
+        StringDictionary urls = createSortedDictionary(sourceSamples.getUrls());
         try (HashingOutputStream hos = new HashingOutputStream(Hashing.sha256(), new BufferedOutputStream(new FileOutputStream(dest)))) {
-            try (DataFileWriter<HttpSample> dataFileWriter = new DataFileWriter<>(httpSampleDatumWriter)) {
+            BlockIndex.Recorder blocks = new BlockIndex.Recorder(hos);
+            try (DataFileWriter<HttpSample> dataFileWriter = avroSettings.applyTo(new DataFileWriter<>(httpSampleDatumWriter))) {
                 dataFileWriter.setMeta("earliest", sourceSamples.getEarliestMillis());
                 dataFileWriter.setMeta("latest", sourceSamples.getLatestMillis());
-                dataFileWriter.setMeta("numRows", sourceSamples.getSamples().size());
+                dataFileWriter.setMeta("numRows", numRows(sourceSamples));
+
+                if (labels.size() > 0) {
+                    writeMetaStringArray(dataFileWriter, "labels", toUtf8(labels.values()));
+                }
+
+                if (threadNames.size() > 0) {
+                    writeMetaStringArray(dataFileWriter, "threadNames", toUtf8(threadNames.values()));
+                }
 
-                if (!labels.isEmpty()) {
-                    writeMetaStringArray(dataFileWriter, "labels", labels);
+                if (generators.size() > 0) {
+                    writeMetaStringArray(dataFileWriter, "generators", toUtf8(generators.values()));
                 }
 
-                if (!threadNames.isEmpty()) {
-                    writeMetaStringArray(dataFileWriter, "threadNames", threadNames);
+                if (urls.size() > 0) {
+                    writeMetaStringArray(dataFileWriter, "urls", toUtf8(urls.values()));
                 }
 
                 StatusCodeLookup statusCodeLookup = sourceSamples.getStatusCodeLookup();
@@ -87,54 +105,135 @@ public class AvroSamplesWriter implements SamplesWriter {
                     writeMetaStringArray(dataFileWriter, "codes", codes);
                     writeMetaStringArray(dataFileWriter, "messages", messages);
                 }
-                dataFileWriter.create(HttpSample.getClassSchema(), hos, SYNC);
-
-                long numRowsWritten = 0;
-                long writeStartMs = System.currentTimeMillis();
-                for (Sample presample : sourceSamples.getSamples()) {
-                    HttpSample httpSample = convert(presample, labelLookup, threadNameLookup,
-                            statusCodeLookup);
-                    dataFileWriter.append(httpSample);
-                    ++numRowsWritten;
-                    if (numRowsWritten % 1000000L == 0) {
-                        LOGGER.debug("{}ms to write {} of {} rows so far.",
-                                System.currentTimeMillis() - writeStartMs,
-                                numRowsWritten, sourceSamples.getSamples().size());
-                    }
+                findFieldPresence(sourceSamples).writeMeta(dataFileWriter);
+                dataFileWriter.create(HttpSample.getClassSchema(), blocks.getStream(), SYNC);
+                blocks.created();
+
+                if (sourceSamples instanceof ColumnarSamples) {
+                    writeColumns((ColumnarSamples) sourceSamples, dataFileWriter, blocks);
+                } else {
+                    writeSamples(sourceSamples, dataFileWriter, blocks, labels, threadNames,
+                            generators, urls, statusCodeLookup);
                 }
             }
             sha256Hash = hos.hash().toString();
+            blocks.finished().write(BlockIndex.indexFileFor(dest));
         }
         return sha256Hash;
     }
 
+    private static int numRows(Samples sourceSamples) {
+        if (sourceSamples instanceof ColumnarSamples) {
+            return ((ColumnarSamples) sourceSamples).size();
+        }
+        return sourceSamples.getSamples().size();
+    }
+
+    /**
+     * Finds which of the optional fields any of the samples use, from the values they will be
+     * written with.
+     */
+    private static FieldPresence findFieldPresence(Samples sourceSamples) {
+        FieldPresence presence = new FieldPresence();
+        if (sourceSamples instanceof ColumnarSamples) {
+            ColumnarSamples samples = (ColumnarSamples) sourceSamples;
+            for (int i = 0; i < samples.size(); ++i) {
+                presence.track(samples.getStatusRef(i) != 0, samples.getResponseBytes(i),
+                        samples.getTotalThreads(i));
+                presence.track(samples.getUrlId(i) >= 0, samples.getLatency(i),
+                        samples.getConnect(i), samples.getSentBytes(i), samples.getIdleTime(i));
+            }
+        } else {
+            for (Sample row : sourceSamples.getSamples()) {
+                presence.track(!StatusCodeLookup.isUnspecified(row.getStatusCode(), row.getStatusMessage()),
+                        row.getResponseBytes(), row.getTotalThreads());
+                presence.track(row.getUrl() != null, row.getLatency(), row.getConnect(),
+                        row.getSentBytes(), row.getIdleTime());
+            }
+        }
+        return presence;
+    }
+
+    private static void writeSamples(Samples sourceSamples, DataFileWriter<HttpSample> dataFileWriter,
+            BlockIndex.Recorder blocks, StringDictionary labels, StringDictionary threadNames,
+            StringDictionary generators, StringDictionary urls, StatusCodeLookup statusCodeLookup)
+            throws IOException {
+        long numRowsWritten = 0;
+        long writeStartMs = System.currentTimeMillis();
+        for (Sample presample : sourceSamples.getSamples()) {
+            HttpSample httpSample = convert(presample, labels, threadNames, generators, urls,
+                    statusCodeLookup);
+            dataFileWriter.append(httpSample);
+            blocks.appended(httpSample.getMillisOffset());
+            ++numRowsWritten;
+            if (numRowsWritten % 1000000L == 0) {
+                LOGGER.debug("{}ms to write {} of {} rows so far.",
+                        System.currentTimeMillis() - writeStartMs,
+                        numRowsWritten, sourceSamples.getSamples().size());
+            }
+        }
+    }
+
+    /**
+     * Writes the rows straight from the columns. The ids of the strings are already in
+     * sorted order, so the refs are the ids shifted by one.
+     */
+    private static void writeColumns(ColumnarSamples samples, DataFileWriter<HttpSample> dataFileWriter,
+            BlockIndex.Recorder blocks) throws IOException {
+        long writeStartMs = System.currentTimeMillis();
+        HttpSample hs = createNewEmptyHttpSample();
+        for (int i = 0; i < samples.size(); ++i) {
+            hs.setMillisOffset(samples.getOffset(i));
+            hs.setMillisElapsed(samples.getDuration(i));
+            hs.setLabelRef(samples.getLabelId(i) + 1);
+            hs.setThreadNameRef(samples.getThreadNameId(i) + 1);
+            hs.setResponseCodeRef(samples.getStatusRef(i));
+            hs.setSuccess(samples.isSuccess(i));
+            hs.setResponseBytes(samples.getResponseBytes(i));
+            hs.setTotalThreads(samples.getTotalThreads(i));
+            hs.setGeneratorRef(samples.getGeneratorId(i) + 1);
+            hs.setUrlRef(samples.getUrlId(i) + 1);
+            hs.setMillisLatency(samples.getLatency(i));
+            hs.setMillisConnect(samples.getConnect(i));
+            hs.setSentBytes(samples.getSentBytes(i));
+            hs.setMillisIdle(samples.getIdleTime(i));
+            dataFileWriter.append(hs);
+            blocks.appended(samples.getOffset(i));
+            if ((i + 1) % 1000000L == 0) {
+                LOGGER.debug("{}ms to write {} of {} rows so far.",
+                        System.currentTimeMillis() - writeStartMs, i + 1, samples.size());
+            }
+        }
+    }
+
     private static HttpSample createNewEmptyHttpSample() {
         HttpSample hs = new HttpSample();
         hs.setMillisElapsed(-1L);
         hs.setResponseBytes(-1L);
+        hs.setMillisLatency(-1L);
+        hs.setMillisConnect(-1L);
+        hs.setSentBytes(-1L);
+        hs.setMillisIdle(-1L);
         return hs;
     }
 
-    private static List<CharSequence> createSortedList(Collection<String> items) {
-        SortedSet<String> sortedSet = new TreeSet<>(items);
-        List<CharSequence> list = new ArrayList<>(sortedSet.size());
-        sortedSet.stream().forEach((item) -> {
-            list.add(new Utf8(item));
-        });
-        return list;
+    /**
+     * Creates a dictionary of the strings, sorted so that the ids (plus one) are the refs that
+     * the rows are written with.
+     */
+    private static StringDictionary createSortedDictionary(Collection<String> items) {
+        StringDictionary dictionary = new StringDictionary();
+        items.forEach(dictionary::id);
+        dictionary.sort();
+        return dictionary;
     }
 
-    // This iterable better not change between when this is called and when
-    // the array is made, otherwise it'll be all sorts of messed up and you
-    // won't be able to know.
-    private static Map<CharSequence, Integer> createLookup(Iterable<CharSequence> items) {
-        Map<CharSequence, Integer> lookup = new HashMap<>();
-        Integer ref = 1;
-        for (CharSequence item : items) {
-            lookup.put(item.toString(), ref);
-            ++ref;
+    private static List<CharSequence> toUtf8(List<String> items) {
+        List<CharSequence> list = new ArrayList<>(items.size());
+        for (String item : items) {
+            list.add(new Utf8(item));
         }
-        return lookup;
+        return list;
     }
 
     private static void writeMetaStringArray(DataFileWriter<?> dataFileWriter, String name, Collection<CharSequence> items) throws IOException {
@@ -151,13 +250,15 @@ public class AvroSamplesWriter implements SamplesWriter {
     }
 
     private static HttpSample convert(Sample row,
-            Map<CharSequence, Integer> labelLookup,
-            Map<CharSequence, Integer> threadNameLookup,
+            StringDictionary labels,
+            StringDictionary threadNames,
+            StringDictionary generators,
+            StringDictionary urls,
             StatusCodeLookup statusCodeLookup) {
         HttpSample hs = createNewEmptyHttpSample();
         hs.setResponseBytes(longOrDefault(row.getResponseBytes(), -1));
         hs.setTotalThreads(intOrDefault(row.getTotalThreads(), 0));
-        int labelRef = labelLookup.getOrDefault(row.getLabel(), 0);
+        int labelRef = labels.find(row.getLabel()) + 1;
         if (labelRef < 1) {
             LOGGER.warn("Bad labelRef={}", labelRef);
         }
@@ -166,7 +267,13 @@ public class AvroSamplesWriter implements SamplesWriter {
         hs.setMillisOffset(row.getOffset());
         hs.setResponseCodeRef(statusCodeLookup.getRef(row.getStatusCode(), row.getStatusMessage()));
         hs.setSuccess(booleanOrDefault(row.isSuccess(), true));
-        hs.setThreadNameRef(threadNameLookup.getOrDefault(row.getThreadName(), 0));
+        hs.setThreadNameRef(threadNames.find(row.getThreadName()) + 1);
+        hs.setGeneratorRef(generators.find(row.getGenerator()) + 1);
+        hs.setUrlRef(urls.find(row.getUrl()) + 1);
+        hs.setMillisLatency(row.getLatency());
+        hs.setMillisConnect(row.getConnect());
+        hs.setSentBytes(row.getSentBytes());
+        hs.setMillisIdle(row.getIdleTime());
 
         return hs;
     }
@@ -22,15 +22,19 @@ import com.redsaz.lognition.convert.model.HttpSample;
 import com.univocity.parsers.csv.CsvWriter;
 import com.univocity.parsers.csv.CsvWriterSettings;
 import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
@@ -54,6 +58,10 @@ public class AvroToCsvJtlConverter implements Converter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AvroToCsvJtlConverter.class);
     private static final ExecutorService STREAM_EXEC = Executors.newCachedThreadPool();
+    // Rows are small, so buffer many of them before each write to the stream.
+    private static final int STREAM_BUFFER_CHARS = 256 * 1024;
+
+    private final ParallelAvroScanner scanner;
 
     static {
         Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -64,28 +72,41 @@ public class AvroToCsvJtlConverter implements Converter {
         });
     }
 
+    /**
+     * Converts using all of the processors to read the Avro file.
+     */
+    public AvroToCsvJtlConverter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param parallelism how many threads to read the Avro file with. The CSV is always written
+     * by one thread, in the same order as the Avro file.
+     */
+    public AvroToCsvJtlConverter(int parallelism) {
+        this(new ParallelAvroScanner(parallelism));
+    }
+
+    /*package protected*/ AvroToCsvJtlConverter(ParallelAvroScanner scanner) {
+        this.scanner = scanner;
+    }
+
     @Override
     public String convert(File source, File dest) {
         long startMillis = System.currentTimeMillis();
         long totalRows = 0;
         LOGGER.debug("Converting {} to {}...", source, dest);
-        HttpSampleToCsvJtl h2j = new HttpSampleToCsvJtl(source);
+        HttpSampleToCsvJtl h2j = new HttpSampleToCsvJtl(source, scanner);
         String sha256Hash = null;
 
-        DatumReader<HttpSample> userDatumReader = new SpecificDatumReader<>(HttpSample.class);
         try (HashingOutputStream hos = new HashingOutputStream(Hashing.sha256(), new BufferedOutputStream(new FileOutputStream(dest)))) {
-            try (DataFileReader<HttpSample> dataFileReader = new DataFileReader<>(source, userDatumReader);
-                    OutputStreamWriter osw = new OutputStreamWriter(hos, Charset.forName("UTF8"))) {
+            try (OutputStreamWriter osw = new OutputStreamWriter(hos, Charset.forName("UTF8"))) {
                 CsvWriter writer = null;
                 try {
                     writer = new CsvWriter(osw, new CsvWriterSettings());
                     writer.writeHeaders(h2j.getUsedHeaders());
-                    while (dataFileReader.hasNext()) {
-                        HttpSample hs = dataFileReader.next();
-                        String[] row = h2j.convert(hs);
-                        writer.writeRow(row);
-                        ++totalRows;
-                    }
+                    CsvWriter csvWriter = writer;
+                    totalRows = scanner.scanOrdered(source, hs -> csvWriter.writeRow(h2j.convert(hs)));
                 } finally {
                     if (writer != null) {
                         writer.close();
@@ -101,28 +122,56 @@ public class AvroToCsvJtlConverter implements Converter {
         return sha256Hash;
     }
 
+    /**
+     * Writes the CSV form of the Avro file straight to the stream, on the calling thread, such as
+     * to the body of a response. The stream is flushed when done, but not closed.
+     *
+     * @param source the Avro file of samples
+     * @param dest where the CSV is written
+     * @return how many samples were written
+     */
+    public long convert(File source, OutputStream dest) {
+        long startMillis = System.currentTimeMillis();
+        LOGGER.debug("Converting {} to CSV stream...", source);
+        HttpSampleToCsvJtl h2j = new HttpSampleToCsvJtl(source, scanner);
+        long totalRows;
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(dest, StandardCharsets.UTF_8), STREAM_BUFFER_CHARS);
+            CsvWriter writer = new CsvWriter(out, new CsvWriterSettings());
+            writer.writeHeaders(h2j.getUsedHeaders());
+            totalRows = scanner.scanOrdered(source, hs -> writer.writeRow(h2j.convert(hs)));
+            writer.flush();
+        } catch (RuntimeException | IOException ex) {
+            throw new AppServerException("Unable to convert file.", ex);
+        }
+        LOGGER.debug("{}ms to convert {} rows in stream.", (System.currentTimeMillis() - startMillis), totalRows);
+        return totalRows;
+    }
+
+    /**
+     * Converts to CSV on another thread, through a pipe. Prefer
+     * {@link #convert(File, OutputStream)} where there is a stream to write to, which needs
+     * neither.
+     *
+     * @param source the Avro file of samples
+     * @return the CSV
+     * @throws IOException if the pipe could not be made
+     */
     public InputStream convertStreaming(File source) throws IOException {
         long startMillis = System.currentTimeMillis();
         LOGGER.info("Converting {} to CSV stream...", source);
-        HttpSampleToCsvJtl h2j = new HttpSampleToCsvJtl(source);
-
-        DatumReader<HttpSample> userDatumReader = new SpecificDatumReader<>(HttpSample.class);
+        HttpSampleToCsvJtl h2j = new HttpSampleToCsvJtl(source, scanner);
 
         final PipedOutputStream pos = new PipedOutputStream();
         final PipedInputStream pis = new PipedInputStream(pos);
         STREAM_EXEC.execute(() -> {
-            try (DataFileReader<HttpSample> dataFileReader = new DataFileReader<>(source, userDatumReader)) {
-                long totalRows = 0;
+            try {
                 CsvWriter writer = null;
                 try {
                     writer = new CsvWriter(pos, new CsvWriterSettings());
                     writer.writeHeaders(h2j.getUsedHeaders());
-                    while (dataFileReader.hasNext()) {
-                        HttpSample hs = dataFileReader.next();
-                        String[] row = h2j.convert(hs);
-                        writer.writeRow(row);
-                        ++totalRows;
-                    }
+                    CsvWriter csvWriter = writer;
+                    long totalRows = scanner.scanOrdered(source, hs -> csvWriter.writeRow(h2j.convert(hs)));
                     LOGGER.info("{}ms to convert {} rows in stream.", (System.currentTimeMillis() - startMillis), totalRows);
                 } finally {
                     if (writer != null) {
@@ -145,12 +194,14 @@ public class AvroToCsvJtlConverter implements Converter {
         private List<CharSequence> labels;
         private List<CharSequence> threadNames;
         private List<CharSequence> urls;
+        private List<CharSequence> generators;
         private final EnumSet<JtlType> usedFields = EnumSet.of(JtlType.TIMESTAMP,
                 JtlType.ELAPSED, JtlType.SUCCESS);
 
-        HttpSampleToCsvJtl(File source) {
+        HttpSampleToCsvJtl(File source, ParallelAvroScanner scanner) {
             long startMillis = System.currentTimeMillis();
             LOGGER.debug("Initializing converter for {}", source);
+            FieldPresence presence = null;
             DatumReader<HttpSample> httpSampleDatumReader = new SpecificDatumReader<>(HttpSample.class);
             try (DataFileReader<HttpSample> dataFileReader = new DataFileReader<>(source, httpSampleDatumReader)) {
                 earliestMillis = dataFileReader.getMetaLong("earliest");
@@ -167,25 +218,28 @@ public class AvroToCsvJtlConverter implements Converter {
                 if (urls != null) {
                     usedFields.add(JtlType.URL);
                 }
+                // Only logs from JTLs with the hostname, or merged from several load generators,
+                // have them. JMeter puts the name of the generator in the hostname.
+                generators = readMetaStringArray(dataFileReader, "generators");
+                if (generators != null) {
+                    usedFields.add(JtlType.HOSTNAME);
+                }
                 List<CharSequence> customCodes = readMetaStringArray(dataFileReader, "codes");
                 List<CharSequence> customMessages = readMetaStringArray(dataFileReader, "messages");
                 codes = new StatusCodeLookup(customCodes, customMessages);
-                while (dataFileReader.hasNext()) {
-                    HttpSample hs = dataFileReader.next();
-                    if (hs.getResponseCodeRef() != 0) {
-                        usedFields.add(JtlType.RESPONSE_CODE);
-                        usedFields.add(JtlType.RESPONSE_MESSAGE);
-                    }
-                    if (hs.getResponseBytes() != -1) {
-                        usedFields.add(JtlType.BYTES);
-                    }
-                    if (hs.getTotalThreads() > 0) {
-                        usedFields.add(JtlType.ALL_THREADS);
-                    }
-                }
+                presence = FieldPresence.readMeta(dataFileReader);
             } catch (RuntimeException | IOException ex) {
                 throw new AppServerException("Unable to convert file.", ex);
             }
+            if (presence == null) {
+                LOGGER.info("{} does not record which fields are used, so all samples are read to find out.", source);
+                try {
+                    presence = FieldPresence.scan(source, scanner);
+                } catch (RuntimeException | IOException ex) {
+                    throw new AppServerException("Unable to convert file.", ex);
+                }
+            }
+            usedFields.addAll(presence.jtlTypes());
             LOGGER.debug("Finished initializing converter in {}ms.", (System.currentTimeMillis() - startMillis));
         }
 
@@ -231,6 +285,26 @@ public class AvroToCsvJtlConverter implements Converter {
                     case ALL_THREADS:
                         result[index] = hs.getTotalThreads().toString();
                         break;
+                    case HOSTNAME:
+                        result[index] = hs.getGeneratorRef() > 0
+                                ? generators.get(hs.getGeneratorRef() - 1).toString() : null;
+                        break;
+                    case URL:
+                        result[index] = hs.getUrlRef() > 0
+                                ? urls.get(hs.getUrlRef() - 1).toString() : null;
+                        break;
+                    case LATENCY:
+                        result[index] = optionalToString(hs.getMillisLatency());
+                        break;
+                    case CONNECT:
+                        result[index] = optionalToString(hs.getMillisConnect());
+                        break;
+                    case SENT_BYTES:
+                        result[index] = optionalToString(hs.getSentBytes());
+                        break;
+                    case IDLE_TIME:
+                        result[index] = optionalToString(hs.getMillisIdle());
+                        break;
                     default:
                         LOGGER.warn("Ignoring {} because convertsion to CSV form is not known.", field.csvName());
                         result[index] = null;
@@ -241,6 +315,13 @@ public class AvroToCsvJtlConverter implements Converter {
             return result;
         }
 
+        /**
+         * @return the number, or null if the sample does not have it.
+         */
+        private static String optionalToString(long value) {
+            return value == -1L ? null : Long.toString(value);
+        }
+
         private static List<CharSequence> readMetaStringArray(DataFileReader<?> dataFileReader, String name) throws IOException {
             List<CharSequence> items = null;
             byte[] buf = dataFileReader.getMeta(name);
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import java.util.Locale;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileWriter;
+
+/**
+ * Immutable settings for how Avro files are written: how each block of samples is compressed,
+ * and about how large each block is before compression. Use the builder to create one.
+ * <p>
+ * The codec is given by name, with an optional level for the codecs that have one:
+ * <ul>
+ * <li>null - no compression (the default)</li>
+ * <li>deflate, or deflate-1 (fastest) through deflate-9 (smallest)</li>
+ * <li>snappy</li>
+ * <li>bzip2</li>
+ * <li>xz, or xz-0 (fastest) through xz-9 (smallest)</li>
+ * </ul>
+ * Files are read the same no matter which codec they were written with, so the codec can be
+ * changed at any time, and only affects files written afterwards.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class AvroWriterSettings {
+
+    /**
+     * The name of the metadata that the codec, with its level, is recorded in. Avro records the
+     * codec name on its own, but not its level.
+     */
+    public static final String CODEC_META = "codec";
+
+    public static final int DEFAULT_SYNC_INTERVAL = DataFileConstants.DEFAULT_SYNC_INTERVAL;
+
+    // Same as what zlib uses when no level is given.
+    private static final int DEFAULT_DEFLATE_LEVEL = 6;
+    private static final int MIN_SYNC_INTERVAL = 32;
+    private static final int MAX_SYNC_INTERVAL = 1 << 30;
+
+    private static final AvroWriterSettings DEFAULTS = new Builder().build();
+
+    private final String codec;
+    private final CodecFactory codecFactory;
+    private final int syncInterval;
+
+    private AvroWriterSettings(Builder builder) {
+        codec = builder.codec;
+        codecFactory = builder.codecFactory;
+        syncInterval = builder.syncInterval;
+    }
+
+    /**
+     * @return uncompressed, with Avro's usual block size.
+     */
+    public static AvroWriterSettings defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * @return the codec name, with its level if it has one, such as "deflate-6".
+     */
+    public String getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return about how many bytes of samples are in each block, before compression.
+     */
+    public int getSyncInterval() {
+        return syncInterval;
+    }
+
+    /**
+     * Sets up the writer to write with these settings. Must be called before the writer is
+     * created. Unless uncompressed, the codec is recorded in the file metadata. (Uncompressed
+     * files are left without it, and without Avro's own codec entry, so that they stay the same
+     * as files written before the codec could be chosen.)
+     *
+     * @param writer to set up
+     * @return the given writer
+     */
+    public <D> DataFileWriter<D> applyTo(DataFileWriter<D> writer) {
+        writer.setSyncInterval(syncInterval);
+        if (!DataFileConstants.NULL_CODEC.equals(codec)) {
+            writer.setCodec(codecFactory);
+            writer.setMeta(CODEC_META, codec);
+        }
+        return writer;
+    }
+
+    @Override
+    public String toString() {
+        return "codec=" + codec + " syncInterval=" + syncInterval;
+    }
+
+    public static class Builder {
+
+        private String codec = DataFileConstants.NULL_CODEC;
+        private CodecFactory codecFactory = CodecFactory.nullCodec();
+        private int syncInterval = DEFAULT_SYNC_INTERVAL;
+
+        /**
+         * How each block of samples is compressed. Defaults to null, not compressed.
+         *
+         * @param value the codec name, with an optional level, such as "deflate" or "xz-3"
+         * @return this builder
+         */
+        public Builder codec(String value) {
+            if (value == null) {
+                throw new NullPointerException("Codec must be specified.");
+            }
+            String spec = value.trim().toLowerCase(Locale.ROOT);
+            int dash = spec.lastIndexOf('-');
+            String name = dash < 0 ? spec : spec.substring(0, dash);
+            Integer level = dash < 0 ? null : parseLevel(value, spec.substring(dash + 1));
+            switch (name) {
+                case DataFileConstants.NULL_CODEC:
+                    noLevel(value, level);
+                    codecFactory = CodecFactory.nullCodec();
+                    break;
+                case DataFileConstants.SNAPPY_CODEC:
+                    noLevel(value, level);
+                    codecFactory = CodecFactory.snappyCodec();
+                    break;
+                case DataFileConstants.BZIP2_CODEC:
+                    noLevel(value, level);
+                    codecFactory = CodecFactory.bzip2Codec();
+                    break;
+                case DataFileConstants.DEFLATE_CODEC:
+                    if (level == null) {
+                        level = DEFAULT_DEFLATE_LEVEL;
+                    }
+                    checkLevel(value, level, 1, 9);
+                    codecFactory = CodecFactory.deflateCodec(level);
+                    break;
+                case DataFileConstants.XZ_CODEC:
+                    if (level == null) {
+                        level = CodecFactory.DEFAULT_XZ_LEVEL;
+                    }
+                    checkLevel(value, level, 0, 9);
+                    codecFactory = CodecFactory.xzCodec(level);
+                    break;
+                case "zstd":
+                case "zstandard":
+                    throw new IllegalArgumentException("Codec " + value
+                            + " is not available with this version of Avro. Use null, deflate, snappy, bzip2, or xz instead.");
+                default:
+                    throw new IllegalArgumentException("Unknown codec " + value
+                            + ". Use null, deflate, snappy, bzip2, or xz.");
+            }
+            codec = level == null ? name : name + "-" + level;
+            return this;
+        }
+
+        /**
+         * About how many bytes of samples are written in each block, before compression. Larger
+         * blocks compress better, but more must be read to get at any one sample. Defaults to
+         * {@link #DEFAULT_SYNC_INTERVAL}.
+         *
+         * @param value the number of bytes, from 32 to 2^30
+         * @return this builder
+         */
+        public Builder syncInterval(int value) {
+            if (value < MIN_SYNC_INTERVAL || value > MAX_SYNC_INTERVAL) {
+                throw new IllegalArgumentException("Sync interval must be from " + MIN_SYNC_INTERVAL
+                        + " to " + MAX_SYNC_INTERVAL + " bytes, but was " + value + ".");
+            }
+            syncInterval = value;
+            return this;
+        }
+
+        public AvroWriterSettings build() {
+            return new AvroWriterSettings(this);
+        }
+
+        private static Integer parseLevel(String value, String level) {
+            try {
+                return Integer.valueOf(level);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Codec " + value + " has a level that is not a number.");
+            }
+        }
+
+        private static void noLevel(String value, Integer level) {
+            if (level != null) {
+                throw new IllegalArgumentException("Codec " + value + " does not have levels.");
+            }
+        }
+
+        private static void checkLevel(String value, int level, int min, int max) {
+            if (level < min || level > max) {
+                throw new IllegalArgumentException("Codec " + value + " must have a level from "
+                        + min + " to " + max + ".");
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.api.model.ImportDiagnostics;
+import com.redsaz.lognition.api.model.ImportDiagnostics.BadRow;
+import com.redsaz.lognition.api.model.ImportDiagnostics.Problem;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts the rows of a JTL that are skipped because they cannot be converted, by the kind of
+ * problem, and keeps the first few of them as examples. A JTL can have a great many bad rows, such
+ * as when every row is cut short, so only the first few of each kind are logged, and the rows are
+ * only formatted for the examples and the log, not for every row counted.
+ * <p>
+ * The same instance can be shared by the threads that parse different parts of a JTL.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class BadRows {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BadRows.class);
+
+    public static final int DEFAULT_MAX_EXAMPLES = 10;
+    private static final int WARNINGS_PER_PROBLEM = 3;
+    // Long enough to show what is wrong with a row, short enough to store and log.
+    private static final int MAX_TEXT_LENGTH = 500;
+    private static final Problem[] PROBLEMS = Problem.values();
+
+    private final int maxExamples;
+    private final AtomicLongArray counts = new AtomicLongArray(PROBLEMS.length);
+    private final List<BadRow> examples = new ArrayList<>();
+    private volatile boolean examplesFull;
+
+    public BadRows() {
+        this(DEFAULT_MAX_EXAMPLES);
+    }
+
+    /**
+     * @param maxExamples how many of the bad rows to keep as examples
+     */
+    public BadRows(int maxExamples) {
+        this.maxExamples = maxExamples;
+        examplesFull = maxExamples < 1;
+    }
+
+    /**
+     * Counts a row that has more or fewer columns than expected.
+     *
+     * @param expected how many columns the row should have
+     * @param row the row
+     */
+    public void wrongColumnCount(int expected, String[] row) {
+        long count = counts.incrementAndGet(Problem.WRONG_COLUMN_COUNT.ordinal());
+        if (isNoted(count)) {
+            note(Problem.WRONG_COLUMN_COUNT, count,
+                    "Expected " + expected + " columns but got " + row.length, Arrays.toString(row));
+        }
+    }
+
+    /**
+     * Counts a row that has a value which could not be converted. An empty value, which can only
+     * fail to convert if the column is required, is counted as a missing field rather than as a
+     * bad number.
+     *
+     * @param type the column of the value
+     * @param value the value that could not be converted
+     * @param ex why it could not be converted
+     * @param row the row
+     */
+    public void badValue(JtlType type, String value, NumberFormatException ex, String[] row) {
+        badValue(type, value, ex, () -> Arrays.toString(row));
+    }
+
+    /**
+     * Same as {@link #badValue(JtlType, String, NumberFormatException, String[])}, but for rows
+     * which are not read as columns, such as the samples of an XML-based JTL.
+     *
+     * @param type the column of the value
+     * @param value the value that could not be converted
+     * @param ex why it could not be converted
+     * @param contents gives the row as text, only called if the row is logged or kept
+     */
+    public void badValue(JtlType type, String value, NumberFormatException ex, Supplier<String> contents) {
+        Problem problem = value == null || value.isEmpty() ? Problem.MISSING_REQUIRED_FIELD : Problem.BAD_NUMBER;
+        long count = counts.incrementAndGet(problem.ordinal());
+        if (isNoted(count)) {
+            String detail = problem == Problem.MISSING_REQUIRED_FIELD
+                    ? "No value for " + type.csvName()
+                    : "Could not convert " + type.csvName() + ": " + ex.getMessage();
+            note(problem, count, detail, contents.get());
+        }
+    }
+
+    private boolean isNoted(long count) {
+        return count <= WARNINGS_PER_PROBLEM || !examplesFull;
+    }
+
+    private void note(Problem problem, long count, String detail, String contents) {
+        detail = shorten(detail);
+        contents = shorten(contents);
+        if (count <= WARNINGS_PER_PROBLEM) {
+            LOGGER.warn("Skipping bad row. {}. Contents:\n{}", detail, contents);
+            if (count == WARNINGS_PER_PROBLEM) {
+                LOGGER.warn("Any more rows with problem {} will be skipped and counted without being logged.", problem);
+            }
+        }
+        keep(new BadRow(problem, detail, contents));
+    }
+
+    private static String shorten(String text) {
+        if (text.length() > MAX_TEXT_LENGTH) {
+            return text.substring(0, MAX_TEXT_LENGTH) + "...";
+        }
+        return text;
+    }
+
+    private void keep(BadRow example) {
+        synchronized (examples) {
+            if (examples.size() < maxExamples) {
+                examples.add(example);
+                examplesFull = examples.size() >= maxExamples;
+            }
+        }
+    }
+
+    /**
+     * @param problem the kind of problem
+     * @return how many rows were counted with the problem.
+     */
+    public long getCount(Problem problem) {
+        return counts.get(problem.ordinal());
+    }
+
+    /**
+     * @return how many rows were counted, for any problem.
+     */
+    public long getTotal() {
+        long total = 0L;
+        for (int i = 0; i < counts.length(); ++i) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @return the first of the rows counted, up to the maximum kept.
+     */
+    public List<BadRow> getExamples() {
+        synchronized (examples) {
+            return new ArrayList<>(examples);
+        }
+    }
+
+    /**
+     * @param logId the log the rows are from
+     * @return the counts and examples, to be stored with the log.
+     */
+    public ImportDiagnostics toDiagnostics(long logId) {
+        return new ImportDiagnostics(logId,
+                getCount(Problem.WRONG_COLUMN_COUNT),
+                getCount(Problem.BAD_NUMBER),
+                getCount(Problem.MISSING_REQUIRED_FIELD),
+                getExamples());
+    }
+
+    /**
+     * Adds the counts and examples of another, such as the bad rows of a checkpoint.
+     */
+    /*package protected*/ void addAll(BadRows other) {
+        for (int i = 0; i < counts.length(); ++i) {
+            counts.addAndGet(i, other.counts.get(i));
+        }
+        for (BadRow example : other.getExamples()) {
+            keep(example);
+        }
+    }
+
+    /**
+     * Adds the counts and examples written by {@link #write(java.io.DataOutput)}.
+     */
+    /*package protected*/ void read(DataInput in) throws IOException {
+        int numProblems = in.readInt();
+        for (int i = 0; i < numProblems; ++i) {
+            counts.addAndGet(i, in.readLong());
+        }
+        int numExamples = in.readInt();
+        for (int i = 0; i < numExamples; ++i) {
+            keep(new BadRow(PROBLEMS[in.readInt()], in.readUTF(), in.readUTF()));
+        }
+    }
+
+    /*package protected*/ void write(DataOutput out) throws IOException {
+        out.writeInt(counts.length());
+        for (int i = 0; i < counts.length(); ++i) {
+            out.writeLong(counts.get(i));
+        }
+        List<BadRow> kept = getExamples();
+        out.writeInt(kept.size());
+        for (BadRow example : kept) {
+            out.writeInt(example.getProblem().ordinal());
+            out.writeUTF(example.getDetail());
+            out.writeUTF(example.getContents());
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Problem problem : PROBLEMS) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(problem).append('=').append(getCount(problem));
+        }
+        return sb.toString();
+    }
+}
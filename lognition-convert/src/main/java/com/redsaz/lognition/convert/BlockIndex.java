@@ -0,0 +1,405 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.google.common.io.CountingOutputStream;
+import com.redsaz.lognition.convert.model.HttpSample;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Where each block of samples is in an Avro file of samples, how many samples it has, and the
+ * earliest and latest sample offsets in it, so that only the blocks with samples in a given time
+ * window need to be read.
+ * <p>
+ * The index is kept in its own file next to the Avro file (see {@link #indexFileFor(File)}) so
+ * that the Avro file, and its hash, are the same as without an index. The index file is only
+ * written when the Avro file is, such as when a log is imported. Files written before the index
+ * existed are scanned for the index each time it is asked for, without writing it, so that reading
+ * a log never writes anything next to it.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class BlockIndex {
+
+    public static final String SUFFIX = ".blocks";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlockIndex.class);
+
+    // "LGBI", then the version of the index format.
+    private static final int MAGIC = 0x4c474249;
+    private static final int VERSION = 1;
+
+    private final long avroLength;
+    private final List<Block> blocks;
+
+    /*package protected*/ BlockIndex(long avroLength, List<Block> blocks) {
+        this.avroLength = avroLength;
+        this.blocks = Collections.unmodifiableList(blocks);
+    }
+
+    /**
+     * @param avro the Avro file of samples
+     * @return the file that the block index of the Avro file is kept in.
+     */
+    public static File indexFileFor(File avro) {
+        return new File(avro.getPath() + SUFFIX);
+    }
+
+    /**
+     * Gets the block index of an Avro file of samples. If the index file is missing, or is not for
+     * the Avro file as it is now, then the Avro file is read to make the index in memory. The
+     * index file is not written.
+     *
+     * @param avro the Avro file of samples
+     * @return the block index
+     * @throws IOException if the Avro file could not be read
+     */
+    public static BlockIndex forFile(File avro) throws IOException {
+        File indexFile = indexFileFor(avro);
+        if (indexFile.exists()) {
+            try {
+                BlockIndex index = read(indexFile);
+                if (index.avroLength == avro.length()) {
+                    return index;
+                }
+                LOGGER.info("Block index {} is out of date, so {} will be scanned instead.",
+                        indexFile, avro);
+            } catch (IOException ex) {
+                LOGGER.warn("Could not read block index {}, so {} will be scanned instead.",
+                        indexFile, avro, ex);
+            }
+        }
+        return scan(avro);
+    }
+
+    /**
+     * Makes the block index by reading every sample in the Avro file.
+     *
+     * @param avro the Avro file of samples
+     * @return the block index
+     * @throws IOException if the Avro file could not be read
+     */
+    public static BlockIndex scan(File avro) throws IOException {
+        long startMillis = System.currentTimeMillis();
+        List<Block> blocks = new ArrayList<>();
+        DatumReader<HttpSample> datumReader = new SpecificDatumReader<>(HttpSample.class);
+        try (DataFileReader<HttpSample> reader = new DataFileReader<>(avro, datumReader)) {
+            BlockTracker tracker = new BlockTracker(reader.previousSync());
+            HttpSample hs = null;
+            while (reader.hasNext()) {
+                // The reader moves its sync point as soon as the last row of a block is read, so
+                // it is checked before each row is read rather than after.
+                long position = reader.previousSync();
+                if (position != tracker.position) {
+                    tracker.endBlock(blocks, position);
+                }
+                hs = reader.next(hs);
+                tracker.track(hs.getMillisOffset());
+            }
+            tracker.endBlock(blocks, -1L);
+        }
+        LOGGER.debug("{}ms to index {} blocks of {}.", System.currentTimeMillis() - startMillis,
+                blocks.size(), avro);
+        return new BlockIndex(avro.length(), blocks);
+    }
+
+    /**
+     * Reads a block index file.
+     *
+     * @param indexFile the block index file
+     * @return the block index
+     * @throws IOException if the file could not be read, or is not a block index
+     */
+    public static BlockIndex read(File indexFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(indexFile + " is not a block index.");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(indexFile + " has unknown block index version " + version + ".");
+            }
+            long avroLength = in.readLong();
+            int numBlocks = in.readInt();
+            List<Block> blocks = new ArrayList<>(numBlocks);
+            for (int i = 0; i < numBlocks; ++i) {
+                blocks.add(new Block(in.readLong(), in.readInt(), in.readLong(), in.readLong()));
+            }
+            return new BlockIndex(avroLength, blocks);
+        }
+    }
+
+    /**
+     * Writes the block index file.
+     *
+     * @param indexFile where to write the index
+     * @throws IOException if the file could not be written
+     */
+    public void write(File indexFile) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(avroLength);
+            out.writeInt(blocks.size());
+            for (Block block : blocks) {
+                out.writeLong(block.position);
+                out.writeInt(block.numRows);
+                out.writeLong(block.minOffset);
+                out.writeLong(block.maxOffset);
+            }
+        }
+    }
+
+    /**
+     * @return the blocks, in the order they are in the file.
+     */
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @param fromOffset the earliest sample offset wanted, inclusive
+     * @param toOffset the latest sample offset wanted, inclusive
+     * @return the blocks that have samples in the range, in the order they are in the file.
+     */
+    public List<Block> overlapping(long fromOffset, long toOffset) {
+        List<Block> result = new ArrayList<>();
+        for (Block block : blocks) {
+            if (block.overlaps(fromOffset, toOffset)) {
+                result.add(block);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads only the samples within the range of offsets, skipping the blocks with none in the
+     * range. Samples are given in the order they are in the file.
+     * <p>
+     * The given sample is reused for the next sample, so the consumer must copy out whatever it
+     * needs rather than hold on to it.
+     *
+     * @param avro the Avro file of samples that this is the index of
+     * @param fromOffset the earliest sample offset wanted, inclusive
+     * @param toOffset the latest sample offset wanted, inclusive
+     * @param consumer receives each sample in the range
+     * @return how many samples were in the range
+     * @throws IOException if the Avro file could not be read
+     */
+    public long readRange(File avro, long fromOffset, long toOffset, Consumer<HttpSample> consumer)
+            throws IOException {
+        long numFound = 0L;
+        int numBlocksRead = 0;
+        DatumReader<HttpSample> datumReader = new SpecificDatumReader<>(HttpSample.class);
+        try (DataFileReader<HttpSample> reader = new DataFileReader<>(avro, datumReader)) {
+            HttpSample hs = null;
+            int lastRead = -2;
+            for (int b = 0; b < blocks.size(); ++b) {
+                Block block = blocks.get(b);
+                if (!block.overlaps(fromOffset, toOffset)) {
+                    continue;
+                }
+                // A block right after the one just read is already where the reader is.
+                if (b != lastRead + 1) {
+                    reader.seek(block.position);
+                }
+                for (int i = 0; i < block.numRows; ++i) {
+                    hs = reader.next(hs);
+                    long offset = hs.getMillisOffset();
+                    if (offset >= fromOffset && offset <= toOffset) {
+                        consumer.accept(hs);
+                        ++numFound;
+                    }
+                }
+                lastRead = b;
+                ++numBlocksRead;
+            }
+        }
+        LOGGER.debug("Read {} of {} blocks of {} to find {} samples from {} to {}.",
+                numBlocksRead, blocks.size(), avro, numFound, fromOffset, toOffset);
+        return numFound;
+    }
+
+    @Override
+    public String toString() {
+        return blocks.size() + " blocks of an Avro file of " + avroLength + " bytes";
+    }
+
+    /**
+     * A block of samples in an Avro file.
+     */
+    public static class Block {
+
+        private final long position;
+        private final int numRows;
+        private final long minOffset;
+        private final long maxOffset;
+
+        public Block(long position, int numRows, long minOffset, long maxOffset) {
+            this.position = position;
+            this.numRows = numRows;
+            this.minOffset = minOffset;
+            this.maxOffset = maxOffset;
+        }
+
+        /**
+         * @return where the block starts in the file, for use with
+         * {@link DataFileReader#seek(long)}.
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        public int getNumRows() {
+            return numRows;
+        }
+
+        public long getMinOffset() {
+            return minOffset;
+        }
+
+        public long getMaxOffset() {
+            return maxOffset;
+        }
+
+        public boolean overlaps(long fromOffset, long toOffset) {
+            return minOffset <= toOffset && maxOffset >= fromOffset;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Block)) {
+                return false;
+            }
+            Block other = (Block) obj;
+            return position == other.position && numRows == other.numRows
+                    && minOffset == other.minOffset && maxOffset == other.maxOffset;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(position);
+        }
+
+        @Override
+        public String toString() {
+            return "position=" + position + " numRows=" + numRows
+                    + " minOffset=" + minOffset + " maxOffset=" + maxOffset;
+        }
+    }
+
+    /**
+     * Makes the block index while the Avro file is written, so that it never needs to be read
+     * back. The Avro writer must write to {@link #getStream()}, and flush each block as it is
+     * written (which is what it does unless told otherwise), so that a block is known to be
+     * written when the number of bytes written changes.
+     */
+    /*package protected*/ static class Recorder {
+
+        private final CountingOutputStream stream;
+        private final List<Block> blocks = new ArrayList<>();
+        private BlockTracker tracker;
+
+        /*package protected*/ Recorder(OutputStream out) {
+            stream = new CountingOutputStream(out);
+        }
+
+        /**
+         * @return what the Avro writer must write to.
+         */
+        /*package protected*/ OutputStream getStream() {
+            return stream;
+        }
+
+        /**
+         * Must be called after the Avro writer is created, which writes the header.
+         */
+        /*package protected*/ void created() {
+            tracker = new BlockTracker(stream.getCount());
+        }
+
+        /**
+         * Must be called after each sample is appended.
+         *
+         * @param millisOffset the offset of the sample that was appended
+         */
+        /*package protected*/ void appended(long millisOffset) {
+            tracker.track(millisOffset);
+            long written = stream.getCount();
+            if (written != tracker.position) {
+                tracker.endBlock(blocks, written);
+            }
+        }
+
+        /**
+         * Must be called after the Avro writer is closed, which writes the last block.
+         *
+         * @return the block index
+         */
+        /*package protected*/ BlockIndex finished() {
+            tracker.endBlock(blocks, -1L);
+            return new BlockIndex(stream.getCount(), new ArrayList<>(blocks));
+        }
+    }
+
+    private static class BlockTracker {
+
+        private long position;
+        private int numRows;
+        private long minOffset = Long.MAX_VALUE;
+        private long maxOffset = Long.MIN_VALUE;
+
+        BlockTracker(long position) {
+            this.position = position;
+        }
+
+        void track(long millisOffset) {
+            ++numRows;
+            minOffset = Math.min(minOffset, millisOffset);
+            maxOffset = Math.max(maxOffset, millisOffset);
+        }
+
+        void endBlock(List<Block> blocks, long nextPosition) {
+            if (numRows > 0) {
+                blocks.add(new Block(position, numRows, minOffset, maxOffset));
+            }
+            position = nextPosition;
+            numRows = 0;
+            minOffset = Long.MAX_VALUE;
+            maxOffset = Long.MIN_VALUE;
+        }
+    }
+}
@@ -0,0 +1,877 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.api.model.Sample;
+import com.redsaz.lognition.api.model.Timing;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Holds samples in columns of primitives rather than as a list of objects. Labels, thread names,
+ * generators and URLs are stored once in dictionaries, and each row refers to them by id, where
+ * the ids are the indexes into the (sorted) lists such as {@link #getLabels()}, or -1 if the row
+ * has none. Status codes and messages are stored by their {@link StatusCodeLookup} ref.
+ * <p>
+ * Rows are added by the sources in this package, and once {@link #finishLoading()} is called the
+ * dictionaries are sorted and the offsets become relative to the earliest sample. After that, the
+ * rows can be sorted in place, and ranges of rows can be viewed with
+ * {@link #subSamples(int, int)}, which, like {@link List#subList(int, int)}, shares the same
+ * storage.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class ColumnarSamples implements Samples {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // Ranges this small are sorted by insertion rather than merged.
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private final int start;
+    private int size;
+    private long[] offsets;
+    private long[] durations;
+    private long[] responseBytes;
+    private int[] labelIds;
+    private int[] threadNameIds;
+    private int[] statusRefs;
+    private int[] totalThreads;
+    private int[] generatorIds;
+    private int[] urlIds;
+    private int[] latencies;
+    private int[] connects;
+    private long[] sentBytes;
+    private int[] idleTimes;
+    private final BitSet success;
+
+    // While loading, the ids are in the order first seen, and once finished, in sorted order.
+    private final StringDictionary labels;
+    private final StringDictionary threadNames;
+    private final StringDictionary generators;
+    private final StringDictionary urls;
+    private final StatusCodeLookup statusCodeLookup;
+    private boolean finished;
+
+    private int earliestIndex = -1;
+    private long earliestMillis = Long.MAX_VALUE;
+    private Sample earliest;
+    private int latestIndex = -1;
+    private long latestMillis = Long.MIN_VALUE;
+    private Sample latest;
+
+    /*package protected*/ ColumnarSamples() {
+        start = 0;
+        offsets = new long[INITIAL_CAPACITY];
+        durations = new long[INITIAL_CAPACITY];
+        responseBytes = new long[INITIAL_CAPACITY];
+        labelIds = new int[INITIAL_CAPACITY];
+        threadNameIds = new int[INITIAL_CAPACITY];
+        statusRefs = new int[INITIAL_CAPACITY];
+        totalThreads = new int[INITIAL_CAPACITY];
+        generatorIds = new int[INITIAL_CAPACITY];
+        urlIds = new int[INITIAL_CAPACITY];
+        latencies = new int[INITIAL_CAPACITY];
+        connects = new int[INITIAL_CAPACITY];
+        sentBytes = new long[INITIAL_CAPACITY];
+        idleTimes = new int[INITIAL_CAPACITY];
+        success = new BitSet(INITIAL_CAPACITY);
+        labels = new StringDictionary();
+        threadNames = new StringDictionary();
+        generators = new StringDictionary();
+        urls = new StringDictionary();
+        statusCodeLookup = new StatusCodeLookup();
+    }
+
+    private ColumnarSamples(ColumnarSamples parent, int fromIndex, int toIndex) {
+        start = parent.start + fromIndex;
+        size = toIndex - fromIndex;
+        offsets = parent.offsets;
+        durations = parent.durations;
+        responseBytes = parent.responseBytes;
+        labelIds = parent.labelIds;
+        threadNameIds = parent.threadNameIds;
+        statusRefs = parent.statusRefs;
+        totalThreads = parent.totalThreads;
+        generatorIds = parent.generatorIds;
+        urlIds = parent.urlIds;
+        latencies = parent.latencies;
+        connects = parent.connects;
+        sentBytes = parent.sentBytes;
+        idleTimes = parent.idleTimes;
+        success = parent.success;
+        labels = parent.labels;
+        threadNames = parent.threadNames;
+        generators = parent.generators;
+        urls = parent.urls;
+        statusCodeLookup = parent.statusCodeLookup;
+        finished = true;
+        earliestMillis = parent.earliestMillis;
+        earliest = parent.earliest;
+        latestMillis = parent.latestMillis;
+        latest = parent.latest;
+    }
+
+    /**
+     * Adds the sample, where the offset is still the timestamp of the sample.
+     */
+    /*package protected*/ void add(Sample sample) {
+        add(sample.getOffset(),
+                sample.getDuration(),
+                labelId(sample.getLabel()),
+                threadNameId(sample.getThreadName()),
+                statusCodeLookup.getRef(sample.getStatusCode(), sample.getStatusMessage()),
+                sample.isSuccess(),
+                sample.getResponseBytes(),
+                sample.getTotalThreads(),
+                generatorId(sample.getGenerator()),
+                urlId(sample.getUrl()),
+                (int) sample.getLatency(),
+                (int) sample.getConnect(),
+                sample.getSentBytes(),
+                (int) sample.getIdleTime());
+    }
+
+    /**
+     * Adds a sample from its already converted fields, where the offset is still the timestamp of
+     * the sample. The timings and sent bytes are -1 if the sample does not have them.
+     *
+     * @param labelId from {@link #labelId(java.lang.String)}
+     * @param threadNameId from {@link #threadNameId(java.lang.String)}
+     * @param statusRef from the {@link #getStatusCodeLookup()}
+     * @param generatorId from {@link #generatorId(java.lang.String)}
+     * @param urlId from {@link #urlId(java.lang.String)}
+     */
+    /*package protected*/ void add(long timestamp, long duration, int labelId, int threadNameId,
+            int statusRef, boolean isSuccess, long bytes, int allThreads, int generatorId,
+            int urlId, int latency, int connect, long sent, int idleTime) {
+        if (finished) {
+            throw new IllegalStateException("Cannot add samples once loading is finished.");
+        }
+        ensureCapacity(size + 1);
+        int i = size;
+        offsets[i] = timestamp;
+        durations[i] = duration;
+        responseBytes[i] = bytes;
+        labelIds[i] = labelId;
+        threadNameIds[i] = threadNameId;
+        statusRefs[i] = statusRef;
+        totalThreads[i] = allThreads;
+        generatorIds[i] = generatorId;
+        urlIds[i] = urlId;
+        latencies[i] = latency;
+        connects[i] = connect;
+        sentBytes[i] = sent;
+        idleTimes[i] = idleTime;
+        success.set(i, isSuccess);
+        ++size;
+        calcMinMax(i);
+    }
+
+    /**
+     * @return the id of the label while loading, -1 if null.
+     */
+    /*package protected*/ int labelId(String label) {
+        return labels.id(label);
+    }
+
+    /**
+     * @return the id of the thread name while loading, -1 if null.
+     */
+    /*package protected*/ int threadNameId(String threadName) {
+        return threadNames.id(threadName);
+    }
+
+    /**
+     * @return the id of the generator while loading, -1 if null.
+     */
+    /*package protected*/ int generatorId(String generator) {
+        return generators.id(generator);
+    }
+
+    /**
+     * @return the id of the URL while loading, -1 if null.
+     */
+    /*package protected*/ int urlId(String url) {
+        return urls.id(url);
+    }
+
+    /**
+     * Adds all of the samples of another, still loading, set of samples, as if each of them had
+     * been added one at a time. This allows parts of a source to be loaded separately and then
+     * combined in order. The other samples may share storage with these afterward, so should no
+     * longer be used.
+     */
+    /*package protected*/ void addAll(ColumnarSamples other) {
+        if (finished) {
+            throw new IllegalStateException("Cannot add samples once loading is finished.");
+        }
+        int[] labelRemap = labels.addAll(other.labels);
+        int[] threadNameRemap = threadNames.addAll(other.threadNames);
+        int[] generatorRemap = generators.addAll(other.generators);
+        int[] urlRemap = urls.addAll(other.urls);
+        List<CharSequence> customCodes = other.statusCodeLookup.getCustomCodes();
+        List<CharSequence> customMessages = other.statusCodeLookup.getCustomMessages();
+        int[] customRemap = new int[customCodes.size()];
+        for (int i = 0; i < customRemap.length; ++i) {
+            customRemap[i] = statusCodeLookup.getRef(customCodes.get(i), customMessages.get(i));
+        }
+
+        if (size == 0 && other.start == 0) {
+            // Nothing to add to, so take the columns rather than copy them. The ids and refs are
+            // still remapped in place below.
+            offsets = other.offsets;
+            durations = other.durations;
+            responseBytes = other.responseBytes;
+            totalThreads = other.totalThreads;
+            labelIds = other.labelIds;
+            threadNameIds = other.threadNameIds;
+            statusRefs = other.statusRefs;
+            generatorIds = other.generatorIds;
+            urlIds = other.urlIds;
+            latencies = other.latencies;
+            connects = other.connects;
+            sentBytes = other.sentBytes;
+            idleTimes = other.idleTimes;
+        } else {
+            ensureCapacity(size + other.size);
+            System.arraycopy(other.offsets, other.start, offsets, size, other.size);
+            System.arraycopy(other.durations, other.start, durations, size, other.size);
+            System.arraycopy(other.responseBytes, other.start, responseBytes, size, other.size);
+            System.arraycopy(other.totalThreads, other.start, totalThreads, size, other.size);
+            System.arraycopy(other.latencies, other.start, latencies, size, other.size);
+            System.arraycopy(other.connects, other.start, connects, size, other.size);
+            System.arraycopy(other.sentBytes, other.start, sentBytes, size, other.size);
+            System.arraycopy(other.idleTimes, other.start, idleTimes, size, other.size);
+        }
+        for (int i = 0; i < other.size; ++i) {
+            int from = other.start + i;
+            int to = size + i;
+            labelIds[to] = remapId(other.labelIds[from], labelRemap);
+            threadNameIds[to] = remapId(other.threadNameIds[from], threadNameRemap);
+            generatorIds[to] = remapId(other.generatorIds[from], generatorRemap);
+            urlIds[to] = remapId(other.urlIds[from], urlRemap);
+            int customIndex = StatusCodeLookup.customIndex(other.statusRefs[from]);
+            statusRefs[to] = customIndex < 0 ? other.statusRefs[from] : customRemap[customIndex];
+            success.set(to, other.success.get(from));
+        }
+        int oldSize = size;
+        size += other.size;
+        for (int i = oldSize; i < size; ++i) {
+            calcMinMax(i);
+        }
+    }
+
+    /**
+     * Sorts the dictionaries, and makes the offsets relative to the earliest timestamp, so that 0
+     * is when the test began rather than the UNIX epoch. No more samples can be added after this.
+     */
+    /*package protected*/ void finishLoading() {
+        remapToSorted(labels, labelIds);
+        remapToSorted(threadNames, threadNameIds);
+        remapToSorted(generators, generatorIds);
+        remapToSorted(urls, urlIds);
+        for (int i = 0; i < size; ++i) {
+            offsets[i] -= earliestMillis;
+        }
+        if (offsets.length > size) {
+            offsets = Arrays.copyOf(offsets, size);
+            durations = Arrays.copyOf(durations, size);
+            responseBytes = Arrays.copyOf(responseBytes, size);
+            labelIds = Arrays.copyOf(labelIds, size);
+            threadNameIds = Arrays.copyOf(threadNameIds, size);
+            statusRefs = Arrays.copyOf(statusRefs, size);
+            totalThreads = Arrays.copyOf(totalThreads, size);
+            generatorIds = Arrays.copyOf(generatorIds, size);
+            urlIds = Arrays.copyOf(urlIds, size);
+            latencies = Arrays.copyOf(latencies, size);
+            connects = Arrays.copyOf(connects, size);
+            sentBytes = Arrays.copyOf(sentBytes, size);
+            idleTimes = Arrays.copyOf(idleTimes, size);
+        }
+        if (earliestIndex >= 0) {
+            earliest = getSample(earliestIndex);
+            latest = getSample(latestIndex);
+        }
+        finished = true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getOffset(int index) {
+        return offsets[start + index];
+    }
+
+    public long getDuration(int index) {
+        return durations[start + index];
+    }
+
+    /**
+     * @param index row of the sample
+     * @return the index of the label in {@link #getLabels()}, or -1 if it has no label.
+     */
+    public int getLabelId(int index) {
+        return labelIds[start + index];
+    }
+
+    public String getLabel(int index) {
+        return labels.get(labelIds[start + index]);
+    }
+
+    /**
+     * @param index row of the sample
+     * @return the index of the thread name in {@link #getThreadNames()}, or -1 if it has none.
+     */
+    public int getThreadNameId(int index) {
+        return threadNameIds[start + index];
+    }
+
+    public String getThreadName(int index) {
+        return threadNames.get(threadNameIds[start + index]);
+    }
+
+    /**
+     * @param index row of the sample
+     * @return the status ref, as given by the {@link #getStatusCodeLookup()}.
+     */
+    public int getStatusRef(int index) {
+        return statusRefs[start + index];
+    }
+
+    /**
+     * @param index row of the sample
+     * @return a number from 0 to {@link #getStatusIndexCount()}, exclusive, that is the same for
+     * samples with the same status, for counting the statuses in an array.
+     */
+    public int getStatusIndex(int index) {
+        return StatusCodeLookup.rankIndex(statusRefs[start + index]);
+    }
+
+    /**
+     * @return how many different statuses, including no status, the samples could have.
+     */
+    public int getStatusIndexCount() {
+        return statusCodeLookup.rankCount();
+    }
+
+    public String getStatusCode(int index) {
+        int ref = statusRefs[start + index];
+        if (ref == -1) {
+            return null;
+        }
+        return statusCodeLookup.getCode(ref).toString();
+    }
+
+    public String getStatusMessage(int index) {
+        int ref = statusRefs[start + index];
+        if (ref == -1) {
+            return null;
+        }
+        return statusCodeLookup.getMessage(ref).toString();
+    }
+
+    /**
+     * Counts the samples in a range by status code. The samples are counted by status ref, so the
+     * code of each status is only looked up once rather than once per sample.
+     *
+     * @param from index of the first sample to count, inclusive
+     * @param to index of the last sample to count, exclusive
+     * @return by status code, how many of the samples have it. Samples without a status are
+     * counted under null.
+     */
+    public Map<String, Integer> countStatusCodes(int from, int to) {
+        int[] refCounts = new int[statusCodeLookup.rankCount()];
+        for (int i = start + from; i < start + to; ++i) {
+            ++refCounts[StatusCodeLookup.rankIndex(statusRefs[i])];
+        }
+        // Several statuses can have the same code, with different messages.
+        Map<String, Integer> codeCounts = new LinkedHashMap<>();
+        for (int i = 0; i < refCounts.length; ++i) {
+            if (refCounts[i] > 0) {
+                int ref = StatusCodeLookup.refOfRankIndex(i);
+                String code = ref == -1 ? null : statusCodeLookup.getCode(ref).toString();
+                codeCounts.merge(code, refCounts[i], Integer::sum);
+            }
+        }
+        return codeCounts;
+    }
+
+    public boolean isSuccess(int index) {
+        return success.get(start + index);
+    }
+
+    public long getResponseBytes(int index) {
+        return responseBytes[start + index];
+    }
+
+    public int getTotalThreads(int index) {
+        return totalThreads[start + index];
+    }
+
+    /**
+     * @param index row of the sample
+     * @return the index of the generator in {@link #getGenerators()}, or -1 if it has none.
+     */
+    public int getGeneratorId(int index) {
+        return generatorIds[start + index];
+    }
+
+    public String getGenerator(int index) {
+        return generators.get(generatorIds[start + index]);
+    }
+
+    /**
+     * @param index row of the sample
+     * @return the index of the URL in {@link #getUrls()}, or -1 if it has none.
+     */
+    public int getUrlId(int index) {
+        return urlIds[start + index];
+    }
+
+    public String getUrl(int index) {
+        return urls.get(urlIds[start + index]);
+    }
+
+    public long getLatency(int index) {
+        return latencies[start + index];
+    }
+
+    public long getConnect(int index) {
+        return connects[start + index];
+    }
+
+    public long getSentBytes(int index) {
+        return sentBytes[start + index];
+    }
+
+    public long getIdleTime(int index) {
+        return idleTimes[start + index];
+    }
+
+    /**
+     * @param index row of the sample
+     * @param timing which time of the sample
+     * @return the time in milliseconds, or -1 if the sample does not have it.
+     */
+    public long getTime(int index, Timing timing) {
+        switch (timing) {
+            case LATENCY:
+                return getLatency(index);
+            case CONNECT:
+                return getConnect(index);
+            default:
+                return getDuration(index);
+        }
+    }
+
+    /**
+     * @param timing which time of the samples
+     * @return true if any of the samples have the time.
+     */
+    public boolean hasTime(Timing timing) {
+        for (int i = 0; i < size; ++i) {
+            if (getTime(i, timing) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates a new sample object with the values of the row.
+     *
+     * @param index row of the sample
+     * @return a new sample
+     */
+    public Sample getSample(int index) {
+        return getSample(index, new Sample());
+    }
+
+    /**
+     * Fills a sample object with the values of the row.
+     *
+     * @param index row of the sample
+     * @param sample the sample to fill, which every value is set on
+     * @return the given sample
+     */
+    public Sample getSample(int index, Sample sample) {
+        sample.setOffset(getOffset(index));
+        sample.setDuration(getDuration(index));
+        sample.setLabel(getLabel(index));
+        sample.setThreadName(getThreadName(index));
+        sample.setStatusCode(getStatusCode(index));
+        sample.setStatusMessage(getStatusMessage(index));
+        sample.setSuccess(isSuccess(index));
+        sample.setResponseBytes(getResponseBytes(index));
+        sample.setTotalThreads(getTotalThreads(index));
+        sample.setGenerator(getGenerator(index));
+        sample.setUrl(getUrl(index));
+        sample.setLatency(getLatency(index));
+        sample.setConnect(getConnect(index));
+        sample.setSentBytes(getSentBytes(index));
+        sample.setIdleTime(getIdleTime(index));
+        return sample;
+    }
+
+    /**
+     * Gives a view of a range of the rows. Like {@link List#subList(int, int)}, changes in the
+     * order of the view are reflected in this, and vice versa.
+     *
+     * @param fromIndex the first row, inclusive
+     * @param toIndex the last row, exclusive
+     * @return a view of the range of rows
+     */
+    public ColumnarSamples subSamples(int fromIndex, int toIndex) {
+        if (!finished) {
+            throw new IllegalStateException("Cannot view a range of samples until loading is finished.");
+        } else if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("fromIndex=" + fromIndex + " toIndex=" + toIndex + " size=" + size);
+        }
+        return new ColumnarSamples(this, fromIndex, toIndex);
+    }
+
+    /**
+     * Sorts the rows in the same order as {@link Sample#compareTo(Sample)}, which is mostly by
+     * offset.
+     */
+    public void sort() {
+        int[] statusRanks = statusCodeLookup.sortRanks();
+        sortRows((a, b) -> compareRows(a, b, statusRanks));
+    }
+
+    /**
+     * Sorts the rows by label, then by offset. Rows with the same label and offset keep their
+     * order relative to each other.
+     */
+    public void sortByLabel() {
+        sortRows((a, b) -> {
+            int comp = Integer.compare(labelIds[a], labelIds[b]);
+            if (comp != 0) {
+                return comp;
+            }
+            return Long.compare(offsets[a], offsets[b]);
+        });
+    }
+
+    /**
+     * @return a view of the rows as a list of samples. Each sample retrieved is a new copy, so
+     * changing it does not change the row. Sorting the list in natural order sorts the rows
+     * without creating the samples.
+     */
+    @Override
+    public List<Sample> getSamples() {
+        return new SampleListView();
+    }
+
+    @Override
+    public long getEarliestMillis() {
+        return earliestMillis;
+    }
+
+    @Override
+    public long getLatestMillis() {
+        return latestMillis;
+    }
+
+    @Override
+    public Sample getEarliestSample() {
+        return earliest;
+    }
+
+    @Override
+    public Sample getLatestSample() {
+        return latest;
+    }
+
+    @Override
+    public List<String> getLabels() {
+        return labels.values();
+    }
+
+    @Override
+    public List<String> getThreadNames() {
+        return threadNames.values();
+    }
+
+    @Override
+    public List<String> getGenerators() {
+        return generators.values();
+    }
+
+    @Override
+    public List<String> getUrls() {
+        return urls.values();
+    }
+
+    @Override
+    public StatusCodeLookup getStatusCodeLookup() {
+        return statusCodeLookup;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity <= offsets.length) {
+            return;
+        }
+        int newCapacity = Math.max(minCapacity, offsets.length * 2);
+        offsets = Arrays.copyOf(offsets, newCapacity);
+        durations = Arrays.copyOf(durations, newCapacity);
+        responseBytes = Arrays.copyOf(responseBytes, newCapacity);
+        labelIds = Arrays.copyOf(labelIds, newCapacity);
+        threadNameIds = Arrays.copyOf(threadNameIds, newCapacity);
+        statusRefs = Arrays.copyOf(statusRefs, newCapacity);
+        totalThreads = Arrays.copyOf(totalThreads, newCapacity);
+        generatorIds = Arrays.copyOf(generatorIds, newCapacity);
+        urlIds = Arrays.copyOf(urlIds, newCapacity);
+        latencies = Arrays.copyOf(latencies, newCapacity);
+        connects = Arrays.copyOf(connects, newCapacity);
+        sentBytes = Arrays.copyOf(sentBytes, newCapacity);
+        idleTimes = Arrays.copyOf(idleTimes, newCapacity);
+    }
+
+    private void calcMinMax(int index) {
+        long timestamp = offsets[index];
+        if (timestamp < earliestMillis) {
+            earliestIndex = index;
+            earliestMillis = timestamp;
+        }
+        if (timestamp > latestMillis) {
+            latestIndex = index;
+            latestMillis = timestamp;
+        }
+        long timeMillis = timestamp + durations[index];
+        if (timeMillis > latestMillis) {
+            latestIndex = index;
+            latestMillis = timeMillis;
+        }
+    }
+
+    private int compareRows(int a, int b, int[] statusRanks) {
+        if (offsets[a] != offsets[b]) {
+            return Long.compare(offsets[a], offsets[b]);
+        } else if (durations[a] != durations[b]) {
+            return Long.compare(durations[a], durations[b]);
+        } else if (labelIds[a] != labelIds[b]) {
+            // Since the labels are sorted, comparing ids is the same as comparing the labels.
+            return Integer.compare(labelIds[a], labelIds[b]);
+        } else if (threadNameIds[a] != threadNameIds[b]) {
+            return Integer.compare(threadNameIds[a], threadNameIds[b]);
+        } else if (responseBytes[a] != responseBytes[b]) {
+            return Long.compare(responseBytes[a], responseBytes[b]);
+        } else if (statusRefs[a] != statusRefs[b]) {
+            // The same as comparing the codes and then the messages.
+            int comp = Integer.compare(statusRanks[StatusCodeLookup.rankIndex(statusRefs[a])],
+                    statusRanks[StatusCodeLookup.rankIndex(statusRefs[b])]);
+            if (comp != 0) {
+                return comp;
+            }
+        }
+        if (success.get(a) != success.get(b)) {
+            return success.get(a) ? -1 : 1;
+        } else if (totalThreads[a] != totalThreads[b]) {
+            return Integer.compare(totalThreads[a], totalThreads[b]);
+        } else if (generatorIds[a] != generatorIds[b]) {
+            return Integer.compare(generatorIds[a], generatorIds[b]);
+        } else if (urlIds[a] != urlIds[b]) {
+            return Integer.compare(urlIds[a], urlIds[b]);
+        } else if (latencies[a] != latencies[b]) {
+            return Integer.compare(latencies[a], latencies[b]);
+        } else if (connects[a] != connects[b]) {
+            return Integer.compare(connects[a], connects[b]);
+        } else if (sentBytes[a] != sentBytes[b]) {
+            return Long.compare(sentBytes[a], sentBytes[b]);
+        }
+        return Integer.compare(idleTimes[a], idleTimes[b]);
+    }
+
+    /**
+     * Sorts the rows of this range with a stable merge sort of the row indexes, and then moves
+     * the values of each column into the sorted order.
+     */
+    private void sortRows(RowComparator comparator) {
+        if (!finished) {
+            throw new IllegalStateException("Cannot sort samples until loading is finished.");
+        }
+        int[] order = new int[size];
+        for (int i = 0; i < size; ++i) {
+            order[i] = start + i;
+        }
+        mergeSort(order, new int[size], 0, size, comparator);
+
+        long[] longTemp = new long[size];
+        reorder(offsets, order, longTemp);
+        reorder(durations, order, longTemp);
+        reorder(responseBytes, order, longTemp);
+        reorder(sentBytes, order, longTemp);
+        longTemp = null;
+        int[] intTemp = new int[size];
+        reorder(labelIds, order, intTemp);
+        reorder(threadNameIds, order, intTemp);
+        reorder(statusRefs, order, intTemp);
+        reorder(totalThreads, order, intTemp);
+        reorder(generatorIds, order, intTemp);
+        reorder(urlIds, order, intTemp);
+        reorder(latencies, order, intTemp);
+        reorder(connects, order, intTemp);
+        reorder(idleTimes, order, intTemp);
+        BitSet successTemp = new BitSet(size);
+        for (int i = 0; i < size; ++i) {
+            successTemp.set(i, success.get(order[i]));
+        }
+        for (int i = 0; i < size; ++i) {
+            success.set(start + i, successTemp.get(i));
+        }
+    }
+
+    private void reorder(long[] column, int[] order, long[] temp) {
+        for (int i = 0; i < order.length; ++i) {
+            temp[i] = column[order[i]];
+        }
+        System.arraycopy(temp, 0, column, start, order.length);
+    }
+
+    private void reorder(int[] column, int[] order, int[] temp) {
+        for (int i = 0; i < order.length; ++i) {
+            temp[i] = column[order[i]];
+        }
+        System.arraycopy(temp, 0, column, start, order.length);
+    }
+
+    private static void mergeSort(int[] items, int[] temp, int from, int to, RowComparator comparator) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; ++i) {
+                int item = items[i];
+                int j = i - 1;
+                while (j >= from && comparator.compare(items[j], item) > 0) {
+                    items[j + 1] = items[j];
+                    --j;
+                }
+                items[j + 1] = item;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(items, temp, from, mid, comparator);
+        mergeSort(items, temp, mid, to, comparator);
+        if (comparator.compare(items[mid - 1], items[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(items, from, temp, from, to - from);
+        int left = from;
+        int right = mid;
+        int dest = from;
+        while (left < mid && right < to) {
+            if (comparator.compare(temp[right], temp[left]) < 0) {
+                items[dest++] = temp[right++];
+            } else {
+                items[dest++] = temp[left++];
+            }
+        }
+        while (left < mid) {
+            items[dest++] = temp[left++];
+        }
+        while (right < to) {
+            items[dest++] = temp[right++];
+        }
+    }
+
+    private static int remapId(int id, int[] remap) {
+        if (id < 0) {
+            return id;
+        }
+        return remap[id];
+    }
+
+    /**
+     * Sorts the dictionary, and changes the ids of the column from first-seen order to sorted
+     * order.
+     */
+    private void remapToSorted(StringDictionary dictionary, int[] ids) {
+        int[] remap = dictionary.sort();
+        for (int i = 0; i < size; ++i) {
+            if (ids[i] >= 0) {
+                ids[i] = remap[ids[i]];
+            }
+        }
+    }
+
+    private static int toId(String value, StringDictionary dictionary) {
+        int id = dictionary.find(value);
+        if (id < 0 && value != null) {
+            throw new IllegalArgumentException("\"" + value + "\" is not one of the known values.");
+        }
+        return id;
+    }
+
+    @FunctionalInterface
+    private static interface RowComparator {
+
+        /**
+         * Compares two rows, given by their position in the columns, not relative to the range.
+         */
+        int compare(int a, int b);
+    }
+
+    private class SampleListView extends AbstractList<Sample> implements RandomAccess {
+
+        @Override
+        public Sample get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("index=" + index + " size=" + size);
+            }
+            return getSample(index);
+        }
+
+        /**
+         * Replaces the row. The label and thread name must already be among those of the
+         * samples.
+         */
+        @Override
+        public Sample set(int index, Sample sample) {
+            Sample old = get(index);
+            int i = start + index;
+            offsets[i] = sample.getOffset();
+            durations[i] = sample.getDuration();
+            responseBytes[i] = sample.getResponseBytes();
+            labelIds[i] = toId(sample.getLabel(), labels);
+            threadNameIds[i] = toId(sample.getThreadName(), threadNames);
+            statusRefs[i] = statusCodeLookup.getRef(sample.getStatusCode(), sample.getStatusMessage());
+            totalThreads[i] = sample.getTotalThreads();
+            success.set(i, sample.isSuccess());
+            return old;
+        }
+
+        @Override
+        public void sort(Comparator<? super Sample> comparator) {
+            if (comparator == null) {
+                ColumnarSamples.this.sort();
+            } else {
+                super.sort(comparator);
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
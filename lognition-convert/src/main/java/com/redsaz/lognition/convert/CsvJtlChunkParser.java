@@ -0,0 +1,163 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.api.model.Sample;
+import com.redsaz.lognition.convert.CsvJtlSource.JtlTypeColumns;
+import com.univocity.parsers.csv.CsvParser;
+import com.univocity.parsers.csv.CsvParserSettings;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads a CSV-based JTL that is given a chunk at a time, such as one that is still being written
+ * by a running test. A chunk can end part of the way through a row, in which case the start of
+ * the row is kept until the chunk that finishes it. The first row decides the columns, the same as
+ * when a whole JTL is read with {@link CsvJtlSource#parse(java.io.Reader, SampleListener, BadRows)}, and
+ * like that method, the offsets of the given samples are still in "timestamp" form.
+ * <p>
+ * Rows are split on newlines, so a quoted value that spans lines is only read correctly when it
+ * is all in the same chunk. JMeter writes each row whole, so this does not happen in practice.
+ * <p>
+ * No row may be longer than {@link #MAX_PARTIAL_BYTES}, so that a JTL that never sends a newline
+ * cannot make the unfinished row grow without end.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class CsvJtlChunkParser {
+
+    /**
+     * The most bytes of an unfinished row that are kept until the chunk that finishes it.
+     */
+    public static final int MAX_PARTIAL_BYTES = 1024 * 1024;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final SampleListener listener;
+    private final CsvParser parser = new CsvParser(new CsvParserSettings());
+    private JtlTypeColumns columns;
+    // The start of a row that has not been finished yet.
+    private byte[] partial = EMPTY;
+
+    /**
+     * @param listener receives each converted sample
+     */
+    public CsvJtlChunkParser(SampleListener listener) {
+        this.listener = listener;
+    }
+
+    public void parse(byte[] chunk) {
+        parse(chunk, 0, chunk.length);
+    }
+
+    /**
+     * Checks that the chunk would not leave more than {@link #MAX_PARTIAL_BYTES} of an unfinished
+     * row, without parsing it, so that the chunk can be rejected before anything else is done
+     * with it.
+     *
+     * @param chunk the next bytes of the JTL
+     * @param offset where in the chunk the bytes start
+     * @param length how many bytes of the chunk to read
+     * @throws IllegalArgumentException if the unfinished row would be too long
+     */
+    public void check(byte[] chunk, int offset, int length) {
+        int lastNewline = lastNewline(chunk, offset, length);
+        long partialLength = lastNewline < 0
+                ? (long) partial.length + length
+                : offset + length - lastNewline - 1;
+        if (partialLength > MAX_PARTIAL_BYTES) {
+            throw new IllegalArgumentException("A row is longer than the most allowed, "
+                    + MAX_PARTIAL_BYTES + " bytes.");
+        }
+    }
+
+    /**
+     * Converts the rows that the chunk finishes, and keeps any row that it does not.
+     *
+     * @param chunk the next bytes of the JTL
+     * @param offset where in the chunk the bytes start
+     * @param length how many bytes of the chunk to read
+     * @throws IllegalArgumentException if the first row is neither a usable header nor in the
+     * default columns, or if the chunk is rejected by {@link #check(byte[], int, int)}, in which
+     * case none of it is read.
+     */
+    public void parse(byte[] chunk, int offset, int length) {
+        check(chunk, offset, length);
+        int end = offset + length;
+        int lastNewline = lastNewline(chunk, offset, length);
+        if (lastNewline < 0) {
+            partial = concat(partial, chunk, offset, length);
+            return;
+        }
+        byte[] rows = concat(partial, chunk, offset, lastNewline + 1 - offset);
+        partial = Arrays.copyOfRange(chunk, lastNewline + 1, end);
+        parseRows(rows);
+    }
+
+    /**
+     * Converts the last row, for when the JTL does not end with a newline. Nothing more should be
+     * parsed afterwards.
+     */
+    public void finish() {
+        if (partial.length > 0) {
+            byte[] rows = partial;
+            partial = EMPTY;
+            parseRows(rows);
+        }
+    }
+
+    /**
+     * @return true once the columns are known, which is after the first row.
+     */
+    public boolean hasColumns() {
+        return columns != null;
+    }
+
+    private void parseRows(byte[] rows) {
+        // Read in the same charset as a whole JTL file is read in.
+        parser.beginParsing(new StringReader(new String(rows, Charset.defaultCharset())));
+        String[] row;
+        while ((row = parser.parseNext()) != null) {
+            if (columns == null) {
+                columns = new JtlTypeColumns(row);
+                if (!columns.headerAbsent()) {
+                    continue;
+                }
+            }
+            Sample sample = columns.convert(row);
+            if (sample != null) {
+                listener.sampleProcessed(sample);
+            }
+        }
+        parser.stopParsing();
+    }
+
+    private static int lastNewline(byte[] chunk, int offset, int length) {
+        for (int i = offset + length - 1; i >= offset; --i) {
+            if (chunk[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] concat(byte[] start, byte[] chunk, int offset, int length) {
+        byte[] joined = Arrays.copyOf(start, start.length + length);
+        System.arraycopy(chunk, offset, joined, start.length, length);
+        return joined;
+    }
+}
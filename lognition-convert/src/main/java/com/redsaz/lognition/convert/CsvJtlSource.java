@@ -23,24 +23,21 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.EnumSet;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Loads PreSamples from a CSV-based JTL source.
+ * Loads samples from a CSV-based JTL source into columns.
  *
  * @author Redsaz <redsaz@gmail.com>
  */
-public class CsvJtlSource implements Samples {
+public class CsvJtlSource extends ColumnarSamples {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CsvJtlSource.class);
 
@@ -49,153 +46,163 @@ public class CsvJtlSource implements Samples {
             JtlType.RESPONSE_CODE, JtlType.THREAD_NAME, JtlType.SUCCESS,
             JtlType.BYTES, JtlType.ALL_THREADS);
 
-    private final List<Sample> samples = new ArrayList<>();
-    private long earliestMillis = Long.MAX_VALUE;
-    private Sample earliest = null;
-    private long latestMillis = Long.MIN_VALUE;
-    private Sample latest = null;
-    private final List<String> labels = new ArrayList<>();
-    private final List<String> threadNames = new ArrayList<>();
-    private final StatusCodeLookup statusCodeLookup = new StatusCodeLookup();
-
     public CsvJtlSource(File source) {
-        try {
-            long startMillis = System.currentTimeMillis();
-            LOGGER.debug("Loading samples from file {}...", source);
-            readCsvFile(source, labels, threadNames);
-            LOGGER.debug("...took {}ms to read {} rows.",
-                    System.currentTimeMillis() - startMillis,
-                    samples.size());
-        } catch (RuntimeException | IOException ex) {
-            throw new AppServerException("Unable to convert file.", ex);
-        }
-
-    }
-
-    @Override
-    public List<Sample> getSamples() {
-        return samples;
-    }
-
-    @Override
-    public long getEarliestMillis() {
-        return earliestMillis;
-    }
-
-    @Override
-    public long getLatestMillis() {
-        return latestMillis;
+        this(source, 1);
     }
 
-    @Override
-    public Sample getEarliestSample() {
-        return earliest;
+    public CsvJtlSource(File source, int parallelism) {
+        this(source, parallelism, new BadRows());
     }
 
-    @Override
-    public Sample getLatestSample() {
-        return latest;
+    /**
+     * Loads the samples, parsing different parts of the file on different threads. The parts are
+     * combined in order, so the samples are the same as when loaded with a single thread. The rows
+     * are decoded directly from the bytes of the file where possible, see {@link MappedJtlReader}.
+     *
+     * @param source the CSV-based JTL to load
+     * @param parallelism how many threads to parse with
+     * @param badRows counts the rows that are skipped
+     */
+    public CsvJtlSource(File source, int parallelism, BadRows badRows) {
+        this(source, parallelism, ParallelCsvParser.DEFAULT_MIN_RANGE_BYTES, badRows);
     }
 
-    @Override
-    public List<String> getLabels() {
-        return Collections.unmodifiableList(labels);
+    /*package protected*/ CsvJtlSource(File source, int parallelism, long minRangeBytes) {
+        this(source, parallelism, minRangeBytes, new BadRows());
     }
 
-    @Override
-    public List<String> getThreadNames() {
-        return Collections.unmodifiableList(threadNames);
-    }
+    /*package protected*/ CsvJtlSource(File source, int parallelism, long minRangeBytes, BadRows badRows) {
+        try {
+            long startMillis = System.currentTimeMillis();
+            LOGGER.debug("Loading samples from file {}...", source);
+            load(source, parallelism, minRangeBytes, badRows);
+            finishLoading();
+            LOGGER.debug("...took {}ms to read {} rows.",
+                    System.currentTimeMillis() - startMillis,
+                    size());
+        } catch (RuntimeException | IOException ex) {
+            throw new AppServerException("Unable to convert file.", ex);
+        }
 
-    @Override
-    public StatusCodeLookup getStatusCodeLookup() {
-        return statusCodeLookup;
     }
 
-    private void readCsvFile(File source, List<String> outLabels, List<String> outThreadNames) throws IOException {
-        Set<String> readLabels = new HashSet<>();
-        Set<String> readThreadNames = new HashSet<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(source))) {
-            CsvParserSettings settings = new CsvParserSettings();
-            CsvParser parser = new CsvParser(settings);
-            parser.beginParsing(br);
-            String[] row = parser.parseNext();
-            if (row == null) {
-                throw new RuntimeException("JTL (CSV) contained no data.");
-            }
-            JtlTypeColumns jtc = new JtlTypeColumns(row);
-            if (jtc.headerAbsent()) {
-                Sample psRow = jtc.convert(row);
-                if (psRow != null) {
-                    update(psRow);
-                    readLabels.add(psRow.getLabel());
-                    readThreadNames.add(psRow.getThreadName());
-                }
-            }
-            while ((row = parser.parseNext()) != null) {
-                Sample psRow = jtc.convert(row);
-                if (psRow != null) {
-                    update(psRow);
-                    readLabels.add(psRow.getLabel());
-                    readThreadNames.add(psRow.getThreadName());
+    private void load(File source, int parallelism, long minRangeBytes, BadRows badRows) throws IOException {
+        ParallelCsvParser parser = new ParallelCsvParser(source, parallelism, minRangeBytes);
+        String[] firstRecord = parser.parseFirstRecord();
+        if (firstRecord == null) {
+            throw new RuntimeException("JTL (CSV) contained no data.");
+        }
+        JtlTypeColumns columns = new JtlTypeColumns(firstRecord, badRows);
+        List<ColumnarSamples> ranges;
+        if (MappedJtlReader.canRead(Charset.defaultCharset())) {
+            ranges = parser.readRanges(columns.headerAbsent(), (channel, start, end, rangeIndex) -> {
+                JtlTypeColumns jtc = new JtlTypeColumns(columns);
+                ColumnarSamples range = new ColumnarSamples();
+                new MappedJtlReader(jtc.getColTypes(), jtc::convert, range).read(channel, start, end);
+                return range;
+            });
+        } else {
+            ranges = parser.parseRecords(columns.headerAbsent(), (rows, rangeIndex) -> {
+                JtlTypeColumns jtc = new JtlTypeColumns(columns);
+                ColumnarSamples range = new ColumnarSamples();
+                String[] row;
+                while ((row = rows.parseNext()) != null) {
+                    Sample psRow = jtc.convert(row);
+                    if (psRow != null) {
+                        range.add(psRow);
+                    }
                 }
-            }
-            parser.stopParsing();
+                return range;
+            });
+        }
+        for (int i = 0; i < ranges.size(); ++i) {
+            addAll(ranges.get(i));
+            // Each range is no longer needed once added.
+            ranges.set(i, null);
         }
-        normalizeOffset();
-        outLabels.addAll(readLabels);
-        Collections.sort(outLabels);
-        outThreadNames.addAll(readThreadNames);
-        Collections.sort(outThreadNames);
     }
 
-    private void update(Sample row) {
-        samples.add(row);
-        calcMinMax(row);
-        statusCodeLookup.getRef(row.getStatusCode(), row.getStatusMessage());
-        if (samples.size() % 1000000L == 0) {
-            LOGGER.debug("\tRunning row total: {}", samples.size());
-        }
+    /**
+     * Reads the rows of a CSV-based JTL, handing each sample to the listener as soon as it is
+     * converted. Rows that cannot be converted are skipped. Unlike the samples given by an
+     * instance of this class, the offsets of the given samples are still in "timestamp" form,
+     * since the earliest timestamp is not known until the whole file is read. A new sample
+     * instance is given for each row.
+     *
+     * @param source the CSV-based JTL to read
+     * @param listener receives each converted sample
+     * @throws IOException if the file could not be read
+     */
+    public static void parse(File source, SampleListener listener) throws IOException {
+        parse(source, listener, new BadRows());
     }
 
-    private void calcMinMax(Sample row) {
-        long timestamp = row.getOffset();
-        if (timestamp < earliestMillis) {
-            earliest = row;
-            earliestMillis = timestamp;
-        }
-        if (timestamp > latestMillis) {
-            latest = row;
-            latestMillis = timestamp;
-        }
-        long duration = row.getDuration();
-        long timeMillis = timestamp + duration;
-        if (timeMillis > latestMillis) {
-            latest = row;
-            latestMillis = timeMillis;
+    /**
+     * Same as {@link #parse(java.io.File, com.redsaz.lognition.convert.SampleListener)}, but
+     * the rows that are skipped are counted.
+     *
+     * @param source the CSV-based JTL to read
+     * @param listener receives each converted sample
+     * @param badRows counts the rows that are skipped
+     * @throws IOException if the file could not be read
+     */
+    public static void parse(File source, SampleListener listener, BadRows badRows) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(source))) {
+            parse(br, listener, badRows);
         }
     }
 
     /**
-     * At this point, all of the samples offsets are still in "timestamp" form. This will subtract
-     * the earliest timestamp from all of the timestamps, so that they become 0-based offsets, 0
-     * being when the test began, rather than the UNIX epoch.
+     * Same as {@link #parse(java.io.File, com.redsaz.lognition.convert.SampleListener, BadRows)},
+     * but reads from a reader, which is not closed.
+     *
+     * @param source the CSV-based JTL contents to read
+     * @param listener receives each converted sample
+     * @param badRows counts the rows that are skipped
      */
-    private void normalizeOffset() {
-        for (Sample sample : samples) {
-            sample.setOffset(sample.getOffset() - earliestMillis);
+    public static void parse(Reader source, SampleListener listener, BadRows badRows) {
+        CsvParserSettings settings = new CsvParserSettings();
+        CsvParser parser = new CsvParser(settings);
+        parser.beginParsing(source);
+        String[] row = parser.parseNext();
+        if (row == null) {
+            throw new RuntimeException("JTL (CSV) contained no data.");
+        }
+        JtlTypeColumns jtc = new JtlTypeColumns(row, badRows);
+        if (jtc.headerAbsent()) {
+            Sample psRow = jtc.convert(row);
+            if (psRow != null) {
+                listener.sampleProcessed(psRow);
+            }
+        }
+        while ((row = parser.parseNext()) != null) {
+            Sample psRow = jtc.convert(row);
+            if (psRow != null) {
+                listener.sampleProcessed(psRow);
+            }
         }
+        parser.stopParsing();
     }
 
-    private static class JtlTypeColumns {
+    /*package protected*/ static class JtlTypeColumns {
 
         private List<JtlType> colTypes;
         private final boolean headerAbsent;
-        // Rather than have potentially a bunch of instances of identical strings, store previously
-        // seen strings (rather than use String.intern()
-        private final Map<String, String> stringPool = new HashMap<>();
+        // Rather than have potentially a bunch of instances of identical strings, keep each distinct
+        // string once. The same dictionary type gives the ids that later stages work with.
+        private final StringDictionary strings = new StringDictionary();
+        private final BadRows badRows;
 
         public JtlTypeColumns(String[] header) {
+            this(header, new BadRows());
+        }
+
+        /**
+         * @param header the first row, which is the header unless the JTL has none
+         * @param badRows counts the rows that cannot be converted
+         */
+        public JtlTypeColumns(String[] header, BadRows badRows) {
+            this.badRows = badRows;
             if (HeaderCheckUtil.isJtlHeaderRow(header)) {
                 headerAbsent = false;
                 colTypes = new ArrayList<>(header.length);
@@ -222,6 +229,20 @@ public class CsvJtlSource implements Samples {
             }
         }
 
+        /**
+         * Creates columns of the same types as another, for use on a different thread. The bad
+         * rows are counted together with the other.
+         */
+        public JtlTypeColumns(JtlTypeColumns other) {
+            colTypes = other.colTypes;
+            headerAbsent = other.headerAbsent;
+            badRows = other.badRows;
+        }
+
+        public List<JtlType> getColTypes() {
+            return colTypes;
+        }
+
         public boolean headerAbsent() {
             return headerAbsent;
         }
@@ -232,49 +253,37 @@ public class CsvJtlSource implements Samples {
 
         /**
          * Converts the row into a typed row. If the number of columns don't match the expected
-         * columns, null is returned.
+         * columns, or a value cannot be converted, the row is counted as bad and null is
+         * returned.
          *
          * @param row what to convert
          * @return a typed row, or null if it couldn't be converted.
          */
         public Sample convert(String[] row) {
             if (row.length != colTypes.size()) {
-                LOGGER.warn("Skipping bad row. Expected {} columns but got {}. Contents:\n{}",
-                        colTypes.size(), row.length, Arrays.toString(row));
+                badRows.wrongColumnCount(colTypes.size(), row);
                 return null;
             }
-            try {
-                Sample out = new Sample();
-                for (int i = 0; i < row.length; ++i) {
-                    String colVal = row[i];
-                    JtlType colType = colTypes.get(i);
-                    if (colType != null) {
+            Sample out = new Sample();
+            for (int i = 0; i < row.length; ++i) {
+                String colVal = row[i];
+                JtlType colType = colTypes.get(i);
+                if (colType != null) {
+                    try {
                         colType.putIn(out, colVal);
+                    } catch (NumberFormatException ex) {
+                        badRows.badValue(colType, colVal, ex, row);
+                        return null;
                     }
                 }
-                out.setLabel(stringPoolerize(out.getLabel()));
-                out.setStatusCode(stringPoolerize(out.getStatusCode()));
-                out.setStatusMessage(stringPoolerize(out.getStatusMessage()));
-                out.setThreadName(stringPoolerize(out.getThreadName()));
-                return out;
-            } catch (NumberFormatException ex) {
-                LOGGER.warn("Skipping bad row. Encountered {} when converting row. Contents:\n{}",
-                        ex.getMessage(), Arrays.toString(row));
-                return null;
-            }
-        }
-
-        // Like String.intern(), but not global
-        private String stringPoolerize(String value) {
-            if (value == null) {
-                return null;
-            }
-            String old = stringPool.get(value);
-            if (old == null) {
-                stringPool.put(value, value);
-                old = value;
             }
-            return old;
+            out.setLabel(strings.intern(out.getLabel()));
+            out.setStatusCode(strings.intern(out.getStatusCode()));
+            out.setStatusMessage(strings.intern(out.getStatusMessage()));
+            out.setThreadName(strings.intern(out.getThreadName()));
+            out.setGenerator(strings.intern(out.getGenerator()));
+            out.setUrl(strings.intern(out.getUrl()));
+            return out;
         }
     }
 }
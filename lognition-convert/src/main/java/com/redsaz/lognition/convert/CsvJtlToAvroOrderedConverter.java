@@ -16,21 +16,69 @@
 package com.redsaz.lognition.convert;
 
 import com.redsaz.lognition.api.exceptions.AppServerException;
+import com.redsaz.lognition.api.model.Sample;
+import com.redsaz.lognition.convert.CsvJtlToAvroStreamingConverter.IntermediateInfo;
+import com.redsaz.lognition.convert.model.HttpSample;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Convert a CSV-based JTL file into an Avro file.
+ * Convert a CSV-based JTL file into an Avro file, with the samples sorted.
+ * <p>
+ * By default all of the samples are read into memory and sorted there. When given a memory
+ * budget, the samples are instead sorted externally, so that logs larger than the heap can be
+ * converted: the source is read in runs of as many samples as fit in the budget, each run is
+ * sorted and spilled to its own intermediate file, and then the runs are merged into the final
+ * file. The output is the same either way.
+ * <p>
+ * The JTLs of a distributed test, one from each load generator, can also be merged into one file
+ * with {@link #merge(java.util.Map, java.io.File, SampleListener)}. Each JTL is sorted into runs
+ * on its own, and then the runs of all of them are merged together, so the samples are ordered by
+ * their timestamps rather than by generator, and each sample is tagged with its generator.
  *
  * @author Redsaz <redsaz@gmail.com>
  */
 public class CsvJtlToAvroOrderedConverter implements Converter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CsvJtlToAvroOrderedConverter.class);
-    private static final SamplesWriter writer = new AvroSamplesWriter();
+
+    // About how much memory each sample in a run takes: the columns it is stored in, the room
+    // they are given to grow, and what sorting them needs.
+    /*package protected*/ static final long BYTES_PER_RUN_SAMPLE = 128L;
+    private static final int MIN_RUN_SAMPLES = 1024;
+
+    private final SamplesWriter writer;
+    private final AvroWriterSettings avroSettings;
+    // Zero when everything is sorted in memory.
+    private final int runSamples;
 
     public static void main(String[] args) throws IOException {
 //        File source = new File("../lognition/jtls/target/real-large.jtl");
@@ -44,14 +92,50 @@ public class CsvJtlToAvroOrderedConverter implements Converter {
         conv.convert(source, dest);
     }
 
+    public CsvJtlToAvroOrderedConverter() {
+        this(AvroWriterSettings.defaults());
+    }
+
+    /**
+     * @param avroSettings how the samples are compressed and blocked
+     */
+    public CsvJtlToAvroOrderedConverter(AvroWriterSettings avroSettings) {
+        this(0, avroSettings);
+    }
+
+    /**
+     * Creates a converter that sorts externally, holding only so many samples in memory at a
+     * time.
+     *
+     * @param avroSettings how the samples are compressed and blocked, in both the runs and the
+     * final file
+     * @param memoryBudgetBytes about how much memory the samples being sorted can take
+     */
+    public CsvJtlToAvroOrderedConverter(AvroWriterSettings avroSettings, long memoryBudgetBytes) {
+        this(runSamples(memoryBudgetBytes), avroSettings);
+    }
+
+    /**
+     * @param runSamples how many samples to sort in memory at a time, or 0 to sort all of them
+     * in memory
+     */
+    /*package protected*/ CsvJtlToAvroOrderedConverter(int runSamples, AvroWriterSettings avroSettings) {
+        this.runSamples = runSamples;
+        this.avroSettings = avroSettings;
+        writer = new AvroSamplesWriter(avroSettings);
+    }
+
     @Override
     public String convert(File source, File dest) {
+        if (runSamples > 0) {
+            return convertExternally(source, dest);
+        }
         try {
             long startMillis = System.currentTimeMillis();
             LOGGER.debug("Converting {} to {}...", source, dest);
-            Samples sourceSamples = new CsvJtlSource(source);
-            Collections.sort(sourceSamples.getSamples());
-            long totalRows = sourceSamples.getSamples().size();
+            CsvJtlSource sourceSamples = new CsvJtlSource(source);
+            sourceSamples.sort();
+            long totalRows = sourceSamples.size();
             LOGGER.debug("...took {}ms to read and sort {} rows. Creating dest={}...",
                     System.currentTimeMillis() - startMillis,
                     totalRows,
@@ -65,4 +149,334 @@ public class CsvJtlToAvroOrderedConverter implements Converter {
         }
     }
 
+    private static int runSamples(long memoryBudgetBytes) {
+        if (memoryBudgetBytes < 1L) {
+            throw new IllegalArgumentException("Memory budget must be at least 1 byte, but was " + memoryBudgetBytes + ".");
+        }
+        long samples = memoryBudgetBytes / BYTES_PER_RUN_SAMPLE;
+        return (int) Math.max(MIN_RUN_SAMPLES, Math.min(Integer.MAX_VALUE - 8, samples));
+    }
+
+    private String convertExternally(File source, File dest) {
+        // Without a generator, the samples are not tagged with one.
+        return convertExternally(Collections.singletonMap(null, source), dest, null, new BadRows());
+    }
+
+    /**
+     * Merges the CSV-based JTLs of several load generators into one Avro file. The timestamps of
+     * all of the JTLs are used as they are, so the offsets of the samples are from the earliest
+     * sample of any generator, and the samples of different generators taken at the same time are
+     * next to each other. Each sample is tagged with the name of its generator, which is stored
+     * in a dictionary like the labels.
+     * <p>
+     * The samples are sorted externally even when the converter would otherwise sort them in
+     * memory, in which case each whole JTL is one run, so only one JTL is in memory at a time.
+     *
+     * @param sources the JTL of each generator, by the name of the generator
+     * @param dest where the merged Avro file is written
+     * @param listener receives each sample as it is written, in order and with offsets from the
+     * earliest sample, can be null
+     * @return the SHA-256 hash of the merged file
+     */
+    public String merge(Map<String, File> sources, File dest, SampleListener listener) {
+        return merge(sources, dest, listener, new BadRows());
+    }
+
+    /**
+     * Same as {@link #merge(java.util.Map, java.io.File, SampleListener)}, but the rows that are
+     * skipped are counted, for all of the JTLs together.
+     *
+     * @param sources the JTL of each generator, by the name of the generator
+     * @param dest where the merged Avro file is written
+     * @param listener receives each sample as it is written, can be null
+     * @param badRows counts the rows that are skipped
+     * @return the SHA-256 hash of the merged file
+     */
+    public String merge(Map<String, File> sources, File dest, SampleListener listener, BadRows badRows) {
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("At least one JTL is needed to merge.");
+        }
+        if (sources.containsKey(null)) {
+            throw new IllegalArgumentException("Every JTL to merge needs the name of its generator.");
+        }
+        return convertExternally(sources, dest, listener, badRows);
+    }
+
+    /**
+     * Same as {@link #merge(java.util.Map, java.io.File, SampleListener)}, but the JTLs are the
+     * files in a zip, each named for its generator. The name of the generator is the name of the
+     * file without its extension, so "lg-01.jtl" is from "lg-01". Each JTL is read straight from
+     * the zip into its sorted runs, so none of them are extracted.
+     *
+     * @param zip holds the JTL of each generator
+     * @param dest where the merged Avro file is written
+     * @param listener receives each sample as it is written, can be null
+     * @return the SHA-256 hash of the merged file
+     */
+    public String mergeZip(File zip, File dest, SampleListener listener) {
+        return mergeZip(zip, dest, listener, new BadRows());
+    }
+
+    /**
+     * Same as {@link #mergeZip(java.io.File, java.io.File, SampleListener)}, but the rows that are
+     * skipped are counted, for all of the JTLs together.
+     *
+     * @param zip holds the JTL of each generator
+     * @param dest where the merged Avro file is written
+     * @param listener receives each sample as it is written, can be null
+     * @param badRows counts the rows that are skipped
+     * @return the SHA-256 hash of the merged file
+     */
+    public String mergeZip(File zip, File dest, SampleListener listener, BadRows badRows) {
+        try {
+            return sortAndMerge(dest, listener, (info, runFiles) -> {
+                Set<String> generators = new HashSet<>();
+                try (ZipInputStream zin = new ZipInputStream(new BufferedInputStream(new FileInputStream(zip)))) {
+                    ZipEntry entry;
+                    while ((entry = zin.getNextEntry()) != null) {
+                        if (entry.isDirectory()) {
+                            continue;
+                        }
+                        String generator = generatorName(entry.getName());
+                        if (!generators.add(generator)) {
+                            throw new IOException("More than one JTL is from generator " + generator + ".");
+                        }
+                        LOGGER.debug("Converting {} of {} to {} in sorted runs of {} rows...", entry.getName(), zip,
+                                dest, runSamples > 0 ? runSamples : "all");
+                        // The parser closes what it reads once done, but the zip has more JTLs.
+                        Reader entryReader = new BufferedReader(new InputStreamReader(unclosable(zin), Charset.defaultCharset()));
+                        spillSortedRuns(entryReader, generator, info, dest, runFiles, badRows);
+                    }
+                }
+                if (generators.isEmpty()) {
+                    throw new IOException("There are no JTLs in " + zip + " to merge.");
+                }
+            });
+        } catch (RuntimeException | IOException ex) {
+            throw new AppServerException("Unable to merge " + zip + ".", ex);
+        }
+    }
+
+    private static InputStream unclosable(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public void close() {
+                // The stream is closed by whoever opened it.
+            }
+        };
+    }
+
+    /**
+     * @param entryName the name of a file in a zip
+     * @return the name without the extension, but with any directories, so that the same file
+     * name in different directories is still from different generators.
+     */
+    /*package protected*/ static String generatorName(String entryName) {
+        int start = entryName.lastIndexOf('/') + 1;
+        int end = entryName.indexOf('.', start);
+        return end > start ? entryName.substring(0, end) : entryName;
+    }
+
+    private String convertExternally(Map<String, File> sources, File dest, SampleListener listener,
+            BadRows badRows) {
+        try {
+            return sortAndMerge(dest, listener, (info, runFiles) -> {
+                for (Map.Entry<String, File> source : sources.entrySet()) {
+                    LOGGER.debug("Converting {} to {} in sorted runs of {} rows...", source.getValue(), dest,
+                            runSamples > 0 ? runSamples : "all");
+                    try (BufferedReader br = new BufferedReader(new FileReader(source.getValue()))) {
+                        spillSortedRuns(br, source.getKey(), info, dest, runFiles, badRows);
+                    }
+                }
+            });
+        } catch (RuntimeException | IOException ex) {
+            throw new AppServerException("Unable to convert file.", ex);
+        }
+    }
+
+    /**
+     * Has the sources spilled into sorted runs, then merges the runs into the destination. The run
+     * files are always deleted afterwards, whether or not the merge worked.
+     */
+    private String sortAndMerge(File dest, SampleListener listener, RunSpiller spiller) throws IOException {
+        List<File> runFiles = new ArrayList<>();
+        long startMillis = System.currentTimeMillis();
+        String sha256Hash;
+        try {
+            IntermediateInfo info = new IntermediateInfo();
+            spiller.spill(info, runFiles);
+            LOGGER.debug("...took {}ms to read and sort {} rows into {} runs. Merging into dest={}...",
+                    System.currentTimeMillis() - startMillis,
+                    info.numRows,
+                    runFiles.size(),
+                    dest);
+            try (MergedRuns merged = new MergedRuns(runFiles, info.sampleOrder())) {
+                // Merged in order, so a time bin is finished as soon as a later one starts.
+                sha256Hash = info.writeAvro(merged, 0L, dest, listener, avroSettings);
+            }
+            LOGGER.debug("{}ms to convert {} rows to {}.",
+                    (System.currentTimeMillis() - startMillis), info.numRows, dest);
+        } finally {
+            for (File file : runFiles) {
+                if (file.exists() && !file.delete()) {
+                    LOGGER.error("Could not delete intermediate file {}! It is no longer needed and must be deleted manually.", file);
+                }
+            }
+        }
+        return sha256Hash;
+    }
+
+    /**
+     * Reads the source in runs of samples, sorting each run and writing it to its own
+     * intermediate file, in the intermediate form of {@link CsvJtlToAvroStreamingConverter}.
+     *
+     * @param source the CSV-based JTL contents, which are closed once read
+     * @param generator what the samples are tagged with, can be null
+     * @param info tracks the rows
+     * @param runFiles gets each run file as it is created, for cleanup
+     * @param badRows counts the rows that are skipped
+     */
+    private void spillSortedRuns(Reader source, String generator, IntermediateInfo info, File dest,
+            List<File> runFiles, BadRows badRows) throws IOException {
+        int maxRunSamples = runSamples > 0 ? runSamples : Integer.MAX_VALUE;
+        // Only the latest run is held in memory.
+        List<ColumnarSamples> run = new ArrayList<>(1);
+        run.add(new ColumnarSamples());
+        try {
+            CsvJtlSource.parse(source, (sample) -> {
+                info.track(sample);
+                ColumnarSamples samples = run.get(0);
+                samples.add(sample);
+                if (samples.size() >= maxRunSamples) {
+                    spill(samples, generator, info, nextRunFile(dest, runFiles));
+                    run.set(0, new ColumnarSamples());
+                }
+            }, badRows);
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        if (run.get(0).size() > 0) {
+            spill(run.get(0), generator, info, nextRunFile(dest, runFiles));
+        }
+    }
+
+    private static File nextRunFile(File dest, List<File> runFiles) {
+        File runFile = new File(dest.getParent(), dest.getName() + ".run" + runFiles.size());
+        runFiles.add(runFile);
+        return runFile;
+    }
+
+    private void spill(ColumnarSamples samples, String generator, IntermediateInfo info, File runFile) {
+        long startMillis = System.currentTimeMillis();
+        samples.finishLoading();
+        samples.sort();
+        DatumWriter<HttpSample> datumWriter = new SpecificDatumWriter<>(HttpSample.class);
+        try (DataFileWriter<HttpSample> dataFileWriter = avroSettings.applyTo(new DataFileWriter<>(datumWriter))) {
+            dataFileWriter.create(HttpSample.getClassSchema(), runFile);
+            HttpSample reuse = new HttpSample();
+            for (int i = 0; i < samples.size(); ++i) {
+                Sample sample = samples.getSample(i);
+                // The run offsets are relative to the earliest of the run, but the intermediate
+                // form uses the timestamp.
+                sample.setOffset(sample.getOffset() + samples.getEarliestMillis());
+                // All of the samples of a run are from the same generator, so the columns do not
+                // need to hold it.
+                sample.setGenerator(generator);
+                dataFileWriter.append(info.toIntermediate(sample, reuse));
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        LOGGER.debug("{}ms to sort and spill {} rows to {}.",
+                System.currentTimeMillis() - startMillis, samples.size(), runFile);
+    }
+
+    /**
+     * Spills samples into sorted runs.
+     */
+    @FunctionalInterface
+    private static interface RunSpiller {
+
+        /**
+         * @param info tracks the rows
+         * @param runFiles gets each run file as it is created, for cleanup
+         */
+        void spill(IntermediateInfo info, List<File> runFiles) throws IOException;
+    }
+
+    /**
+     * Merges the sorted runs by repeatedly taking the least of the next rows of each run.
+     */
+    private static class MergedRuns implements IntermediateInfo.Rows, Closeable {
+
+        private final List<Run> runs = new ArrayList<>();
+        private final PriorityQueue<Run> heads;
+        private Run taken;
+
+        MergedRuns(List<File> runFiles, Comparator<HttpSample> order) throws IOException {
+            heads = new PriorityQueue<>(Math.max(1, runFiles.size()), (a, b) -> {
+                int comp = order.compare(a.current, b.current);
+                // Rows that are the same are taken in the order of their runs.
+                return comp != 0 ? comp : Integer.compare(a.index, b.index);
+            });
+            try {
+                for (File runFile : runFiles) {
+                    Run run = new Run(runs.size(),
+                            new DataFileReader<>(runFile, new SpecificDatumReader<>(HttpSample.class)));
+                    runs.add(run);
+                    if (run.advance()) {
+                        heads.add(run);
+                    }
+                }
+            } catch (IOException | RuntimeException ex) {
+                close();
+                throw ex;
+            }
+        }
+
+        @Override
+        public HttpSample next(HttpSample reuse) throws IOException {
+            // The row given last time is no longer needed, so its run can move on.
+            if (taken != null && taken.advance()) {
+                heads.add(taken);
+            }
+            taken = heads.poll();
+            return taken == null ? null : taken.current;
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (Run run : runs) {
+                try {
+                    run.reader.close();
+                } catch (IOException ex) {
+                    failure = ex;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private static class Run {
+
+        private final int index;
+        private final DataFileReader<HttpSample> reader;
+        private HttpSample current;
+
+        Run(int index, DataFileReader<HttpSample> reader) {
+            this.index = index;
+            this.reader = reader;
+        }
+
+        boolean advance() throws IOException {
+            if (!reader.hasNext()) {
+                return false;
+            }
+            current = reader.next(current);
+            return true;
+        }
+    }
 }
@@ -0,0 +1,935 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
+import com.redsaz.lognition.api.exceptions.AppServerException;
+import com.redsaz.lognition.api.model.Sample;
+import com.redsaz.lognition.convert.model.HttpSample;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.Encoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.util.Utf8;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Convert a CSV-based JTL file into an Avro file without ever holding all of the samples in
+ * memory, keeping the rows in the order they were in the source. The output is the same as what
+ * {@link AvroSamplesWriter} creates from a {@link CsvJtlSource} of the same file.
+ * <p>
+ * The Avro header needs the earliest timestamp and the sorted labels and thread names before the
+ * first row can be written, so the rows are first spooled into a compact intermediate file with
+ * references in the order they were first seen, and then rewritten into the final form. Each
+ * sample can be handed to a {@link SampleListener} as it is written, so that stats can be
+ * calculated in the same pass.
+ * <p>
+ * Spooling the rows is what takes the longest for large files, so it is checkpointed every so
+ * often: the intermediate file is synced to disk, and where the source was read up to is saved
+ * alongside it. If the conversion is interrupted, such as by the process being killed, then the
+ * next conversion of the same source to the same destination carries on from the last
+ * checkpoint rather than starting over. The rows between two checkpoints are decoded on several
+ * threads, the same way {@link CsvJtlSource} decodes a whole file, and then spooled in order. The checkpoint is kept when the conversion fails too, so
+ * that trying again carries on from it, until it is either finished or given up on with
+ * {@link #discardCheckpoint(File)}.
+ * <p>
+ * XML-based JTLs are converted too, read with {@link XmlJtlSource}. Where an XML document was
+ * read up to cannot be picked up from again, so they are not checkpointed.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class CsvJtlToAvroStreamingConverter implements Converter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CsvJtlToAvroStreamingConverter.class);
+
+    /*package protected*/ static final long DEFAULT_CHECKPOINT_BYTES = 256L * 1024L * 1024L;
+
+    private final long checkpointBytes;
+    private final int parallelism;
+    private final AvroWriterSettings avroSettings;
+
+    public CsvJtlToAvroStreamingConverter() {
+        this(AvroWriterSettings.defaults());
+    }
+
+    /**
+     * @param avroSettings how the samples are compressed and blocked, in both the intermediate
+     * and the final file
+     */
+    public CsvJtlToAvroStreamingConverter(AvroWriterSettings avroSettings) {
+        this(avroSettings, 1);
+    }
+
+    /**
+     * @param avroSettings how the samples are compressed and blocked, in both the intermediate
+     * and the final file
+     * @param parallelism how many threads the CSV rows between checkpoints are read with
+     */
+    public CsvJtlToAvroStreamingConverter(AvroWriterSettings avroSettings, int parallelism) {
+        this(DEFAULT_CHECKPOINT_BYTES, parallelism, avroSettings);
+    }
+
+    /**
+     * @param checkpointBytes about how many bytes of the source to read between checkpoints
+     */
+    /*package protected*/ CsvJtlToAvroStreamingConverter(long checkpointBytes) {
+        this(checkpointBytes, AvroWriterSettings.defaults());
+    }
+
+    /*package protected*/ CsvJtlToAvroStreamingConverter(long checkpointBytes, AvroWriterSettings avroSettings) {
+        this(checkpointBytes, 1, avroSettings);
+    }
+
+    /*package protected*/ CsvJtlToAvroStreamingConverter(long checkpointBytes, int parallelism,
+            AvroWriterSettings avroSettings) {
+        this.checkpointBytes = Math.max(1L, checkpointBytes);
+        this.parallelism = Math.max(1, parallelism);
+        this.avroSettings = avroSettings;
+    }
+
+    @Override
+    public String convert(File source, File dest) {
+        return convert(source, dest, null);
+    }
+
+    /**
+     * Converts the CSV-based or XML-based JTL into an Avro file, giving each sample, with its
+     * offset relative to the earliest sample, to the listener in the order the samples are
+     * written.
+     *
+     * @param source the JTL to convert
+     * @param dest where the Avro file is written
+     * @param listener receives each sample as it is written, can be null
+     * @return the SHA-256 hash of the written file
+     */
+    public String convert(File source, File dest, SampleListener listener) {
+        return convert(source, dest, listener, new BadRows());
+    }
+
+    /**
+     * Same as {@link #convert(java.io.File, java.io.File, SampleListener)}, but the rows that are
+     * skipped are counted. When the conversion resumes from a checkpoint, the counts of the rows
+     * read before the checkpoint are kept with it.
+     *
+     * @param source the JTL to convert
+     * @param dest where the Avro file is written
+     * @param listener receives each sample as it is written, can be null
+     * @param badRows counts the rows that are skipped
+     * @return the SHA-256 hash of the written file
+     */
+    public String convert(File source, File dest, SampleListener listener, BadRows badRows) {
+        return convert(source, dest, listener, true, (intermediate, checkpoint) -> {
+            if (XmlJtlSource.isXml(source)) {
+                try (InputStream in = new BufferedInputStream(new FileInputStream(source))) {
+                    return xmlToIntermediate(in, intermediate, badRows);
+                }
+            }
+            return csvToIntermediate(source, intermediate, checkpoint, badRows);
+        });
+    }
+
+    /**
+     * Same as {@link #convert(java.io.File, java.io.File, SampleListener)}, but the JTL is read
+     * from a stream as it arrives, such as while it is being uploaded. The stream can only be read
+     * once, so the conversion is not checkpointed. The stream is not closed.
+     *
+     * @param source the JTL contents to convert
+     * @param dest where the Avro file is written
+     * @param listener receives each sample as it is written, can be null
+     * @return the SHA-256 hash of the written file
+     */
+    public String convert(InputStream source, File dest, SampleListener listener) {
+        return convert(source, dest, listener, new BadRows());
+    }
+
+    /**
+     * Same as {@link #convert(java.io.InputStream, java.io.File, SampleListener)}, but the rows
+     * that are skipped are counted.
+     *
+     * @param source the JTL contents to convert
+     * @param dest where the Avro file is written
+     * @param listener receives each sample as it is written, can be null
+     * @param badRows counts the rows that are skipped
+     * @return the SHA-256 hash of the written file
+     */
+    public String convert(InputStream source, File dest, SampleListener listener, BadRows badRows) {
+        return convert("stream", dest, listener, false, (intermediate, checkpoint) -> {
+            InputStream in = source.markSupported() ? source : new BufferedInputStream(source);
+            if (XmlJtlSource.isXml(in)) {
+                return xmlToIntermediate(in, intermediate, badRows);
+            }
+            return csvToIntermediate(in, intermediate, badRows);
+        });
+    }
+
+    /**
+     * Spools the rows of the source into the intermediate file.
+     */
+    private interface Spooler {
+
+        IntermediateInfo spool(File intermediateFile, File checkpointFile) throws IOException;
+    }
+
+    /**
+     * Deletes the checkpoint and the intermediate file of a conversion to the destination, such as
+     * when a conversion that keeps failing will not be tried again.
+     *
+     * @param dest where the Avro file would have been written
+     */
+    public static void discardCheckpoint(File dest) {
+        deleteIfExists(checkpointFileOf(dest));
+        deleteIfExists(intermediateFileOf(dest));
+    }
+
+    private static File checkpointFileOf(File dest) {
+        return new File(dest.getParent(), dest.getName() + ".checkpoint");
+    }
+
+    private static File intermediateFileOf(File dest) {
+        return new File(dest.getParent(), dest.getName() + ".intermediate");
+    }
+
+    /**
+     * @param resumable true if a failed conversion can carry on from its last checkpoint, so the
+     * checkpoint is kept, or false to delete what was spooled
+     */
+    private String convert(Object source, File dest, SampleListener listener, boolean resumable,
+            Spooler spooler) {
+        File intermediateFile = intermediateFileOf(dest);
+        File checkpointFile = checkpointFileOf(dest);
+        long startMillis = System.currentTimeMillis();
+        long totalRows = 0;
+        String sha256Hash = null;
+        try {
+            LOGGER.debug("Converting {} to {}...", source, dest);
+            LOGGER.debug("Creating intermediate file...");
+            IntermediateInfo info = spooler.spool(intermediateFile, checkpointFile);
+            LOGGER.debug("...intermediate file created in {}ms after reading {} rows. Creating dest={}...",
+                    System.currentTimeMillis() - startMillis,
+                    info.numRows,
+                    dest);
+            sha256Hash = info.writeAvro(intermediateFile, dest, listener, avroSettings);
+            totalRows = info.numRows;
+        } catch (RuntimeException | IOException ex) {
+            if (resumable && checkpointFile.exists()) {
+                LOGGER.info("Kept checkpoint {} so that converting {} again carries on from it.", checkpointFile, source);
+            } else {
+                deleteIfExists(checkpointFile);
+                deleteIfExists(intermediateFile);
+            }
+            throw new AppServerException("Unable to convert file.", ex);
+        }
+        deleteIfExists(checkpointFile);
+        deleteIfExists(intermediateFile);
+        LOGGER.debug("{}ms to convert {} rows to {}.",
+                (System.currentTimeMillis() - startMillis), totalRows, dest);
+        return sha256Hash;
+    }
+
+    private IntermediateInfo csvToIntermediate(File source, File dest, File checkpointFile,
+            BadRows badRows) throws IOException {
+        // Each chunk between checkpoints is split into ranges for the threads.
+        ParallelCsvParser parser = new ParallelCsvParser(source, parallelism,
+                Math.min(ParallelCsvParser.DEFAULT_MIN_RANGE_BYTES, checkpointBytes / parallelism));
+        String[] firstRecord = parser.parseFirstRecord();
+        if (firstRecord == null) {
+            throw new RuntimeException("JTL (CSV) contained no data.");
+        }
+        CsvJtlSource.JtlTypeColumns jtc = new CsvJtlSource.JtlTypeColumns(firstRecord, badRows);
+
+        DatumWriter<HttpSample> userDatumWriter = new SpecificDatumWriter<>(HttpSample.class);
+        // When resuming, the intermediate file keeps the codec it was started with.
+        DataFileWriter<HttpSample> writer = avroSettings.applyTo(new DataFileWriter<>(userDatumWriter));
+        Checkpoint checkpoint = Checkpoint.read(checkpointFile, source, dest);
+        IntermediateInfo info;
+        long from;
+        if (checkpoint == null) {
+            if (dest.exists()) {
+                LOGGER.debug("File \"{}\" already exists. It will be replaced.", dest);
+            }
+            info = new IntermediateInfo();
+            from = 0L;
+            writer.create(HttpSample.getClassSchema(), dest);
+        } else {
+            LOGGER.info("Resuming conversion of {} at byte {}, after {} rows.",
+                    source, checkpoint.sourcePosition, checkpoint.info.numRows);
+            info = checkpoint.info;
+            from = checkpoint.sourcePosition;
+            badRows.addAll(checkpoint.badRows);
+            // Anything written after the checkpoint was not checkpointed, so is written again.
+            try (FileChannel channel = FileChannel.open(dest.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(checkpoint.intermediateLength);
+            }
+            writer.appendTo(dest);
+        }
+
+        try (DataFileWriter<HttpSample> dataFileWriter = writer) {
+            HttpSample reuse = new HttpSample();
+            if (MappedJtlReader.canRead(Charset.defaultCharset())) {
+                // The ranges of a chunk are decoded at the same time, and then spooled in order.
+                Sample sample = new Sample();
+                parser.readChunks(jtc.headerAbsent(), from, checkpointBytes, (channel, start, end, rangeIndex) -> {
+                    CsvJtlSource.JtlTypeColumns rangeJtc = new CsvJtlSource.JtlTypeColumns(jtc);
+                    ColumnarSamples range = new ColumnarSamples();
+                    new MappedJtlReader(rangeJtc.getColTypes(), rangeJtc::convert, range).read(channel, start, end);
+                    return range;
+                }, (ranges, chunkEnd) -> {
+                    for (ColumnarSamples range : ranges) {
+                        for (int i = 0; i < range.size(); ++i) {
+                            dataFileWriter.append(info.update(range.getSample(i, sample), reuse));
+                        }
+                    }
+                    checkpoint(dataFileWriter, source, chunkEnd, dest, info, badRows, checkpointFile);
+                });
+            } else {
+                parser.parseChunks(jtc.headerAbsent(), from, checkpointBytes, (rows, chunkEnd) -> {
+                    String[] row;
+                    while ((row = rows.parseNext()) != null) {
+                        Sample sample = jtc.convert(row);
+                        if (sample != null) {
+                            dataFileWriter.append(info.update(sample, reuse));
+                        }
+                    }
+                    checkpoint(dataFileWriter, source, chunkEnd, dest, info, badRows, checkpointFile);
+                });
+            }
+        }
+        return info;
+    }
+
+    /**
+     * Syncs what was spooled so far to disk, and saves where the source was read up to.
+     */
+    private void checkpoint(DataFileWriter<HttpSample> dataFileWriter, File source, long sourcePosition,
+            File dest, IntermediateInfo info, BadRows badRows, File checkpointFile) throws IOException {
+        dataFileWriter.sync();
+        dataFileWriter.fSync();
+        new Checkpoint(source, sourcePosition, dest.length(), info, badRows).write(checkpointFile);
+        checkpointed(sourcePosition, dest, checkpointFile);
+    }
+
+    /**
+     * Called after each checkpoint is saved. Does nothing, but can be overridden to follow the
+     * progress of a conversion.
+     *
+     * @param sourcePosition where the source was read up to
+     * @param intermediate the intermediate file, synced up to the checkpoint
+     * @param checkpointFile where the checkpoint was saved
+     * @throws IOException if the progress could not be handled
+     */
+    /*package protected*/ void checkpointed(long sourcePosition, File intermediate, File checkpointFile) throws IOException {
+    }
+
+    private IntermediateInfo csvToIntermediate(InputStream source, File dest, BadRows badRows) throws IOException {
+        Reader reader = new BufferedReader(new InputStreamReader(source, Charset.defaultCharset()));
+        return spoolToIntermediate(dest, listener -> CsvJtlSource.parse(reader, listener, badRows));
+    }
+
+    private IntermediateInfo xmlToIntermediate(InputStream source, File dest, BadRows badRows) throws IOException {
+        return spoolToIntermediate(dest, listener -> XmlJtlSource.parse(source, false, listener, badRows));
+    }
+
+    /**
+     * Reads samples from a source which cannot be checkpointed.
+     */
+    private interface SampleSource {
+
+        void parse(SampleListener listener) throws IOException;
+    }
+
+    private IntermediateInfo spoolToIntermediate(File dest, SampleSource source) throws IOException {
+        DatumWriter<HttpSample> userDatumWriter = new SpecificDatumWriter<>(HttpSample.class);
+        IntermediateInfo info = new IntermediateInfo();
+        if (dest.exists()) {
+            LOGGER.debug("File \"{}\" already exists. It will be replaced.", dest);
+        }
+        try (DataFileWriter<HttpSample> dataFileWriter = avroSettings.applyTo(new DataFileWriter<>(userDatumWriter))) {
+            dataFileWriter.create(HttpSample.getClassSchema(), dest);
+            HttpSample reuse = new HttpSample();
+            source.parse((row) -> {
+                try {
+                    dataFileWriter.append(info.update(row, reuse));
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        }
+        return info;
+    }
+
+    private static void deleteIfExists(File file) {
+        if (file.exists()) {
+            boolean success = file.delete();
+            if (!success) {
+                LOGGER.error("Could not delete intermediate file {}! It is no longer needed and must be deleted manually.", file);
+            }
+        }
+    }
+
+    /**
+     * How far the rows of a source have been spooled into an intermediate file.
+     */
+    private static class Checkpoint {
+
+        private static final int VERSION = 6;
+
+        private final long sourceLength;
+        private final long sourceLastModified;
+        private final long sourcePosition;
+        private final long intermediateLength;
+        private final IntermediateInfo info;
+        private final BadRows badRows;
+
+        Checkpoint(File source, long sourcePosition, long intermediateLength, IntermediateInfo info,
+                BadRows badRows) {
+            this(source.length(), source.lastModified(), sourcePosition, intermediateLength, info, badRows);
+        }
+
+        private Checkpoint(long sourceLength, long sourceLastModified, long sourcePosition,
+                long intermediateLength, IntermediateInfo info, BadRows badRows) {
+            this.sourceLength = sourceLength;
+            this.sourceLastModified = sourceLastModified;
+            this.sourcePosition = sourcePosition;
+            this.intermediateLength = intermediateLength;
+            this.info = info;
+            this.badRows = badRows;
+        }
+
+        /**
+         * Reads the checkpoint, if there is one for the source and the intermediate file.
+         *
+         * @return the checkpoint, or null if the conversion is to start from the beginning.
+         */
+        static Checkpoint read(File checkpointFile, File source, File intermediate) {
+            if (!checkpointFile.exists()) {
+                return null;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+                if (in.readInt() != VERSION) {
+                    LOGGER.warn("Checkpoint {} is from a different version. Starting over.", checkpointFile);
+                    return null;
+                }
+                long sourceLength = in.readLong();
+                long sourceLastModified = in.readLong();
+                long sourcePosition = in.readLong();
+                long intermediateLength = in.readLong();
+                IntermediateInfo info = IntermediateInfo.read(in);
+                BadRows badRows = new BadRows();
+                badRows.read(in);
+                Checkpoint checkpoint = new Checkpoint(sourceLength, sourceLastModified, sourcePosition,
+                        intermediateLength, info, badRows);
+                if (checkpoint.sourceLength != source.length()
+                        || checkpoint.sourceLastModified != source.lastModified()) {
+                    LOGGER.warn("Source {} changed since checkpoint {} was made. Starting over.", source, checkpointFile);
+                    return null;
+                } else if (intermediate.length() < checkpoint.intermediateLength) {
+                    LOGGER.warn("Intermediate file {} is shorter than checkpoint {} expects. Starting over.", intermediate, checkpointFile);
+                    return null;
+                }
+                return checkpoint;
+            } catch (IOException ex) {
+                LOGGER.warn("Could not read checkpoint {}. Starting over.", checkpointFile, ex);
+                return null;
+            }
+        }
+
+        /**
+         * Replaces the checkpoint file with this checkpoint, such that if interrupted, the
+         * previous checkpoint is still whole.
+         */
+        void write(File checkpointFile) throws IOException {
+            File temp = new File(checkpointFile.getParent(), checkpointFile.getName() + ".tmp");
+            try (FileOutputStream fos = new FileOutputStream(temp);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+                out.writeInt(VERSION);
+                out.writeLong(sourceLength);
+                out.writeLong(sourceLastModified);
+                out.writeLong(sourcePosition);
+                out.writeLong(intermediateLength);
+                info.write(out);
+                badRows.write(out);
+                out.flush();
+                fos.getFD().sync();
+            }
+            Files.move(temp.toPath(), checkpointFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Tracks what is needed to write the Avro header while rows are spooled into an intermediate
+     * form, and then writes the intermediate rows into the final form. Also used by
+     * {@link CsvJtlToAvroOrderedConverter}, which spools sorted runs of rows.
+     */
+    /*package protected*/ static class IntermediateInfo {
+
+        /**
+         * Gives intermediate rows one at a time.
+         */
+        /*package protected*/ interface Rows {
+
+            /**
+             * @param reuse can be filled and returned rather than creating a new row, can be
+             * null
+             * @return the next row, or null if there are no more.
+             */
+            HttpSample next(HttpSample reuse) throws IOException;
+        }
+
+        // Because we don't care about syncing, but DO care about repeatably
+        // creating the same output data given the same input data, we'll use
+        // our own sync marker rather than the randomly generated one that avro
+        // gives us.
+        private static final byte[] SYNC = new byte[16];
+
+        long earliest = Long.MAX_VALUE;
+        long latest = Long.MIN_VALUE;
+        long numRows;
+        // How far out of order the rows are, so that stats built as they are written know when a
+        // time bin can have no more samples.
+        private long latestStart = Long.MIN_VALUE;
+        private long maxLateMillis;
+        // The intermediate rows refer to labels and thread names in the order they were first
+        // seen, since the final (sorted) order isn't known until everything is read.
+        private final StringDictionary labels = new StringDictionary();
+        private final StringDictionary threadNames = new StringDictionary();
+        // Only samples merged from several load generators have one.
+        private final StringDictionary generators = new StringDictionary();
+        private final StringDictionary urls = new StringDictionary();
+        private final StatusCodeLookup statusCodeLookup;
+        private final FieldPresence presence = new FieldPresence();
+
+        IntermediateInfo() {
+            statusCodeLookup = new StatusCodeLookup();
+        }
+
+        private IntermediateInfo(StatusCodeLookup statusCodeLookup) {
+            this.statusCodeLookup = statusCodeLookup;
+        }
+
+        /**
+         * Reads what was tracked so far from a checkpoint.
+         */
+        static IntermediateInfo read(DataInputStream in) throws IOException {
+            long earliest = in.readLong();
+            long latest = in.readLong();
+            long numRows = in.readLong();
+            long latestStart = in.readLong();
+            long maxLateMillis = in.readLong();
+            List<String> labels = readStrings(in);
+            List<String> threadNames = readStrings(in);
+            List<CharSequence> codes = new ArrayList<>(readStrings(in));
+            List<CharSequence> messages = new ArrayList<>(readStrings(in));
+            List<String> generators = readStrings(in);
+            List<String> urls = readStrings(in);
+            IntermediateInfo info = new IntermediateInfo(new StatusCodeLookup(codes, messages));
+            info.earliest = earliest;
+            info.latest = latest;
+            info.numRows = numRows;
+            info.latestStart = latestStart;
+            info.maxLateMillis = maxLateMillis;
+            info.presence.addAll(new FieldPresence(in.readLong()));
+            labels.forEach(info.labels::id);
+            threadNames.forEach(info.threadNames::id);
+            generators.forEach(info.generators::id);
+            urls.forEach(info.urls::id);
+            return info;
+        }
+
+        /**
+         * Writes what was tracked so far into a checkpoint.
+         */
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(earliest);
+            out.writeLong(latest);
+            out.writeLong(numRows);
+            out.writeLong(latestStart);
+            out.writeLong(maxLateMillis);
+            writeStrings(out, labels.values());
+            writeStrings(out, threadNames.values());
+            writeStrings(out, statusCodeLookup.getCustomCodes());
+            writeStrings(out, statusCodeLookup.getCustomMessages());
+            writeStrings(out, generators.values());
+            writeStrings(out, urls.values());
+            out.writeLong(presence.getBits());
+        }
+
+        private static List<String> readStrings(DataInputStream in) throws IOException {
+            int size = in.readInt();
+            List<String> items = new ArrayList<>(size);
+            for (int i = 0; i < size; ++i) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                items.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            return items;
+        }
+
+        private static void writeStrings(DataOutputStream out, List<? extends CharSequence> items) throws IOException {
+            out.writeInt(items.size());
+            for (CharSequence item : items) {
+                byte[] bytes = item.toString().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        /**
+         * Tracks the row, and fills the reusable intermediate sample with it, where the offset is
+         * the timestamp and the label and thread name refs are in the order first seen.
+         */
+        public HttpSample update(Sample row, HttpSample reuse) {
+            track(row);
+            return toIntermediate(row, reuse);
+        }
+
+        /**
+         * Tracks the row, without converting it yet. The custom status code is given its ref
+         * now, so that the refs are in the order first seen in the source.
+         */
+        public void track(Sample row) {
+            ++numRows;
+            calcTimes(row.getOffset(), row.getDuration());
+            int statusRef = statusCodeLookup.getRef(row.getStatusCode(), row.getStatusMessage());
+            presence.track(statusRef != 0, row.getResponseBytes(), row.getTotalThreads());
+            presence.track(row.getUrl() != null, row.getLatency(), row.getConnect(),
+                    row.getSentBytes(), row.getIdleTime());
+            if (numRows % 1000000L == 0) {
+                LOGGER.debug("Read {} rows for intermediate file so far.", numRows);
+            }
+        }
+
+        /**
+         * Fills the reusable intermediate sample with the row, where the offset is the timestamp
+         * and the label and thread name refs are in the order first seen.
+         */
+        public HttpSample toIntermediate(Sample row, HttpSample reuse) {
+            reuse.setMillisOffset(row.getOffset());
+            reuse.setMillisElapsed(row.getDuration());
+            reuse.setLabelRef(labels.id(row.getLabel()) + 1);
+            reuse.setThreadNameRef(threadNames.id(row.getThreadName()) + 1);
+            reuse.setResponseCodeRef(statusCodeLookup.getRef(row.getStatusCode(), row.getStatusMessage()));
+            reuse.setSuccess(row.isSuccess());
+            reuse.setResponseBytes(row.getResponseBytes());
+            reuse.setTotalThreads(row.getTotalThreads());
+            reuse.setGeneratorRef(generators.id(row.getGenerator()) + 1);
+            reuse.setUrlRef(urls.id(row.getUrl()) + 1);
+            reuse.setMillisLatency(row.getLatency());
+            reuse.setMillisConnect(row.getConnect());
+            reuse.setSentBytes(row.getSentBytes());
+            reuse.setMillisIdle(row.getIdleTime());
+            return reuse;
+        }
+
+        /**
+         * Gives an order of intermediate rows that is the same as the order of the samples they
+         * will become, see {@link Sample#compareTo(Sample)}. Only valid until more rows are
+         * tracked.
+         */
+        public Comparator<HttpSample> sampleOrder() {
+            int[] labelRemap = createRemap(labels);
+            int[] threadNameRemap = createRemap(threadNames);
+            int[] generatorRemap = createRemap(generators);
+            int[] urlRemap = createRemap(urls);
+            int[] statusRanks = statusCodeLookup.sortRanks();
+            return (a, b) -> {
+                // The fields are boxed, so are compared by value rather than with ==.
+                int comp = Long.compare(a.getMillisOffset(), b.getMillisOffset());
+                if (comp != 0) {
+                    return comp;
+                }
+                comp = Long.compare(a.getMillisElapsed(), b.getMillisElapsed());
+                if (comp != 0) {
+                    return comp;
+                }
+                // Refs remapped to the sorted order compare the same as the strings.
+                comp = Integer.compare(labelRemap[a.getLabelRef()], labelRemap[b.getLabelRef()]);
+                if (comp != 0) {
+                    return comp;
+                }
+                comp = Integer.compare(threadNameRemap[a.getThreadNameRef()], threadNameRemap[b.getThreadNameRef()]);
+                if (comp != 0) {
+                    return comp;
+                }
+                comp = Long.compare(a.getResponseBytes(), b.getResponseBytes());
+                if (comp != 0) {
+                    return comp;
+                }
+                // Ranked the same as comparing the codes and then the messages.
+                comp = Integer.compare(statusRanks[StatusCodeLookup.rankIndex(a.getResponseCodeRef())],
+                        statusRanks[StatusCodeLookup.rankIndex(b.getResponseCodeRef())]);
+                if (comp != 0) {
+                    return comp;
+                }
+                comp = Boolean.compare(b.getSuccess(), a.getSuccess());
+                if (comp != 0) {
+                    // Successes come first.
+                    return comp;
+                }
+                comp = Integer.compare(a.getTotalThreads(), b.getTotalThreads());
+                if (comp != 0) {
+                    return comp;
+                }
+                comp = Integer.compare(generatorRemap[a.getGeneratorRef()], generatorRemap[b.getGeneratorRef()]);
+                if (comp != 0) {
+                    return comp;
+                }
+                comp = Integer.compare(urlRemap[a.getUrlRef()], urlRemap[b.getUrlRef()]);
+                if (comp != 0) {
+                    return comp;
+                }
+                comp = Long.compare(a.getMillisLatency(), b.getMillisLatency());
+                if (comp != 0) {
+                    return comp;
+                }
+                comp = Long.compare(a.getMillisConnect(), b.getMillisConnect());
+                if (comp != 0) {
+                    return comp;
+                }
+                comp = Long.compare(a.getSentBytes(), b.getSentBytes());
+                if (comp != 0) {
+                    return comp;
+                }
+                return Long.compare(a.getMillisIdle(), b.getMillisIdle());
+            };
+        }
+
+        private void calcTimes(long timestamp, long duration) {
+            if (timestamp < earliest) {
+                earliest = timestamp;
+            }
+            if (timestamp > latest) {
+                latest = timestamp;
+            }
+            if (timestamp > latestStart) {
+                latestStart = timestamp;
+            } else if (latestStart - timestamp > maxLateMillis) {
+                maxLateMillis = latestStart - timestamp;
+            }
+            long timeMillis = timestamp + duration;
+            if (timeMillis > latest) {
+                latest = timeMillis;
+            }
+        }
+
+        /**
+         * Converts the intermediate information into the final format.
+         *
+         * @param intermediateSource Has the intermediate data
+         * @param dest Destination of the final format
+         * @param listener receives each sample as it is written, can be null
+         * @param avroSettings how the samples are compressed and blocked
+         * @throws IOException If the input could not be read or the output could not be written.
+         */
+        public String writeAvro(File intermediateSource, File dest, SampleListener listener,
+                AvroWriterSettings avroSettings) throws IOException {
+            DatumReader<HttpSample> httpSampleDatumReader = new SpecificDatumReader<>(HttpSample.class);
+            try (DataFileReader<HttpSample> reader = new DataFileReader<>(intermediateSource, httpSampleDatumReader)) {
+                return writeAvro(reuse -> reader.hasNext() ? reader.next(reuse) : null,
+                        maxLateMillis, dest, listener, avroSettings);
+            }
+        }
+
+        /**
+         * Same as
+         * {@link #writeAvro(java.io.File, java.io.File, SampleListener, AvroWriterSettings)}, but
+         * the intermediate rows can come from anywhere.
+         *
+         * @param rows the intermediate rows, in the order they are to be written
+         * @param rowsMaxLateMillis the furthest any row is behind the latest offset of the rows
+         * before it, or 0 if the rows are in order of offset
+         */
+        public String writeAvro(Rows rows, long rowsMaxLateMillis, File dest, SampleListener listener,
+                AvroWriterSettings avroSettings) throws IOException {
+            String sha256Hash = null;
+            if (dest.exists()) {
+                LOGGER.debug("File \"{}\" already exists. It will be replaced.", dest);
+            }
+            List<String> sortedLabels = labels.sortedValues();
+            int[] labelRemap = createRemap(labels);
+            List<String> sortedThreadNames = threadNames.sortedValues();
+            int[] threadNameRemap = createRemap(threadNames);
+            List<String> sortedGenerators = generators.sortedValues();
+            int[] generatorRemap = createRemap(generators);
+            List<String> sortedUrls = urls.sortedValues();
+            int[] urlRemap = createRemap(urls);
+
+            DatumWriter<HttpSample> httpSampleDatumWriter = new SpecificDatumWriter<>(HttpSample.class);
+            try (HashingOutputStream hos = new HashingOutputStream(Hashing.sha256(), new BufferedOutputStream(new FileOutputStream(dest)))) {
+                BlockIndex.Recorder blocks = new BlockIndex.Recorder(hos);
+                try (DataFileWriter<HttpSample> dataFileWriter = avroSettings.applyTo(new DataFileWriter<>(httpSampleDatumWriter))) {
+                    dataFileWriter.setMeta("earliest", earliest);
+                    dataFileWriter.setMeta("latest", latest);
+                    dataFileWriter.setMeta("numRows", numRows);
+
+                    if (!sortedLabels.isEmpty()) {
+                        writeMetaStringArray(dataFileWriter, "labels", toUtf8(sortedLabels));
+                    }
+
+                    if (!sortedThreadNames.isEmpty()) {
+                        writeMetaStringArray(dataFileWriter, "threadNames", toUtf8(sortedThreadNames));
+                    }
+
+                    if (!sortedGenerators.isEmpty()) {
+                        writeMetaStringArray(dataFileWriter, "generators", toUtf8(sortedGenerators));
+                    }
+
+                    if (!sortedUrls.isEmpty()) {
+                        writeMetaStringArray(dataFileWriter, "urls", toUtf8(sortedUrls));
+                    }
+
+                    List<CharSequence> codes = statusCodeLookup.getCustomCodes();
+                    List<CharSequence> messages = statusCodeLookup.getCustomMessages();
+                    if (codes != null && !codes.isEmpty()) {
+                        writeMetaStringArray(dataFileWriter, "codes", codes);
+                        writeMetaStringArray(dataFileWriter, "messages", messages);
+                    }
+                    presence.writeMeta(dataFileWriter);
+                    dataFileWriter.create(HttpSample.getClassSchema(), blocks.getStream(), SYNC);
+                    blocks.created();
+
+                    if (listener != null && numRows > 0L) {
+                        listener.samplesStarting(latestStart - earliest, rowsMaxLateMillis);
+                    }
+                    HttpSample httpSample = new HttpSample();
+                    Sample sample = new Sample();
+                    long numRowsWritten = 0;
+                    long writeStartMs = System.currentTimeMillis();
+                    while ((httpSample = rows.next(httpSample)) != null) {
+                        httpSample.setMillisOffset(httpSample.getMillisOffset() - earliest);
+                        httpSample.setLabelRef(labelRemap[httpSample.getLabelRef()]);
+                        httpSample.setThreadNameRef(threadNameRemap[httpSample.getThreadNameRef()]);
+                        httpSample.setGeneratorRef(generatorRemap[httpSample.getGeneratorRef()]);
+                        httpSample.setUrlRef(urlRemap[httpSample.getUrlRef()]);
+                        dataFileWriter.append(httpSample);
+                        blocks.appended(httpSample.getMillisOffset());
+                        if (listener != null) {
+                            listener.sampleProcessed(toSample(httpSample, sortedLabels, sortedThreadNames,
+                                    sortedGenerators, sortedUrls, sample));
+                        }
+                        ++numRowsWritten;
+                        if (numRowsWritten % 1000000L == 0) {
+                            LOGGER.debug("{}ms to write {} of {} rows.",
+                                    System.currentTimeMillis() - writeStartMs,
+                                    numRowsWritten, numRows);
+                        }
+                    }
+                }
+                sha256Hash = hos.hash().toString();
+                blocks.finished().write(BlockIndex.indexFileFor(dest));
+            }
+            return sha256Hash;
+        }
+
+        private Sample toSample(HttpSample hs, List<String> sortedLabels,
+                List<String> sortedThreadNames, List<String> sortedGenerators,
+                List<String> sortedUrls, Sample reuse) {
+            int codeRef = hs.getResponseCodeRef();
+            reuse.setOffset(hs.getMillisOffset());
+            reuse.setDuration(hs.getMillisElapsed());
+            reuse.setLabel(refToString(hs.getLabelRef(), sortedLabels));
+            reuse.setThreadName(refToString(hs.getThreadNameRef(), sortedThreadNames));
+            if (codeRef == -1) {
+                reuse.setStatusCode(null);
+                reuse.setStatusMessage(null);
+            } else {
+                reuse.setStatusCode(statusCodeLookup.getCode(codeRef).toString());
+                reuse.setStatusMessage(statusCodeLookup.getMessage(codeRef).toString());
+            }
+            reuse.setSuccess(hs.getSuccess());
+            reuse.setResponseBytes(hs.getResponseBytes());
+            reuse.setTotalThreads(hs.getTotalThreads());
+            reuse.setGenerator(refToString(hs.getGeneratorRef(), sortedGenerators));
+            reuse.setUrl(refToString(hs.getUrlRef(), sortedUrls));
+            reuse.setLatency(hs.getMillisLatency());
+            reuse.setConnect(hs.getMillisConnect());
+            reuse.setSentBytes(hs.getSentBytes());
+            reuse.setIdleTime(hs.getMillisIdle());
+            return reuse;
+        }
+
+        private static String refToString(int ref, List<String> items) {
+            if (ref < 1) {
+                return null;
+            }
+            return items.get(ref - 1);
+        }
+
+        /**
+         * Creates a lookup where the index is the first-seen ref, and the value is the final
+         * (sorted) ref. Index 0 maps to 0, since that is what null values get.
+         */
+        private static int[] createRemap(StringDictionary firstSeen) {
+            int[] sortedIds = firstSeen.sortedIds();
+            int[] remap = new int[sortedIds.length + 1];
+            for (int i = 0; i < sortedIds.length; ++i) {
+                remap[i + 1] = sortedIds[i] + 1;
+            }
+            return remap;
+        }
+
+        private static List<CharSequence> toUtf8(List<String> items) {
+            List<CharSequence> list = new ArrayList<>(items.size());
+            for (String item : items) {
+                list.add(new Utf8(item));
+            }
+            return list;
+        }
+
+        private static void writeMetaStringArray(DataFileWriter<?> dataFileWriter, String name, Collection<CharSequence> items) throws IOException {
+            try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+                Encoder enc = EncoderFactory.get().directBinaryEncoder(baos, null);
+                enc.writeArrayStart();
+                enc.setItemCount(items.size());
+                for (CharSequence item : items) {
+                    enc.writeString(item);
+                }
+                enc.writeArrayEnd();
+                dataFileWriter.setMeta(name, baos.toByteArray());
+            }
+        }
+    }
+}
@@ -29,9 +29,10 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
@@ -65,29 +66,91 @@ public class CsvJtlToAvroUnorderedConverter implements Converter {
             JtlType.RESPONSE_CODE, JtlType.THREAD_NAME, JtlType.SUCCESS,
             JtlType.BYTES, JtlType.ALL_THREADS);
 
+    private final int parallelism;
+    private final long minRangeBytes;
+    private final AvroWriterSettings avroSettings;
+
+    public CsvJtlToAvroUnorderedConverter() {
+        this(1);
+    }
+
+    /**
+     * Creates a converter that parses different parts of the source on different threads. The
+     * output is the same as when converted with a single thread.
+     *
+     * @param parallelism how many threads to parse with
+     */
+    public CsvJtlToAvroUnorderedConverter(int parallelism) {
+        this(parallelism, AvroWriterSettings.defaults());
+    }
+
+    /**
+     * Same as {@link #CsvJtlToAvroUnorderedConverter(int)}, but the intermediate and final files
+     * are written with the given settings.
+     *
+     * @param parallelism how many threads to parse with
+     * @param avroSettings how the samples are compressed and blocked
+     */
+    public CsvJtlToAvroUnorderedConverter(int parallelism, AvroWriterSettings avroSettings) {
+        this(parallelism, ParallelCsvParser.DEFAULT_MIN_RANGE_BYTES, avroSettings);
+    }
+
+    /*package protected*/ CsvJtlToAvroUnorderedConverter(int parallelism, long minRangeBytes) {
+        this(parallelism, minRangeBytes, AvroWriterSettings.defaults());
+    }
+
+    /*package protected*/ CsvJtlToAvroUnorderedConverter(int parallelism, long minRangeBytes,
+            AvroWriterSettings avroSettings) {
+        this.parallelism = parallelism;
+        this.minRangeBytes = minRangeBytes;
+        this.avroSettings = avroSettings;
+    }
+
     @Override
     public String convert(File source, File dest) {
+        return convert(source, dest, new BadRows());
+    }
+
+    /**
+     * Same as {@link #convert(java.io.File, java.io.File)}, but the rows that are skipped are
+     * counted.
+     *
+     * @param source the CSV-based JTL to convert
+     * @param dest where the Avro file is written
+     * @param badRows counts the rows that are skipped
+     * @return the SHA-256 hash of the written file
+     */
+    public String convert(File source, File dest, BadRows badRows) {
         File intermediateFile = new File(dest.getParent(), dest.getName() + ".intermediate");
+        List<File> intermediateFiles = Collections.synchronizedList(new ArrayList<>());
         long startMillis = System.currentTimeMillis();
         long totalRows = 0;
         String sha256Hash = null;
         try {
             LOGGER.debug("Converting {} to {}...", source, dest);
             LOGGER.debug("Creating intermediate file...");
-            IntermediateInfo info = csvToIntermediate(source, intermediateFile);
+            IntermediateInfo info;
+            if (parallelism > 1) {
+                info = csvToIntermediates(source, intermediateFile, intermediateFiles, badRows);
+            } else {
+                intermediateFiles.add(intermediateFile);
+                info = csvToIntermediate(source, intermediateFile, badRows);
+            }
             LOGGER.debug("...intermediate file created in {}ms after reading {} rows. Creating dest={}...",
                     System.currentTimeMillis() - startMillis,
                     info.numRows,
                     dest);
-            sha256Hash = info.writeAvro(intermediateFile, dest);
+            sha256Hash = info.writeAvro(info.files, dest, avroSettings);
             totalRows = info.numRows;
         } catch (RuntimeException | IOException ex) {
             throw new AppServerException("Unable to convert file.", ex);
         } finally {
-            if (intermediateFile.exists()) {
-                boolean success = intermediateFile.delete();
-                if (!success) {
-                    LOGGER.error("Could not delete intermediate file {}! It is no longer needed and must be deleted manually.", intermediateFile);
+            for (File file : intermediateFiles) {
+                if (file.exists()) {
+                    boolean success = file.delete();
+                    if (!success) {
+                        LOGGER.error("Could not delete intermediate file {}! It is no longer needed and must be deleted manually.", file);
+                    }
                 }
             }
         }
@@ -96,14 +159,15 @@ public class CsvJtlToAvroUnorderedConverter implements Converter {
         return sha256Hash;
     }
 
-    private IntermediateInfo csvToIntermediate(File source, File dest) throws IOException {
+    private IntermediateInfo csvToIntermediate(File source, File dest, BadRows badRows) throws IOException {
         DatumWriter<CsvJtlRow> userDatumWriter = new SpecificDatumWriter<>(CsvJtlRow.class);
         IntermediateInfo info = new IntermediateInfo();
+        info.files.add(dest);
         if (dest.exists()) {
             LOGGER.debug("File \"{}\" already exists. It will be replaced.", dest);
         }
         try (BufferedReader br = new BufferedReader(new FileReader(source));
-                DataFileWriter<CsvJtlRow> dataFileWriter = new DataFileWriter<>(userDatumWriter)) {
+                DataFileWriter<CsvJtlRow> dataFileWriter = avroSettings.applyTo(new DataFileWriter<>(userDatumWriter))) {
             CsvParserSettings settings = new CsvParserSettings();
             CsvParser parser = new CsvParser(settings);
             parser.beginParsing(br);
@@ -112,7 +176,7 @@ public class CsvJtlToAvroUnorderedConverter implements Converter {
                 throw new RuntimeException("JTL (CSV) contained no data.");
             }
             dataFileWriter.create(CsvJtlRow.getClassSchema(), dest);
-            JtlTypeColumns jtc = new JtlTypeColumns(row);
+            JtlTypeColumns jtc = new JtlTypeColumns(row, badRows);
             if (jtc.headerAbsent()) {
                 CsvJtlRow cjRow = jtc.convert(row);
                 if (cjRow != null) {
@@ -131,12 +195,58 @@ public class CsvJtlToAvroUnorderedConverter implements Converter {
         return info;
     }
 
+    /**
+     * Same as {@link #csvToIntermediate(java.io.File, java.io.File, BadRows)}, but each range of the source
+     * is parsed on its own thread into its own intermediate file.
+     *
+     * @param intermediateFiles gets each intermediate file as it is created, for cleanup
+     */
+    private IntermediateInfo csvToIntermediates(File source, File dest, List<File> intermediateFiles,
+            BadRows badRows) throws IOException {
+        ParallelCsvParser parser = new ParallelCsvParser(source, parallelism, minRangeBytes);
+        String[] firstRecord = parser.parseFirstRecord();
+        if (firstRecord == null) {
+            throw new RuntimeException("JTL (CSV) contained no data.");
+        }
+        // The columns only read from their fields when converting, and the bad rows can be
+        // counted from any thread, so each range can share them.
+        JtlTypeColumns jtc = new JtlTypeColumns(firstRecord, badRows);
+        List<IntermediateInfo> rangeInfos = parser.parseRecords(jtc.headerAbsent(), (rows, rangeIndex) -> {
+            File rangeDest = new File(dest.getParent(), dest.getName() + "." + rangeIndex);
+            intermediateFiles.add(rangeDest);
+            IntermediateInfo rangeInfo = new IntermediateInfo();
+            rangeInfo.files.add(rangeDest);
+            DatumWriter<CsvJtlRow> userDatumWriter = new SpecificDatumWriter<>(CsvJtlRow.class);
+            try (DataFileWriter<CsvJtlRow> dataFileWriter = avroSettings.applyTo(new DataFileWriter<>(userDatumWriter))) {
+                dataFileWriter.create(CsvJtlRow.getClassSchema(), rangeDest);
+                String[] row;
+                while ((row = rows.parseNext()) != null) {
+                    CsvJtlRow cjRow = jtc.convert(row);
+                    if (cjRow != null) {
+                        rangeInfo.update(cjRow);
+                        dataFileWriter.append(cjRow);
+                    }
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return rangeInfo;
+        });
+        IntermediateInfo info = new IntermediateInfo();
+        for (IntermediateInfo rangeInfo : rangeInfos) {
+            info.addAll(rangeInfo);
+        }
+        return info;
+    }
+
     private static class JtlTypeColumns {
 
         private List<JtlType> colTypes;
         private final boolean headerAbsent;
+        private final BadRows badRows;
 
-        public JtlTypeColumns(String[] header) {
+        public JtlTypeColumns(String[] header, BadRows badRows) {
+            this.badRows = badRows;
             if (HeaderCheckUtil.isJtlHeaderRow(header)) {
                 headerAbsent = false;
                 colTypes = new ArrayList<>(header.length);
@@ -173,32 +283,31 @@ public class CsvJtlToAvroUnorderedConverter implements Converter {
 
         /**
          * Converts the row into a typed row. If the number of columns don't match the expected
-         * columns, null is returned.
+         * columns, or a value cannot be converted, the row is counted as bad and null is
+         * returned.
          *
          * @param row what to convert
          * @return a typed row, or null if it couldn't be converted.
          */
         public CsvJtlRow convert(String[] row) {
             if (row.length != colTypes.size()) {
-                LOGGER.warn("Skipping bad row. Expected {} columns but got {}. Contents:\n{}",
-                        colTypes.size(), row.length, Arrays.toString(row));
+                badRows.wrongColumnCount(colTypes.size(), row);
                 return null;
             }
-            try {
-                CsvJtlRow out = new CsvJtlRow();
-                for (int i = 0; i < row.length; ++i) {
-                    String colVal = row[i];
-                    JtlType colType = colTypes.get(i);
-                    if (colType != null) {
+            CsvJtlRow out = new CsvJtlRow();
+            for (int i = 0; i < row.length; ++i) {
+                String colVal = row[i];
+                JtlType colType = colTypes.get(i);
+                if (colType != null) {
+                    try {
                         colType.putIn(out, colVal);
+                    } catch (NumberFormatException ex) {
+                        badRows.badValue(colType, colVal, ex, row);
+                        return null;
                     }
                 }
-                return out;
-            } catch (NumberFormatException ex) {
-                LOGGER.warn("Skipping bad row. Encountered {} when converting row. Contents:\n{}",
-                        ex.getMessage(), Arrays.toString(row));
-                return null;
             }
+            return out;
         }
 
     }
@@ -214,10 +323,13 @@ public class CsvJtlToAvroUnorderedConverter implements Converter {
         long earliest = Long.MAX_VALUE;
         long latest = Long.MIN_VALUE;
         long numRows;
+        private final List<File> files = new ArrayList<>();
         private final SortedSet<CharSequence> labels = new TreeSet<>();
         private final SortedSet<CharSequence> urls = new TreeSet<>();
         private final SortedSet<CharSequence> threadNames = new TreeSet<>();
+        private final SortedSet<CharSequence> generators = new TreeSet<>();
         private final StatusCodeLookup statusCodeLookup = new StatusCodeLookup();
+        private final FieldPresence presence = new FieldPresence();
 
         public void update(CsvJtlRow row) {
             ++numRows;
@@ -231,22 +343,52 @@ public class CsvJtlToAvroUnorderedConverter implements Converter {
             if (row.getThreadName() != null) {
                 threadNames.add(row.getThreadName());
             }
+            if (row.getHostname() != null) {
+                generators.add(row.getHostname());
+            }
             if (row.getResponseCode() != null) {
                 statusCodeLookup.getRef(row.getResponseCode(), row.getResponseMessage());
             }
+            presence.track(!StatusCodeLookup.isUnspecified(row.getResponseCode(), row.getResponseMessage()),
+                    longOrDefault(row.getBytes(), -1), intOrDefault(row.getAllThreads(), 0));
+            presence.track(row.getURL() != null, intOrDefault(row.getLatency(), -1),
+                    intOrDefault(row.getConnect(), -1), longOrDefault(row.getSentBytes(), -1),
+                    intOrDefault(row.getIdleTime(), -1));
             if (numRows % 1000000L == 0) {
                 LOGGER.debug("Read {} rows for intermediate file so far.", numRows);
             }
         }
 
+        /**
+         * Adds the info of the next part of the source, as if its rows were updated one at a time.
+         */
+        public void addAll(IntermediateInfo other) {
+            numRows += other.numRows;
+            earliest = Math.min(earliest, other.earliest);
+            latest = Math.max(latest, other.latest);
+            files.addAll(other.files);
+            labels.addAll(other.labels);
+            urls.addAll(other.urls);
+            threadNames.addAll(other.threadNames);
+            generators.addAll(other.generators);
+            presence.addAll(other.presence);
+            List<CharSequence> codes = other.statusCodeLookup.getCustomCodes();
+            List<CharSequence> messages = other.statusCodeLookup.getCustomMessages();
+            for (int i = 0; i < codes.size(); ++i) {
+                statusCodeLookup.getRef(codes.get(i), messages.get(i));
+            }
+        }
+
         /**
          * Converts the intermediate information into the final format.
          *
-         * @param intermediateSource Has the intermediate data
+         * @param intermediateSources Has the intermediate data, in order
          * @param dest Destination of the final format
+         * @param avroSettings how the samples are compressed and blocked
          * @throws IOException If the input could not be read or the output could not be written.
          */
-        public String writeAvro(File intermediateSource, File dest) throws IOException {
+        public String writeAvro(List<File> intermediateSources, File dest,
+                AvroWriterSettings avroSettings) throws IOException {
             String sha256Hash = null;
             if (dest.exists()) {
                 LOGGER.debug("File \"{}\" already exists. It will be replaced.", dest);
@@ -254,8 +396,8 @@ public class CsvJtlToAvroUnorderedConverter implements Converter {
             DatumWriter<HttpSample> httpSampleDatumWriter = new SpecificDatumWriter<>(HttpSample.class);
             DatumReader<CsvJtlRow> httpSampleDatumReader = new SpecificDatumReader<>(CsvJtlRow.class);
             try (HashingOutputStream hos = new HashingOutputStream(Hashing.sha256(), new BufferedOutputStream(new FileOutputStream(dest)))) {
-                try (DataFileWriter<HttpSample> dataFileWriter = new DataFileWriter<>(httpSampleDatumWriter);
-                        DataFileReader<CsvJtlRow> reader = new DataFileReader<>(intermediateSource, httpSampleDatumReader)) {
+                BlockIndex.Recorder blocks = new BlockIndex.Recorder(hos);
+                try (DataFileWriter<HttpSample> dataFileWriter = avroSettings.applyTo(new DataFileWriter<>(httpSampleDatumWriter))) {
                     dataFileWriter.setMeta("earliest", earliest);
                     dataFileWriter.setMeta("latest", latest);
                     dataFileWriter.setMeta("numRows", numRows);
@@ -272,32 +414,46 @@ public class CsvJtlToAvroUnorderedConverter implements Converter {
                         writeMetaStringArray(dataFileWriter, "urls", urls);
                     }
 
+                    if (!generators.isEmpty()) {
+                        writeMetaStringArray(dataFileWriter, "generators", generators);
+                    }
+
                     List<CharSequence> codes = statusCodeLookup.getCustomCodes();
                     List<CharSequence> messages = statusCodeLookup.getCustomMessages();
                     if (codes != null && !codes.isEmpty()) {
                         writeMetaStringArray(dataFileWriter, "codes", codes);
                         writeMetaStringArray(dataFileWriter, "messages", messages);
                     }
-                    dataFileWriter.create(HttpSample.getClassSchema(), hos, SYNC);
+                    presence.writeMeta(dataFileWriter);
+                    dataFileWriter.create(HttpSample.getClassSchema(), blocks.getStream(), SYNC);
+                    blocks.created();
 
                     Map<CharSequence, Integer> labelLookup = createLookup(labels);
                     Map<CharSequence, Integer> threadNameLookup = createLookup(threadNames);
                     Map<CharSequence, Integer> urlLookup = createLookup(urls);
+                    Map<CharSequence, Integer> generatorLookup = createLookup(generators);
                     long numRowsWritten = 0;
                     long writeStartMs = System.currentTimeMillis();
-                    while (reader.hasNext()) {
-                        for (long i = 0; i < 1000000L && reader.hasNext(); ++i) {
-                            CsvJtlRow row = reader.next();
-                            HttpSample httpSample = convert(row, labelLookup, threadNameLookup, urlLookup);
-                            dataFileWriter.append(httpSample);
-                            ++numRowsWritten;
+                    for (File intermediateSource : intermediateSources) {
+                        try (DataFileReader<CsvJtlRow> reader = new DataFileReader<>(intermediateSource, httpSampleDatumReader)) {
+                            while (reader.hasNext()) {
+                                for (long i = 0; i < 1000000L && reader.hasNext(); ++i) {
+                                    CsvJtlRow row = reader.next();
+                                    HttpSample httpSample = convert(row, labelLookup, threadNameLookup,
+                                            urlLookup, generatorLookup);
+                                    dataFileWriter.append(httpSample);
+                                    blocks.appended(httpSample.getMillisOffset());
+                                    ++numRowsWritten;
+                                }
+                                LOGGER.debug("{}ms to write {} of {} rows.",
+                                        System.currentTimeMillis() - writeStartMs,
+                                        numRowsWritten, numRows);
+                            }
                         }
-                        LOGGER.debug("{}ms to write {} of {} rows.",
-                                System.currentTimeMillis() - writeStartMs,
-                                numRowsWritten, numRows);
                     }
                 }
                 sha256Hash = hos.hash().toString();
+                blocks.finished().write(BlockIndex.indexFileFor(dest));
             }
             return sha256Hash;
         }
@@ -331,7 +487,8 @@ public class CsvJtlToAvroUnorderedConverter implements Converter {
         private HttpSample convert(CsvJtlRow row,
                 Map<CharSequence, Integer> labelLookup,
                 Map<CharSequence, Integer> threadNameLookup,
-                Map<CharSequence, Integer> urlLookup) {
+                Map<CharSequence, Integer> urlLookup,
+                Map<CharSequence, Integer> generatorLookup) {
             HttpSample hs = createNewEmptyHttpSample();
             hs.setResponseBytes(longOrDefault(row.getBytes(), -1));
             hs.setTotalThreads(intOrDefault(row.getAllThreads(), 0));
@@ -345,6 +502,12 @@ public class CsvJtlToAvroUnorderedConverter implements Converter {
             hs.setResponseCodeRef(statusCodeLookup.getRef(row.getResponseCode(), row.getResponseMessage()));
             hs.setSuccess(booleanOrDefault(row.getSuccess(), true));
             hs.setThreadNameRef(threadNameLookup.getOrDefault(row.getThreadName(), 0));
+            hs.setUrlRef(urlLookup.getOrDefault(row.getURL(), 0));
+            hs.setGeneratorRef(generatorLookup.getOrDefault(row.getHostname(), 0));
+            hs.setMillisLatency((long) intOrDefault(row.getLatency(), -1));
+            hs.setMillisConnect((long) intOrDefault(row.getConnect(), -1));
+            hs.setSentBytes(longOrDefault(row.getSentBytes(), -1));
+            hs.setMillisIdle((long) intOrDefault(row.getIdleTime(), -1));
 
             return hs;
         }
@@ -394,6 +557,10 @@ public class CsvJtlToAvroUnorderedConverter implements Converter {
         HttpSample hs = new HttpSample();
         hs.setMillisElapsed(-1L);
         hs.setResponseBytes(-1L);
+        hs.setMillisLatency(-1L);
+        hs.setMillisConnect(-1L);
+        hs.setSentBytes(-1L);
+        hs.setMillisIdle(-1L);
         return hs;
     }
 }
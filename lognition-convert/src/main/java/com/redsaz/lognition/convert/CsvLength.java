@@ -0,0 +1,136 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * How many bytes the CSV form of an Avro file of samples is, as made by
+ * {@link AvroToCsvJtlConverter}, so that a range of the CSV can be sent without making the whole
+ * CSV first just to count it.
+ * <p>
+ * Like the {@link BlockIndex}, the length is kept in its own file next to the Avro file (see
+ * {@link #fileFor(File)}), and is only written when a log is imported. It is only used while the
+ * Avro file is the same length and last modified at the same time as when it was counted.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class CsvLength {
+
+    public static final String SUFFIX = ".csvlength";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CsvLength.class);
+
+    // "LGCL", then the version of the file format.
+    private static final int MAGIC = 0x4c47434c;
+    private static final int VERSION = 1;
+
+    private CsvLength() {
+    }
+
+    /**
+     * @param avro the Avro file of samples
+     * @return the file that the CSV length of the Avro file is kept in.
+     */
+    public static File fileFor(File avro) {
+        return new File(avro.getPath() + SUFFIX);
+    }
+
+    /**
+     * Counts the CSV by making it without keeping it. The columns come from the fields recorded
+     * in the Avro file, so the samples are not read an extra time to find them.
+     *
+     * @param avro the Avro file of samples
+     * @param converter what the CSV is made with when it is downloaded
+     * @return how many bytes the CSV is
+     */
+    public static long count(File avro, AvroToCsvJtlConverter converter) {
+        CountingOutputStream counted = new CountingOutputStream(ByteStreams.nullOutputStream());
+        converter.convert(avro, counted);
+        return counted.getCount();
+    }
+
+    /**
+     * Gets the CSV length of an Avro file of samples, if it was written for the Avro file as it is
+     * now. It is never counted here, since that takes as long as making the whole CSV.
+     *
+     * @param avro the Avro file of samples
+     * @return the length, or null if not known.
+     */
+    public static Long forFile(File avro) {
+        File lengthFile = fileFor(avro);
+        if (!lengthFile.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(lengthFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(lengthFile + " is not a CSV length.");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(lengthFile + " has unknown CSV length version " + version + ".");
+            }
+            long avroLength = in.readLong();
+            long avroModified = in.readLong();
+            long csvLength = in.readLong();
+            if (avroLength != avro.length() || avroModified != avro.lastModified()) {
+                LOGGER.info("CSV length {} is out of date, so it is not used.", lengthFile);
+                return null;
+            }
+            return csvLength;
+        } catch (IOException ex) {
+            LOGGER.warn("Could not read CSV length {}, so it is not used.", lengthFile, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the CSV length file of the Avro file as it is now. It is written to another file
+     * first, so that the log can be downloaded while it is being written.
+     *
+     * @param avro the Avro file of samples
+     * @param csvLength how many bytes the CSV of the Avro file is
+     * @throws IOException if the file could not be written
+     */
+    public static void write(File avro, long csvLength) throws IOException {
+        long avroLength = avro.length();
+        long avroModified = avro.lastModified();
+        File lengthFile = fileFor(avro);
+        File tempFile = new File(lengthFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(avroLength);
+            out.writeLong(avroModified);
+            out.writeLong(csvLength);
+        }
+        Files.move(tempFile.toPath(), lengthFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.api.exceptions.AppClientException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tukaani.xz.XZInputStream;
+
+/**
+ * Recognizes compressed logs by their first few bytes, and decompresses them as they are read, so
+ * that logs can be sent compressed without the compressed form ever being stored.
+ * <p>
+ * A zip can hold several logs. They are read one after another as one log, and when a log starts
+ * with the same header row as the first log, that header row is skipped.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class Decompressor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Decompressor.class);
+
+    private static final int MAX_MAGIC_BYTES = 6;
+
+    public static enum Format {
+        NONE(new byte[0]),
+        GZIP(new byte[]{0x1f, (byte) 0x8b}),
+        ZIP(new byte[]{0x50, 0x4b, 0x03, 0x04}),
+        XZ(new byte[]{(byte) 0xfd, 0x37, 0x7a, 0x58, 0x5a, 0x00}),
+        ZSTD(new byte[]{0x28, (byte) 0xb5, 0x2f, (byte) 0xfd});
+
+        private final byte[] magic;
+
+        private Format(byte[] magic) {
+            this.magic = magic;
+        }
+
+        private boolean matches(byte[] start, int length) {
+            return magic.length > 0 && length >= magic.length
+                    && Arrays.equals(magic, Arrays.copyOf(start, magic.length));
+        }
+    }
+
+    private Decompressor() {
+    }
+
+    /**
+     * Finds the format from the first bytes of a stream.
+     *
+     * @param start the first bytes of the stream
+     * @param length how many of the bytes are filled
+     * @return the compression format, or NONE if not compressed.
+     */
+    public static Format detect(byte[] start, int length) {
+        for (Format format : Format.values()) {
+            if (format.matches(start, length)) {
+                return format;
+            }
+        }
+        return Format.NONE;
+    }
+
+    /**
+     * Finds the format from the first bytes of a file.
+     *
+     * @param file what might be compressed
+     * @return the compression format, or NONE if not compressed.
+     * @throws IOException if the file could not be read
+     */
+    public static Format detect(File file) throws IOException {
+        byte[] start = new byte[MAX_MAGIC_BYTES];
+        int length = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int num;
+            while (length < start.length && (num = in.read(start, length, start.length - length)) >= 0) {
+                length += num;
+            }
+        }
+        return detect(start, length);
+    }
+
+    /**
+     * Gives a stream of the decompressed contents of the given stream, or the contents as they
+     * are if not compressed. Closing the returned stream closes the given stream.
+     *
+     * @param in what might be compressed
+     * @return the decompressed contents
+     * @throws IOException if the start of the stream could not be read
+     * @throws AppClientException if compressed in a format that is not supported
+     */
+    public static InputStream decompress(InputStream in) throws IOException {
+        PushbackInputStream pin = new PushbackInputStream(in, MAX_MAGIC_BYTES);
+        byte[] start = new byte[MAX_MAGIC_BYTES];
+        int length = 0;
+        int num;
+        while (length < start.length && (num = pin.read(start, length, start.length - length)) >= 0) {
+            length += num;
+        }
+        pin.unread(start, 0, length);
+
+        Format format = detect(start, length);
+        LOGGER.debug("Contents are compressed as {}.", format);
+        switch (format) {
+            case GZIP:
+                // Several gzip members one after another are read as one.
+                return new GZIPInputStream(pin, 64 * 1024);
+            case ZIP:
+                return new ZipEntriesInputStream(new ZipInputStream(pin));
+            case XZ:
+                return new XZInputStream(pin);
+            case ZSTD:
+                throw new AppClientException("Zstandard compression is not supported. Use gzip, xz, or zip instead.");
+            default:
+                return pin;
+        }
+    }
+
+    /**
+     * Reads each file in a zip one after another, skipping the header row of each after the
+     * first when it is the same as the first.
+     */
+    private static class ZipEntriesInputStream extends InputStream {
+
+        // Header rows longer than this are not looked for in the files after the first.
+        private static final int MAX_HEADER_BYTES = 64 * 1024;
+
+        private final ZipInputStream zin;
+        private byte[] header;
+        private byte[] pending = new byte[0];
+        private int pendingPosition;
+        private boolean inEntry;
+        private boolean done;
+        private int lastByte = '\n';
+
+        ZipEntriesInputStream(ZipInputStream zin) {
+            this.zin = zin;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            if (read < 1) {
+                return -1;
+            }
+            return single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (!done) {
+                if (pendingPosition < pending.length) {
+                    int toRead = Math.min(len, pending.length - pendingPosition);
+                    System.arraycopy(pending, pendingPosition, b, off, toRead);
+                    pendingPosition += toRead;
+                    lastByte = b[off + toRead - 1];
+                    return toRead;
+                }
+                if (inEntry) {
+                    int read = zin.read(b, off, len);
+                    if (read > 0) {
+                        lastByte = b[off + read - 1];
+                        return read;
+                    }
+                    inEntry = false;
+                }
+                nextEntry();
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            zin.close();
+        }
+
+        private void nextEntry() throws IOException {
+            ZipEntry entry = zin.getNextEntry();
+            while (entry != null && entry.isDirectory()) {
+                entry = zin.getNextEntry();
+            }
+            if (entry == null) {
+                done = true;
+                return;
+            }
+            LOGGER.debug("Reading {} from zip.", entry.getName());
+            inEntry = true;
+            byte[] firstLine = readFirstLine();
+            ByteArrayOutputStream next = new ByteArrayOutputStream();
+            if (lastByte != '\n') {
+                // The previous file did not end its last row.
+                next.write('\n');
+            }
+            if (header == null) {
+                header = firstLine;
+                next.write(firstLine);
+            } else if (!Arrays.equals(header, firstLine)) {
+                next.write(firstLine);
+            }
+            pending = next.toByteArray();
+            pendingPosition = 0;
+        }
+
+        private byte[] readFirstLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while (line.size() < MAX_HEADER_BYTES && (b = zin.read()) >= 0) {
+                line.write(b);
+                if (b == '\n') {
+                    break;
+                }
+            }
+            return line.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.CountingOutputStream;
+import com.redsaz.lognition.convert.model.HttpSample;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Which of the optional sample fields are used by any sample of an Avro file, as a bitmap. The
+ * bitmap is recorded in the file metadata when the file is written, so the fields to export are
+ * known without reading every sample first.
+ * <p>
+ * Files written before the bitmap was recorded can have it added with
+ * {@link #backfill(File, ParallelAvroScanner)}.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class FieldPresence {
+
+    /**
+     * The name of the metadata the bitmap is recorded in.
+     */
+    public static final String META = "presentFields";
+
+    /*package protected*/ static final long RESPONSE_CODE = 1L;
+    /*package protected*/ static final long BYTES = 1L << 1;
+    /*package protected*/ static final long ALL_THREADS = 1L << 2;
+    /*package protected*/ static final long URL = 1L << 3;
+    /*package protected*/ static final long LATENCY = 1L << 4;
+    /*package protected*/ static final long CONNECT = 1L << 5;
+    /*package protected*/ static final long SENT_BYTES = 1L << 6;
+    /*package protected*/ static final long IDLE_TIME = 1L << 7;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FieldPresence.class);
+
+    // Same as the converted files, so that backfilled files are written the same way.
+    private static final byte[] SYNC = new byte[16];
+
+    private long bits;
+
+    public FieldPresence() {
+    }
+
+    /*package protected*/ FieldPresence(long bits) {
+        this.bits = bits;
+    }
+
+    /**
+     * Marks the fields used by a sample, given as it is written. A sample has a response code
+     * unless its ref is 0, see {@link StatusCodeLookup#isUnspecified(CharSequence, CharSequence)}.
+     */
+    /*package protected*/ void track(boolean hasResponseCode, long responseBytes, int totalThreads) {
+        if (hasResponseCode) {
+            bits |= RESPONSE_CODE;
+        }
+        if (responseBytes != -1L) {
+            bits |= BYTES;
+        }
+        if (totalThreads > 0) {
+            bits |= ALL_THREADS;
+        }
+    }
+
+    /**
+     * Marks the fields used by a sample that are only in some JTLs, where each number is -1 when
+     * the sample does not have it.
+     */
+    /*package protected*/ void track(boolean hasUrl, long latency, long connect, long sentBytes,
+            long idleTime) {
+        if (hasUrl) {
+            bits |= URL;
+        }
+        if (latency != -1L) {
+            bits |= LATENCY;
+        }
+        if (connect != -1L) {
+            bits |= CONNECT;
+        }
+        if (sentBytes != -1L) {
+            bits |= SENT_BYTES;
+        }
+        if (idleTime != -1L) {
+            bits |= IDLE_TIME;
+        }
+    }
+
+    /*package protected*/ void track(HttpSample hs) {
+        track(hs.getResponseCodeRef() != 0, hs.getResponseBytes(), hs.getTotalThreads());
+        track(hs.getUrlRef() != 0, hs.getMillisLatency(), hs.getMillisConnect(),
+                hs.getSentBytes(), hs.getMillisIdle());
+    }
+
+    /*package protected*/ void addAll(FieldPresence other) {
+        bits |= other.bits;
+    }
+
+    /*package protected*/ long getBits() {
+        return bits;
+    }
+
+    /**
+     * @return the CSV columns of the fields that are used.
+     */
+    /*package protected*/ EnumSet<JtlType> jtlTypes() {
+        EnumSet<JtlType> types = EnumSet.noneOf(JtlType.class);
+        if ((bits & RESPONSE_CODE) != 0) {
+            types.add(JtlType.RESPONSE_CODE);
+            types.add(JtlType.RESPONSE_MESSAGE);
+        }
+        if ((bits & BYTES) != 0) {
+            types.add(JtlType.BYTES);
+        }
+        if ((bits & ALL_THREADS) != 0) {
+            types.add(JtlType.ALL_THREADS);
+        }
+        if ((bits & URL) != 0) {
+            types.add(JtlType.URL);
+        }
+        if ((bits & LATENCY) != 0) {
+            types.add(JtlType.LATENCY);
+        }
+        if ((bits & CONNECT) != 0) {
+            types.add(JtlType.CONNECT);
+        }
+        if ((bits & SENT_BYTES) != 0) {
+            types.add(JtlType.SENT_BYTES);
+        }
+        if ((bits & IDLE_TIME) != 0) {
+            types.add(JtlType.IDLE_TIME);
+        }
+        return types;
+    }
+
+    /**
+     * Records the bitmap in the metadata. Must be called before the writer is created.
+     */
+    /*package protected*/ void writeMeta(DataFileWriter<?> writer) {
+        writer.setMeta(META, bits);
+    }
+
+    /**
+     * @return the recorded bitmap, or null if the file was written before it was recorded.
+     */
+    /*package protected*/ static FieldPresence readMeta(DataFileReader<?> reader) {
+        if (reader.getMeta(META) == null) {
+            return null;
+        }
+        return new FieldPresence(reader.getMetaLong(META));
+    }
+
+    /**
+     * Finds which fields are used by reading every sample.
+     *
+     * @param avro the Avro file of samples
+     * @param scanner reads the samples
+     * @return the fields used
+     * @throws IOException if the file could not be read
+     */
+    /*package protected*/ static FieldPresence scan(File avro, ParallelAvroScanner scanner) throws IOException {
+        FieldPresence presence = new FieldPresence();
+        scanner.scanUnordered(avro, batch -> {
+            FieldPresence batchPresence = new FieldPresence();
+            for (HttpSample hs : batch) {
+                batchPresence.track(hs);
+            }
+            synchronized (presence) {
+                presence.addAll(batchPresence);
+            }
+        });
+        return presence;
+    }
+
+    /**
+     * @param avro the Avro file of samples
+     * @return true if the file has the bitmap recorded.
+     * @throws IOException if the file could not be read
+     */
+    public static boolean isRecorded(File avro) throws IOException {
+        DatumReader<HttpSample> datumReader = new SpecificDatumReader<>(HttpSample.class);
+        try (DataFileReader<HttpSample> reader = new DataFileReader<>(avro, datumReader)) {
+            return reader.getMeta(META) != null;
+        }
+    }
+
+    /**
+     * Adds the bitmap to a file written before it was recorded, by reading every sample to find
+     * the fields used, and then writing the file again with the bitmap in its metadata. The
+     * blocks are copied as they are rather than decoded again, and the new file replaces the old
+     * one only once it is complete, so the file can be read as usual the whole time. Because the
+     * metadata changes, so do the hash, length, and last modified time of the file.
+     * <p>
+     * The file is only replaced if nothing holds its {@link AvroFileLocks#readLock(File) read
+     * lock}, and it was not changed or deleted while it was written again. Otherwise it is left
+     * as it was, to be backfilled another time.
+     *
+     * @param avro the Avro file of samples
+     * @param scanner reads the samples
+     * @return true if the bitmap was added, false if it was already recorded, or the file was in
+     * use and was left as it was.
+     * @throws IOException if the file could not be read or written again
+     */
+    public static boolean backfill(File avro, ParallelAvroScanner scanner) throws IOException {
+        if (isRecorded(avro)) {
+            return false;
+        }
+        long startMillis = System.currentTimeMillis();
+        long oldLength = avro.length();
+        long oldLastModified = avro.lastModified();
+        FieldPresence presence = scan(avro, scanner);
+        BlockIndex oldIndex = BlockIndex.forFile(avro);
+        File rewritten = new File(avro.getPath() + ".backfill");
+        long oldHeaderLength;
+        long newHeaderLength;
+        String sha256Hash;
+        DatumReader<HttpSample> datumReader = new SpecificDatumReader<>(HttpSample.class);
+        try {
+            try (DataFileReader<HttpSample> reader = new DataFileReader<>(avro, datumReader);
+                    HashingOutputStream hos = new HashingOutputStream(Hashing.sha256(), new BufferedOutputStream(new FileOutputStream(rewritten)));
+                    CountingOutputStream out = new CountingOutputStream(hos);
+                    DataFileWriter<HttpSample> writer = new DataFileWriter<>(new SpecificDatumWriter<>(HttpSample.class))) {
+                oldHeaderLength = reader.previousSync();
+                for (String key : reader.getMetaKeys()) {
+                    if (!key.startsWith("avro.")) {
+                        writer.setMeta(key, reader.getMeta(key));
+                    }
+                }
+                // The same codec as the file has, so that the blocks can be copied without
+                // decompressing them.
+                String codec = reader.getMetaString(DataFileConstants.CODEC);
+                if (codec != null) {
+                    writer.setCodec(CodecFactory.fromString(codec));
+                }
+                presence.writeMeta(writer);
+                // The blocks are in the schema of the file, which for older files has fewer
+                // fields than the current one.
+                writer.create(reader.getSchema(), out, SYNC);
+                newHeaderLength = out.getCount();
+                writer.appendAllFrom(reader, false);
+                writer.flush();
+                sha256Hash = hos.hash().toString();
+            }
+
+            // The file is replaced, and its index with it, only while nothing reads it.
+            Lock lock = AvroFileLocks.writeLock(avro);
+            if (!lock.tryLock()) {
+                LOGGER.info("{} is being read, so field presence will be backfilled another time.", avro);
+                return false;
+            }
+            try {
+                if (!avro.exists() || avro.length() != oldLength || avro.lastModified() != oldLastModified) {
+                    LOGGER.info("{} changed while field presence was backfilled, so it was left as it is.", avro);
+                    return false;
+                }
+                Files.move(rewritten.toPath(), avro.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+
+                // The blocks are the same, only after a longer header.
+                long shift = newHeaderLength - oldHeaderLength;
+                List<BlockIndex.Block> blocks = new ArrayList<>(oldIndex.getBlocks().size());
+                for (BlockIndex.Block block : oldIndex.getBlocks()) {
+                    blocks.add(new BlockIndex.Block(block.getPosition() + shift, block.getNumRows(),
+                            block.getMinOffset(), block.getMaxOffset()));
+                }
+                new BlockIndex(avro.length(), blocks).write(BlockIndex.indexFileFor(avro));
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            if (rewritten.exists() && !rewritten.delete()) {
+                LOGGER.warn("Could not delete {}.", rewritten);
+            }
+        }
+        LOGGER.info("Backfilled field presence of {}. SHA-256 is now {}.", avro, sha256Hash);
+        LOGGER.debug("{}ms to backfill field presence of {}.", System.currentTimeMillis() - startMillis, avro);
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return jtlTypes().toString();
+    }
+}
@@ -22,12 +22,12 @@ import java.util.Locale;
 import java.util.Map;
 
 /**
- * Defines columns that can be stored in a JTL CSV. See
- * https://jmeter.apache.org/usermanual/listeners.html
+ * Defines columns that can be stored in a JTL CSV, and the attributes they are stored in for a
+ * sample of a JTL XML, if any. See https://jmeter.apache.org/usermanual/listeners.html
  */
 /*package protected*/ enum JtlType {
     // in milliseconds since 1/1/1970
-    TIMESTAMP("timeStamp", FromStrings.LONG_FS) {
+    TIMESTAMP("timeStamp", "ts", FromStrings.LONG_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setTimeStamp((Long) convert(value));
@@ -41,7 +41,7 @@ import java.util.Map;
         }
     },
     // in milliseconds
-    ELAPSED("elapsed", FromStrings.LONG_FS) {
+    ELAPSED("elapsed", "t", FromStrings.LONG_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setElapsed((Long) convert(value));
@@ -55,7 +55,7 @@ import java.util.Map;
         }
     },
     // sampler label
-    LABEL("label", FromStrings.STRING_FS) {
+    LABEL("label", "lb", FromStrings.STRING_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setLabel((String) convert(value));
@@ -69,7 +69,7 @@ import java.util.Map;
         }
     },
     // e.g. 200, 404
-    RESPONSE_CODE("responseCode", FromStrings.STRING_FS) {
+    RESPONSE_CODE("responseCode", "rc", FromStrings.STRING_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setResponseCode((String) convert(value));
@@ -83,7 +83,7 @@ import java.util.Map;
         }
     },
     // e.g. OK
-    RESPONSE_MESSAGE("responseMessage", FromStrings.STRING_FS) {
+    RESPONSE_MESSAGE("responseMessage", "rm", FromStrings.STRING_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setResponseMessage((String) convert(value));
@@ -97,7 +97,7 @@ import java.util.Map;
         }
     },
     // Name of thread
-    THREAD_NAME("threadName", FromStrings.STRING_FS) {
+    THREAD_NAME("threadName", "tn", FromStrings.STRING_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setThreadName((String) convert(value));
@@ -111,7 +111,7 @@ import java.util.Map;
         }
     },
     // e.g. text
-    DATA_TYPE("dataType", FromStrings.STRING_FS) {
+    DATA_TYPE("dataType", "dt", FromStrings.STRING_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setDataType((String) convert(value));
@@ -125,7 +125,7 @@ import java.util.Map;
         }
     },
     // true or false
-    SUCCESS("success", FromStrings.BOOLEAN_FS) {
+    SUCCESS("success", "s", FromStrings.BOOLEAN_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setSuccess((Boolean) convert(value));
@@ -139,7 +139,7 @@ import java.util.Map;
         }
     },
     // if any
-    FAILURE_MESSAGE("failureMessage", FromStrings.STRING_FS) {
+    FAILURE_MESSAGE("failureMessage", null, FromStrings.STRING_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setFailureMessage((String) convert(value));
@@ -153,7 +153,7 @@ import java.util.Map;
         }
     },
     // number of bytes in the sample
-    BYTES("bytes", FromStrings.LONG_FS) {
+    BYTES("bytes", "by", FromStrings.LONG_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setBytes((Long) convert(value));
@@ -167,21 +167,21 @@ import java.util.Map;
         }
     },
     // number of bytes sent for the sample
-    SENT_BYTES("sentBytes", FromStrings.LONG_FS) {
+    SENT_BYTES("sentBytes", "sby", FromStrings.LONG_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
-            dest.setSentBytes((Long) convert(value));
+            dest.setSentBytes(optionalLongOrNull(value));
             return dest;
         }
 
         @Override
         public Sample putIn(Sample dest, String value) {
-            // Do nothing, PreSample doesn't use this.
+            dest.setSentBytes(optionalLong(value));
             return dest;
         }
     },
     // number of active threads in this thread group
-    GRP_THREADS("grpThreads", FromStrings.INTEGER_FS) {
+    GRP_THREADS("grpThreads", "ng", FromStrings.INTEGER_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setGrpThreads((Integer) convert(value));
@@ -195,7 +195,7 @@ import java.util.Map;
         }
     },
     // total number of active threads in all groups
-    ALL_THREADS("allThreads", FromStrings.INTEGER_FS) {
+    ALL_THREADS("allThreads", "na", FromStrings.INTEGER_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setAllThreads((Integer) convert(value));
@@ -209,7 +209,7 @@ import java.util.Map;
         }
     },
     // Uniform Resource Locator
-    URL("URL", FromStrings.STRING_FS) {
+    URL("URL", null, FromStrings.STRING_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setURL((String) convert(value));
@@ -218,12 +218,12 @@ import java.util.Map;
 
         @Override
         public Sample putIn(Sample dest, String value) {
-            // Do nothing, PreSample doesn't use this.
+            dest.setUrl((String) convert(value));
             return dest;
         }
     },
     // If Save Response to File was used
-    FILENAME("Filename", FromStrings.STRING_FS) {
+    FILENAME("Filename", null, FromStrings.STRING_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setFilename((String) convert(value));
@@ -237,33 +237,34 @@ import java.util.Map;
         }
     },
     // Time to first response
-    LATENCY("Latency", FromStrings.INTEGER_FS) {
+    LATENCY("Latency", "lt", FromStrings.INTEGER_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
-            dest.setLatency((Integer) convert(value));
+            dest.setLatency(optionalInteger(value));
             return dest;
         }
 
         @Override
         public Sample putIn(Sample dest, String value) {
+            dest.setLatency(optionalLong(value));
             return dest;
         }
     },
     // Time to establish connection
-    CONNECT("connect", FromStrings.INTEGER_FS) {
+    CONNECT("connect", "ct", FromStrings.INTEGER_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
-            dest.setConnect((Integer) convert(value));
+            dest.setConnect(optionalInteger(value));
             return dest;
         }
 
         @Override
         public Sample putIn(Sample dest, String value) {
-            // Do nothing, PreSample doesn't use this.
+            dest.setConnect(optionalLong(value));
             return dest;
         }
     },
-    ENCODING("encoding", FromStrings.STRING_FS) {
+    ENCODING("encoding", "de", FromStrings.STRING_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setEncoding((String) convert(value));
@@ -277,7 +278,7 @@ import java.util.Map;
         }
     },
     // number of samples (1, unless multiple samples are aggregated)
-    SAMPLE_COUNT("SampleCount", FromStrings.INTEGER_FS) {
+    SAMPLE_COUNT("SampleCount", "sc", FromStrings.INTEGER_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setSampleCount((Integer) convert(value));
@@ -290,7 +291,7 @@ import java.util.Map;
         }
     },
     // ErrorCount - number of errors (0 or 1, unless multiple samples are aggregated)
-    ERROR_COUNT("ErrorCount", FromStrings.INTEGER_FS) {
+    ERROR_COUNT("ErrorCount", "ec", FromStrings.INTEGER_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setErrorCount((Integer) convert(value));
@@ -304,7 +305,7 @@ import java.util.Map;
         }
     },
     // where the sample was generated
-    HOSTNAME("Hostname", FromStrings.STRING_FS) {
+    HOSTNAME("Hostname", "hn", FromStrings.STRING_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setHostname((String) convert(value));
@@ -313,26 +314,27 @@ import java.util.Map;
 
         @Override
         public Sample putIn(Sample dest, String value) {
-            // Do nothing, PreSample doesn't use this.
+            // The host is the load generator that took the sample.
+            dest.setGenerator((String) convert(value));
             return dest;
         }
     },
     // number of milliseconds of 'Idle' time (normally 0)
-    IDLE_TIME("IdleTime", FromStrings.INTEGER_FS) {
+    IDLE_TIME("IdleTime", "it", FromStrings.INTEGER_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
-            dest.setIdleTime((Integer) convert(value));
+            dest.setIdleTime(optionalInteger(value));
             return dest;
         }
 
         @Override
         public Sample putIn(Sample dest, String value) {
-            // Do nothing, PreSample doesn't use this.
+            dest.setIdleTime(optionalLong(value));
             return dest;
         }
     },
     //if specified
-    VARIABLES("Variables", FromStrings.STRING_FS) {
+    VARIABLES("Variables", null, FromStrings.STRING_FS) {
         @Override
         public CsvJtlRow putIn(CsvJtlRow dest, String value) {
             dest.setVariables((String) convert(value));
@@ -347,11 +349,14 @@ import java.util.Map;
     };
 
     private final String csvName;
+    private final String xmlName;
     private final FromString<?> fromStringer;
     private static final Map<String, JtlType> header2Type = initMap();
+    private static final Map<String, JtlType> attribute2Type = initXmlMap();
 
-    JtlType(String inCsvName, FromString<?> inFromString) {
+    JtlType(String inCsvName, String inXmlName, FromString<?> inFromString) {
         csvName = inCsvName;
+        xmlName = inXmlName;
         fromStringer = inFromString;
     }
 
@@ -363,14 +368,68 @@ import java.util.Map;
         return csvName;
     }
 
+    /**
+     * @return the name of the sample attribute in a JTL XML, or null if it is not an attribute.
+     */
+    public String xmlName() {
+        return xmlName;
+    }
+
     public abstract CsvJtlRow putIn(CsvJtlRow dest, String value);
 
+    /**
+     * Like {@link #convert(java.lang.String)} for the optional numbers of a sample, which are -1
+     * when not given.
+     */
+    private static long optionalLong(String value) {
+        if (value == null || value.isEmpty()) {
+            return -1L;
+        }
+        return Long.parseLong(value);
+    }
+
+    /**
+     * Like {@link #convert(java.lang.String)} for the optional numbers of a row, which are null
+     * when not given, rather than making the row bad.
+     */
+    private static Integer optionalInteger(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        return Integer.valueOf(value);
+    }
+
+    private static Long optionalLongOrNull(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        return Long.valueOf(value);
+    }
+
     public abstract Sample putIn(Sample dest, String value);
 
     public static JtlType fromHeader(String header) {
         return header2Type.get(header.toLowerCase(Locale.US));
     }
 
+    /**
+     * @param attribute the name of an attribute of a sample in a JTL XML
+     * @return the type stored in the attribute, or null if it is not known.
+     */
+    public static JtlType fromXmlAttribute(String attribute) {
+        return attribute2Type.get(attribute);
+    }
+
+    private static Map<String, JtlType> initXmlMap() {
+        Map<String, JtlType> map = new HashMap<>();
+        for (JtlType t : JtlType.values()) {
+            if (t.xmlName != null) {
+                map.put(t.xmlName, t);
+            }
+        }
+        return map;
+    }
+
     private static Map<String, JtlType> initMap() {
         Map<String, JtlType> map = new HashMap<>();
         for (JtlType t : JtlType.values()) {
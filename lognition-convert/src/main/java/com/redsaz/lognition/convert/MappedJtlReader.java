@@ -0,0 +1,657 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.api.model.Sample;
+import com.univocity.parsers.csv.CsvParser;
+import com.univocity.parsers.csv.CsvParserSettings;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Reads the rows of a CSV-based JTL directly from the bytes of a memory-mapped file and into
+ * columns. Numbers are decoded straight into primitives, and the strings of labels, thread names,
+ * and statuses are looked up by their bytes, so a string is only created the first time its bytes
+ * are seen. Rows are read the same as the CSV parser would read them; any row this reader does not
+ * decode itself, such as rows with the wrong number of columns or unusual numbers, is given to the
+ * row converter in the same form the CSV parser would give it.
+ * <p>
+ * Only the columns kept by the samples are decoded. The others are skipped without being looked
+ * at. An instance is not thread-safe; use one per range being read.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+/*package protected*/ class MappedJtlReader {
+
+    // Maps at most this much of the file at a time.
+    /*package protected*/ static final int DEFAULT_WINDOW_BYTES = 64 * 1024 * 1024;
+    private static final int MAX_FAST_LONG_DIGITS = 18;
+    private static final int MAX_FAST_INT_DIGITS = 9;
+    private static final int UNKNOWN = -2;
+    private static final String SPECIAL_CHARS = "\n\r\",# ";
+
+    private final JtlType[] colTypes;
+    private final Function<String[], Sample> rowConverter;
+    private final ColumnarSamples dest;
+    private final int windowBytes;
+    private final Charset charset = Charset.defaultCharset();
+
+    // Every distinct string seen, by the id given to it when first seen.
+    private final List<String> strings = new ArrayList<>();
+    private final ByteStringIds byteIds = new ByteStringIds();
+    private final Map<String, Integer> escapedIds = new HashMap<>();
+    // The dest ids of the strings, by string id.
+    private int[] labelIds = new int[0];
+    private int[] threadNameIds = new int[0];
+    private int[] generatorIds = new int[0];
+    private int[] urlIds = new int[0];
+    // The dest status refs, by code id + 1 and then message id + 1, so that null is 0.
+    private int[][] statusRefs = new int[0][];
+    private CsvParser fallbackParser;
+
+    // The fields of the current record, as positions within the window.
+    private int numFields;
+    private int[] fieldStarts = new int[32];
+    private int[] fieldEnds = new int[32];
+    private boolean[] fieldsEscaped = new boolean[32];
+    private boolean slowRow;
+
+    /**
+     * @param colTypes the type of each column, or null for unknown columns
+     * @param rowConverter converts rows which are not decoded directly, or gives null to skip them
+     * @param dest where the rows are added to
+     */
+    /*package protected*/ MappedJtlReader(List<JtlType> colTypes, Function<String[], Sample> rowConverter,
+            ColumnarSamples dest) {
+        this(colTypes, rowConverter, dest, DEFAULT_WINDOW_BYTES);
+    }
+
+    /*package protected*/ MappedJtlReader(List<JtlType> colTypes, Function<String[], Sample> rowConverter,
+            ColumnarSamples dest, int windowBytes) {
+        this.colTypes = colTypes.toArray(new JtlType[colTypes.size()]);
+        this.rowConverter = rowConverter;
+        this.dest = dest;
+        this.windowBytes = Math.max(1, windowBytes);
+    }
+
+    /**
+     * The bytes are only decodable directly if the characters with special meaning to CSV are
+     * each the same single byte as in ASCII.
+     *
+     * @return true if files in the charset can be read by this reader.
+     */
+    public static boolean canRead(Charset charset) {
+        byte[] bytes = SPECIAL_CHARS.getBytes(charset);
+        if (bytes.length != SPECIAL_CHARS.length()) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; ++i) {
+            if (bytes[i] != SPECIAL_CHARS.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the rows within the range of the file into the dest.
+     *
+     * @param channel the file
+     * @param start the first byte of the range, which is the start of a record
+     * @param end the last byte (exclusive) of the range
+     * @throws IOException if the file could not be read
+     */
+    public void read(FileChannel channel, long start, long end) throws IOException {
+        long position = start;
+        int mapBytes = windowBytes;
+        while (position < end) {
+            long windowEnd = Math.min(end, position + mapBytes);
+            boolean last = windowEnd == end;
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowEnd - position);
+            int consumed = readRecords(window, last);
+            if (consumed == 0) {
+                // A record is bigger than the window, so the window must be bigger.
+                mapBytes = (int) Math.min(Integer.MAX_VALUE, mapBytes * 2L);
+            }
+            position += consumed;
+        }
+    }
+
+    /**
+     * @return how many bytes of whole records were read.
+     */
+    private int readRecords(ByteBuffer window, boolean last) {
+        int limit = window.limit();
+        int position = 0;
+        while (position < limit) {
+            int next = readRecord(window, position, limit, last);
+            if (next < 0) {
+                break;
+            }
+            position = next;
+        }
+        return position;
+    }
+
+    /**
+     * Reads the record starting at the position.
+     *
+     * @return the start of the next record, or -1 if the window ends before the record does.
+     */
+    private int readRecord(ByteBuffer window, int start, int limit, boolean last) {
+        byte b = window.get(start);
+        if (b == '\n') {
+            return start + 1;
+        } else if (b == '#') {
+            // The CSV parser skips comment lines.
+            int end = findLineEnd(window, start, limit);
+            return end < 0 ? endOfWindow(limit, last) : end;
+        }
+        numFields = 0;
+        int p = start;
+        while (true) {
+            while (p < limit && isWhitespace(window.get(p))) {
+                ++p;
+            }
+            if (p < limit && window.get(p) == '"') {
+                ++p;
+                int fieldStart = p;
+                int fieldEnd = -1;
+                boolean escaped = false;
+                while (p < limit) {
+                    if (window.get(p) == '"') {
+                        if (p + 1 >= limit && !last) {
+                            // Cannot tell if the quote is escaped until the next window.
+                            return -1;
+                        } else if (p + 1 < limit && window.get(p + 1) == '"') {
+                            escaped = true;
+                            p += 2;
+                            continue;
+                        }
+                        fieldEnd = p;
+                        ++p;
+                        break;
+                    }
+                    ++p;
+                }
+                if (fieldEnd < 0) {
+                    if (!last) {
+                        return -1;
+                    }
+                    return readUnusualRecord(window, start, limit, last);
+                }
+                addField(fieldStart, fieldEnd, escaped);
+                while (p < limit && isWhitespace(window.get(p))) {
+                    ++p;
+                }
+                if (p < limit && window.get(p) != ',' && window.get(p) != '\n') {
+                    // Something other than a delimiter after the closing quote.
+                    return readUnusualRecord(window, start, limit, last);
+                }
+            } else {
+                int fieldStart = p;
+                while (p < limit && (b = window.get(p)) != ',' && b != '\n') {
+                    ++p;
+                }
+                int fieldEnd = p;
+                while (fieldEnd > fieldStart && isWhitespace(window.get(fieldEnd - 1))) {
+                    --fieldEnd;
+                }
+                addField(fieldStart, fieldEnd, false);
+            }
+            if (p >= limit) {
+                if (!last) {
+                    return -1;
+                }
+                break;
+            } else if (window.get(p) == '\n') {
+                ++p;
+                break;
+            }
+            // Skip the delimiter
+            ++p;
+        }
+        if (numFields == 1 && fieldStarts[0] == fieldEnds[0]) {
+            // Blank line
+            return p;
+        }
+        convertRecord(window);
+        return p;
+    }
+
+    private static int endOfWindow(int limit, boolean last) {
+        return last ? limit : -1;
+    }
+
+    private static int findLineEnd(ByteBuffer window, int start, int limit) {
+        for (int i = start; i < limit; ++i) {
+            if (window.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the end of the record the same way the ranges were split, and has the CSV parser read
+     * it. Only used for records which are not well-formed.
+     */
+    private int readUnusualRecord(ByteBuffer window, int start, int limit, boolean last) {
+        boolean inQuotes = false;
+        int end = -1;
+        for (int i = start; i < limit; ++i) {
+            byte b = window.get(i);
+            if (b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == '\n' && !inQuotes) {
+                end = i + 1;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (!last) {
+                return -1;
+            }
+            end = limit;
+        }
+        if (fallbackParser == null) {
+            fallbackParser = new CsvParser(new CsvParserSettings());
+        }
+        String[] row = fallbackParser.parseLine(decode(window, start, end));
+        if (row != null) {
+            addConverted(row);
+        }
+        return end;
+    }
+
+    private void addField(int start, int end, boolean escaped) {
+        if (numFields == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, numFields * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, numFields * 2);
+            fieldsEscaped = Arrays.copyOf(fieldsEscaped, numFields * 2);
+        }
+        fieldStarts[numFields] = start;
+        fieldEnds[numFields] = end;
+        fieldsEscaped[numFields] = escaped;
+        ++numFields;
+    }
+
+    private void convertRecord(ByteBuffer window) {
+        if (numFields != colTypes.length) {
+            // Let the converter decide what to do with it.
+            addConverted(materializeRow(window));
+            return;
+        }
+        slowRow = false;
+        long timestamp = 0L;
+        long elapsed = 0L;
+        long bytes = 0L;
+        int allThreads = 0;
+        boolean success = false;
+        int labelId = -1;
+        int threadNameId = -1;
+        int codeId = -1;
+        int messageId = -1;
+        int generatorId = -1;
+        int urlId = -1;
+        int latency = -1;
+        int connect = -1;
+        long sentBytes = -1L;
+        int idleTime = -1;
+        for (int i = 0; i < numFields && !slowRow; ++i) {
+            JtlType type = colTypes[i];
+            if (type == null) {
+                continue;
+            }
+            switch (type) {
+                case TIMESTAMP:
+                    timestamp = decodeLong(window, i);
+                    break;
+                case ELAPSED:
+                    elapsed = decodeLong(window, i);
+                    break;
+                case BYTES:
+                    bytes = decodeLong(window, i);
+                    break;
+                case ALL_THREADS:
+                    allThreads = decodeInt(window, i);
+                    break;
+                case SUCCESS:
+                    success = decodeBoolean(window, i);
+                    break;
+                case LABEL:
+                    labelId = stringId(window, i);
+                    break;
+                case THREAD_NAME:
+                    threadNameId = stringId(window, i);
+                    break;
+                case RESPONSE_CODE:
+                    codeId = stringId(window, i);
+                    break;
+                case RESPONSE_MESSAGE:
+                    messageId = stringId(window, i);
+                    break;
+                case HOSTNAME:
+                    generatorId = stringId(window, i);
+                    break;
+                case URL:
+                    urlId = stringId(window, i);
+                    break;
+                case LATENCY:
+                    latency = decodeInt(window, i);
+                    break;
+                case CONNECT:
+                    connect = decodeInt(window, i);
+                    break;
+                case SENT_BYTES:
+                    sentBytes = decodeLong(window, i);
+                    break;
+                case IDLE_TIME:
+                    idleTime = decodeInt(window, i);
+                    break;
+                default:
+                    // Not kept by the samples.
+                    break;
+            }
+        }
+        if (slowRow) {
+            addConverted(materializeRow(window));
+            return;
+        }
+        dest.add(timestamp, elapsed, destLabelId(labelId), destThreadNameId(threadNameId),
+                statusRef(codeId, messageId), success, bytes, allThreads,
+                destGeneratorId(generatorId), destUrlId(urlId), latency, connect, sentBytes, idleTime);
+    }
+
+    private void addConverted(String[] row) {
+        Sample sample = rowConverter.apply(row);
+        if (sample != null) {
+            dest.add(sample);
+        }
+    }
+
+    /**
+     * Decodes plain decimal numbers. Anything else marks the row to be converted the slow way,
+     * so that it is converted (or rejected) exactly as it would have been otherwise.
+     */
+    private long decodeLong(ByteBuffer window, int field) {
+        return decodeNumber(window, field, MAX_FAST_LONG_DIGITS);
+    }
+
+    private int decodeInt(ByteBuffer window, int field) {
+        return (int) decodeNumber(window, field, MAX_FAST_INT_DIGITS);
+    }
+
+    private long decodeNumber(ByteBuffer window, int field, int maxDigits) {
+        int p = fieldStarts[field];
+        int end = fieldEnds[field];
+        boolean negative = false;
+        if (p < end && (window.get(p) == '-' || window.get(p) == '+')) {
+            negative = window.get(p) == '-';
+            ++p;
+        }
+        int digits = end - p;
+        if (fieldsEscaped[field] || digits < 1 || digits > maxDigits) {
+            slowRow = true;
+            return 0L;
+        }
+        long value = 0L;
+        for (; p < end; ++p) {
+            int digit = window.get(p) - '0';
+            if (digit < 0 || digit > 9) {
+                slowRow = true;
+                return 0L;
+            }
+            value = value * 10L + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    // Same as Boolean.valueOf(String)
+    private boolean decodeBoolean(ByteBuffer window, int field) {
+        int start = fieldStarts[field];
+        if (fieldEnds[field] - start != 4) {
+            return false;
+        }
+        return (window.get(start) | 0x20) == 't'
+                && (window.get(start + 1) | 0x20) == 'r'
+                && (window.get(start + 2) | 0x20) == 'u'
+                && (window.get(start + 3) | 0x20) == 'e';
+    }
+
+    /**
+     * @return the id of the string of the field, or -1 if the field is empty.
+     */
+    private int stringId(ByteBuffer window, int field) {
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        if (start == end) {
+            return -1;
+        } else if (fieldsEscaped[field]) {
+            String value = unescape(decode(window, start, end));
+            Integer id = escapedIds.get(value);
+            if (id == null) {
+                id = addString(value);
+                escapedIds.put(value, id);
+            }
+            return id;
+        }
+        int id = byteIds.get(window, start, end);
+        if (id < 0) {
+            id = addString(decode(window, start, end));
+            byteIds.put(window, start, end, id);
+        }
+        return id;
+    }
+
+    private int addString(String value) {
+        strings.add(value);
+        return strings.size() - 1;
+    }
+
+    private String stringOf(int id) {
+        return id < 0 ? null : strings.get(id);
+    }
+
+    private int destLabelId(int id) {
+        if (id < 0) {
+            return -1;
+        }
+        labelIds = grow(labelIds, id);
+        if (labelIds[id] == UNKNOWN) {
+            labelIds[id] = dest.labelId(strings.get(id));
+        }
+        return labelIds[id];
+    }
+
+    private int destThreadNameId(int id) {
+        if (id < 0) {
+            return -1;
+        }
+        threadNameIds = grow(threadNameIds, id);
+        if (threadNameIds[id] == UNKNOWN) {
+            threadNameIds[id] = dest.threadNameId(strings.get(id));
+        }
+        return threadNameIds[id];
+    }
+
+    private int destGeneratorId(int id) {
+        if (id < 0) {
+            return -1;
+        }
+        generatorIds = grow(generatorIds, id);
+        if (generatorIds[id] == UNKNOWN) {
+            generatorIds[id] = dest.generatorId(strings.get(id));
+        }
+        return generatorIds[id];
+    }
+
+    private int destUrlId(int id) {
+        if (id < 0) {
+            return -1;
+        }
+        urlIds = grow(urlIds, id);
+        if (urlIds[id] == UNKNOWN) {
+            urlIds[id] = dest.urlId(strings.get(id));
+        }
+        return urlIds[id];
+    }
+
+    private static int[] grow(int[] ids, int id) {
+        if (id < ids.length) {
+            return ids;
+        }
+        int oldLength = ids.length;
+        int[] grown = Arrays.copyOf(ids, Math.max(id + 1, oldLength * 2));
+        Arrays.fill(grown, oldLength, grown.length, UNKNOWN);
+        return grown;
+    }
+
+    private int statusRef(int codeId, int messageId) {
+        int codeIndex = codeId + 1;
+        int messageIndex = messageId + 1;
+        if (codeIndex >= statusRefs.length) {
+            statusRefs = Arrays.copyOf(statusRefs, Math.max(codeIndex + 1, statusRefs.length * 2));
+        }
+        int[] messageRefs = grow(statusRefs[codeIndex] == null ? new int[0] : statusRefs[codeIndex], messageIndex);
+        statusRefs[codeIndex] = messageRefs;
+        if (messageRefs[messageIndex] == UNKNOWN) {
+            messageRefs[messageIndex] = dest.getStatusCodeLookup().getRef(stringOf(codeId), stringOf(messageId));
+        }
+        return messageRefs[messageIndex];
+    }
+
+    private String[] materializeRow(ByteBuffer window) {
+        String[] row = new String[numFields];
+        for (int i = 0; i < numFields; ++i) {
+            int start = fieldStarts[i];
+            int end = fieldEnds[i];
+            if (start != end) {
+                String value = decode(window, start, end);
+                row[i] = fieldsEscaped[i] ? unescape(value) : value;
+            }
+        }
+        return row;
+    }
+
+    private String decode(ByteBuffer window, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = window.get(start + i);
+        }
+        return new String(bytes, charset);
+    }
+
+    private static String unescape(String value) {
+        return value.replace("\"\"", "\"");
+    }
+
+    // The CSV parser treats control characters and spaces as whitespace. Bytes of multi-byte
+    // characters are negative, so are never whitespace.
+    private static boolean isWhitespace(byte b) {
+        return b >= 0 && b <= ' ' && b != '\n';
+    }
+
+    /**
+     * Ids of strings by their bytes, so that the bytes can be looked up without first creating a
+     * string from them. Uses open addressing.
+     */
+    private static class ByteStringIds {
+
+        private byte[][] keys = new byte[64][];
+        private int[] hashes = new int[64];
+        private int[] ids = new int[64];
+        private int size;
+
+        public int get(ByteBuffer window, int start, int end) {
+            int hash = hash(window, start, end);
+            int mask = keys.length - 1;
+            for (int slot = hash & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && matches(keys[slot], window, start, end)) {
+                    return ids[slot];
+                }
+            }
+            return -1;
+        }
+
+        public void put(ByteBuffer window, int start, int end, int id) {
+            byte[] key = new byte[end - start];
+            for (int i = 0; i < key.length; ++i) {
+                key[i] = window.get(start + i);
+            }
+            if ((size + 1) * 2 > keys.length) {
+                resize();
+            }
+            insert(key, hash(window, start, end), id);
+        }
+
+        private void insert(byte[] key, int hash, int id) {
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            hashes[slot] = hash;
+            ids[slot] = id;
+            ++size;
+        }
+
+        private void resize() {
+            byte[][] oldKeys = keys;
+            int[] oldHashes = hashes;
+            int[] oldIds = ids;
+            keys = new byte[oldKeys.length * 2][];
+            hashes = new int[oldKeys.length * 2];
+            ids = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; ++i) {
+                if (oldKeys[i] != null) {
+                    insert(oldKeys[i], oldHashes[i], oldIds[i]);
+                }
+            }
+        }
+
+        private static int hash(ByteBuffer window, int start, int end) {
+            int hash = 1;
+            for (int i = start; i < end; ++i) {
+                hash = 31 * hash + window.get(i);
+            }
+            // Spread the bits, since only the low bits pick the slot.
+            return hash ^ (hash >>> 16);
+        }
+
+        private static boolean matches(byte[] key, ByteBuffer window, int start, int end) {
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; ++i) {
+                if (key[i] != window.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.convert.model.HttpSample;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads every sample of an Avro file of samples on several threads. The file is split into
+ * chunks of whole blocks, using the {@link BlockIndex} of the file, and each chunk is decoded by
+ * its own reader on a fork-join pool.
+ * <p>
+ * The blocks are found from the index rather than by searching for sync markers, because the
+ * files are written with a fixed sync marker of all zeros, which can also appear in the samples.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class ParallelAvroScanner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelAvroScanner.class);
+
+    /*package protected*/ static final int DEFAULT_CHUNK_ROWS = 64 * 1024;
+    // How many chunks each thread can decode ahead of the samples being handled in order.
+    private static final int CHUNKS_AHEAD_PER_THREAD = 2;
+
+    private final int parallelism;
+    private final int chunkRows;
+
+    /**
+     * @param parallelism how many threads to decode with
+     */
+    public ParallelAvroScanner(int parallelism) {
+        this(parallelism, DEFAULT_CHUNK_ROWS);
+    }
+
+    /**
+     * @param parallelism how many threads to decode with
+     * @param chunkRows about how many samples each thread decodes at a time
+     */
+    /*package protected*/ ParallelAvroScanner(int parallelism, int chunkRows) {
+        this.parallelism = Math.max(1, parallelism);
+        this.chunkRows = Math.max(1, chunkRows);
+    }
+
+    /**
+     * Gives every sample to the consumer, on the calling thread, in the order they are in the
+     * file. Samples are decoded on several threads, but only a few chunks ahead of the consumer,
+     * so the samples are never all in memory at once.
+     *
+     * @param avro the Avro file of samples
+     * @param consumer receives each sample, and may keep it
+     * @return how many samples there were
+     * @throws IOException if the file could not be read
+     */
+    public long scanOrdered(File avro, Consumer<HttpSample> consumer) throws IOException {
+        List<Chunk> chunks = split(avro);
+        long numRows = 0L;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            Deque<ForkJoinTask<List<HttpSample>>> ahead = new ArrayDeque<>();
+            int next = 0;
+            while (next < chunks.size() || !ahead.isEmpty()) {
+                while (next < chunks.size() && ahead.size() < parallelism * CHUNKS_AHEAD_PER_THREAD) {
+                    Chunk chunk = chunks.get(next);
+                    ahead.add(pool.submit(() -> decode(avro, chunk)));
+                    ++next;
+                }
+                for (HttpSample hs : ahead.remove().join()) {
+                    consumer.accept(hs);
+                    ++numRows;
+                }
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+        return numRows;
+    }
+
+    /**
+     * Gives every sample to the consumer in batches, in no particular order. The batches are
+     * given on the decoding threads, several at the same time, so the consumer must be safe to
+     * use from many threads, such as by making its own totals for each batch and combining them.
+     *
+     * @param avro the Avro file of samples
+     * @param batchConsumer receives each batch of samples, and may keep them
+     * @return how many samples there were
+     * @throws IOException if the file could not be read
+     */
+    public long scanUnordered(File avro, Consumer<List<HttpSample>> batchConsumer) throws IOException {
+        List<Chunk> chunks = split(avro);
+        long numRows = 0L;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<Integer>> tasks = new ArrayList<>(chunks.size());
+            for (Chunk chunk : chunks) {
+                tasks.add(pool.submit(() -> {
+                    List<HttpSample> batch = decode(avro, chunk);
+                    batchConsumer.accept(batch);
+                    return batch.size();
+                }));
+            }
+            for (ForkJoinTask<Integer> task : tasks) {
+                numRows += task.join();
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+        return numRows;
+    }
+
+    /**
+     * Groups the blocks of the file into chunks of about {@link #chunkRows} samples each.
+     */
+    private List<Chunk> split(File avro) throws IOException {
+        List<BlockIndex.Block> blocks = BlockIndex.forFile(avro).getBlocks();
+        List<Chunk> chunks = new ArrayList<>();
+        Chunk chunk = null;
+        for (BlockIndex.Block block : blocks) {
+            if (chunk == null || chunk.numRows >= chunkRows) {
+                chunk = new Chunk(block.getPosition());
+                chunks.add(chunk);
+            }
+            chunk.numRows += block.getNumRows();
+        }
+        LOGGER.debug("Scanning {} blocks of {} in {} chunks with {} threads.",
+                blocks.size(), avro, chunks.size(), parallelism);
+        return chunks;
+    }
+
+    private static List<HttpSample> decode(File avro, Chunk chunk) {
+        DatumReader<HttpSample> datumReader = new SpecificDatumReader<>(HttpSample.class);
+        try (DataFileReader<HttpSample> reader = new DataFileReader<>(avro, datumReader)) {
+            reader.seek(chunk.position);
+            List<HttpSample> samples = new ArrayList<>(chunk.numRows);
+            for (int i = 0; i < chunk.numRows; ++i) {
+                samples.add(reader.next());
+            }
+            return samples;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not read samples of " + avro + " at " + chunk.position, ex);
+        }
+    }
+
+    /**
+     * Consecutive blocks, read by one reader.
+     */
+    private static class Chunk {
+
+        private final long position;
+        private int numRows;
+
+        Chunk(long position) {
+            this.position = position;
+        }
+    }
+}
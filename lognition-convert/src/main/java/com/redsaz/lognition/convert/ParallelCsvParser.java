@@ -0,0 +1,462 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.univocity.parsers.csv.CsvParser;
+import com.univocity.parsers.csv.CsvParserSettings;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses a CSV file on several threads. The file is split into byte ranges that each begin at the
+ * start of a record, and each range is parsed by its own parser on a fork-join pool.
+ * <p>
+ * A newline only ends a record when it is outside of a quoted field, and whether a position is
+ * inside a quoted field depends on how many quotes come before it. So before the ranges are lined
+ * up with the records, the quotes in each range are counted in parallel. Escaped quotes come in
+ * pairs and do not change the count's parity. This relies on quotes only appearing in quoted
+ * fields, which is how JMeter writes CSV files.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+/*package protected*/ class ParallelCsvParser {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelCsvParser.class);
+
+    /*package protected*/ static final long DEFAULT_MIN_RANGE_BYTES = 4L * 1024L * 1024L;
+    // More ranges than threads, so that a thread finishing early can take another range.
+    private static final int RANGES_PER_THREAD = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Parses the records of one range of the file, on the thread given the range.
+     *
+     * @param <T> what the records of the range are parsed into
+     */
+    /*package protected*/ interface RangeParser<T> {
+
+        /**
+         * @param parser gives the records of the range, until null is returned
+         * @param rangeIndex the position of the range in the file, starting at 0
+         * @return what the records were parsed into
+         */
+        T parse(CsvParser parser, int rangeIndex);
+    }
+
+    /**
+     * Reads the bytes of one range of the file, on the thread given the range.
+     *
+     * @param <T> what the range is read into
+     */
+    /*package protected*/ interface RangeReader<T> {
+
+        /**
+         * @param channel the file, which may be read from by other ranges at the same time, so
+         * only positional reads or maps are to be used
+         * @param start the first byte of the range, inclusive, which is the start of a record
+         * @param end the last byte of the range, exclusive, which is the end of a record
+         * @param rangeIndex the position of the range in the file, starting at 0
+         * @return what the range was read into
+         * @throws IOException if the range could not be read
+         */
+        T read(FileChannel channel, long start, long end, int rangeIndex) throws IOException;
+    }
+
+    /**
+     * Handles what the ranges of one chunk of the file were read into, see
+     * {@link #readChunks(boolean, long, long, RangeReader, ChunkReader)}.
+     *
+     * @param <T> what each range was read into
+     */
+    /*package protected*/ interface ChunkReader<T> {
+
+        /**
+         * @param ranges what each range of the chunk was read into, in the order of the file
+         * @param chunkEnd the position just after the last record of the chunk, which reading
+         * can be carried on from later
+         * @throws IOException if the ranges could not be handled
+         */
+        void read(List<T> ranges, long chunkEnd) throws IOException;
+    }
+
+    /**
+     * Parses the records of one chunk of the file, see
+     * {@link #parseChunks(boolean, long, long, ChunkParser)}.
+     */
+    /*package protected*/ interface ChunkParser {
+
+        /**
+         * @param parser gives the records of the chunk, until null is returned
+         * @param chunkEnd the position just after the last record of the chunk, which parsing
+         * can be carried on from later
+         * @throws IOException if the records could not be handled
+         */
+        void parse(CsvParser parser, long chunkEnd) throws IOException;
+    }
+
+    private final File source;
+    private final int parallelism;
+    private final long minRangeBytes;
+    private long firstRecordEnd;
+
+    /**
+     * @param source the CSV file to parse
+     * @param parallelism how many threads to parse with
+     * @param minRangeBytes the file is not split into ranges smaller than this
+     */
+    /*package protected*/ ParallelCsvParser(File source, int parallelism, long minRangeBytes) {
+        this.source = source;
+        this.parallelism = parallelism;
+        this.minRangeBytes = Math.max(1L, minRangeBytes);
+    }
+
+    /**
+     * Parses only the first record of the file, which is usually the header.
+     *
+     * @return the first record, or null if the file has no records.
+     * @throws IOException if the file could not be read
+     */
+    public String[] parseFirstRecord() throws IOException {
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            long start = 0L;
+            long length = channel.size();
+            // Blank lines are skipped by the parser, so keep going until a record is found.
+            while (start < length) {
+                long end = findRecordEnd(channel, start, false);
+                CsvParser parser = beginParsing(channel, start, end);
+                String[] record = parser.parseNext();
+                parser.stopParsing();
+                if (record != null) {
+                    firstRecordEnd = end;
+                    return record;
+                }
+                start = end;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Parses the records of the file in ranges, several at a time.
+     *
+     * @param <T> what each range of records is parsed into
+     * @param includeFirstRecord false to skip the first record, such as when it is a header
+     * @param rangeParser parses the records of each range
+     * @return what each range was parsed into, in the same order as the ranges are in the file
+     * @throws IOException if the file could not be read
+     */
+    public <T> List<T> parseRecords(boolean includeFirstRecord, RangeParser<T> rangeParser) throws IOException {
+        return readRanges(includeFirstRecord, (channel, rangeStart, rangeEnd, rangeIndex) -> {
+            CsvParser parser = beginParsing(channel, rangeStart, rangeEnd);
+            try {
+                return rangeParser.parse(parser, rangeIndex);
+            } finally {
+                parser.stopParsing();
+            }
+        });
+    }
+
+    /**
+     * Reads the file in ranges, several at a time, for when the records are to be parsed
+     * directly from the bytes.
+     *
+     * @param <T> what each range is read into
+     * @param includeFirstRecord false to skip the first record, such as when it is a header
+     * @param rangeReader reads each range
+     * @return what each range was read into, in the same order as the ranges are in the file
+     * @throws IOException if the file could not be read
+     */
+    public <T> List<T> readRanges(boolean includeFirstRecord, RangeReader<T> rangeReader) throws IOException {
+        long start = includeFirstRecord ? 0L : firstRecordEnd;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            return readRanges(channel, start, channel.size(), pool, rangeReader);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Reads the file one chunk after another, in order, with the ranges of each chunk read
+     * several at a time. Each chunk ends at the end of a record, so reading can later be carried
+     * on from the end of any chunk, such as when a long import is resumed.
+     *
+     * @param <T> what each range is read into
+     * @param includeFirstRecord false to skip the first record, such as when it is a header
+     * @param from where to start reading, either 0 or the end of a previously read chunk
+     * @param chunkBytes about how many bytes to read in each chunk
+     * @param rangeReader reads each range
+     * @param chunkReader handles the ranges of each chunk, on the calling thread, before the
+     * next chunk is read
+     * @throws IOException if the file could not be read
+     */
+    public <T> void readChunks(boolean includeFirstRecord, long from, long chunkBytes,
+            RangeReader<T> rangeReader, ChunkReader<T> chunkReader) throws IOException {
+        long start = Math.max(from, includeFirstRecord ? 0L : firstRecordEnd);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            while (start < length) {
+                long end = length;
+                if (length - start > chunkBytes) {
+                    // Chunks start at a record, so the quotes before the split are all in this chunk.
+                    long split = start + chunkBytes;
+                    end = findRecordEnd(channel, split, hasOddQuotes(channel, start, split, pool));
+                }
+                chunkReader.read(readRanges(channel, start, end, pool, rangeReader), end);
+                start = end;
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Parses the records of the file one chunk after another, in order, on the calling thread.
+     * Each chunk ends at the end of a record, so parsing can later be carried on from the end of
+     * any chunk, such as when a long import is resumed.
+     *
+     * @param includeFirstRecord false to skip the first record, such as when it is a header
+     * @param from where to start parsing, either 0 or the end of a previously parsed chunk
+     * @param chunkBytes about how many bytes to parse in each chunk
+     * @param chunkParser parses each chunk
+     * @throws IOException if the file could not be read
+     */
+    public void parseChunks(boolean includeFirstRecord, long from, long chunkBytes, ChunkParser chunkParser) throws IOException {
+        long start = Math.max(from, includeFirstRecord ? 0L : firstRecordEnd);
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            while (start < length) {
+                long end = length;
+                if (length - start > chunkBytes) {
+                    // Chunks start at a record, so the quotes before the split are all in this chunk.
+                    long split = start + chunkBytes;
+                    end = findRecordEnd(channel, split, hasOddQuotes(channel, start, split));
+                }
+                CsvParser parser = beginParsing(channel, start, end);
+                try {
+                    chunkParser.parse(parser, end);
+                } finally {
+                    parser.stopParsing();
+                }
+                start = end;
+            }
+        }
+    }
+
+    private <T> List<T> readRanges(FileChannel channel, long start, long end, ForkJoinPool pool,
+            RangeReader<T> rangeReader) {
+        List<Long> bounds = split(channel, start, end, pool);
+        LOGGER.debug("Parsing {} from byte {} to {} in {} ranges with {} threads.",
+                source, start, end, bounds.size() - 1, parallelism);
+        List<ForkJoinTask<T>> tasks = new ArrayList<>(bounds.size() - 1);
+        for (int i = 0; i < bounds.size() - 1; ++i) {
+            int rangeIndex = i;
+            long rangeStart = bounds.get(i);
+            long rangeEnd = bounds.get(i + 1);
+            tasks.add(pool.submit(() -> rangeReader.read(channel, rangeStart, rangeEnd, rangeIndex)));
+        }
+        List<T> results = new ArrayList<>(tasks.size());
+        for (ForkJoinTask<T> task : tasks) {
+            results.add(task.join());
+        }
+        return results;
+    }
+
+    /**
+     * Splits the part of the file between start and end into ranges that each start at the
+     * beginning of a record.
+     *
+     * @return the bounds of the ranges, starting with start and ending with end.
+     */
+    private List<Long> split(FileChannel channel, long start, long end, ForkJoinPool pool) {
+        long length = end - start;
+        int numRanges = (int) Math.max(1L, Math.min((long) parallelism * RANGES_PER_THREAD, length / minRangeBytes));
+        long rangeBytes = length / numRanges;
+
+        // Count the quotes of each range as they are before being lined up with the records.
+        List<ForkJoinTask<Boolean>> oddQuotes = new ArrayList<>(numRanges);
+        for (int i = 0; i < numRanges; ++i) {
+            long from = start + i * rangeBytes;
+            long to = i == numRanges - 1 ? end : from + rangeBytes;
+            oddQuotes.add(pool.submit(() -> hasOddQuotes(channel, from, to)));
+        }
+
+        // Whether each range starts inside of quotes depends on all of the quotes before it.
+        List<ForkJoinTask<Long>> recordStarts = new ArrayList<>(numRanges - 1);
+        boolean inQuotes = false;
+        for (int i = 1; i < numRanges; ++i) {
+            inQuotes ^= oddQuotes.get(i - 1).join();
+            long from = start + i * rangeBytes;
+            boolean fromInQuotes = inQuotes;
+            recordStarts.add(pool.submit(() -> findRecordEnd(channel, from, fromInQuotes)));
+        }
+
+        List<Long> bounds = new ArrayList<>(numRanges + 1);
+        bounds.add(start);
+        for (ForkJoinTask<Long> recordStart : recordStarts) {
+            long bound = recordStart.join();
+            // A long record can cover several ranges, so the ranges it covers are combined.
+            if (bound > bounds.get(bounds.size() - 1) && bound < end) {
+                bounds.add(bound);
+            }
+        }
+        bounds.add(end);
+        return bounds;
+    }
+
+    /**
+     * Same as {@link #hasOddQuotes(FileChannel, long, long)}, with the part counted in pieces on
+     * the pool.
+     */
+    private boolean hasOddQuotes(FileChannel channel, long from, long to, ForkJoinPool pool) {
+        long pieceBytes = Math.max(minRangeBytes, (to - from + parallelism - 1) / parallelism);
+        List<ForkJoinTask<Boolean>> pieces = new ArrayList<>();
+        for (long pieceStart = from; pieceStart < to; pieceStart += pieceBytes) {
+            long pieceFrom = pieceStart;
+            long pieceTo = Math.min(to, pieceStart + pieceBytes);
+            pieces.add(pool.submit(() -> hasOddQuotes(channel, pieceFrom, pieceTo)));
+        }
+        boolean odd = false;
+        for (ForkJoinTask<Boolean> piece : pieces) {
+            odd ^= piece.join();
+        }
+        return odd;
+    }
+
+    private static boolean hasOddQuotes(FileChannel channel, long from, long to) {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        boolean odd = false;
+        long position = from;
+        while (position < to) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, to - position));
+            int read = read(channel, buffer, position);
+            if (read < 0) {
+                break;
+            }
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < read; ++i) {
+                if (bytes[i] == '"') {
+                    odd = !odd;
+                }
+            }
+            position += read;
+        }
+        return odd;
+    }
+
+    /**
+     * Finds the end of the record which the given position is part of.
+     *
+     * @param from where to begin looking
+     * @param inQuotes true if the position is inside of a quoted field
+     * @return the position just after the newline ending the record, or the end of the file.
+     */
+    private static long findRecordEnd(FileChannel channel, long from, boolean inQuotes) {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = from;
+        int read;
+        while ((read = read(channel, buffer, position)) > 0) {
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < read; ++i) {
+                if (bytes[i] == '"') {
+                    inQuotes = !inQuotes;
+                } else if (bytes[i] == '\n' && !inQuotes) {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+            buffer.clear();
+        }
+        return Math.max(from, position);
+    }
+
+    private static int read(FileChannel channel, ByteBuffer buffer, long position) {
+        try {
+            return channel.read(buffer, position);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static CsvParser beginParsing(FileChannel channel, long start, long end) {
+        // Newlines are single bytes in the default charset for anything that would be in a JTL,
+        // so the ranges do not split any characters.
+        Reader reader = new InputStreamReader(
+                new BufferedInputStream(new RangeInputStream(channel, start, end), BUFFER_SIZE),
+                Charset.defaultCharset());
+        CsvParser parser = new CsvParser(new CsvParserSettings());
+        parser.beginParsing(reader);
+        return parser;
+    }
+
+    /**
+     * Reads a range of a file channel, without changing the position of the channel, so that
+     * many ranges of the same channel can be read at once.
+     */
+    private static class RangeInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        RangeInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.end = end;
+            position = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            if (read < 1) {
+                return -1;
+            }
+            return single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int toRead = (int) Math.min(len, end - position);
+            int read = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+            if (read < 0) {
+                return -1;
+            }
+            position += read;
+            return read;
+        }
+    }
+}
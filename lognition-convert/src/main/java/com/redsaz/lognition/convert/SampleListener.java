@@ -0,0 +1,44 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.api.model.Sample;
+
+/**
+ * Receives samples one at a time, as they are read or converted, so that all of the samples never
+ * need to be held in memory at once.
+ * <p>
+ * The given sample may be reused by the caller for the next sample, so implementations must copy
+ * out whatever they need rather than hold on to it.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public interface SampleListener {
+
+    /**
+     * Called once before the first sample by the converters that know the extent of the log
+     * before giving its samples, so that a listener can let go of what no later sample can need.
+     * Not called by everything that gives samples, so a listener cannot rely on it.
+     *
+     * @param lastOffsetMillis the latest offset of any sample that will be given
+     * @param maxLateMillis the furthest any sample will be behind the latest offset given before
+     * it, or 0 if the samples are given in order of offset
+     */
+    default void samplesStarting(long lastOffsetMillis, long maxLateMillis) {
+    }
+
+    void sampleProcessed(Sample sample);
+}
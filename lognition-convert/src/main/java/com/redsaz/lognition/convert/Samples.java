@@ -41,4 +41,14 @@ public interface Samples {
 
     List<String> getThreadNames();
 
+    /**
+     * @return the URLs of the samples, sorted, or empty if the samples have none.
+     */
+    List<String> getUrls();
+
+    /**
+     * @return the load generators that took the samples, sorted, or empty if not known.
+     */
+    List<String> getGenerators();
+
 }
@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -136,6 +137,24 @@ class StatusCodeLookup {
         return ref;
     }
 
+    /**
+     * Tells whether {@link #getRef(CharSequence, CharSequence)} would give a ref of 0, without
+     * adding the code to the custom codes if it is not already.
+     *
+     * @param code the status code, can be null
+     * @param message the status message, can be null
+     * @return true if the code is the standard "0 Unspecified" code.
+     */
+    public static boolean isUnspecified(CharSequence code, CharSequence message) {
+        if (code == null && message == null) {
+            return false;
+        } else if (code == null) {
+            code = MESSAGE_TO_CODE.getOrDefault(message.toString(), "");
+        }
+        return "0".equals(code.toString())
+                && (message == null || message.toString().equals(REF_TO_MESSAGE.get(0)));
+    }
+
     public CharSequence getCode(Integer ref) {
         if (ref == null || ref == -1) {
             return "";
@@ -156,6 +175,77 @@ class StatusCodeLookup {
         return customMessages.get((ref - CUSTOM_START_REF) / CUSTOM_SPAN);
     }
 
+    /**
+     * @param ref a status reference
+     * @return the position of the ref within the custom codes and messages, or -1 if the ref is
+     * not for a custom status.
+     */
+    public static int customIndex(int ref) {
+        if (ref > CUSTOM_START_REF) {
+            return -1;
+        }
+        return (ref - CUSTOM_START_REF) / CUSTOM_SPAN;
+    }
+
+    /**
+     * Gives every status an int that orders it the same as comparing its code and then its
+     * message would, so that rows can be sorted by status without comparing strings. Statuses
+     * with the same code and message have the same rank. Only valid until more custom statuses
+     * are added.
+     *
+     * @return the ranks, by the {@link #rankIndex(int)} of each ref.
+     */
+    public int[] sortRanks() {
+        int numStatuses = rankCount();
+        Integer[] byOrder = new Integer[numStatuses];
+        for (int i = 0; i < numStatuses; ++i) {
+            byOrder[i] = refOfRankIndex(i);
+        }
+        Comparator<Integer> order = Comparator
+                .comparing((Integer ref) -> getCode(ref).toString())
+                .thenComparing(ref -> getMessage(ref).toString());
+        Arrays.sort(byOrder, order);
+        int[] ranks = new int[numStatuses];
+        int rank = 0;
+        for (int i = 0; i < numStatuses; ++i) {
+            if (i > 0 && order.compare(byOrder[i - 1], byOrder[i]) != 0) {
+                ++rank;
+            }
+            ranks[rankIndex(byOrder[i])] = rank;
+        }
+        return ranks;
+    }
+
+    /**
+     * @param ref a status reference, including -1 for no status
+     * @return where the rank of the ref is in {@link #sortRanks()}.
+     */
+    public static int rankIndex(int ref) {
+        if (ref >= -1) {
+            return ref + 1;
+        }
+        return 1 + REF_TO_CODE.size() + customIndex(ref);
+    }
+
+    /**
+     * @return how many statuses there are, including no status, which is also one more than the
+     * largest {@link #rankIndex(int)}.
+     */
+    public int rankCount() {
+        return 1 + REF_TO_CODE.size() + customCodes.size();
+    }
+
+    /**
+     * @param index where the rank of a ref is in {@link #sortRanks()}
+     * @return the ref.
+     */
+    public static int refOfRankIndex(int index) {
+        if (index <= REF_TO_CODE.size()) {
+            return index - 1;
+        }
+        return CUSTOM_START_REF + (index - 1 - REF_TO_CODE.size()) * CUSTOM_SPAN;
+    }
+
     public List<CharSequence> getCustomCodes() {
         return Collections.unmodifiableList(customCodes);
     }
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gives each distinct string, such as a label or thread name, a small id, so that samples can
+ * hold the id rather than the string, and be compared, sorted and grouped by the id. Each string
+ * is only kept once, however many samples have it, so this also takes the place of interning the
+ * strings as they are parsed.
+ * <p>
+ * Ids start at 0 and are in the order the strings were first seen, until the dictionary is
+ * sorted, after which they are in the order of the strings. Null is never added, and always has
+ * the id -1. The Avro files refer to the strings by ref rather than id, which is the id plus one,
+ * so that the "no string" ref is 0.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+/*package protected*/ class StringDictionary {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    /**
+     * Gives the id of the string, adding it if it is not already in the dictionary.
+     *
+     * @param value the string, can be null
+     * @return the id, or -1 if the string is null.
+     */
+    public int id(String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = values.size();
+            values.add(value);
+            ids.put(value, id);
+        }
+        return id;
+    }
+
+    /**
+     * Gives the id of the string, without adding it.
+     *
+     * @param value the string, can be null
+     * @return the id, or -1 if the string is null or not in the dictionary.
+     */
+    public int find(String value) {
+        if (value == null) {
+            return -1;
+        }
+        return ids.getOrDefault(value, -1);
+    }
+
+    /**
+     * Like {@link String#intern()}, but only for this dictionary: gives the instance of the string
+     * that is kept, adding it if it is not already in the dictionary.
+     *
+     * @param value the string, can be null
+     * @return an equal string, or null if the string is null.
+     */
+    public String intern(String value) {
+        return get(id(value));
+    }
+
+    /**
+     * @param id the id of a string
+     * @return the string, or null if the id is -1.
+     */
+    public String get(int id) {
+        if (id < 0) {
+            return null;
+        }
+        return values.get(id);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * @return the strings, by id.
+     */
+    public List<String> values() {
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * @return the strings in sorted order, without sorting the dictionary.
+     */
+    public List<String> sortedValues() {
+        List<String> sorted = new ArrayList<>(values);
+        sorted.sort(null);
+        return sorted;
+    }
+
+    /**
+     * Gives the id each string would have if the dictionary were sorted, without sorting it.
+     *
+     * @return by current id, the sorted id.
+     */
+    public int[] sortedIds() {
+        List<String> sorted = sortedValues();
+        int[] remap = new int[values.size()];
+        for (int i = 0; i < remap.length; ++i) {
+            remap[ids.get(sorted.get(i))] = i;
+        }
+        return remap;
+    }
+
+    /**
+     * Sorts the strings, which changes their ids to the sorted order.
+     *
+     * @return by the old id, the new id.
+     */
+    public int[] sort() {
+        int[] remap = sortedIds();
+        values.sort(null);
+        for (int i = 0; i < values.size(); ++i) {
+            ids.put(values.get(i), i);
+        }
+        return remap;
+    }
+
+    /**
+     * Adds every string of another dictionary, so that ids from the other can be changed into
+     * ids of this one.
+     *
+     * @param other the dictionary to add the strings of
+     * @return by the id in the other dictionary, the id in this one.
+     */
+    public int[] addAll(StringDictionary other) {
+        int[] remap = new int[other.values.size()];
+        for (int i = 0; i < remap.length; ++i) {
+            remap[i] = id(other.values.get(i));
+        }
+        return remap;
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.api.exceptions.AppServerException;
+import com.redsaz.lognition.api.model.Sample;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads samples from an XML-based JTL source into columns. The XML is read with StAX, one element
+ * at a time, so the memory used does not depend on the size of the file; response data and other
+ * elements that are not needed are passed over without being kept.
+ * <p>
+ * A sample can contain sub-samples, such as the embedded resources of a page or the samples of a
+ * transaction controller. Their time is already part of the sample they are in, so like a JTL
+ * CSV, only the outermost samples are loaded unless asked for otherwise. A sample is unsuccessful
+ * if any of its assertion results failed or errored, even when its "s" attribute is missing.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class XmlJtlSource extends ColumnarSamples {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(XmlJtlSource.class);
+
+    private static final String SAMPLE = "sample";
+    private static final String HTTP_SAMPLE = "httpSample";
+    private static final String ASSERTION_RESULT = "assertionResult";
+    private static final String FAILURE = "failure";
+    private static final String ERROR = "error";
+    // JMeter writes the URL as an element of the sample, rather than as an attribute.
+    private static final String URL = "java.net.URL";
+    // How far into a file to look for the start of the XML.
+    private static final int DETECT_BYTES = 64;
+
+    public XmlJtlSource(File source) {
+        this(source, false);
+    }
+
+    /**
+     * @param source the XML-based JTL to load
+     * @param includeSubSamples if true, the sub-samples are loaded as well as the samples they are
+     * in.
+     */
+    public XmlJtlSource(File source, boolean includeSubSamples) {
+        this(source, includeSubSamples, new BadRows());
+    }
+
+    /**
+     * @param source the XML-based JTL to load
+     * @param includeSubSamples if true, the sub-samples are loaded as well as the samples they are
+     * in.
+     * @param badRows counts the samples that are skipped
+     */
+    public XmlJtlSource(File source, boolean includeSubSamples, BadRows badRows) {
+        try {
+            long startMillis = System.currentTimeMillis();
+            LOGGER.debug("Loading samples from XML file {}...", source);
+            try (InputStream in = new BufferedInputStream(new FileInputStream(source))) {
+                parse(in, includeSubSamples, this::add, badRows);
+            }
+            finishLoading();
+            LOGGER.debug("...took {}ms to read {} samples.",
+                    System.currentTimeMillis() - startMillis,
+                    size());
+        } catch (RuntimeException | IOException ex) {
+            throw new AppServerException("Unable to convert file.", ex);
+        }
+    }
+
+    /**
+     * Reads the outermost samples of an XML-based JTL, handing each sample to the listener as
+     * soon as it is read. Samples that cannot be converted are skipped. Like
+     * {@link CsvJtlSource#parse(java.io.File, com.redsaz.lognition.convert.SampleListener)}, the
+     * offsets of the given samples are still in "timestamp" form, and a new sample instance is
+     * given for each sample.
+     *
+     * @param source the XML-based JTL to read
+     * @param listener receives each converted sample
+     * @throws IOException if the file could not be read or is not well-formed
+     */
+    public static void parse(File source, SampleListener listener) throws IOException {
+        parse(source, false, listener);
+    }
+
+    /**
+     * Same as {@link #parse(java.io.File, com.redsaz.lognition.convert.SampleListener)}, but
+     * can also read the sub-samples.
+     *
+     * @param source the XML-based JTL to read
+     * @param includeSubSamples if true, the sub-samples are given as well, each before the sample
+     * it is in.
+     * @param listener receives each converted sample
+     * @throws IOException if the file could not be read or is not well-formed
+     */
+    public static void parse(File source, boolean includeSubSamples, SampleListener listener) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(source))) {
+            parse(in, includeSubSamples, listener);
+        }
+    }
+
+    /**
+     * Same as {@link #parse(java.io.File, boolean, SampleListener)}, but reads from a stream,
+     * which is not closed. The stream is read as bytes so that the encoding given in the XML
+     * declaration is used.
+     *
+     * @param source the XML-based JTL contents to read
+     * @param includeSubSamples if true, the sub-samples are given as well
+     * @param listener receives each converted sample
+     * @throws IOException if the stream could not be read or is not well-formed
+     */
+    public static void parse(InputStream source, boolean includeSubSamples, SampleListener listener) throws IOException {
+        parse(source, includeSubSamples, listener, new BadRows());
+    }
+
+    /**
+     * Same as {@link #parse(java.io.InputStream, boolean, SampleListener)}, but the samples
+     * that are skipped are counted.
+     *
+     * @param source the XML-based JTL contents to read
+     * @param includeSubSamples if true, the sub-samples are given as well
+     * @param listener receives each converted sample
+     * @param badRows counts the samples that are skipped
+     * @throws IOException if the stream could not be read or is not well-formed
+     */
+    public static void parse(InputStream source, boolean includeSubSamples, SampleListener listener,
+            BadRows badRows) throws IOException {
+        XMLStreamReader xml = null;
+        try {
+            xml = createInputFactory().createXMLStreamReader(source);
+            new SampleReader(xml, includeSubSamples, listener, badRows).read();
+        } catch (XMLStreamException ex) {
+            throw new IOException("JTL (XML) could not be read: " + ex.getMessage(), ex);
+        } finally {
+            if (xml != null) {
+                try {
+                    xml.close();
+                } catch (XMLStreamException ex) {
+                    LOGGER.warn("Could not close XML reader.", ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param source a JTL
+     * @return true if the JTL is XML-based rather than CSV-based.
+     * @throws IOException if the file could not be read
+     */
+    public static boolean isXml(File source) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(source))) {
+            return isXml(in);
+        }
+    }
+
+    /**
+     * Looks at the start of the stream, without consuming it, to find whether the JTL is
+     * XML-based. A CSV-based JTL starts with a header or a timestamp, never with "&lt;".
+     *
+     * @param source the JTL contents, which must support mark and reset
+     * @return true if the JTL is XML-based rather than CSV-based.
+     * @throws IOException if the stream could not be read
+     */
+    public static boolean isXml(InputStream source) throws IOException {
+        if (!source.markSupported()) {
+            throw new IllegalArgumentException("Cannot detect the JTL format without mark support.");
+        }
+        source.mark(DETECT_BYTES);
+        try {
+            for (int i = 0; i < DETECT_BYTES; ++i) {
+                int b = source.read();
+                if (b == '<') {
+                    return true;
+                } else if (b == -1 || !(isWhitespace(b) || isByteOrderMark(b))) {
+                    return false;
+                }
+            }
+            return false;
+        } finally {
+            source.reset();
+        }
+    }
+
+    private static boolean isWhitespace(int b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    // The UTF-8 byte order mark is EF BB BF.
+    private static boolean isByteOrderMark(int b) {
+        return b == 0xEF || b == 0xBB || b == 0xBF;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // JTLs never need these, and they would allow the file to make us read other files.
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    /**
+     * Reads the samples from the elements, keeping only the samples that are open, which is as
+     * many as the samples are nested deep.
+     */
+    private static class SampleReader {
+
+        private final XMLStreamReader xml;
+        private final boolean includeSubSamples;
+        private final SampleListener listener;
+        private final BadRows badRows;
+        private final List<OpenSample> open = new ArrayList<>();
+        // Rather than have potentially a bunch of instances of identical strings, keep each distinct
+        // string once. The same dictionary type gives the ids that later stages work with.
+        private final StringDictionary strings = new StringDictionary();
+        private boolean inAssertionResult;
+
+        SampleReader(XMLStreamReader xml, boolean includeSubSamples, SampleListener listener,
+                BadRows badRows) {
+            this.xml = xml;
+            this.includeSubSamples = includeSubSamples;
+            this.listener = listener;
+            this.badRows = badRows;
+        }
+
+        void read() throws XMLStreamException {
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    startElement(xml.getLocalName());
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    endElement(xml.getLocalName());
+                }
+            }
+        }
+
+        private void startElement(String name) throws XMLStreamException {
+            if (SAMPLE.equals(name) || HTTP_SAMPLE.equals(name)) {
+                boolean wanted = open.isEmpty() || includeSubSamples;
+                open.add(new OpenSample(wanted ? convert() : null));
+            } else if (ASSERTION_RESULT.equals(name)) {
+                inAssertionResult = true;
+            } else if (inAssertionResult && !open.isEmpty()
+                    && (FAILURE.equals(name) || ERROR.equals(name))) {
+                if (Boolean.parseBoolean(xml.getElementText().trim())) {
+                    open.get(open.size() - 1).assertionFailed = true;
+                }
+            } else if (URL.equals(name) && !inAssertionResult && !open.isEmpty()) {
+                Sample sample = open.get(open.size() - 1).sample;
+                if (sample != null) {
+                    sample.setUrl(strings.intern(xml.getElementText().trim()));
+                }
+            }
+        }
+
+        private void endElement(String name) {
+            if (SAMPLE.equals(name) || HTTP_SAMPLE.equals(name)) {
+                OpenSample closed = open.remove(open.size() - 1);
+                if (closed.sample != null) {
+                    if (closed.assertionFailed) {
+                        closed.sample.setSuccess(false);
+                    }
+                    listener.sampleProcessed(closed.sample);
+                }
+            } else if (ASSERTION_RESULT.equals(name)) {
+                inAssertionResult = false;
+            }
+        }
+
+        /**
+         * Converts the attributes of the sample element the reader is at.
+         *
+         * @return the sample, or null if it couldn't be converted.
+         */
+        private Sample convert() {
+            Sample out = new Sample();
+            // Anything missing is the same as when missing from the samples of other sources.
+            out.setResponseBytes(-1L);
+            out.setSuccess(true);
+            for (int i = 0; i < xml.getAttributeCount(); ++i) {
+                JtlType type = JtlType.fromXmlAttribute(xml.getAttributeLocalName(i));
+                if (type != null) {
+                    String value = xml.getAttributeValue(i);
+                    try {
+                        type.putIn(out, value);
+                    } catch (NumberFormatException ex) {
+                        badRows.badValue(type, value, ex, this::describeElement);
+                        return null;
+                    }
+                }
+            }
+            out.setLabel(strings.intern(out.getLabel()));
+            out.setStatusCode(strings.intern(out.getStatusCode()));
+            out.setStatusMessage(strings.intern(out.getStatusMessage()));
+            out.setThreadName(strings.intern(out.getThreadName()));
+            out.setGenerator(strings.intern(out.getGenerator()));
+            return out;
+        }
+
+        /**
+         * @return the line and attributes of the sample element the reader is at.
+         */
+        private String describeElement() {
+            StringBuilder sb = new StringBuilder("line ").append(xml.getLocation().getLineNumber()).append(':');
+            for (int i = 0; i < xml.getAttributeCount(); ++i) {
+                sb.append(' ').append(xml.getAttributeLocalName(i))
+                        .append("=\"").append(xml.getAttributeValue(i)).append('"');
+            }
+            return sb.toString();
+        }
+    }
+
+    private static class OpenSample {
+
+        // Null if the sample is not wanted.
+        private final Sample sample;
+        private boolean assertionFailed;
+
+        OpenSample(Sample sample) {
+            this.sample = sample;
+        }
+    }
+}
@@ -10,8 +10,8 @@ import org.apache.avro.specific.SpecificData;
 @SuppressWarnings("all")
 @org.apache.avro.specific.AvroGenerated
 public class HttpSample extends org.apache.avro.specific.SpecificRecordBase implements org.apache.avro.specific.SpecificRecord {
-  private static final long serialVersionUID = 7561328620427167856L;
-  public static final org.apache.avro.Schema SCHEMA$ = new org.apache.avro.Schema.Parser().parse("{\"type\":\"record\",\"name\":\"HttpSample\",\"namespace\":\"com.redsaz.lognition.convert.model\",\"fields\":[{\"name\":\"millisOffset\",\"type\":\"long\",\"default\":0},{\"name\":\"millisElapsed\",\"type\":\"long\",\"default\":-1},{\"name\":\"labelRef\",\"type\":\"int\",\"default\":0},{\"name\":\"threadNameRef\",\"type\":\"int\",\"default\":0},{\"name\":\"responseCodeRef\",\"type\":\"int\",\"default\":0},{\"name\":\"success\",\"type\":\"boolean\",\"default\":true},{\"name\":\"responseBytes\",\"type\":\"long\",\"default\":-1},{\"name\":\"totalThreads\",\"type\":\"int\",\"default\":0}]}");
+  private static final long serialVersionUID = -1036532713232758020L;
+  public static final org.apache.avro.Schema SCHEMA$ = new org.apache.avro.Schema.Parser().parse("{\"type\":\"record\",\"name\":\"HttpSample\",\"namespace\":\"com.redsaz.lognition.convert.model\",\"fields\":[{\"name\":\"millisOffset\",\"type\":\"long\",\"default\":0},{\"name\":\"millisElapsed\",\"type\":\"long\",\"default\":-1},{\"name\":\"labelRef\",\"type\":\"int\",\"default\":0},{\"name\":\"threadNameRef\",\"type\":\"int\",\"default\":0},{\"name\":\"responseCodeRef\",\"type\":\"int\",\"default\":0},{\"name\":\"success\",\"type\":\"boolean\",\"default\":true},{\"name\":\"responseBytes\",\"type\":\"long\",\"default\":-1},{\"name\":\"totalThreads\",\"type\":\"int\",\"default\":0},{\"name\":\"generatorRef\",\"type\":\"int\",\"default\":0},{\"name\":\"urlRef\",\"type\":\"int\",\"default\":0},{\"name\":\"millisLatency\",\"type\":\"long\",\"default\":-1},{\"name\":\"millisConnect\",\"type\":\"long\",\"default\":-1},{\"name\":\"sentBytes\",\"type\":\"long\",\"default\":-1},{\"name\":\"millisIdle\",\"type\":\"long\",\"default\":-1}]}");
   public static org.apache.avro.Schema getClassSchema() { return SCHEMA$; }
   @Deprecated public long millisOffset;
   @Deprecated public long millisElapsed;
@@ -21,6 +21,12 @@ public class HttpSample extends org.apache.avro.specific.SpecificRecordBase impl
   @Deprecated public boolean success;
   @Deprecated public long responseBytes;
   @Deprecated public int totalThreads;
+  @Deprecated public int generatorRef;
+  @Deprecated public int urlRef;
+  @Deprecated public long millisLatency;
+  @Deprecated public long millisConnect;
+  @Deprecated public long sentBytes;
+  @Deprecated public long millisIdle;
 
   /**
    * Default constructor.  Note that this does not initialize fields
@@ -39,8 +45,14 @@ public class HttpSample extends org.apache.avro.specific.SpecificRecordBase impl
    * @param success The new value for success
    * @param responseBytes The new value for responseBytes
    * @param totalThreads The new value for totalThreads
+   * @param generatorRef The new value for generatorRef
+   * @param urlRef The new value for urlRef
+   * @param millisLatency The new value for millisLatency
+   * @param millisConnect The new value for millisConnect
+   * @param sentBytes The new value for sentBytes
+   * @param millisIdle The new value for millisIdle
    */
-  public HttpSample(java.lang.Long millisOffset, java.lang.Long millisElapsed, java.lang.Integer labelRef, java.lang.Integer threadNameRef, java.lang.Integer responseCodeRef, java.lang.Boolean success, java.lang.Long responseBytes, java.lang.Integer totalThreads) {
+  public HttpSample(java.lang.Long millisOffset, java.lang.Long millisElapsed, java.lang.Integer labelRef, java.lang.Integer threadNameRef, java.lang.Integer responseCodeRef, java.lang.Boolean success, java.lang.Long responseBytes, java.lang.Integer totalThreads, java.lang.Integer generatorRef, java.lang.Integer urlRef, java.lang.Long millisLatency, java.lang.Long millisConnect, java.lang.Long sentBytes, java.lang.Long millisIdle) {
     this.millisOffset = millisOffset;
     this.millisElapsed = millisElapsed;
     this.labelRef = labelRef;
@@ -49,6 +61,12 @@ public class HttpSample extends org.apache.avro.specific.SpecificRecordBase impl
     this.success = success;
     this.responseBytes = responseBytes;
     this.totalThreads = totalThreads;
+    this.generatorRef = generatorRef;
+    this.urlRef = urlRef;
+    this.millisLatency = millisLatency;
+    this.millisConnect = millisConnect;
+    this.sentBytes = sentBytes;
+    this.millisIdle = millisIdle;
   }
 
   public org.apache.avro.Schema getSchema() { return SCHEMA$; }
@@ -63,6 +81,12 @@ public class HttpSample extends org.apache.avro.specific.SpecificRecordBase impl
     case 5: return success;
     case 6: return responseBytes;
     case 7: return totalThreads;
+    case 8: return generatorRef;
+    case 9: return urlRef;
+    case 10: return millisLatency;
+    case 11: return millisConnect;
+    case 12: return sentBytes;
+    case 13: return millisIdle;
     default: throw new org.apache.avro.AvroRuntimeException("Bad index");
     }
   }
@@ -79,6 +103,12 @@ public class HttpSample extends org.apache.avro.specific.SpecificRecordBase impl
     case 5: success = (java.lang.Boolean)value$; break;
     case 6: responseBytes = (java.lang.Long)value$; break;
     case 7: totalThreads = (java.lang.Integer)value$; break;
+    case 8: generatorRef = (java.lang.Integer)value$; break;
+    case 9: urlRef = (java.lang.Integer)value$; break;
+    case 10: millisLatency = (java.lang.Long)value$; break;
+    case 11: millisConnect = (java.lang.Long)value$; break;
+    case 12: sentBytes = (java.lang.Long)value$; break;
+    case 13: millisIdle = (java.lang.Long)value$; break;
     default: throw new org.apache.avro.AvroRuntimeException("Bad index");
     }
   }
@@ -211,6 +241,102 @@ public class HttpSample extends org.apache.avro.specific.SpecificRecordBase impl
     this.totalThreads = value;
   }
 
+  /**
+   * Gets the value of the 'generatorRef' field.
+   * @return The value of the 'generatorRef' field.
+   */
+  public java.lang.Integer getGeneratorRef() {
+    return generatorRef;
+  }
+
+  /**
+   * Sets the value of the 'generatorRef' field.
+   * @param value the value to set.
+   */
+  public void setGeneratorRef(java.lang.Integer value) {
+    this.generatorRef = value;
+  }
+
+  /**
+   * Gets the value of the 'urlRef' field.
+   * @return The value of the 'urlRef' field.
+   */
+  public java.lang.Integer getUrlRef() {
+    return urlRef;
+  }
+
+  /**
+   * Sets the value of the 'urlRef' field.
+   * @param value the value to set.
+   */
+  public void setUrlRef(java.lang.Integer value) {
+    this.urlRef = value;
+  }
+
+  /**
+   * Gets the value of the 'millisLatency' field.
+   * @return The value of the 'millisLatency' field.
+   */
+  public java.lang.Long getMillisLatency() {
+    return millisLatency;
+  }
+
+  /**
+   * Sets the value of the 'millisLatency' field.
+   * @param value the value to set.
+   */
+  public void setMillisLatency(java.lang.Long value) {
+    this.millisLatency = value;
+  }
+
+  /**
+   * Gets the value of the 'millisConnect' field.
+   * @return The value of the 'millisConnect' field.
+   */
+  public java.lang.Long getMillisConnect() {
+    return millisConnect;
+  }
+
+  /**
+   * Sets the value of the 'millisConnect' field.
+   * @param value the value to set.
+   */
+  public void setMillisConnect(java.lang.Long value) {
+    this.millisConnect = value;
+  }
+
+  /**
+   * Gets the value of the 'sentBytes' field.
+   * @return The value of the 'sentBytes' field.
+   */
+  public java.lang.Long getSentBytes() {
+    return sentBytes;
+  }
+
+  /**
+   * Sets the value of the 'sentBytes' field.
+   * @param value the value to set.
+   */
+  public void setSentBytes(java.lang.Long value) {
+    this.sentBytes = value;
+  }
+
+  /**
+   * Gets the value of the 'millisIdle' field.
+   * @return The value of the 'millisIdle' field.
+   */
+  public java.lang.Long getMillisIdle() {
+    return millisIdle;
+  }
+
+  /**
+   * Sets the value of the 'millisIdle' field.
+   * @param value the value to set.
+   */
+  public void setMillisIdle(java.lang.Long value) {
+    this.millisIdle = value;
+  }
+
   /**
    * Creates a new HttpSample RecordBuilder.
    * @return A new HttpSample RecordBuilder
@@ -251,6 +377,12 @@ public class HttpSample extends org.apache.avro.specific.SpecificRecordBase impl
     private boolean success;
     private long responseBytes;
     private int totalThreads;
+    private int generatorRef;
+    private int urlRef;
+    private long millisLatency;
+    private long millisConnect;
+    private long sentBytes;
+    private long millisIdle;
 
     /** Creates a new Builder */
     private Builder() {
@@ -295,6 +427,30 @@ public class HttpSample extends org.apache.avro.specific.SpecificRecordBase impl
         this.totalThreads = data().deepCopy(fields()[7].schema(), other.totalThreads);
         fieldSetFlags()[7] = true;
       }
+      if (isValidValue(fields()[8], other.generatorRef)) {
+        this.generatorRef = data().deepCopy(fields()[8].schema(), other.generatorRef);
+        fieldSetFlags()[8] = true;
+      }
+      if (isValidValue(fields()[9], other.urlRef)) {
+        this.urlRef = data().deepCopy(fields()[9].schema(), other.urlRef);
+        fieldSetFlags()[9] = true;
+      }
+      if (isValidValue(fields()[10], other.millisLatency)) {
+        this.millisLatency = data().deepCopy(fields()[10].schema(), other.millisLatency);
+        fieldSetFlags()[10] = true;
+      }
+      if (isValidValue(fields()[11], other.millisConnect)) {
+        this.millisConnect = data().deepCopy(fields()[11].schema(), other.millisConnect);
+        fieldSetFlags()[11] = true;
+      }
+      if (isValidValue(fields()[12], other.sentBytes)) {
+        this.sentBytes = data().deepCopy(fields()[12].schema(), other.sentBytes);
+        fieldSetFlags()[12] = true;
+      }
+      if (isValidValue(fields()[13], other.millisIdle)) {
+        this.millisIdle = data().deepCopy(fields()[13].schema(), other.millisIdle);
+        fieldSetFlags()[13] = true;
+      }
     }
 
     /**
@@ -335,6 +491,30 @@ public class HttpSample extends org.apache.avro.specific.SpecificRecordBase impl
         this.totalThreads = data().deepCopy(fields()[7].schema(), other.totalThreads);
         fieldSetFlags()[7] = true;
       }
+      if (isValidValue(fields()[8], other.generatorRef)) {
+        this.generatorRef = data().deepCopy(fields()[8].schema(), other.generatorRef);
+        fieldSetFlags()[8] = true;
+      }
+      if (isValidValue(fields()[9], other.urlRef)) {
+        this.urlRef = data().deepCopy(fields()[9].schema(), other.urlRef);
+        fieldSetFlags()[9] = true;
+      }
+      if (isValidValue(fields()[10], other.millisLatency)) {
+        this.millisLatency = data().deepCopy(fields()[10].schema(), other.millisLatency);
+        fieldSetFlags()[10] = true;
+      }
+      if (isValidValue(fields()[11], other.millisConnect)) {
+        this.millisConnect = data().deepCopy(fields()[11].schema(), other.millisConnect);
+        fieldSetFlags()[11] = true;
+      }
+      if (isValidValue(fields()[12], other.sentBytes)) {
+        this.sentBytes = data().deepCopy(fields()[12].schema(), other.sentBytes);
+        fieldSetFlags()[12] = true;
+      }
+      if (isValidValue(fields()[13], other.millisIdle)) {
+        this.millisIdle = data().deepCopy(fields()[13].schema(), other.millisIdle);
+        fieldSetFlags()[13] = true;
+      }
     }
 
     /**
@@ -641,6 +821,234 @@ public class HttpSample extends org.apache.avro.specific.SpecificRecordBase impl
       return this;
     }
 
+    /**
+      * Gets the value of the 'generatorRef' field.
+      * @return The value.
+      */
+    public java.lang.Integer getGeneratorRef() {
+      return generatorRef;
+    }
+
+    /**
+      * Sets the value of the 'generatorRef' field.
+      * @param value The value of 'generatorRef'.
+      * @return This builder.
+      */
+    public com.redsaz.lognition.convert.model.HttpSample.Builder setGeneratorRef(int value) {
+      validate(fields()[8], value);
+      this.generatorRef = value;
+      fieldSetFlags()[8] = true;
+      return this;
+    }
+
+    /**
+      * Checks whether the 'generatorRef' field has been set.
+      * @return True if the 'generatorRef' field has been set, false otherwise.
+      */
+    public boolean hasGeneratorRef() {
+      return fieldSetFlags()[8];
+    }
+
+
+    /**
+      * Clears the value of the 'generatorRef' field.
+      * @return This builder.
+      */
+    public com.redsaz.lognition.convert.model.HttpSample.Builder clearGeneratorRef() {
+      fieldSetFlags()[8] = false;
+      return this;
+    }
+
+    /**
+      * Gets the value of the 'urlRef' field.
+      * @return The value.
+      */
+    public java.lang.Integer getUrlRef() {
+      return urlRef;
+    }
+
+    /**
+      * Sets the value of the 'urlRef' field.
+      * @param value The value of 'urlRef'.
+      * @return This builder.
+      */
+    public com.redsaz.lognition.convert.model.HttpSample.Builder setUrlRef(int value) {
+      validate(fields()[9], value);
+      this.urlRef = value;
+      fieldSetFlags()[9] = true;
+      return this;
+    }
+
+    /**
+      * Checks whether the 'urlRef' field has been set.
+      * @return True if the 'urlRef' field has been set, false otherwise.
+      */
+    public boolean hasUrlRef() {
+      return fieldSetFlags()[9];
+    }
+
+
+    /**
+      * Clears the value of the 'urlRef' field.
+      * @return This builder.
+      */
+    public com.redsaz.lognition.convert.model.HttpSample.Builder clearUrlRef() {
+      fieldSetFlags()[9] = false;
+      return this;
+    }
+
+    /**
+      * Gets the value of the 'millisLatency' field.
+      * @return The value.
+      */
+    public java.lang.Long getMillisLatency() {
+      return millisLatency;
+    }
+
+    /**
+      * Sets the value of the 'millisLatency' field.
+      * @param value The value of 'millisLatency'.
+      * @return This builder.
+      */
+    public com.redsaz.lognition.convert.model.HttpSample.Builder setMillisLatency(long value) {
+      validate(fields()[10], value);
+      this.millisLatency = value;
+      fieldSetFlags()[10] = true;
+      return this;
+    }
+
+    /**
+      * Checks whether the 'millisLatency' field has been set.
+      * @return True if the 'millisLatency' field has been set, false otherwise.
+      */
+    public boolean hasMillisLatency() {
+      return fieldSetFlags()[10];
+    }
+
+
+    /**
+      * Clears the value of the 'millisLatency' field.
+      * @return This builder.
+      */
+    public com.redsaz.lognition.convert.model.HttpSample.Builder clearMillisLatency() {
+      fieldSetFlags()[10] = false;
+      return this;
+    }
+
+    /**
+      * Gets the value of the 'millisConnect' field.
+      * @return The value.
+      */
+    public java.lang.Long getMillisConnect() {
+      return millisConnect;
+    }
+
+    /**
+      * Sets the value of the 'millisConnect' field.
+      * @param value The value of 'millisConnect'.
+      * @return This builder.
+      */
+    public com.redsaz.lognition.convert.model.HttpSample.Builder setMillisConnect(long value) {
+      validate(fields()[11], value);
+      this.millisConnect = value;
+      fieldSetFlags()[11] = true;
+      return this;
+    }
+
+    /**
+      * Checks whether the 'millisConnect' field has been set.
+      * @return True if the 'millisConnect' field has been set, false otherwise.
+      */
+    public boolean hasMillisConnect() {
+      return fieldSetFlags()[11];
+    }
+
+
+    /**
+      * Clears the value of the 'millisConnect' field.
+      * @return This builder.
+      */
+    public com.redsaz.lognition.convert.model.HttpSample.Builder clearMillisConnect() {
+      fieldSetFlags()[11] = false;
+      return this;
+    }
+
+    /**
+      * Gets the value of the 'sentBytes' field.
+      * @return The value.
+      */
+    public java.lang.Long getSentBytes() {
+      return sentBytes;
+    }
+
+    /**
+      * Sets the value of the 'sentBytes' field.
+      * @param value The value of 'sentBytes'.
+      * @return This builder.
+      */
+    public com.redsaz.lognition.convert.model.HttpSample.Builder setSentBytes(long value) {
+      validate(fields()[12], value);
+      this.sentBytes = value;
+      fieldSetFlags()[12] = true;
+      return this;
+    }
+
+    /**
+      * Checks whether the 'sentBytes' field has been set.
+      * @return True if the 'sentBytes' field has been set, false otherwise.
+      */
+    public boolean hasSentBytes() {
+      return fieldSetFlags()[12];
+    }
+
+
+    /**
+      * Clears the value of the 'sentBytes' field.
+      * @return This builder.
+      */
+    public com.redsaz.lognition.convert.model.HttpSample.Builder clearSentBytes() {
+      fieldSetFlags()[12] = false;
+      return this;
+    }
+
+    /**
+      * Gets the value of the 'millisIdle' field.
+      * @return The value.
+      */
+    public java.lang.Long getMillisIdle() {
+      return millisIdle;
+    }
+
+    /**
+      * Sets the value of the 'millisIdle' field.
+      * @param value The value of 'millisIdle'.
+      * @return This builder.
+      */
+    public com.redsaz.lognition.convert.model.HttpSample.Builder setMillisIdle(long value) {
+      validate(fields()[13], value);
+      this.millisIdle = value;
+      fieldSetFlags()[13] = true;
+      return this;
+    }
+
+    /**
+      * Checks whether the 'millisIdle' field has been set.
+      * @return True if the 'millisIdle' field has been set, false otherwise.
+      */
+    public boolean hasMillisIdle() {
+      return fieldSetFlags()[13];
+    }
+
+
+    /**
+      * Clears the value of the 'millisIdle' field.
+      * @return This builder.
+      */
+    public com.redsaz.lognition.convert.model.HttpSample.Builder clearMillisIdle() {
+      fieldSetFlags()[13] = false;
+      return this;
+    }
+
     @Override
     public HttpSample build() {
       try {
@@ -653,6 +1061,12 @@ public class HttpSample extends org.apache.avro.specific.SpecificRecordBase impl
         record.success = fieldSetFlags()[5] ? this.success : (java.lang.Boolean) defaultValue(fields()[5]);
         record.responseBytes = fieldSetFlags()[6] ? this.responseBytes : (java.lang.Long) defaultValue(fields()[6]);
         record.totalThreads = fieldSetFlags()[7] ? this.totalThreads : (java.lang.Integer) defaultValue(fields()[7]);
+        record.generatorRef = fieldSetFlags()[8] ? this.generatorRef : (java.lang.Integer) defaultValue(fields()[8]);
+        record.urlRef = fieldSetFlags()[9] ? this.urlRef : (java.lang.Integer) defaultValue(fields()[9]);
+        record.millisLatency = fieldSetFlags()[10] ? this.millisLatency : (java.lang.Long) defaultValue(fields()[10]);
+        record.millisConnect = fieldSetFlags()[11] ? this.millisConnect : (java.lang.Long) defaultValue(fields()[11]);
+        record.sentBytes = fieldSetFlags()[12] ? this.sentBytes : (java.lang.Long) defaultValue(fields()[12]);
+        record.millisIdle = fieldSetFlags()[13] ? this.millisIdle : (java.lang.Long) defaultValue(fields()[13]);
         return record;
       } catch (Exception e) {
         throw new org.apache.avro.AvroRuntimeException(e);
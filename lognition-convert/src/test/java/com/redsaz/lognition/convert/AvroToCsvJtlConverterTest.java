@@ -23,8 +23,12 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Arrays;
 import static org.testng.Assert.assertEquals;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 /**
@@ -62,7 +66,7 @@ public class AvroToCsvJtlConverterTest extends ConverterBaseTest {
         mpd.createAvroFile(source);
 
         File expectedDest = createTempFile("expected", ".csv");
-        String expectedHash = mpd.createExportedCsvFile(expectedDest);
+        String expectedHash = mpd.createExportedCsvFile(expectedDest, true);
 
         Converter conv = new AvroToCsvJtlConverter();
         File actualDest = createTempFile("actual", ".csv");
@@ -101,7 +105,7 @@ public class AvroToCsvJtlConverterTest extends ConverterBaseTest {
         mpd.createAvroFile(source);
 
         File expectedDest = createTempFile("expected", ".csv");
-        String expectedHash = mpd.createExportedCsvFile(expectedDest);
+        String expectedHash = mpd.createExportedCsvFile(expectedDest, true);
 
         AvroToCsvJtlConverter conv = new AvroToCsvJtlConverter();
         File dest = createTempFile("actual", ".csv");
@@ -117,6 +121,121 @@ public class AvroToCsvJtlConverterTest extends ConverterBaseTest {
         assertEquals(actualHash, expectedHash, "Hashes differed.");
     }
 
+    @Test
+    public void testConvertToOutputStream() throws IOException {
+        MockPerfData mpd = new MockPerfData(System.currentTimeMillis(),
+                240L,
+                Arrays.asList(
+                        "Another-call-2",
+                        "example-call-1"
+                ),
+                Arrays.asList(
+                        "thread-1",
+                        "thread-2"
+                ),
+                Arrays.asList(
+                        "1001",
+                        "200"
+                ),
+                Arrays.asList(
+                        "Non Standard code",
+                        "Normally we don't see these"
+                ));
+        File source = createTempFile("source", ".avro");
+        mpd.createAvroFile(source);
+
+        File expectedDest = createTempFile("expected", ".csv");
+        String expectedHash = mpd.createExportedCsvFile(expectedDest, true);
+
+        AvroToCsvJtlConverter conv = new AvroToCsvJtlConverter();
+        File dest = createTempFile("actual", ".csv");
+        String actualHash;
+        long numRows;
+        try (HashingOutputStream hos = new HashingOutputStream(Hashing.sha256(), new BufferedOutputStream(new FileOutputStream(dest)))) {
+            numRows = conv.convert(source, hos);
+            actualHash = hos.hash().toString();
+        }
+
+        assertBytesEquals(dest, expectedDest, "The conversions are not byte-for-byte equal.");
+        assertEquals(actualHash, expectedHash, "Hashes differed.");
+        assertEquals(numRows, Files.readAllLines(expectedDest.toPath()).size() - 1L, "Wrong number of rows reported.");
+    }
+
+    @Test
+    public void testConvertParallel() throws IOException {
+        // Reading the blocks on several threads should give the same CSV as with one thread.
+        MockPerfData mpd = new MockPerfData(System.currentTimeMillis(),
+                240L,
+                Arrays.asList(
+                        "Another-call-2",
+                        "example-call-1"
+                ),
+                Arrays.asList(
+                        "thread-1",
+                        "thread-2"
+                ),
+                Arrays.asList(
+                        "1001",
+                        "200"
+                ),
+                Arrays.asList(
+                        "Non Standard code",
+                        "Normally we don't see these"
+                ));
+        File jtl = createTempFile("source", ".jtl");
+        mpd.createImportCsvFile(jtl, true);
+        File source = createTempFile("source", ".avro");
+        AvroWriterSettings smallBlocks = new AvroWriterSettings.Builder().syncInterval(64).build();
+        new AvroSamplesWriter(smallBlocks).write(new CsvJtlSource(jtl), source);
+
+        File expectedDest = createTempFile("expected", ".csv");
+        String expectedHash = new AvroToCsvJtlConverter(1).convert(source, expectedDest);
+
+        Converter conv = new AvroToCsvJtlConverter(new ParallelAvroScanner(4, 5));
+        File actualDest = createTempFile("actual", ".csv");
+        String actualHash = conv.convert(source, actualDest);
+
+        assertBytesEquals(actualDest, expectedDest, "The conversions are not byte-for-byte equal.");
+        assertEquals(actualHash, expectedHash, "Hashes differed.");
+    }
+
+    @DataProvider(name = "importersDp")
+    public static Object[][] importersDp() {
+        Converter samplesWriter = (source, dest) -> {
+            try {
+                return new AvroSamplesWriter().write(new CsvJtlSource(source), dest);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        };
+        return new Object[][]{
+            new Object[]{"streaming", new CsvJtlToAvroStreamingConverter()},
+            new Object[]{"unordered", new CsvJtlToAvroUnorderedConverter()},
+            new Object[]{"ordered", new CsvJtlToAvroOrderedConverter()},
+            new Object[]{"samples-writer", samplesWriter}};
+    }
+
+    @Test(dataProvider = "importersDp")
+    public void testOptionalColumnsKept(String name, Converter importer) throws IOException {
+        // Given a JTL with the URL, the latency and connect times, the sent bytes, the host and
+        // the idle time, where some rows are missing some of them,
+        String jtl = "timeStamp,elapsed,label,responseCode,responseMessage,threadName,success,bytes,sentBytes,allThreads,URL,Latency,connect,Hostname,IdleTime\n"
+                + "1000,50,call-a,200,OK,thread-1,true,100,10,1,http://example.com/a,30,5,gen-1,0\n"
+                + "1010,60,call-b,200,OK,thread-1,true,200,20,1,,40,,gen-1,2\n";
+        File source = createTempFile("source", ".jtl");
+        Files.write(source.toPath(), jtl.getBytes(StandardCharsets.UTF_8));
+
+        // when it is imported and then exported again,
+        File avro = createTempFile("imported", ".avro");
+        importer.convert(source, avro);
+        File actualDest = createTempFile("actual", ".csv");
+        new AvroToCsvJtlConverter().convert(avro, actualDest);
+
+        // then the columns are kept, and the missing values are still missing.
+        assertEquals(new String(Files.readAllBytes(actualDest.toPath()), StandardCharsets.UTF_8), jtl,
+                name + " did not keep the optional columns.");
+    }
+
     @Test(expectedExceptions = AppException.class, expectedExceptionsMessageRegExp = "Unable to convert file\\.")
     public void testConvertStreaming_avroNotFound() throws IOException {
         AvroToCsvJtlConverter conv = new AvroToCsvJtlConverter();
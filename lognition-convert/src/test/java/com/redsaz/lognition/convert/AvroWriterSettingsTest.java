@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.convert.model.HttpSample;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests writing Avro files with different codecs and block sizes.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class AvroWriterSettingsTest extends ConverterBaseTest {
+
+    @Test
+    public void testCodecNames() {
+        assertEquals(AvroWriterSettings.defaults().getCodec(), "null");
+        assertEquals(codec("deflate"), "deflate-6");
+        assertEquals(codec(" Deflate-9 "), "deflate-9");
+        assertEquals(codec("snappy"), "snappy");
+        assertEquals(codec("bzip2"), "bzip2");
+        assertEquals(codec("xz"), "xz-6");
+        assertEquals(codec("xz-0"), "xz-0");
+    }
+
+    @Test(dataProvider = "badCodecsDp", expectedExceptions = IllegalArgumentException.class)
+    public void testBadCodec(String codec) {
+        new AvroWriterSettings.Builder().codec(codec);
+    }
+
+    @DataProvider(name = "badCodecsDp")
+    public static Object[][] badCodecsDp() {
+        return new Object[][]{
+            new Object[]{"zstd"},
+            new Object[]{"lz4"},
+            new Object[]{"deflate-0"},
+            new Object[]{"deflate-10"},
+            new Object[]{"xz-high"},
+            new Object[]{"snappy-1"},};
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBadSyncInterval() {
+        new AvroWriterSettings.Builder().syncInterval(16);
+    }
+
+    @Test(dataProvider = "codecsDp")
+    public void testRoundTrip(String codec) throws IOException {
+        // Given samples written uncompressed,
+        CsvJtlSource samples = new CsvJtlSource(createSourceFile());
+        File uncompressed = createTempFile("uncompressed", ".avro");
+        new AvroSamplesWriter().write(samples, uncompressed);
+
+        // when written with a codec and small blocks,
+        AvroWriterSettings settings = new AvroWriterSettings.Builder()
+                .codec(codec)
+                .syncInterval(4096)
+                .build();
+        File compressed = createTempFile("compressed", ".avro");
+        new AvroSamplesWriter(settings).write(samples, compressed);
+
+        // then the same samples are read back, and the codec is recorded (unless uncompressed,
+        // which stays the same as before codecs could be chosen).
+        assertSamplesEqual(compressed, uncompressed);
+        if ("null".equals(codec)) {
+            assertNull(meta(compressed, AvroWriterSettings.CODEC_META));
+        } else {
+            assertEquals(meta(compressed, AvroWriterSettings.CODEC_META), settings.getCodec());
+            assertTrue(compressed.length() < uncompressed.length(), "Should be compressed.");
+        }
+    }
+
+    @DataProvider(name = "codecsDp", parallel = true)
+    public static Object[][] codecsDp() {
+        return new Object[][]{
+            new Object[]{"null"},
+            new Object[]{"deflate-1"},
+            new Object[]{"deflate-9"},
+            new Object[]{"snappy"},
+            new Object[]{"bzip2"},
+            new Object[]{"xz-6"},};
+    }
+
+    private File createSourceFile() throws IOException {
+        File source = createTempFile("source", ".jtl");
+        defaultMockData().createImportCsvFileUnordered(source, true);
+        return source;
+    }
+
+    private static String codec(String codec) {
+        return new AvroWriterSettings.Builder().codec(codec).build().getCodec();
+    }
+
+    private static String meta(File avro, String key) throws IOException {
+        DatumReader<HttpSample> datumReader = new SpecificDatumReader<>(HttpSample.class);
+        try (DataFileReader<HttpSample> reader = new DataFileReader<>(avro, datumReader)) {
+            byte[] value = reader.getMeta(key);
+            return value == null ? null : new String(value, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void assertSamplesEqual(File actual, File expected) throws IOException {
+        DatumReader<HttpSample> datumReader = new SpecificDatumReader<>(HttpSample.class);
+        try (DataFileReader<HttpSample> expectedReader = new DataFileReader<>(expected, datumReader);
+                DataFileReader<HttpSample> actualReader = new DataFileReader<>(actual, datumReader)) {
+            Iterator<HttpSample> eIter = expectedReader.iterator();
+            Iterator<HttpSample> aIter = actualReader.iterator();
+            while (eIter.hasNext() && aIter.hasNext()) {
+                assertEquals(aIter.next(), eIter.next(), "Sample differed.");
+            }
+            assertFalse(eIter.hasNext(), "Actual content is missing entries.");
+            assertFalse(aIter.hasNext(), "Actual content has too many entries.");
+        }
+    }
+
+    private static MockPerfData defaultMockData() {
+        return new MockPerfData(System.currentTimeMillis(),
+                240L,
+                Arrays.asList(
+                        "Another-call-2",
+                        "Howdy there this is a call as well",
+                        "example-call-1"
+                ),
+                Arrays.asList(
+                        "thread-1",
+                        "thread-2",
+                        "thread-3"
+                ),
+                Arrays.asList(
+                        "1001",
+                        "200"
+                ),
+                Arrays.asList(
+                        "Non Standard code",
+                        "Normally we don't see these"
+                ));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.api.model.ImportDiagnostics;
+import com.redsaz.lognition.api.model.ImportDiagnostics.BadRow;
+import com.redsaz.lognition.api.model.ImportDiagnostics.Problem;
+import com.redsaz.lognition.api.model.Sample;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ * Tests counting the rows of a JTL that cannot be converted.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class BadRowsTest {
+
+    private static final String HEADER = "timeStamp,elapsed,label,responseCode,responseMessage,threadName,success,bytes,allThreads\n";
+
+    @Test
+    public void testCountsByProblem() {
+        // Given a JTL with one good row and a bad row for each problem,
+        String jtl = HEADER
+                + "1000,10,a,200,OK,t1,true,5,1\n"
+                + "1010,20,b,200,OK,t1\n"
+                + "1020,x,c,200,OK,t1,true,5,1\n"
+                + "1030,,d,200,OK,t1,true,5,1\n";
+
+        // when it is read,
+        List<Sample> samples = new ArrayList<>();
+        BadRows unit = new BadRows();
+        CsvJtlSource.parse(new StringReader(jtl), samples::add, unit);
+
+        // then only the good row is given, and each bad row is counted for its problem.
+        assertEquals(samples.size(), 1);
+        assertEquals(unit.getCount(Problem.WRONG_COLUMN_COUNT), 1L);
+        assertEquals(unit.getCount(Problem.BAD_NUMBER), 1L);
+        assertEquals(unit.getCount(Problem.MISSING_REQUIRED_FIELD), 1L);
+        assertEquals(unit.getTotal(), 3L);
+
+        List<BadRow> examples = unit.getExamples();
+        assertEquals(examples.size(), 3);
+        assertEquals(examples.get(0).getProblem(), Problem.WRONG_COLUMN_COUNT);
+        assertEquals(examples.get(0).getDetail(), "Expected 9 columns but got 6");
+        assertEquals(examples.get(0).getContents(), "[1010, 20, b, 200, OK, t1]");
+        assertEquals(examples.get(1).getProblem(), Problem.BAD_NUMBER);
+        assertTrue(examples.get(1).getDetail().contains("elapsed"), "Detail should name the column.");
+        assertEquals(examples.get(2).getProblem(), Problem.MISSING_REQUIRED_FIELD);
+        assertEquals(examples.get(2).getDetail(), "No value for elapsed");
+    }
+
+    @Test
+    public void testExamplesBounded() {
+        // Given many truncated rows, which are counted from several threads,
+        BadRows unit = new BadRows(5);
+        String[] row = new String[]{"1000", "10"};
+        IntStream.range(0, 10_000).parallel().forEach(i -> unit.wrongColumnCount(9, row));
+
+        // then every row is counted, but only the first few are kept.
+        assertEquals(unit.getCount(Problem.WRONG_COLUMN_COUNT), 10_000L);
+        assertEquals(unit.getExamples().size(), 5);
+    }
+
+    @Test
+    public void testLongRowShortened() {
+        BadRows unit = new BadRows();
+        String[] row = new String[]{new String(new char[10_000]).replace('\0', 'a')};
+        unit.wrongColumnCount(9, row);
+
+        String contents = unit.getExamples().get(0).getContents();
+        assertTrue(contents.length() < 1024, "Contents should be short enough to store.");
+        assertTrue(contents.endsWith("..."), "Contents should show that they were shortened.");
+    }
+
+    @Test
+    public void testXmlSampleCounted() throws IOException {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testResults version=\"1.2\">\n"
+                + "<httpSample t=\"10\" ts=\"1000\" s=\"true\" lb=\"a\" rc=\"200\" tn=\"t1\" by=\"5\" na=\"1\"/>\n"
+                + "<httpSample t=\"oops\" ts=\"1010\" s=\"true\" lb=\"b\" rc=\"200\" tn=\"t1\" by=\"5\" na=\"1\"/>\n"
+                + "</testResults>\n";
+        List<Sample> samples = new ArrayList<>();
+        BadRows unit = new BadRows();
+        XmlJtlSource.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), false, samples::add, unit);
+
+        assertEquals(samples.size(), 1);
+        assertEquals(unit.getCount(Problem.BAD_NUMBER), 1L);
+        assertTrue(unit.getExamples().get(0).getContents().startsWith("line 4:"),
+                "Contents should say where the sample is.");
+    }
+
+    @Test
+    public void testToDiagnostics() {
+        BadRows unit = new BadRows();
+        unit.wrongColumnCount(9, new String[]{"1000"});
+        unit.wrongColumnCount(9, new String[]{"1010"});
+
+        ImportDiagnostics actual = unit.toDiagnostics(42L);
+
+        assertEquals(actual.getLogId(), 42L);
+        assertEquals(actual.getWrongColumnCount(), 2L);
+        assertEquals(actual.getTotal(), 2L);
+        assertEquals(actual.getExamples(), unit.getExamples());
+    }
+}
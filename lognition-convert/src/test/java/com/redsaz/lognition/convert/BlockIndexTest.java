@@ -0,0 +1,211 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.convert.model.HttpSample;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests making block indexes of Avro files, and reading time windows with them.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class BlockIndexTest extends ConverterBaseTest {
+
+    private static final AvroWriterSettings SMALL_BLOCKS = new AvroWriterSettings.Builder()
+            .syncInterval(256)
+            .build();
+
+    @Test(dataProvider = "convertersDp")
+    public void testWrittenIndexMatchesScan(String name, Converter converter) throws IOException {
+        // Given a log converted with small blocks,
+        File source = createTempFile("source", ".jtl");
+        defaultMockData().createImportCsvFileUnordered(source, true);
+        File avro = createTempFile("converted", ".avro");
+        converter.convert(source, avro);
+
+        // when the block index written alongside is read,
+        BlockIndex written = BlockIndex.read(BlockIndex.indexFileFor(avro));
+
+        // then it is the same as the index made from reading the file, and covers every row.
+        BlockIndex scanned = BlockIndex.scan(avro);
+        assertEquals(written.getBlocks(), scanned.getBlocks(), name + " wrote a different index.");
+        assertTrue(written.getBlocks().size() > 1, "Should have been several blocks.");
+        long numRows = 0L;
+        for (BlockIndex.Block block : written.getBlocks()) {
+            numRows += block.getNumRows();
+        }
+        assertEquals(numRows, readAll(avro).size(), "Blocks did not cover every row.");
+    }
+
+    @DataProvider(name = "convertersDp")
+    public static Object[][] convertersDp() {
+        return new Object[][]{
+            new Object[]{"streaming", new CsvJtlToAvroStreamingConverter(SMALL_BLOCKS)},
+            new Object[]{"unordered", new CsvJtlToAvroUnorderedConverter(1, SMALL_BLOCKS)},
+            new Object[]{"ordered", new CsvJtlToAvroOrderedConverter(SMALL_BLOCKS)},
+            new Object[]{"ordered-external", new CsvJtlToAvroOrderedConverter(7, SMALL_BLOCKS)},};
+    }
+
+    @Test
+    public void testReadRange() throws IOException {
+        // Given a log written with small blocks,
+        File avro = createSortedAvro();
+        BlockIndex index = BlockIndex.forFile(avro);
+        List<HttpSample> all = readAll(avro);
+        long latest = all.get(all.size() - 1).getMillisOffset();
+
+        // when a window in the middle is read, then only some of the blocks are read, and the
+        // samples are the same as from reading the whole file.
+        long from = latest / 3;
+        long to = latest / 2;
+        assertTrue(index.overlapping(from, to).size() < index.getBlocks().size(),
+                "Should not need every block for part of the log.");
+        assertEquals(readRange(index, avro, from, to), filter(all, from, to));
+
+        // And the same for windows at and past the edges.
+        assertEquals(readRange(index, avro, 0L, latest), all);
+        assertEquals(readRange(index, avro, -100L, 0L), filter(all, 0L, 0L));
+        assertEquals(readRange(index, avro, latest, latest + 100L), filter(all, latest, latest));
+        assertEquals(readRange(index, avro, latest + 1L, latest + 100L).size(), 0);
+    }
+
+    @Test
+    public void testForFileScansMissingIndex() throws IOException {
+        // Given a log with its index removed, like logs imported before there were indexes,
+        File avro = createSortedAvro();
+        File indexFile = BlockIndex.indexFileFor(avro);
+        List<BlockIndex.Block> expected = BlockIndex.read(indexFile).getBlocks();
+        assertTrue(indexFile.delete(), "Could not remove index.");
+
+        // when the index is asked for, then it is made from the log, but not written, since
+        // reading a log should not write anything next to it.
+        assertEquals(BlockIndex.forFile(avro).getBlocks(), expected);
+        assertFalse(indexFile.exists(), "Index should not be written when read.");
+    }
+
+    @Test
+    public void testForFileIgnoresBadIndex() throws IOException {
+        // Given a log with an index that is not an index,
+        File avro = createSortedAvro();
+        File indexFile = BlockIndex.indexFileFor(avro);
+        List<BlockIndex.Block> expected = BlockIndex.read(indexFile).getBlocks();
+        try (FileOutputStream out = new FileOutputStream(indexFile)) {
+            out.write(new byte[]{1, 2, 3});
+        }
+
+        // when the index is asked for, then it is made again, leaving the bad file as it is.
+        assertEquals(BlockIndex.forFile(avro).getBlocks(), expected);
+        assertEquals(indexFile.length(), 3L);
+    }
+
+    @Test
+    public void testForFileIgnoresOutdatedIndex() throws IOException {
+        // Given a log that was written again with bigger blocks, but an index of the old blocks,
+        File avro = createSortedAvro();
+        File indexFile = BlockIndex.indexFileFor(avro);
+        BlockIndex old = BlockIndex.read(indexFile);
+        CsvJtlSource samples = new CsvJtlSource(createSourceFile());
+        samples.sort();
+        new AvroSamplesWriter(new AvroWriterSettings.Builder().codec("deflate").build()).write(samples, avro);
+        old.write(indexFile);
+
+        // when the index is asked for, then it is made again, without writing over the old one.
+        BlockIndex actual = BlockIndex.forFile(avro);
+        assertEquals(actual.getBlocks(), BlockIndex.scan(avro).getBlocks());
+        assertFalse(actual.getBlocks().equals(old.getBlocks()), "Index was not made again.");
+        assertEquals(BlockIndex.read(indexFile).getBlocks(), old.getBlocks());
+    }
+
+    private File createSortedAvro() throws IOException {
+        CsvJtlSource samples = new CsvJtlSource(createSourceFile());
+        samples.sort();
+        File avro = createTempFile("sorted", ".avro");
+        new AvroSamplesWriter(SMALL_BLOCKS).write(samples, avro);
+        return avro;
+    }
+
+    private File createSourceFile() throws IOException {
+        File source = createTempFile("source", ".jtl");
+        defaultMockData().createImportCsvFileUnordered(source, true);
+        return source;
+    }
+
+    private static List<HttpSample> readRange(BlockIndex index, File avro, long from, long to)
+            throws IOException {
+        List<HttpSample> samples = new ArrayList<>();
+        long numRead = index.readRange(avro, from, to, hs -> samples.add(HttpSample.newBuilder(hs).build()));
+        assertEquals(numRead, samples.size(), "Wrong number of samples reported.");
+        return samples;
+    }
+
+    private static List<HttpSample> filter(List<HttpSample> samples, long from, long to) {
+        List<HttpSample> result = new ArrayList<>();
+        for (HttpSample hs : samples) {
+            if (hs.getMillisOffset() >= from && hs.getMillisOffset() <= to) {
+                result.add(hs);
+            }
+        }
+        return result;
+    }
+
+    private static List<HttpSample> readAll(File avro) throws IOException {
+        List<HttpSample> samples = new ArrayList<>();
+        DatumReader<HttpSample> datumReader = new SpecificDatumReader<>(HttpSample.class);
+        try (DataFileReader<HttpSample> reader = new DataFileReader<>(avro, datumReader)) {
+            while (reader.hasNext()) {
+                samples.add(reader.next());
+            }
+        }
+        return samples;
+    }
+
+    private static MockPerfData defaultMockData() {
+        return new MockPerfData(System.currentTimeMillis(),
+                240L,
+                Arrays.asList(
+                        "Another-call-2",
+                        "Howdy there this is a call as well",
+                        "example-call-1"
+                ),
+                Arrays.asList(
+                        "thread-1",
+                        "thread-2",
+                        "thread-3"
+                ),
+                Arrays.asList(
+                        "1001",
+                        "200"
+                ),
+                Arrays.asList(
+                        "Non Standard code",
+                        "Normally we don't see these"
+                ));
+    }
+}
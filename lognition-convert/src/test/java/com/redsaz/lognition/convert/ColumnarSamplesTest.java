@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.api.model.Sample;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the ColumnarSamples class.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class ColumnarSamplesTest extends ConverterBaseTest {
+
+    @Test
+    public void testSortSameAsSampleList() throws IOException {
+        CsvJtlSource unit = loadUnordered();
+        List<Sample> expected = new ArrayList<>(unit.getSamples());
+        Collections.sort(expected);
+
+        unit.sort();
+
+        assertEquals(unit.getSamples(), expected, "Columnar sort differs from sorting samples.");
+        assertEquals(unit.getSample(0).getOffset(), 0L, "Offsets should start at 0.");
+    }
+
+    @Test
+    public void testSortByLabel() throws IOException {
+        CsvJtlSource unit = loadUnordered();
+        List<Sample> expected = new ArrayList<>(unit.getSamples());
+        Collections.sort(expected);
+        // A stable sort by label keeps the temporal order within each label.
+        expected.sort(Comparator.comparing(Sample::getLabel));
+
+        unit.sortByLabel();
+
+        assertEquals(unit.getSamples(), expected, "Samples were not sorted by label, then time.");
+    }
+
+    @Test
+    public void testSubSamples() throws IOException {
+        CsvJtlSource source = loadUnordered();
+        source.sort();
+        List<Sample> all = new ArrayList<>(source.getSamples());
+
+        ColumnarSamples unit = source.subSamples(2, 5);
+
+        assertEquals(unit.size(), 3);
+        assertEquals(unit.getSamples(), all.subList(2, 5), "View does not match the source.");
+        assertEquals(unit.getLabels(), source.getLabels(), "View should share the dictionaries.");
+    }
+
+    @Test
+    public void testNullStatus() throws IOException {
+        File source = createTempFile("source", ".jtl");
+        try (java.io.Writer w = new java.io.FileWriter(source)) {
+            w.write("timeStamp,elapsed,label,responseCode,responseMessage,threadName,success,bytes,allThreads\n");
+            w.write("1000,5,a,,,t1,true,10,1\n");
+            w.write("1001,6,b,200,OK,t1,true,20,1\n");
+        }
+
+        CsvJtlSource unit = new CsvJtlSource(source);
+
+        assertEquals(unit.size(), 2);
+        assertNull(unit.getStatusCode(0), "Empty status code should be null.");
+        assertEquals(unit.getStatusCode(1), "200");
+        assertEquals(unit.getLabels(), Arrays.asList("a", "b"));
+    }
+
+    private CsvJtlSource loadUnordered() throws IOException {
+        MockPerfData mpd = new MockPerfData(System.currentTimeMillis(),
+                240L,
+                Arrays.asList("call-b", "call-a", "call-c"),
+                Arrays.asList("thread-1", "thread-2"),
+                Arrays.asList("200", "500"),
+                Arrays.asList("OK", "Error"));
+        File source = createTempFile("source", ".jtl");
+        mpd.createImportCsvFileUnordered(source, true);
+        return new CsvJtlSource(source);
+    }
+}
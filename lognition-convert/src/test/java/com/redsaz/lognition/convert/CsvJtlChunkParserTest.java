@@ -0,0 +1,167 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.api.model.Sample;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests reading CSV-based JTLs a chunk at a time.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class CsvJtlChunkParserTest extends ConverterBaseTest {
+
+    @DataProvider(name = "chunkSizesDp", parallel = true)
+    public Object[][] chunkSizesDp() {
+        return new Object[][]{
+            new Object[]{1, true},
+            new Object[]{7, true},
+            new Object[]{4096, true},
+            new Object[]{Integer.MAX_VALUE, true},
+            new Object[]{7, false},
+            new Object[]{Integer.MAX_VALUE, false}
+        };
+    }
+
+    @Test(dataProvider = "chunkSizesDp")
+    public void testChunksSameAsWhole(int chunkSize, boolean includeHeader) throws IOException {
+        // Given a JTL,
+        File csv = createTempFile("source", ".jtl");
+        defaultMockData().createImportCsvFileUnordered(csv, includeHeader);
+        List<Sample> expected = new ArrayList<>();
+        CsvJtlSource.parse(csv, expected::add);
+
+        // when it is parsed a chunk at a time, with rows split across chunks,
+        byte[] contents = Files.readAllBytes(csv.toPath());
+        List<Sample> actual = new ArrayList<>();
+        CsvJtlChunkParser unit = new CsvJtlChunkParser(actual::add);
+        for (int offset = 0; offset < contents.length; offset += chunkSize) {
+            unit.parse(contents, offset, Math.min(chunkSize, contents.length - offset));
+        }
+        unit.finish();
+
+        // then the samples are the same as when it is parsed whole.
+        assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testRowsGivenOnceFinished() {
+        String header = "timeStamp,elapsed,label,responseCode,responseMessage,threadName,success,bytes,allThreads\n";
+        List<Sample> actual = new ArrayList<>();
+        CsvJtlChunkParser unit = new CsvJtlChunkParser(actual::add);
+
+        // The header alone gives the columns, but no samples.
+        unit.parse(bytes(header));
+        assertTrue(unit.hasColumns(), "Columns should be known from the header.");
+        assertEquals(actual.size(), 0);
+
+        // A row is only given once its newline arrives,
+        unit.parse(bytes("1000,10,a,200,OK,t1,true,5,1\n1010,20,b,2"));
+        assertEquals(actual.size(), 1);
+        unit.parse(bytes("00,OK,t1,true,6,1"));
+        assertEquals(actual.size(), 1);
+        unit.parse(bytes("\n"));
+        assertEquals(actual.size(), 2);
+        assertEquals(actual.get(1).getLabel(), "b");
+        assertEquals(actual.get(1).getResponseBytes(), 6L);
+
+        // or when the JTL is finished without one.
+        unit.parse(bytes("1020,30,c,200,OK,t1,true,7,1"));
+        assertEquals(actual.size(), 2);
+        unit.finish();
+        assertEquals(actual.size(), 3);
+        assertEquals(actual.get(2).getOffset(), 1020L);
+    }
+
+    @Test
+    public void testNoColumnsBeforeFirstRow() {
+        CsvJtlChunkParser unit = new CsvJtlChunkParser(sample -> {
+        });
+        unit.parse(bytes("timeStamp,elapsed,la"));
+        assertFalse(unit.hasColumns(), "Columns cannot be known until the first row is finished.");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMissingColumns() {
+        CsvJtlChunkParser unit = new CsvJtlChunkParser(sample -> {
+        });
+        unit.parse(bytes("timeStamp,label\n1000,a\n"));
+    }
+
+    @Test
+    public void testRowTooLongRejected() {
+        // Given a JTL with an unfinished row,
+        String header = "timeStamp,elapsed,label,responseCode,responseMessage,threadName,success,bytes,allThreads\n";
+        List<Sample> actual = new ArrayList<>();
+        CsvJtlChunkParser unit = new CsvJtlChunkParser(actual::add);
+        unit.parse(bytes(header + "1000,10,a,200,"));
+
+        // when a chunk would make the row longer than allowed, then it is rejected,
+        byte[] tooLong = new byte[CsvJtlChunkParser.MAX_PARTIAL_BYTES];
+        Arrays.fill(tooLong, (byte) 'x');
+        try {
+            unit.parse(tooLong);
+            fail("The row should have been too long.");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+
+        // and none of it is kept, so the row can still be finished.
+        unit.parse(bytes("OK,t1,true,5,1\n"));
+        assertEquals(actual.size(), 1);
+        assertEquals(actual.get(0).getResponseBytes(), 5L);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static MockPerfData defaultMockData() {
+        return new MockPerfData(System.currentTimeMillis(),
+                240L,
+                Arrays.asList(
+                        "Another-call-2",
+                        "Howdy there this is a call as well",
+                        "example-call-1"
+                ),
+                Arrays.asList(
+                        "thread-1",
+                        "thread-2",
+                        "thread-3"
+                ),
+                Arrays.asList(
+                        "1001",
+                        "200"
+                ),
+                Arrays.asList(
+                        "Non Standard code",
+                        "Normally we don't see these"
+                ));
+    }
+}
@@ -16,8 +16,10 @@
 package com.redsaz.lognition.convert;
 
 import com.redsaz.lognition.api.exceptions.AppServerException;
+import com.redsaz.lognition.api.model.Sample;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Files;
@@ -25,12 +27,21 @@ import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 /**
  * Test The CSV-JTL to Avro converter.
@@ -86,8 +97,62 @@ public class CsvJtlToAvroOrderedConverterTest extends ConverterBaseTest {
         assertEquals(actualHash1, actualHash2, "Hashes differed.");
     }
 
+    @Test(dataProvider = "runSizesDp")
+    public void testConvertExternalSort(int runSamples) throws IOException {
+        // Sorting in runs should give exactly the same output as sorting in memory.
+        MockPerfData mpd = defaultMockData();
+        File source = createTempFile("source", ".jtl");
+        mpd.createImportCsvFileUnordered(source, true);
+
+        File expectedDest = createTempFile("expected", ".avro");
+        String expectedHash = new CsvJtlToAvroOrderedConverter().convert(source, expectedDest);
+
+        Converter conv = new CsvJtlToAvroOrderedConverter(runSamples, AvroWriterSettings.defaults());
+        File actualDest = createTempFile("actual", ".avro");
+        String actualHash = conv.convert(source, actualDest);
+
+        assertBytesEquals(actualDest, expectedDest, "The conversions are not byte-for-byte equal.");
+        assertEquals(actualHash, expectedHash, "Hashes differed.");
+        // The source, and both conversions with their block indexes.
+        assertEquals(getTempFolder().list().length, 5, "Run files were left behind.");
+    }
+
+    @DataProvider(name = "runSizesDp")
+    public static Object[][] runSizesDp() {
+        return new Object[][]{
+            new Object[]{1},
+            new Object[]{7},
+            new Object[]{100000},};
+    }
+
+    @Test
+    public void testConvertMemoryBudget() throws IOException {
+        MockPerfData mpd = defaultMockData();
+        File source = createTempFile("source", ".jtl");
+        mpd.createImportCsvFileUnordered(source, true);
+
+        File expectedDest = createTempFile("expected", ".avro");
+        String expectedHash = new CsvJtlToAvroOrderedConverter().convert(source, expectedDest);
+
+        Converter conv = new CsvJtlToAvroOrderedConverter(AvroWriterSettings.defaults(), 1024L * 1024L);
+        File actualDest = createTempFile("actual", ".avro");
+        String actualHash = conv.convert(source, actualDest);
+
+        assertBytesEquals(actualDest, expectedDest, "The conversions are not byte-for-byte equal.");
+        assertEquals(actualHash, expectedHash, "Hashes differed.");
+    }
+
     @Test
     public void testConvertOrdered() throws IOException {
+        assertConvertsOrdered(new CsvJtlToAvroOrderedConverter());
+    }
+
+    @Test
+    public void testConvertOrderedExternalSort() throws IOException {
+        assertConvertsOrdered(new CsvJtlToAvroOrderedConverter(3, AvroWriterSettings.defaults()));
+    }
+
+    private void assertConvertsOrdered(Converter conv) throws IOException {
         // Tests that the converter will sort the unordered data, first by timestamp,
         // then by duration, then by label, then by threadname, then by bytes, then by status code,
         // then by status message, then by success, and then by total threads.
@@ -131,7 +196,6 @@ public class CsvJtlToAvroOrderedConverterTest extends ConverterBaseTest {
         Files.write(sourceIncorrectlyOrdered.toPath(), Collections.singleton(header), StandardOpenOption.CREATE);
         Files.write(sourceIncorrectlyOrdered.toPath(), lines, StandardOpenOption.APPEND);
 
-        Converter conv = new CsvJtlToAvroOrderedConverter();
         File actualDestAvro = createTempFile("actual", ".avro");
         conv.convert(sourceIncorrectlyOrdered, actualDestAvro);
 
@@ -417,6 +481,155 @@ public class CsvJtlToAvroOrderedConverterTest extends ConverterBaseTest {
         conv.convert(source, actualDest);
     }
 
+    @Test(dataProvider = "mergeRunSizesDp")
+    public void testMerge(int runSamples) throws IOException {
+        // Given the JTLs of three load generators, which started at different times,
+        long now = System.currentTimeMillis();
+        Map<String, File> sources = new LinkedHashMap<>();
+        sources.put("lg-a", createMockJtl("lg-a", now));
+        sources.put("lg-b", createMockJtl("lg-b", now - 500L));
+        sources.put("lg-c", createMockJtl("lg-c", now + 250L));
+
+        // when they are merged,
+        CsvJtlToAvroOrderedConverter conv = new CsvJtlToAvroOrderedConverter(runSamples, AvroWriterSettings.defaults());
+        File mergedDest = createTempFile("merged", ".avro");
+        List<Sample> merged = new ArrayList<>();
+        conv.merge(sources, mergedDest, sample -> merged.add(copyOf(sample)));
+
+        // then every sample of every generator is tagged with its generator,
+        Map<String, Integer> generatorCounts = new HashMap<>();
+        for (Sample sample : merged) {
+            generatorCounts.merge(sample.getGenerator(), 1, Integer::sum);
+        }
+        assertEquals(generatorCounts.keySet(), sources.keySet());
+        for (int count : generatorCounts.values()) {
+            assertEquals(count, 240);
+        }
+
+        // and the samples are the same, in the same order, as if all were in one JTL.
+        File combined = createTempFile("combined", ".jtl");
+        List<String> combinedLines = new ArrayList<>();
+        for (File source : sources.values()) {
+            List<String> lines = Files.readAllLines(source.toPath());
+            combinedLines.addAll(combinedLines.isEmpty() ? lines : lines.subList(1, lines.size()));
+        }
+        Files.write(combined.toPath(), combinedLines);
+        List<Sample> expected = new ArrayList<>();
+        new CsvJtlToAvroOrderedConverter().merge(Collections.singletonMap("all", combined),
+                createTempFile("expected", ".avro"), sample -> expected.add(copyOf(sample)));
+        merged.forEach(sample -> sample.setGenerator(null));
+        expected.forEach(sample -> sample.setGenerator(null));
+        assertEquals(merged, expected);
+        assertEquals(merged.get(0).getOffset(), 0L, "Offsets should be from the earliest of any generator.");
+
+        // The generators are exported as the hostnames.
+        File exported = createTempFile("exported", ".jtl");
+        new AvroToCsvJtlConverter().convert(mergedDest, exported);
+        List<String> exportedLines = Files.readAllLines(exported.toPath());
+        int hostnameColumn = Arrays.asList(exportedLines.get(0).split(",")).indexOf("Hostname");
+        assertTrue(hostnameColumn >= 0, "The export should have the hostnames.");
+        Set<String> hostnames = new HashSet<>();
+        for (String line : exportedLines.subList(1, exportedLines.size())) {
+            String[] columns = line.split(",");
+            hostnames.add(columns[hostnameColumn]);
+        }
+        assertEquals(hostnames, sources.keySet());
+        assertEquals(getTempFolder().list((dir, name) -> name.contains(".run")).length, 0, "Run files were left behind.");
+    }
+
+    @DataProvider(name = "mergeRunSizesDp")
+    public static Object[][] mergeRunSizesDp() {
+        return new Object[][]{
+            new Object[]{0},
+            new Object[]{7},};
+    }
+
+    @Test
+    public void testMergeZip() throws IOException {
+        long now = System.currentTimeMillis();
+        File a = createMockJtl("lg-a", now);
+        File b = createMockJtl("lg-b", now + 100L);
+        Map<String, File> sources = new LinkedHashMap<>();
+        sources.put("lg-a", a);
+        sources.put("east/lg-b", b);
+        File expectedDest = createTempFile("expected", ".avro");
+        String expectedHash = new CsvJtlToAvroOrderedConverter().merge(sources, expectedDest, null);
+
+        File zip = createTempFile("generators", ".zip");
+        try (ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(zip))) {
+            zout.putNextEntry(new ZipEntry("lg-a.jtl"));
+            Files.copy(a.toPath(), zout);
+            zout.putNextEntry(new ZipEntry("east/"));
+            zout.putNextEntry(new ZipEntry("east/lg-b.jtl"));
+            Files.copy(b.toPath(), zout);
+        }
+        File actualDest = createTempFile("actual", ".avro");
+        String actualHash = new CsvJtlToAvroOrderedConverter().mergeZip(zip, actualDest, null);
+
+        assertBytesEquals(actualDest, expectedDest, "Merging from a zip should be the same as from files.");
+        assertEquals(actualHash, expectedHash, "Hashes differed.");
+        assertEquals(getTempFolder().list((dir, name) -> name.contains(".gen")).length, 0, "Extracted files were left behind.");
+        assertEquals(getTempFolder().list((dir, name) -> name.contains(".run")).length, 0, "Run files were left behind.");
+    }
+
+    @Test
+    public void testMergeZipFailureCleansUp() throws IOException {
+        // Given a zip with two JTLs from the same generator,
+        File a = createMockJtl("lg-a", System.currentTimeMillis());
+        File zip = createTempFile("generators", ".zip");
+        try (ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(zip))) {
+            zout.putNextEntry(new ZipEntry("lg-a.jtl"));
+            Files.copy(a.toPath(), zout);
+            zout.putNextEntry(new ZipEntry("lg-a.csv"));
+            Files.copy(a.toPath(), zout);
+        }
+
+        // when merged, sorting in small runs,
+        File dest = createTempFile("failed", ".avro");
+        try {
+            new CsvJtlToAvroOrderedConverter(7, AvroWriterSettings.defaults()).mergeZip(zip, dest, null);
+            fail("Should not merge two JTLs from the same generator.");
+        } catch (AppServerException ex) {
+            // Expected
+        }
+
+        // then the runs of the first JTL are not left behind.
+        assertEquals(getTempFolder().list((dir, name) -> name.startsWith(dest.getName() + ".")).length, 0,
+                "Run files were left behind.");
+    }
+
+    @Test
+    public void testGeneratorName() {
+        assertEquals(CsvJtlToAvroOrderedConverter.generatorName("lg-01.jtl"), "lg-01");
+        assertEquals(CsvJtlToAvroOrderedConverter.generatorName("lg-01.jtl.csv"), "lg-01");
+        assertEquals(CsvJtlToAvroOrderedConverter.generatorName("lg-01"), "lg-01");
+        assertEquals(CsvJtlToAvroOrderedConverter.generatorName("run.1/lg-01.jtl"), "run.1/lg-01");
+        assertEquals(CsvJtlToAvroOrderedConverter.generatorName(".jtl"), ".jtl");
+    }
+
+    private File createMockJtl(String prefix, long earliest) throws IOException {
+        File source = createTempFile(prefix, ".jtl");
+        MockPerfData mpd = defaultMockData();
+        new MockPerfData(earliest, mpd.getNumRows(), mpd.getLabels(), mpd.getThreadNames(),
+                mpd.getCodes(), mpd.getMessages()).createImportCsvFileUnordered(source, true);
+        return source;
+    }
+
+    private static Sample copyOf(Sample sample) {
+        Sample copy = new Sample();
+        copy.setOffset(sample.getOffset());
+        copy.setDuration(sample.getDuration());
+        copy.setLabel(sample.getLabel());
+        copy.setThreadName(sample.getThreadName());
+        copy.setStatusCode(sample.getStatusCode());
+        copy.setStatusMessage(sample.getStatusMessage());
+        copy.setSuccess(sample.isSuccess());
+        copy.setResponseBytes(sample.getResponseBytes());
+        copy.setTotalThreads(sample.getTotalThreads());
+        copy.setGenerator(sample.getGenerator());
+        return copy;
+    }
+
     private static MockPerfData defaultMockData() {
         // The orginal CSV to import from will have more columns than we'll
         // actually use.
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.api.exceptions.AppServerException;
+import com.redsaz.lognition.api.model.Sample;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.testng.annotations.Test;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Test the streaming CSV-JTL to Avro converter.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class CsvJtlToAvroStreamingConverterTest extends ConverterBaseTest {
+
+    @Test
+    public void testConvert() throws IOException {
+        MockPerfData mpd = defaultMockData();
+        File source = createTempFile("source", ".jtl");
+        mpd.createImportCsvFile(source, true);
+
+        File expectedDest = createTempFile("expected", ".avro");
+        String expectedHash = mpd.createAvroFile(expectedDest);
+
+        Converter conv = new CsvJtlToAvroStreamingConverter();
+        File actualDest = createTempFile("actual", ".avro");
+        String actualHash = conv.convert(source, actualDest);
+
+        assertAvroContentEquals(actualDest, expectedDest, "The converter did not convert in the way expected.");
+        assertBytesEquals(actualDest, expectedDest, "The conversions are not byte-for-byte equal.");
+        assertEquals(actualHash, expectedHash, "Hashes differed.");
+    }
+
+    @Test
+    public void testConvertSameAsSamplesWriter() throws IOException {
+        // Rows are kept in the order of the source, so an unordered source should end up the same
+        // as what is written after loading all of the samples into memory.
+        MockPerfData mpd = defaultMockData();
+        File source = createTempFile("source", ".jtl");
+        mpd.createImportCsvFileUnordered(source, true);
+
+        File expectedDest = createTempFile("expected", ".avro");
+        String expectedHash = new AvroSamplesWriter().write(new CsvJtlSource(source), expectedDest);
+
+        Converter conv = new CsvJtlToAvroStreamingConverter();
+        File actualDest = createTempFile("actual", ".avro");
+        String actualHash = conv.convert(source, actualDest);
+
+        assertBytesEquals(actualDest, expectedDest, "The conversions are not byte-for-byte equal.");
+        assertEquals(actualHash, expectedHash, "Hashes differed.");
+    }
+
+    @Test
+    public void testConvertNotifiesListener() throws IOException {
+        MockPerfData mpd = defaultMockData();
+        File source = createTempFile("source", ".jtl");
+        mpd.createImportCsvFileUnordered(source, true);
+        List<Sample> expected = new CsvJtlSource(source).getSamples();
+
+        // The listener may be given the same instance each time, so copy what is given.
+        List<Sample> actual = new ArrayList<>();
+        CsvJtlToAvroStreamingConverter conv = new CsvJtlToAvroStreamingConverter();
+        conv.convert(source, createTempFile("actual", ".avro"), (s) -> actual.add(copy(s)));
+
+        assertEquals(actual, expected, "The listener was not given the samples as expected.");
+    }
+
+    @Test
+    public void testConvertFromStream() throws IOException {
+        MockPerfData mpd = defaultMockData();
+        File source = createTempFile("source", ".jtl");
+        mpd.createImportCsvFileUnordered(source, true);
+
+        File expectedDest = createTempFile("expected", ".avro");
+        String expectedHash = new CsvJtlToAvroStreamingConverter().convert(source, expectedDest);
+
+        File actualDest = createTempFile("actual", ".avro");
+        String actualHash;
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            actualHash = new CsvJtlToAvroStreamingConverter().convert(in, actualDest, null);
+        }
+
+        assertBytesEquals(actualDest, expectedDest, "The conversions are not byte-for-byte equal.");
+        assertEquals(actualHash, expectedHash, "Hashes differed.");
+    }
+
+    @Test
+    public void testConvertCompressed() throws IOException {
+        // Compressed blocks are still synced at each checkpoint, and the output should be the
+        // same as what the samples writer gives with the same codec.
+        MockPerfData mpd = defaultMockData();
+        File source = createTempFile("source", ".jtl");
+        mpd.createImportCsvFileUnordered(source, true);
+        AvroWriterSettings settings = new AvroWriterSettings.Builder()
+                .codec("deflate-6")
+                .syncInterval(1024)
+                .build();
+
+        File expectedDest = createTempFile("expected", ".avro");
+        String expectedHash = new AvroSamplesWriter(settings).write(new CsvJtlSource(source), expectedDest);
+
+        Converter conv = new CsvJtlToAvroStreamingConverter(500L, settings);
+        File actualDest = createTempFile("actual", ".avro");
+        String actualHash = conv.convert(source, actualDest);
+
+        assertBytesEquals(actualDest, expectedDest, "The conversions are not byte-for-byte equal.");
+        assertEquals(actualHash, expectedHash, "Hashes differed.");
+    }
+
+    @Test
+    public void testConvertWithCheckpoints() throws IOException {
+        MockPerfData mpd = defaultMockData();
+        File source = createTempFile("source", ".jtl");
+        mpd.createImportCsvFileUnordered(source, true);
+
+        File expectedDest = createTempFile("expected", ".avro");
+        String expectedHash = new AvroSamplesWriter().write(new CsvJtlSource(source), expectedDest);
+
+        List<Long> positions = new ArrayList<>();
+        Converter conv = new CsvJtlToAvroStreamingConverter(500L) {
+            @Override
+            void checkpointed(long sourcePosition, File intermediate, File checkpointFile) {
+                positions.add(sourcePosition);
+            }
+        };
+        File actualDest = createTempFile("actual", ".avro");
+        String actualHash = conv.convert(source, actualDest);
+
+        assertTrue(positions.size() > 2, "Should have checkpointed several times.");
+        assertEquals(positions.get(positions.size() - 1).longValue(), source.length());
+        assertBytesEquals(actualDest, expectedDest, "The conversions are not byte-for-byte equal.");
+        assertEquals(actualHash, expectedHash, "Hashes differed.");
+        assertFalse(new File(actualDest.getParent(), actualDest.getName() + ".checkpoint").exists(),
+                "The checkpoint should be removed once converted.");
+    }
+
+    @Test
+    public void testConvertWithCheckpointsInParallel() throws IOException {
+        MockPerfData mpd = defaultMockData();
+        File source = createTempFile("source", ".jtl");
+        mpd.createImportCsvFileUnordered(source, true);
+
+        File expectedDest = createTempFile("expected", ".avro");
+        String expectedHash = new AvroSamplesWriter().write(new CsvJtlSource(source), expectedDest);
+
+        // Each chunk between checkpoints is split into several ranges, read at the same time.
+        Converter conv = new CsvJtlToAvroStreamingConverter(2000L, 4, AvroWriterSettings.defaults());
+        File actualDest = createTempFile("actual", ".avro");
+        String actualHash = conv.convert(source, actualDest);
+
+        assertBytesEquals(actualDest, expectedDest, "The conversions are not byte-for-byte equal.");
+        assertEquals(actualHash, expectedHash, "Hashes differed.");
+    }
+
+    @Test
+    public void testResumeAfterInterruption() throws IOException {
+        // Given a conversion that was interrupted after a couple of checkpoints,
+        MockPerfData mpd = defaultMockData();
+        File source = createTempFile("source", ".jtl");
+        mpd.createImportCsvFileUnordered(source, true);
+        File actualDest = createTempFile("actual", ".avro");
+        File intermediate = new File(actualDest.getParent(), actualDest.getName() + ".intermediate");
+        File checkpoint = new File(actualDest.getParent(), actualDest.getName() + ".checkpoint");
+        long[] interruptedAt = new long[1];
+        Converter interrupted = new CsvJtlToAvroStreamingConverter(500L) {
+            private int count;
+
+            @Override
+            void checkpointed(long sourcePosition, File intermediate, File checkpointFile) throws IOException {
+                if (++count == 2) {
+                    // Leave some rows written after the checkpoint, as if it failed partway
+                    // through the next chunk.
+                    interruptedAt[0] = sourcePosition;
+                    Files.write(intermediate.toPath(), new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+                    throw new IOException("Interrupted for the test.");
+                }
+            }
+        };
+        try {
+            interrupted.convert(source, actualDest);
+            fail("Conversion should have been interrupted.");
+        } catch (AppServerException ex) {
+            // Expected.
+        }
+        assertTrue(checkpoint.exists(), "The checkpoint should be kept when the conversion fails.");
+        assertTrue(intermediate.exists(), "The intermediate file should be kept when the conversion fails.");
+
+        // When the conversion is run again,
+        List<Long> positions = new ArrayList<>();
+        Converter conv = new CsvJtlToAvroStreamingConverter(500L) {
+            @Override
+            void checkpointed(long sourcePosition, File intermediate, File checkpointFile) {
+                positions.add(sourcePosition);
+            }
+        };
+        String actualHash = conv.convert(source, actualDest);
+
+        // Then it carries on from the checkpoint,
+        assertTrue(positions.get(0) > interruptedAt[0], "Should have resumed after the checkpoint.");
+        // and the checkpoint is removed once converted,
+        assertFalse(checkpoint.exists(), "The checkpoint should be removed once converted.");
+        // and the result is the same as an uninterrupted conversion.
+        File expectedDest = createTempFile("expected", ".avro");
+        String expectedHash = new AvroSamplesWriter().write(new CsvJtlSource(source), expectedDest);
+        assertBytesEquals(actualDest, expectedDest, "The conversions are not byte-for-byte equal.");
+        assertEquals(actualHash, expectedHash, "Hashes differed.");
+    }
+
+    @Test
+    public void testStaleCheckpointIgnored() throws IOException {
+        MockPerfData mpd = defaultMockData();
+        File source = createTempFile("source", ".jtl");
+        mpd.createImportCsvFileUnordered(source, true);
+        File actualDest = createTempFile("actual", ".avro");
+        // A checkpoint for some other source is not used.
+        Files.write(new File(actualDest.getParent(), actualDest.getName() + ".checkpoint").toPath(),
+                new byte[]{0, 0, 0, 1, 0, 0, 0});
+        Files.write(new File(actualDest.getParent(), actualDest.getName() + ".intermediate").toPath(),
+                new byte[]{4, 5, 6});
+
+        String actualHash = new CsvJtlToAvroStreamingConverter(500L).convert(source, actualDest);
+
+        File expectedDest = createTempFile("expected", ".avro");
+        String expectedHash = new AvroSamplesWriter().write(new CsvJtlSource(source), expectedDest);
+        assertBytesEquals(actualDest, expectedDest, "The conversions are not byte-for-byte equal.");
+        assertEquals(actualHash, expectedHash, "Hashes differed.");
+    }
+
+    @Test(expectedExceptions = AppServerException.class)
+    public void testConvertEmptyFile() throws IOException {
+        File source = createTempFile("source", ".jtl");
+
+        Converter conv = new CsvJtlToAvroStreamingConverter();
+        conv.convert(source, createTempFile("actual", ".avro"));
+    }
+
+    private static Sample copy(Sample s) {
+        Sample copy = new Sample();
+        copy.setOffset(s.getOffset());
+        copy.setDuration(s.getDuration());
+        copy.setLabel(s.getLabel());
+        copy.setThreadName(s.getThreadName());
+        copy.setStatusCode(s.getStatusCode());
+        copy.setStatusMessage(s.getStatusMessage());
+        copy.setSuccess(s.isSuccess());
+        copy.setResponseBytes(s.getResponseBytes());
+        copy.setTotalThreads(s.getTotalThreads());
+        copy.setGenerator(s.getGenerator());
+        copy.setUrl(s.getUrl());
+        copy.setLatency(s.getLatency());
+        copy.setConnect(s.getConnect());
+        copy.setSentBytes(s.getSentBytes());
+        copy.setIdleTime(s.getIdleTime());
+        return copy;
+    }
+
+    private static MockPerfData defaultMockData() {
+        return new MockPerfData(System.currentTimeMillis(),
+                240L,
+                Arrays.asList(
+                        "Another-call-2",
+                        "Howdy there this is a call as well",
+                        "example-call-1"
+                ),
+                Arrays.asList(
+                        "thread-1",
+                        "thread-2",
+                        "thread-3"
+                ),
+                Arrays.asList(
+                        "1001",
+                        "200"
+                ),
+                Arrays.asList(
+                        "Non Standard code",
+                        "Normally we don't see these"
+                ));
+    }
+}
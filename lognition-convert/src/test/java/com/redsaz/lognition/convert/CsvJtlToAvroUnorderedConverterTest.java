@@ -61,6 +61,44 @@ public class CsvJtlToAvroUnorderedConverterTest extends ConverterBaseTest {
         assertEquals(actualHash, expectedHash, "Hashes differed.");
     }
 
+    @Test
+    public void testConvertParallel() throws IOException {
+        // Parsing on several threads should give exactly the same output as with one thread.
+        MockPerfData mpd = defaultMockData();
+        File source = createTempFile("source", ".jtl");
+        mpd.createImportCsvFileUnordered(source, true);
+
+        File expectedDest = createTempFile("expected", ".avro");
+        String expectedHash = new CsvJtlToAvroUnorderedConverter().convert(source, expectedDest);
+
+        Converter conv = new CsvJtlToAvroUnorderedConverter(4, 256L);
+        File actualDest = createTempFile("actual", ".avro");
+        String actualHash = conv.convert(source, actualDest);
+
+        assertBytesEquals(actualDest, expectedDest, "The conversions are not byte-for-byte equal.");
+        assertEquals(actualHash, expectedHash, "Hashes differed.");
+        // The source, and both conversions with their block indexes.
+        assertEquals(getTempFolder().list().length, 5, "Intermediate files were left behind.");
+    }
+
+    @Test
+    public void testConvertParallelCompressed() throws IOException {
+        MockPerfData mpd = defaultMockData();
+        File source = createTempFile("source", ".jtl");
+        mpd.createImportCsvFileUnordered(source, true);
+        AvroWriterSettings settings = new AvroWriterSettings.Builder().codec("snappy").build();
+
+        File expectedDest = createTempFile("expected", ".avro");
+        String expectedHash = new CsvJtlToAvroUnorderedConverter(1, settings).convert(source, expectedDest);
+
+        Converter conv = new CsvJtlToAvroUnorderedConverter(4, 256L, settings);
+        File actualDest = createTempFile("actual", ".avro");
+        String actualHash = conv.convert(source, actualDest);
+
+        assertBytesEquals(actualDest, expectedDest, "The conversions are not byte-for-byte equal.");
+        assertEquals(actualHash, expectedHash, "Hashes differed.");
+    }
+
     @Test
     public void testConvertConsistent() throws IOException {
         // Tests that two invocations of the converter on the same input data
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import org.testng.annotations.Test;
+
+/**
+ * Tests counting the CSV form of Avro files, and keeping the count next to them.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class CsvLengthTest extends ConverterBaseTest {
+
+    @Test
+    public void testCountMatchesExport() throws IOException {
+        // Given a log,
+        File avro = createAvro();
+
+        // when its CSV is counted and written next to it,
+        long counted = CsvLength.count(avro, new AvroToCsvJtlConverter(1));
+        CsvLength.write(avro, counted);
+
+        // then the count is as long as the exported CSV, and is read back the same.
+        File exported = createTempFile("exported", ".csv");
+        new AvroToCsvJtlConverter().convert(avro, exported);
+        assertEquals(counted, exported.length(), "Count differed from the export.");
+        assertEquals(CsvLength.forFile(avro), Long.valueOf(counted));
+    }
+
+    @Test
+    public void testForFileMissing() throws IOException {
+        // Logs imported before the CSV was counted do not have a count.
+        File avro = createAvro();
+
+        assertNull(CsvLength.forFile(avro));
+    }
+
+    @Test
+    public void testForFileIgnoresBadFile() throws IOException {
+        // Given a log with a count that is not a count,
+        File avro = createAvro();
+        try (FileOutputStream out = new FileOutputStream(CsvLength.fileFor(avro))) {
+            out.write(new byte[]{1, 2, 3});
+        }
+
+        // then the length is not known.
+        assertNull(CsvLength.forFile(avro));
+    }
+
+    @Test
+    public void testForFileIgnoresOutdatedFile() throws IOException {
+        // Given a log that was written again after its CSV was counted,
+        File avro = createAvro();
+        CsvLength.write(avro, CsvLength.count(avro, new AvroToCsvJtlConverter(1)));
+        File jtl = createTempFile("source", ".jtl");
+        defaultMockData().createImportCsvFile(jtl, true);
+        new AvroSamplesWriter(new AvroWriterSettings.Builder().codec("deflate").build())
+                .write(new CsvJtlSource(jtl), avro);
+
+        // then the old count is not used.
+        assertNull(CsvLength.forFile(avro));
+    }
+
+    private File createAvro() throws IOException {
+        File jtl = createTempFile("source", ".jtl");
+        defaultMockData().createImportCsvFile(jtl, true);
+        File avro = createTempFile("log", ".avro");
+        new AvroSamplesWriter().write(new CsvJtlSource(jtl), avro);
+        return avro;
+    }
+
+    private static MockPerfData defaultMockData() {
+        return new MockPerfData(System.currentTimeMillis(),
+                240L,
+                Arrays.asList(
+                        "Another-call-2",
+                        "example-call-1"
+                ),
+                Arrays.asList(
+                        "thread-1",
+                        "thread-2"
+                ),
+                Arrays.asList(
+                        "1001",
+                        "200"
+                ),
+                Arrays.asList(
+                        "Non Standard code",
+                        "Normally we don't see these"
+                ));
+    }
+}
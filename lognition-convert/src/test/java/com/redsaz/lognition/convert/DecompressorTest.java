@@ -0,0 +1,117 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.api.exceptions.AppClientException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.testng.annotations.Test;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests recognizing and decompressing compressed logs.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class DecompressorTest {
+
+    private static final String HEADER = "timeStamp,elapsed,label,responseCode,responseMessage,threadName,success,bytes,allThreads\n";
+    private static final String CONTENTS = HEADER
+            + "1000,5,call-a,200,OK,thread-1,true,100,1\n"
+            + "1001,6,call-b,200,OK,thread-2,true,200,2\n";
+
+    @Test
+    public void testNotCompressed() throws IOException {
+        assertEquals(decompress(bytes(CONTENTS)), CONTENTS);
+        assertEquals(decompress(new byte[0]), "");
+        assertEquals(decompress(bytes("1")), "1");
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(baos)) {
+            out.write(bytes(CONTENTS));
+        }
+
+        assertEquals(Decompressor.detect(baos.toByteArray(), baos.size()), Decompressor.Format.GZIP);
+        assertEquals(decompress(baos.toByteArray()), CONTENTS);
+    }
+
+    @Test
+    public void testXz() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (XZOutputStream out = new XZOutputStream(baos, new LZMA2Options())) {
+            out.write(bytes(CONTENTS));
+        }
+
+        assertEquals(Decompressor.detect(baos.toByteArray(), baos.size()), Decompressor.Format.XZ);
+        assertEquals(decompress(baos.toByteArray()), CONTENTS);
+    }
+
+    @Test
+    public void testZipEntriesCombined() throws IOException {
+        // Given a zip with several logs, each with the same header, one of which doesn't end its
+        // last row, and a directory,
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(baos)) {
+            out.putNextEntry(new ZipEntry("first.jtl"));
+            out.write(bytes(CONTENTS));
+            out.putNextEntry(new ZipEntry("more/"));
+            out.putNextEntry(new ZipEntry("more/second.jtl"));
+            out.write(bytes(HEADER + "1002,7,call-c,200,OK,thread-1,true,300,2"));
+            out.putNextEntry(new ZipEntry("third.jtl"));
+            out.write(bytes(HEADER + "1003,8,call-d,200,OK,thread-1,true,400,2\n"));
+        }
+
+        // When decompressed,
+        String actual = decompress(baos.toByteArray());
+
+        // Then the logs are read as one, with only the first header.
+        assertEquals(actual, CONTENTS
+                + "1002,7,call-c,200,OK,thread-1,true,300,2\n"
+                + "1003,8,call-d,200,OK,thread-1,true,400,2\n");
+    }
+
+    @Test(expectedExceptions = AppClientException.class)
+    public void testZstdNotSupported() throws IOException {
+        decompress(new byte[]{0x28, (byte) 0xb5, 0x2f, (byte) 0xfd, 0, 0, 0, 0});
+    }
+
+    private static String decompress(byte[] compressed) throws IOException {
+        try (InputStream in = Decompressor.decompress(new ByteArrayInputStream(compressed))) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buff = new byte[7];
+            int num;
+            while ((num = in.read(buff)) >= 0) {
+                baos.write(buff, 0, num);
+            }
+            return new String(baos.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
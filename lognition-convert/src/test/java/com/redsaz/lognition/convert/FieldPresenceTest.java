@@ -0,0 +1,197 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.convert.model.HttpSample;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests recording which sample fields are used.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class FieldPresenceTest extends ConverterBaseTest {
+
+    private static final String ALL_FIELDS = "timeStamp,elapsed,label,responseCode,responseMessage,threadName,success,bytes,allThreads\n"
+            + "1000,5,call-a,200,OK,thread-1,true,100,1\n"
+            + "1001,6,call-b,,,thread-2,true,200,2\n";
+    private static final String FEW_FIELDS = "timeStamp,elapsed,label,responseCode,responseMessage,threadName,success,bytes,allThreads\n"
+            + "1000,5,call-a,0,,thread-1,true,,\n"
+            + "1001,6,call-b,0,,thread-2,true,,\n";
+    private static final String TIMED_FIELDS = "timeStamp,elapsed,label,responseCode,responseMessage,threadName,success,bytes,sentBytes,allThreads,URL,Latency,IdleTime,Connect\n"
+            + "1000,5,call-a,200,OK,thread-1,true,100,10,1,http://example.com/a,3,0,1\n"
+            + "1001,6,call-b,200,OK,thread-2,true,200,20,2,http://example.com/b,4,0,2\n";
+
+    @Test(dataProvider = "writersDp")
+    public void testRecordedWhenWritten(String name, Converter converter) throws IOException {
+        assertPresence(converter, ALL_FIELDS,
+                FieldPresence.RESPONSE_CODE | FieldPresence.BYTES | FieldPresence.ALL_THREADS);
+        assertPresence(converter, FEW_FIELDS, 0L);
+        assertPresence(converter, TIMED_FIELDS,
+                FieldPresence.RESPONSE_CODE | FieldPresence.BYTES | FieldPresence.ALL_THREADS
+                | FieldPresence.URL | FieldPresence.LATENCY | FieldPresence.CONNECT
+                | FieldPresence.SENT_BYTES | FieldPresence.IDLE_TIME);
+    }
+
+    @DataProvider(name = "writersDp")
+    public static Object[][] writersDp() {
+        return new Object[][]{
+            new Object[]{"streaming", new CsvJtlToAvroStreamingConverter()},
+            new Object[]{"unordered", new CsvJtlToAvroUnorderedConverter()},
+            new Object[]{"ordered", new CsvJtlToAvroOrderedConverter()},
+            new Object[]{"ordered-external", new CsvJtlToAvroOrderedConverter(1, AvroWriterSettings.defaults())},};
+    }
+
+    @Test
+    public void testBackfill() throws IOException {
+        // Given a log written before field presence was recorded,
+        File avro = createTempFile("log", ".avro");
+        new CsvJtlToAvroStreamingConverter(new AvroWriterSettings.Builder()
+                .codec("deflate")
+                .syncInterval(32)
+                .build()).convert(createSource(ALL_FIELDS), avro);
+        removePresence(avro);
+        assertFalse(FieldPresence.isRecorded(avro));
+        File expectedCsv = createTempFile("expected", ".csv");
+        new AvroToCsvJtlConverter().convert(avro, expectedCsv);
+        List<HttpSample> expectedSamples = readAll(avro);
+
+        // when it is backfilled,
+        ParallelAvroScanner scanner = new ParallelAvroScanner(2);
+        assertTrue(FieldPresence.backfill(avro, scanner), "Should have been backfilled.");
+
+        // then the presence is recorded, the samples and export are the same as before, the
+        // block index is up to date, and the log is not backfilled again.
+        assertTrue(FieldPresence.isRecorded(avro));
+        assertEquals(readAll(avro), expectedSamples);
+        File actualCsv = createTempFile("actual", ".csv");
+        new AvroToCsvJtlConverter().convert(avro, actualCsv);
+        assertBytesEquals(actualCsv, expectedCsv, "Export changed.");
+        assertEquals(BlockIndex.read(BlockIndex.indexFileFor(avro)).getBlocks(),
+                BlockIndex.scan(avro).getBlocks(), "Block index is not up to date.");
+        assertFalse(new File(avro.getPath() + ".backfill").exists(), "Rewritten file was left behind.");
+        assertFalse(FieldPresence.backfill(avro, scanner), "Should not have been backfilled again.");
+    }
+
+    @Test
+    public void testBackfillSkipsLogBeingRead() throws IOException {
+        // Given a log written before field presence was recorded, which is being downloaded,
+        File avro = createTempFile("log", ".avro");
+        new CsvJtlToAvroStreamingConverter(new AvroWriterSettings.Builder().codec("deflate").build())
+                .convert(createSource(ALL_FIELDS), avro);
+        removePresence(avro);
+        byte[] expected = Files.readAllBytes(avro.toPath());
+        Lock lock = AvroFileLocks.readLock(avro);
+        lock.lock();
+        try {
+            // when it is backfilled,
+            boolean backfilled = FieldPresence.backfill(avro, new ParallelAvroScanner(1));
+
+            // then it is left as it is, for next time.
+            assertFalse(backfilled, "Should not have been backfilled while being read.");
+            assertEquals(Files.readAllBytes(avro.toPath()), expected);
+            assertFalse(new File(avro.getPath() + ".backfill").exists(), "Rewritten file was left behind.");
+        } finally {
+            lock.unlock();
+        }
+        assertTrue(FieldPresence.backfill(avro, new ParallelAvroScanner(1)), "Should be backfilled once read.");
+    }
+
+    private void assertPresence(Converter converter, String csv, long expectedBits) throws IOException {
+        File avro = createTempFile("converted", ".avro");
+        converter.convert(createSource(csv), avro);
+
+        DatumReader<HttpSample> datumReader = new SpecificDatumReader<>(HttpSample.class);
+        try (DataFileReader<HttpSample> reader = new DataFileReader<>(avro, datumReader)) {
+            FieldPresence recorded = FieldPresence.readMeta(reader);
+            assertNotNull(recorded, "Field presence was not recorded.");
+            assertEquals(recorded.getBits(), expectedBits, "Wrong fields recorded.");
+        }
+        // Which is the same as when finding them from the samples.
+        assertEquals(FieldPresence.scan(avro, new ParallelAvroScanner(1)).getBits(), expectedBits);
+    }
+
+    private File createSource(String csv) throws IOException {
+        File source = createTempFile("source", ".jtl");
+        Files.write(source.toPath(), csv.getBytes(StandardCharsets.UTF_8));
+        return source;
+    }
+
+    /**
+     * Writes the log again the same as it was, but without the field presence, as logs were
+     * written before it was recorded.
+     */
+    private void removePresence(File avro) throws IOException {
+        File legacy = createTempFile("legacy", ".avro");
+        DatumReader<HttpSample> datumReader = new SpecificDatumReader<>(HttpSample.class);
+        try (DataFileReader<HttpSample> reader = new DataFileReader<>(avro, datumReader);
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(legacy));
+                DataFileWriter<HttpSample> writer = new DataFileWriter<>(new SpecificDatumWriter<>(HttpSample.class))) {
+            for (String key : reader.getMetaKeys()) {
+                if (!key.startsWith("avro.") && !key.equals(FieldPresence.META)) {
+                    writer.setMeta(key, reader.getMeta(key));
+                }
+            }
+            writer.setCodec(CodecFactory.fromString(reader.getMetaString("avro.codec")));
+            writer.create(HttpSample.getClassSchema(), out, new byte[16]);
+            writer.appendAllFrom(reader, false);
+        }
+        Files.move(legacy.toPath(), avro.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        assertTrue(BlockIndex.indexFileFor(avro).delete(), "Could not remove block index.");
+        assertNull(readPresence(avro));
+    }
+
+    private static FieldPresence readPresence(File avro) throws IOException {
+        DatumReader<HttpSample> datumReader = new SpecificDatumReader<>(HttpSample.class);
+        try (DataFileReader<HttpSample> reader = new DataFileReader<>(avro, datumReader)) {
+            return FieldPresence.readMeta(reader);
+        }
+    }
+
+    private static List<HttpSample> readAll(File avro) throws IOException {
+        List<HttpSample> samples = new ArrayList<>();
+        DatumReader<HttpSample> datumReader = new SpecificDatumReader<>(HttpSample.class);
+        try (DataFileReader<HttpSample> reader = new DataFileReader<>(avro, datumReader)) {
+            while (reader.hasNext()) {
+                samples.add(reader.next());
+            }
+        }
+        return samples;
+    }
+}
@@ -104,6 +104,12 @@ public class JtlTypeTest {
         assertSame(actual, expected, "Wrong JtlType for input: " + input);
     }
 
+    @Test(dataProvider = "fromXmlAttributeDp")
+    public void testFromXmlAttribute(JtlType expected, String input) {
+        JtlType actual = JtlType.fromXmlAttribute(input);
+        assertSame(actual, expected, "Wrong JtlType for input: " + input);
+    }
+
     @DataProvider(name = "convertDp", parallel = true)
     public static Object[][] convertDp() {
         return new Object[][]{
@@ -188,4 +194,30 @@ public class JtlTypeTest {
             {JtlType.IDLE_TIME, "IdleTime"},
             {JtlType.VARIABLES, "Variables"}};
     }
+
+    @DataProvider(name = "fromXmlAttributeDp", parallel = true)
+    public static Object[][] fromXmlAttributeDp() {
+        return new Object[][]{
+            {JtlType.TIMESTAMP, "ts"},
+            {JtlType.ELAPSED, "t"},
+            {JtlType.LABEL, "lb"},
+            {JtlType.RESPONSE_CODE, "rc"},
+            {JtlType.RESPONSE_MESSAGE, "rm"},
+            {JtlType.THREAD_NAME, "tn"},
+            {JtlType.DATA_TYPE, "dt"},
+            {JtlType.SUCCESS, "s"},
+            {JtlType.BYTES, "by"},
+            {JtlType.SENT_BYTES, "sby"},
+            {JtlType.GRP_THREADS, "ng"},
+            {JtlType.ALL_THREADS, "na"},
+            {JtlType.LATENCY, "lt"},
+            {JtlType.CONNECT, "ct"},
+            {JtlType.ENCODING, "de"},
+            {JtlType.SAMPLE_COUNT, "sc"},
+            {JtlType.ERROR_COUNT, "ec"},
+            {JtlType.HOSTNAME, "hn"},
+            {JtlType.IDLE_TIME, "it"},
+            {null, "varname"},
+            {null, "TS"}};
+    }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import static org.testng.Assert.assertEquals;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that reading JTLs from the bytes gives the same samples as the CSV parser.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class MappedJtlReaderTest extends ConverterBaseTest {
+
+    private static final String HEADER = "timeStamp,elapsed,label,responseCode,responseMessage,threadName,success,bytes,allThreads";
+
+    @DataProvider(name = "contents")
+    public Object[][] contents() {
+        return new Object[][]{
+            {"plain", HEADER + "\n"
+                + "1000,5,call-a,200,OK,thread-1,true,100,1\n"
+                + "1001,6,call-b,200,OK,thread-2,true,200,2\n"
+                + "1002,7,call-a,500,Internal Server Error,thread-1,false,300,2\n"},
+            {"crlf", HEADER + "\r\n"
+                + "1000,5,call-a,200,OK,thread-1,true,100,1\r\n"
+                + "1001,6,\"call-b\",200,\"OK\",thread-2,true,200,2\r\n"},
+            {"no trailing newline", HEADER + "\n"
+                + "1000,5,call-a,200,OK,thread-1,true,100,1\n"
+                + "1001,6,call-b,200,OK,thread-2,true,200,2"},
+            {"quoted", HEADER + "\n"
+                + "1000,5,\"call, a\",999,\"Odd\nstatus \"\"quoted\"\"\",thread-1,false,100,1\n"
+                + "1001,6,\"\",200,\"\",thread-2,true,200,2\n"
+                + "1002,7,\"call \"\"b\"\"\",200,OK,\"thread\n3\",true,300,3\n"},
+            {"whitespace", HEADER + "\n"
+                + " 1000 , 5 ,  call-a  , 200 ,OK, thread-1 , true ,100,1\n"
+                + "1001,6, \" call-b \" ,200,OK,thread-2,true,200,2\n"
+                + "1002,7,\tcall-c\t,200,OK,thread-2,true,200,2\n"},
+            {"blank and comment lines", HEADER + "\n"
+                + "\n"
+                + "1000,5,call-a,200,OK,thread-1,true,100,1\n"
+                + "# just a comment, 1,2,3\n"
+                + "\n"
+                + "1001,6,call-b,200,OK,thread-2,true,200,2\n"},
+            {"bad rows", HEADER + "\n"
+                + "1000,5,call-a,200,OK,thread-1,true,100,1\n"
+                + "1001,6,call-b,200,OK,thread-2,true,200\n"
+                + "1002,7,call-c,200,OK,thread-2,true,200,2,extra\n"
+                + "abc,7,call-d,200,OK,thread-2,true,200,2\n"
+                + ",7,call-e,200,OK,thread-2,true,200,2\n"
+                + "1003,7,call-f,200,OK,thread-2,true,200,99999999999\n"
+                + "1004,7,call-g,200,OK,thread-2,true,200,3\n"},
+            {"unusual values", HEADER + "\n"
+                + "+1000,-5,,,,,TRUE,0,+1\n"
+                + "1234567890123456789,7,call-a,,Not Found,thread-1,yes,200,2\n"
+                + "1002,١٢,call-b,200,,thread-1,True,200,2\n"
+                + "1003,7,été 漢字,200,OK,thread-1,true,200,2\n"
+                + "1004,7,\"call-c\"oops,200,OK,thread-1,true,200,2\n"
+                + "1005,7,call-d,200,OK,thread-1,true,200,2\n"},
+            {"no header", ""
+                + "1000,5,call-a,200,OK,thread-1,text,true,100,1,1,0\n"
+                + "1001,6,call-b,200,OK,thread-2,text,false,200,1,2,0\n"},
+            {"mock data", null}
+        };
+    }
+
+    @Test(dataProvider = "contents")
+    public void testSameAsCsvParser(String name, String contents) throws IOException {
+        File source = createSource(contents);
+        ColumnarSamples expected = parseWithCsvParser(source);
+
+        CsvJtlSource actual = new CsvJtlSource(source);
+
+        assertSame(actual, expected, name);
+    }
+
+    @Test(dataProvider = "contents")
+    public void testSmallWindows(String name, String contents) throws IOException {
+        // Records cross the window boundaries, so must be picked back up in the next window.
+        File source = createSource(contents);
+        ColumnarSamples expected = parseWithCsvParser(source);
+        ParallelCsvParser parser = new ParallelCsvParser(source, 1, 1L);
+        CsvJtlSource.JtlTypeColumns jtc = new CsvJtlSource.JtlTypeColumns(parser.parseFirstRecord());
+
+        for (int windowBytes : new int[]{1, 2, 3, 7, 16, 50}) {
+            ColumnarSamples actual = new ColumnarSamples();
+            parser.readRanges(jtc.headerAbsent(), (channel, start, end, rangeIndex) -> {
+                new MappedJtlReader(jtc.getColTypes(), jtc::convert, actual, windowBytes).read(channel, start, end);
+                return null;
+            });
+            actual.finishLoading();
+
+            assertSame(actual, expected, name + " with window of " + windowBytes + " bytes");
+        }
+    }
+
+    @Test
+    public void testCanRead() {
+        assertEquals(MappedJtlReader.canRead(Charset.forName("UTF-8")), true);
+        assertEquals(MappedJtlReader.canRead(Charset.forName("ISO-8859-1")), true);
+        assertEquals(MappedJtlReader.canRead(Charset.forName("UTF-16")), false);
+    }
+
+    private File createSource(String contents) throws IOException {
+        File source = createTempFile("source", ".jtl");
+        if (contents == null) {
+            new MockPerfData(System.currentTimeMillis(),
+                    1000L,
+                    Arrays.asList("call-b", "call-a", "Some call, with a comma"),
+                    Arrays.asList("thread-1", "thread-2"),
+                    Arrays.asList("200", "1001"),
+                    Arrays.asList("OK", "Non \"standard\" code"))
+                    .createImportCsvFileUnordered(source, true);
+        } else {
+            Files.write(source.toPath(), contents.getBytes(Charset.defaultCharset()));
+        }
+        return source;
+    }
+
+    private static ColumnarSamples parseWithCsvParser(File source) throws IOException {
+        ColumnarSamples expected = new ColumnarSamples();
+        CsvJtlSource.parse(source, expected::add);
+        expected.finishLoading();
+        return expected;
+    }
+
+    private static void assertSame(ColumnarSamples actual, ColumnarSamples expected, String name) {
+        assertEquals(actual.getSamples(), expected.getSamples(), name + ": samples differ.");
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(actual.getStatusMessage(i), expected.getStatusMessage(i), name + ": message " + i + " differs.");
+        }
+        assertEquals(actual.getLabels(), expected.getLabels(), name + ": labels differ.");
+        assertEquals(actual.getThreadNames(), expected.getThreadNames(), name + ": thread names differ.");
+        assertEquals(actual.getStatusCodeLookup().getCustomCodes(), expected.getStatusCodeLookup().getCustomCodes(),
+                name + ": custom codes differ.");
+        assertEquals(actual.getStatusCodeLookup().getCustomMessages(), expected.getStatusCodeLookup().getCustomMessages(),
+                name + ": custom messages differ.");
+        assertEquals(actual.getEarliestMillis(), expected.getEarliestMillis(), name + ": earliest differs.");
+        assertEquals(actual.getLatestMillis(), expected.getLatestMillis(), name + ": latest differs.");
+    }
+}
@@ -112,6 +112,11 @@ public class MockPerfData {
         hs.setResponseCodeRef((int) (-64L - (index % codes.size())));
         hs.setSuccess(index % 2 == 0);
         hs.setThreadNameRef((int) (index % threadNames.size()) + 1);
+        // The import CSVs have a latency of 0, and none of the other optional times.
+        hs.setMillisLatency(0L);
+        hs.setMillisConnect(-1L);
+        hs.setSentBytes(-1L);
+        hs.setMillisIdle(-1L);
         return hs;
     }
 
@@ -128,6 +133,9 @@ public class MockPerfData {
                 writeMetaStringArray(dataFileWriter, "threadNames", getThreadNames());
                 writeMetaStringArray(dataFileWriter, "codes", getCodes());
                 writeMetaStringArray(dataFileWriter, "messages", getMessages());
+                // Every row has a custom response code, bytes, a thread count, and latency.
+                dataFileWriter.setMeta(FieldPresence.META, FieldPresence.RESPONSE_CODE
+                        | FieldPresence.BYTES | FieldPresence.ALL_THREADS | FieldPresence.LATENCY);
 
                 dataFileWriter.create(HttpSample.getClassSchema(), hos, SYNC);
 
@@ -144,16 +152,27 @@ public class MockPerfData {
     }
 
     public String createExportedCsvFile(File dest) {
+        return createExportedCsvFile(dest, false);
+    }
+
+    /**
+     * @param dest where to write the CSV
+     * @param includeLatency true if the latency column is exported, which is the case when
+     * exporting from Avro, where the column is present
+     * @return the hash of the CSV
+     */
+    public String createExportedCsvFile(File dest, boolean includeLatency) {
         String sha256Hash = null;
         StatusCodeLookup scl = new StatusCodeLookup(getCodes(), getMessages());
         try (HashingOutputStream hos = new HashingOutputStream(Hashing.sha256(), new BufferedOutputStream(new FileOutputStream(dest)))) {
             try (Writer w = new OutputStreamWriter(hos);
                     PrintWriter pw = new PrintWriter(w)) {
-                pw.println("timeStamp,elapsed,label,responseCode,responseMessage,threadName,success,bytes,allThreads");
+                pw.println("timeStamp,elapsed,label,responseCode,responseMessage,threadName,success,bytes,allThreads"
+                        + (includeLatency ? ",Latency" : ""));
 
                 for (int i = 0; i < getNumRows(); ++i) {
                     HttpSample hs = getRow(i);
-                    pw.printf("%d,%d,%s,%s,%s,%s,%s,%d,%d\n",
+                    pw.printf("%d,%d,%s,%s,%s,%s,%s,%d,%d" + (includeLatency ? ",%d\n" : "\n"),
                             hs.getMillisOffset() + getEarliest(),
                             hs.getMillisElapsed(),
                             getLabels().get(hs.getLabelRef() - 1),
@@ -162,7 +181,8 @@ public class MockPerfData {
                             getThreadNames().get(hs.getThreadNameRef() - 1),
                             hs.getSuccess(),
                             hs.getResponseBytes(),
-                            hs.getTotalThreads()
+                            hs.getTotalThreads(),
+                            hs.getMillisLatency()
                     );
 
                 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.convert.model.HttpSample;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests reading Avro files of samples on several threads.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class ParallelAvroScannerTest extends ConverterBaseTest {
+
+    @Test(dataProvider = "scannersDp")
+    public void testScanOrdered(int parallelism, int chunkRows) throws IOException {
+        // Given a log with many blocks,
+        File avro = createAvro();
+        List<HttpSample> expected = readAll(avro);
+
+        // when read in chunks on several threads, in order,
+        List<HttpSample> actual = new ArrayList<>();
+        long numRows = new ParallelAvroScanner(parallelism, chunkRows).scanOrdered(avro, actual::add);
+
+        // then the samples are the same as when read one after another.
+        assertEquals(numRows, expected.size(), "Wrong number of samples reported.");
+        assertEquals(actual, expected);
+    }
+
+    @Test(dataProvider = "scannersDp")
+    public void testScanUnordered(int parallelism, int chunkRows) throws IOException {
+        // Given a log with many blocks,
+        File avro = createAvro();
+        List<HttpSample> expected = readAll(avro);
+
+        // when read in chunks on several threads, in any order,
+        List<HttpSample> actual = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        long numRows = new ParallelAvroScanner(parallelism, chunkRows).scanUnordered(avro, batch -> {
+            batchSizes.add(batch.size());
+            actual.addAll(batch);
+        });
+
+        // then every sample is given once, in batches of whole blocks.
+        assertEquals(numRows, expected.size(), "Wrong number of samples reported.");
+        assertTrue(batchSizes.size() > 1 || chunkRows >= expected.size(), "Should have been several batches.");
+        assertEquals(sorted(actual), sorted(expected));
+    }
+
+    @DataProvider(name = "scannersDp")
+    public static Object[][] scannersDp() {
+        return new Object[][]{
+            new Object[]{1, 1},
+            new Object[]{4, 1},
+            new Object[]{4, 50},
+            new Object[]{3, ParallelAvroScanner.DEFAULT_CHUNK_ROWS},};
+    }
+
+    @Test
+    public void testScanWithoutIndex() throws IOException {
+        // Given a log written before there were block indexes,
+        File avro = createAvro();
+        assertTrue(BlockIndex.indexFileFor(avro).delete(), "Could not remove index.");
+        List<HttpSample> expected = readAll(avro);
+
+        // when read on several threads, then the index is made first and the samples are read,
+        List<HttpSample> actual = new ArrayList<>();
+        new ParallelAvroScanner(4, 10).scanOrdered(avro, actual::add);
+        assertEquals(actual, expected);
+        // without writing the index next to the log.
+        assertFalse(BlockIndex.indexFileFor(avro).exists(), "Index should not be written when read.");
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testScanMissingFile() throws IOException {
+        new ParallelAvroScanner(2).scanUnordered(new File(getTempFolder(), "missing.avro"), batch -> {
+        });
+    }
+
+    private File createAvro() throws IOException {
+        File source = createTempFile("source", ".jtl");
+        defaultMockData().createImportCsvFileUnordered(source, true);
+        CsvJtlSource samples = new CsvJtlSource(source);
+        samples.sort();
+        File avro = createTempFile("sorted", ".avro");
+        new AvroSamplesWriter(new AvroWriterSettings.Builder().syncInterval(128).build()).write(samples, avro);
+        return avro;
+    }
+
+    private static List<HttpSample> sorted(List<HttpSample> samples) {
+        List<HttpSample> result = new ArrayList<>(samples);
+        result.sort(Comparator.comparing(HttpSample::getMillisOffset)
+                .thenComparing(HttpSample::getMillisElapsed)
+                .thenComparing(HttpSample::getLabelRef)
+                .thenComparing(HttpSample::getThreadNameRef));
+        return result;
+    }
+
+    private static List<HttpSample> readAll(File avro) throws IOException {
+        List<HttpSample> samples = new ArrayList<>();
+        DatumReader<HttpSample> datumReader = new SpecificDatumReader<>(HttpSample.class);
+        try (DataFileReader<HttpSample> reader = new DataFileReader<>(avro, datumReader)) {
+            while (reader.hasNext()) {
+                samples.add(reader.next());
+            }
+        }
+        return samples;
+    }
+
+    private static MockPerfData defaultMockData() {
+        return new MockPerfData(System.currentTimeMillis(),
+                240L,
+                Arrays.asList(
+                        "Another-call-2",
+                        "Howdy there this is a call as well",
+                        "example-call-1"
+                ),
+                Arrays.asList(
+                        "thread-1",
+                        "thread-2",
+                        "thread-3"
+                ),
+                Arrays.asList(
+                        "1001",
+                        "200"
+                ),
+                Arrays.asList(
+                        "Non Standard code",
+                        "Normally we don't see these"
+                ));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests parsing CSV files on several threads.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class ParallelCsvParserTest extends ConverterBaseTest {
+
+    @DataProvider(name = "rangeSizes")
+    public Object[][] rangeSizes() {
+        return new Object[][]{{1L}, {7L}, {64L}, {1000L}, {1L << 30}};
+    }
+
+    @Test(dataProvider = "rangeSizes")
+    public void testRecordsSplitAcrossRanges(long minRangeBytes) throws IOException {
+        // Given a file where some quoted fields have newlines, commas, and escaped quotes,
+        File source = createQuotedJtl(500);
+
+        // When the records are parsed in small ranges,
+        ParallelCsvParser unit = new ParallelCsvParser(source, 4, minRangeBytes);
+        String[] header = unit.parseFirstRecord();
+        List<List<String[]>> ranges = unit.parseRecords(false, (rows, rangeIndex) -> {
+            List<String[]> records = new ArrayList<>();
+            String[] row;
+            while ((row = rows.parseNext()) != null) {
+                records.add(row);
+            }
+            return records;
+        });
+
+        // Then every record is parsed whole, once, and in order.
+        assertEquals(header[0], "timeStamp");
+        int i = 0;
+        for (List<String[]> range : ranges) {
+            for (String[] record : range) {
+                assertEquals(record.length, 9, "Record " + i + " was split.");
+                assertEquals(record[0], Long.toString(1000L + i), "Record out of order.");
+                assertEquals(record[4], message(i), "Quoted field not parsed whole.");
+                ++i;
+            }
+        }
+        assertEquals(i, 500, "Wrong number of records.");
+        assertTrue(minRangeBytes > 1000L || ranges.size() > 1, "The file should have been split.");
+    }
+
+    @Test
+    public void testSourceSameAsSequential() throws IOException {
+        File source = createQuotedJtl(2000);
+
+        CsvJtlSource expected = new CsvJtlSource(source);
+        CsvJtlSource actual = new CsvJtlSource(source, 4, 100L);
+
+        assertEquals(actual.getSamples(), expected.getSamples(), "Samples differ from sequential parsing.");
+        assertEquals(actual.getLabels(), expected.getLabels());
+        assertEquals(actual.getThreadNames(), expected.getThreadNames());
+        assertEquals(actual.getStatusCodeLookup().getCustomCodes(), expected.getStatusCodeLookup().getCustomCodes());
+        assertEquals(actual.getStatusCodeLookup().getCustomMessages(), expected.getStatusCodeLookup().getCustomMessages());
+        assertEquals(actual.getEarliestSample(), expected.getEarliestSample());
+        assertEquals(actual.getLatestSample(), expected.getLatestSample());
+
+        File expectedDest = createTempFile("expected", ".avro");
+        File actualDest = createTempFile("actual", ".avro");
+        new AvroSamplesWriter().write(expected, expectedDest);
+        new AvroSamplesWriter().write(actual, actualDest);
+        assertBytesEquals(actualDest, expectedDest, "The written samples are not byte-for-byte equal.");
+    }
+
+    @Test
+    public void testSourceWithoutHeader() throws IOException {
+        File source = createTempFile("source", ".jtl");
+        try (BufferedWriter bw = Files.newBufferedWriter(source.toPath());
+                PrintWriter pw = new PrintWriter(bw)) {
+            for (int i = 0; i < 100; ++i) {
+                pw.println((1000 + i) + ",5,label-" + (i % 3) + ",200,OK,thread-1,text,true,10,1,1,0");
+            }
+        }
+
+        CsvJtlSource expected = new CsvJtlSource(source);
+        CsvJtlSource actual = new CsvJtlSource(source, 3, 50L);
+
+        assertEquals(actual.size(), 100);
+        assertEquals(actual.getSamples(), expected.getSamples(), "Samples differ from sequential parsing.");
+    }
+
+    private File createQuotedJtl(int numRows) throws IOException {
+        File source = createTempFile("source", ".jtl");
+        try (BufferedWriter bw = Files.newBufferedWriter(source.toPath());
+                PrintWriter pw = new PrintWriter(bw)) {
+            pw.println("timeStamp,elapsed,label,responseCode,responseMessage,threadName,success,bytes,allThreads");
+            for (int i = 0; i < numRows; ++i) {
+                String quoted = "\"" + message(i).replace("\"", "\"\"") + "\"";
+                pw.print((1000L + i) + "," + (i % 17) + ",\"label, " + (i % 5) + "\","
+                        + (i % 4 == 0 ? "999" : "200") + "," + quoted + ",thread-" + (i % 3) + ","
+                        + (i % 4 != 0) + "," + (i * 3) + "," + (1 + i % 3) + "\n");
+            }
+        }
+        return source;
+    }
+
+    private static String message(int i) {
+        switch (i % 4) {
+            case 0:
+                return "Odd\nstatus " + (i % 8) + " with \"quotes\",\nand commas";
+            case 1:
+                return "\"\"";
+            default:
+                return "OK";
+        }
+    }
+}
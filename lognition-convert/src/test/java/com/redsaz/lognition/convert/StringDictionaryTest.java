@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import java.util.Arrays;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import org.testng.annotations.Test;
+
+/**
+ * Tests giving strings ids, and keeping the ids consistent when sorted or combined.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class StringDictionaryTest {
+
+    @Test
+    public void testIdsInFirstSeenOrder() {
+        StringDictionary unit = new StringDictionary();
+        assertEquals(unit.id("c"), 0);
+        assertEquals(unit.id("a"), 1);
+        assertEquals(unit.id("c"), 0, "A string already seen keeps its id.");
+        assertEquals(unit.id(null), -1, "Null is never added.");
+        assertEquals(unit.size(), 2);
+        assertEquals(unit.values(), Arrays.asList("c", "a"));
+        assertEquals(unit.get(1), "a");
+        assertNull(unit.get(-1));
+    }
+
+    @Test
+    public void testFindDoesNotAdd() {
+        StringDictionary unit = new StringDictionary();
+        unit.id("a");
+        assertEquals(unit.find("a"), 0);
+        assertEquals(unit.find("b"), -1);
+        assertEquals(unit.find(null), -1);
+        assertEquals(unit.size(), 1);
+    }
+
+    @Test
+    public void testIntern() {
+        StringDictionary unit = new StringDictionary();
+        String first = new String("label");
+        String second = new String("label");
+        assertSame(unit.intern(first), first);
+        assertSame(unit.intern(second), first, "The instance first seen should be kept.");
+        assertNull(unit.intern(null));
+    }
+
+    @Test
+    public void testSort() {
+        StringDictionary unit = new StringDictionary();
+        unit.id("c");
+        unit.id("a");
+        unit.id("b");
+
+        // Finding the sorted ids does not change the dictionary,
+        assertEquals(unit.sortedIds(), new int[]{2, 0, 1});
+        assertEquals(unit.sortedValues(), Arrays.asList("a", "b", "c"));
+        assertEquals(unit.values(), Arrays.asList("c", "a", "b"));
+
+        // but sorting it does, and gives how the old ids change.
+        int[] remap = unit.sort();
+        assertEquals(remap, new int[]{2, 0, 1});
+        assertEquals(unit.values(), Arrays.asList("a", "b", "c"));
+        assertEquals(unit.find("c"), 2);
+        assertEquals(unit.id("d"), 3, "New strings are added after the sorted ones.");
+    }
+
+    @Test
+    public void testAddAll() {
+        StringDictionary unit = new StringDictionary();
+        unit.id("a");
+        unit.id("b");
+        StringDictionary other = new StringDictionary();
+        other.id("c");
+        other.id("a");
+
+        int[] remap = unit.addAll(other);
+
+        assertEquals(remap, new int[]{2, 0});
+        assertEquals(unit.values(), Arrays.asList("a", "b", "c"));
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.convert;
+
+import com.redsaz.lognition.api.model.Sample;
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ * Tests reading XML-based JTLs.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class XmlJtlSourceTest extends ConverterBaseTest {
+
+    // A page with embedded resources, a transaction with a failed assertion, and a sample with
+    // response data that looks like samples.
+    private static final String NESTED_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<testResults version=\"1.2\">\n"
+            + "<httpSample t=\"120\" lt=\"30\" ts=\"1000\" s=\"true\" lb=\"page\" rc=\"200\" rm=\"OK\" tn=\"thread-1\" dt=\"text\" by=\"5000\" ng=\"1\" na=\"2\">\n"
+            + "  <httpSample t=\"40\" lt=\"10\" ts=\"1010\" s=\"true\" lb=\"page-0\" rc=\"200\" rm=\"OK\" tn=\"thread-1\" dt=\"text\" by=\"1000\" ng=\"1\" na=\"2\"/>\n"
+            + "  <httpSample t=\"50\" lt=\"12\" ts=\"1050\" s=\"true\" lb=\"page-1\" rc=\"200\" rm=\"OK\" tn=\"thread-1\" dt=\"bin\" by=\"4000\" ng=\"1\" na=\"2\">\n"
+            + "    <responseData class=\"java.lang.String\">&lt;httpSample t=&quot;1&quot;/&gt;</responseData>\n"
+            + "  </httpSample>\n"
+            + "  <java.net.URL>http://example.com/page</java.net.URL>\n"
+            + "</httpSample>\n"
+            + "<sample t=\"300\" lt=\"0\" ts=\"1200\" lb=\"transaction\" rc=\"200\" rm=\"Number of samples in transaction : 1, number of failing samples : 0\" tn=\"thread-2\" dt=\"\" by=\"700\" ng=\"1\" na=\"2\">\n"
+            + "  <httpSample t=\"290\" lt=\"20\" ts=\"1205\" s=\"true\" lb=\"login\" rc=\"200\" rm=\"OK\" tn=\"thread-2\" dt=\"text\" by=\"700\" ng=\"1\" na=\"2\">\n"
+            + "    <assertionResult>\n"
+            + "      <name>Response Assertion</name>\n"
+            + "      <failure>true</failure>\n"
+            + "      <error>false</error>\n"
+            + "      <failureMessage>Test failed: text expected to contain /welcome/</failureMessage>\n"
+            + "    </assertionResult>\n"
+            + "  </httpSample>\n"
+            + "  <assertionResult>\n"
+            + "    <name>Duration Assertion</name>\n"
+            + "    <failure>false</failure>\n"
+            + "    <error>true</error>\n"
+            + "  </assertionResult>\n"
+            + "</sample>\n"
+            + "<httpSample t=\"bad\" ts=\"1300\" s=\"true\" lb=\"bad\" rc=\"200\" rm=\"OK\" tn=\"thread-1\" by=\"1\" na=\"2\"/>\n"
+            + "<httpSample t=\"15\" ts=\"1400\" s=\"false\" lb=\"page\" rc=\"Non HTTP response code: java.net.SocketException\" rm=\"Connection reset\" tn=\"thread-1\"/>\n"
+            + "</testResults>\n";
+
+    @Test
+    public void testParseOutermostSamples() throws IOException {
+        List<Sample> actual = parse(NESTED_XML, false);
+
+        // The bad sample is skipped. The transaction failed because one of its assertions errored,
+        // and the last sample has no bytes, thread counts or latency.
+        List<Sample> expected = Arrays.asList(
+                withUrl(withLatency(sample(1000L, 120L, "page", "thread-1", "200", "OK", true, 5000L, 2), 30L),
+                        "http://example.com/page"),
+                withLatency(sample(1200L, 300L, "transaction", "thread-2", "200",
+                        "Number of samples in transaction : 1, number of failing samples : 0", false, 700L, 2), 0L),
+                sample(1400L, 15L, "page", "thread-1", "Non HTTP response code: java.net.SocketException",
+                        "Connection reset", false, -1L, 0));
+        assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testParseSubSamples() throws IOException {
+        List<Sample> actual = parse(NESTED_XML, true);
+
+        // Sub-samples come before the sample they are in, and only the login failed its
+        // assertion, not the transaction's other samples. The URL is only of the page.
+        List<Sample> expected = Arrays.asList(
+                withLatency(sample(1010L, 40L, "page-0", "thread-1", "200", "OK", true, 1000L, 2), 10L),
+                withLatency(sample(1050L, 50L, "page-1", "thread-1", "200", "OK", true, 4000L, 2), 12L),
+                withUrl(withLatency(sample(1000L, 120L, "page", "thread-1", "200", "OK", true, 5000L, 2), 30L),
+                        "http://example.com/page"),
+                withLatency(sample(1205L, 290L, "login", "thread-2", "200", "OK", false, 700L, 2), 20L),
+                withLatency(sample(1200L, 300L, "transaction", "thread-2", "200",
+                        "Number of samples in transaction : 1, number of failing samples : 0", false, 700L, 2), 0L),
+                sample(1400L, 15L, "page", "thread-1", "Non HTTP response code: java.net.SocketException",
+                        "Connection reset", false, -1L, 0));
+        assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testLoadSameAsCsv() throws IOException {
+        // Given the same samples in both forms,
+        File csv = createTempFile("source", ".jtl");
+        defaultMockData().createImportCsvFileUnordered(csv, true);
+        File xml = createTempFile("source", ".xml");
+        writeXml(csv, xml);
+
+        // when loaded, then the samples are the same.
+        CsvJtlSource expected = new CsvJtlSource(csv);
+        XmlJtlSource actual = new XmlJtlSource(xml);
+        assertEquals(actual.getSamples(), expected.getSamples());
+        assertEquals(actual.getLabels(), expected.getLabels());
+        assertEquals(actual.getThreadNames(), expected.getThreadNames());
+        assertEquals(actual.getEarliestMillis(), expected.getEarliestMillis());
+    }
+
+    @Test
+    public void testStreamingConvertSameAsCsv() throws IOException {
+        // Given the same samples in both forms,
+        File csv = createTempFile("source", ".jtl");
+        defaultMockData().createImportCsvFileUnordered(csv, true);
+        File xml = createTempFile("source", ".xml");
+        writeXml(csv, xml);
+
+        // when converted from a file and from a stream, then the conversions are the same as of
+        // the CSV.
+        CsvJtlToAvroStreamingConverter converter = new CsvJtlToAvroStreamingConverter();
+        File expected = createTempFile("expected", ".avro");
+        String expectedHash = converter.convert(csv, expected);
+
+        File fromFile = createTempFile("from-file", ".avro");
+        assertEquals(converter.convert(xml, fromFile), expectedHash, "Hashes differed.");
+        assertBytesEquals(fromFile, expected, "The conversions are not byte-for-byte equal.");
+
+        File fromStream = createTempFile("from-stream", ".avro");
+        try (InputStream in = new FileInputStream(xml)) {
+            assertEquals(converter.convert(in, fromStream, null), expectedHash, "Hashes differed.");
+        }
+        assertBytesEquals(fromStream, expected, "The conversions are not byte-for-byte equal.");
+    }
+
+    @Test
+    public void testIsXml() throws IOException {
+        assertTrue(isXml("<?xml version=\"1.0\"?><testResults/>"));
+        assertTrue(isXml("\uFEFF\r\n  <testResults/>"));
+        assertFalse(isXml("timeStamp,elapsed,label\n"));
+        assertFalse(isXml("1000,5,call-a\n"));
+        assertFalse(isXml(""));
+
+        // And the stream can still be read from the start afterwards.
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream("<a/>".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(XmlJtlSource.isXml(in));
+        assertEquals(in.read(), '<');
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testParseMalformed() throws IOException {
+        parse("<testResults><httpSample t=\"1\" ts=\"1\" lb=\"a\"></testResults>", false);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testParseRejectsExternalEntities() throws IOException {
+        parse("<?xml version=\"1.0\"?>\n"
+                + "<!DOCTYPE testResults [<!ENTITY secret SYSTEM \"file:///etc/passwd\">]>\n"
+                + "<testResults><httpSample t=\"1\" ts=\"1\" lb=\"&secret;\"/></testResults>", false);
+    }
+
+    private static List<Sample> parse(String xml, boolean includeSubSamples) throws IOException {
+        List<Sample> samples = new ArrayList<>();
+        XmlJtlSource.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                includeSubSamples, samples::add);
+        return samples;
+    }
+
+    // The all-args constructor leaves out the status message.
+    private static Sample sample(long offset, long duration, String label, String threadName,
+            String statusCode, String statusMessage, boolean success, long responseBytes,
+            int totalThreads) {
+        Sample sample = new Sample(offset, duration, label, threadName, statusCode, statusMessage,
+                success, responseBytes, totalThreads);
+        sample.setStatusMessage(statusMessage);
+        return sample;
+    }
+
+    private static Sample withLatency(Sample sample, long latency) {
+        sample.setLatency(latency);
+        return sample;
+    }
+
+    private static Sample withUrl(Sample sample, String url) {
+        sample.setUrl(url);
+        return sample;
+    }
+
+    private static boolean isXml(String text) throws IOException {
+        return XmlJtlSource.isXml(new BufferedInputStream(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * Writes the samples of a CSV-based JTL as an XML-based JTL, the way JMeter does.
+     */
+    private static void writeXml(File csv, File xml) throws IOException {
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(xml.toPath(), StandardCharsets.UTF_8))) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testResults version=\"1.2\">\n");
+            IOException[] failure = new IOException[1];
+            CsvJtlSource.parse(csv, sample -> {
+                try {
+                    out.write("<httpSample t=\"" + sample.getDuration()
+                            + "\" lt=\"0\" ts=\"" + sample.getOffset()
+                            + "\" s=\"" + sample.isSuccess()
+                            + "\" lb=\"" + escape(sample.getLabel())
+                            + "\" rc=\"" + escape(sample.getStatusCode())
+                            + "\" rm=\"" + escape(sample.getStatusMessage())
+                            + "\" tn=\"" + escape(sample.getThreadName())
+                            + "\" dt=\"text\" by=\"" + sample.getResponseBytes()
+                            + "\" ng=\"1\" na=\"" + sample.getTotalThreads()
+                            + "\">\n  <responseData class=\"java.lang.String\">&lt;html/&gt;</responseData>\n</httpSample>\n");
+                } catch (IOException ex) {
+                    failure[0] = ex;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            out.write("</testResults>\n");
+        }
+    }
+
+    private static String escape(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+    }
+
+    private static MockPerfData defaultMockData() {
+        return new MockPerfData(System.currentTimeMillis(),
+                240L,
+                Arrays.asList(
+                        "Another-call-2",
+                        "Howdy there this is a call as well",
+                        "example-call-1"
+                ),
+                Arrays.asList(
+                        "thread-1",
+                        "thread-2",
+                        "thread-3"
+                ),
+                Arrays.asList(
+                        "1001",
+                        "200"
+                ),
+                Arrays.asList(
+                        "Non Standard code",
+                        "Normally we don't see these"
+                ));
+    }
+}
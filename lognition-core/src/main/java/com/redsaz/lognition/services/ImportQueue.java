@@ -0,0 +1,258 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.services;
+
+import com.redsaz.lognition.api.model.ImportInfo;
+import com.redsaz.lognition.api.model.ImportStatus;
+import com.redsaz.lognition.convert.Decompressor;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the imports waiting for an importer thread. Imports are handed out in the order of the
+ * scheduling policy, but only while the bytes being imported at once stay within the limit, so
+ * that a thread waits rather than starting an import that might not fit in memory.
+ * <p>
+ * Only the next import in order is ever considered, so a large import at the front is not passed
+ * over forever by smaller ones behind it.
+ * <p>
+ * Each import counts as the uncompressed size of its log. A non-streamed import holds that much in
+ * memory, and a streamed import spools every row to disk before writing the final log, so the
+ * limit bounds memory for the one and spool space for the other. The logs of a merge are stored
+ * zipped, so a merge counts as the total size of the logs in the zip, which is what is sorted.
+ * <p>
+ * No more imports run at once than there are importer threads, including those that are converted
+ * while they are uploaded, which are started with {@link #tryStart(ImportInfo)} rather than
+ * queued.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+/*package protected*/ class ImportQueue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImportQueue.class);
+
+    private static final Comparator<Job> FIFO = Comparator.comparingLong(j -> j.seq);
+    private static final Comparator<Job> SMALLEST_FIRST
+            = Comparator.<Job>comparingLong(j -> j.sizeBytes).thenComparing(FIFO);
+
+    private final PriorityQueue<Job> queued;
+    private final Set<Job> importing = new LinkedHashSet<>();
+    private final long maxConcurrentBytes;
+    private final int maxImporting;
+    private long importingBytes;
+    private long nextSeq;
+    private boolean shutdown;
+
+    /*package protected*/ ImportQueue(ImportSettings settings) {
+        queued = new PriorityQueue<>(settings.getScheduling() == ImportSettings.Scheduling.FIFO
+                ? FIFO : SMALLEST_FIRST);
+        maxConcurrentBytes = settings.getMaxConcurrentImportBytes();
+        maxImporting = settings.getImportThreads();
+    }
+
+    /**
+     * An import that was taken from the queue, to be passed back to {@link #finish(Job)} when
+     * done.
+     */
+    /*package protected*/ static class Job {
+
+        private final ImportInfo info;
+        private long sizeBytes;
+        private final long seq;
+        private final long queuedUtcMillis;
+        private long startedUtcMillis;
+
+        private Job(ImportInfo info, long sizeBytes, long seq, long queuedUtcMillis) {
+            this.info = info;
+            this.sizeBytes = sizeBytes;
+            this.seq = seq;
+            this.queuedUtcMillis = queuedUtcMillis;
+        }
+
+        public ImportInfo getInfo() {
+            return info;
+        }
+    }
+
+    /**
+     * Queues a file to be imported. The file's uncompressed size is used to decide when it is
+     * imported.
+     *
+     * @param info the import to queue
+     */
+    public void add(ImportInfo info) {
+        // Reading the size of a zip can take a moment, so is done outside of the lock.
+        add(info, uncompressedSize(new File(info.getImportedFilename())));
+    }
+
+    private synchronized void add(ImportInfo info, long sizeBytes) {
+        queued.add(new Job(info, sizeBytes, nextSeq++, System.currentTimeMillis()));
+        notifyAll();
+    }
+
+    /**
+     * Waits until the next import can be started, and takes it from the queue.
+     *
+     * @return the import to do, or null if the queue was shut down.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized Job take() throws InterruptedException {
+        while (!shutdown) {
+            Job next = queued.peek();
+            if (next != null && fits(next)) {
+                queued.poll();
+                next.startedUtcMillis = System.currentTimeMillis();
+                importing.add(next);
+                importingBytes += weight(next);
+                return next;
+            }
+            wait();
+        }
+        return null;
+    }
+
+    /**
+     * Starts an import straight away rather than queueing it, such as one converted while it is
+     * uploaded, but only if an importer thread is free and nothing is queued ahead of it. Its size
+     * is not known until it is uploaded, so it counts as nothing until given with
+     * {@link #updateSize(Job, long)}.
+     *
+     * @param info the import to start
+     * @return the import, to be passed back to {@link #finish(Job)} when done, or null if it
+     * would have had to wait.
+     */
+    public synchronized Job tryStart(ImportInfo info) {
+        Job job = new Job(info, 0L, nextSeq++, System.currentTimeMillis());
+        if (shutdown || !queued.isEmpty() || !fits(job)) {
+            return null;
+        }
+        job.startedUtcMillis = job.queuedUtcMillis;
+        importing.add(job);
+        return job;
+    }
+
+    /**
+     * Changes how many bytes an import in progress counts as, once they are known.
+     *
+     * @param job the import from {@link #tryStart(ImportInfo)}
+     * @param sizeBytes the size of the import
+     */
+    public synchronized void updateSize(Job job, long sizeBytes) {
+        if (importing.contains(job)) {
+            importingBytes += sizeBytes - job.sizeBytes;
+            job.sizeBytes = sizeBytes;
+            notifyAll();
+        } else {
+            job.sizeBytes = sizeBytes;
+        }
+    }
+
+    /**
+     * Marks an import as done, so that its bytes no longer count against the limit.
+     *
+     * @param job the import from {@link #take()}
+     */
+    public synchronized void finish(Job job) {
+        if (importing.remove(job)) {
+            importingBytes -= weight(job);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wakes up all waiting threads, and no more imports will be handed out. Any imports still
+     * queued are left undone.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        notifyAll();
+    }
+
+    /**
+     * @return the imports in progress, followed by the queued imports in the order they will
+     * start.
+     */
+    public synchronized List<ImportStatus> listStatuses() {
+        long now = System.currentTimeMillis();
+        List<Job> inOrder = new ArrayList<>(queued);
+        inOrder.sort(queued.comparator());
+        int depth = inOrder.size();
+
+        List<ImportStatus> statuses = new ArrayList<>(importing.size() + depth);
+        for (Job job : importing) {
+            statuses.add(new ImportStatus(job.info.getId(), job.info.getImportedFilename(),
+                    ImportStatus.State.IMPORTING, job.sizeBytes, -1, depth, job.queuedUtcMillis,
+                    job.startedUtcMillis - job.queuedUtcMillis));
+        }
+        for (int position = 0; position < depth; ++position) {
+            Job job = inOrder.get(position);
+            statuses.add(new ImportStatus(job.info.getId(), job.info.getImportedFilename(),
+                    ImportStatus.State.QUEUED, job.sizeBytes, position, depth, job.queuedUtcMillis,
+                    now - job.queuedUtcMillis));
+        }
+        return statuses;
+    }
+
+    private boolean fits(Job job) {
+        if (importing.size() >= maxImporting) {
+            return false;
+        }
+        // An import larger than the limit can still run, just not alongside any other.
+        return importing.isEmpty() || weight(job) <= maxConcurrentBytes - importingBytes;
+    }
+
+    private static long weight(Job job) {
+        return job.sizeBytes;
+    }
+
+    /**
+     * @return the size of the file, or if it is a zip, the total size of its entries.
+     */
+    /*package protected*/ static long uncompressedSize(File file) {
+        try {
+            if (Decompressor.detect(file) != Decompressor.Format.ZIP) {
+                return file.length();
+            }
+            long total = 0L;
+            try (ZipFile zip = new ZipFile(file)) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    // The size is only unknown if the zip does not record it, in which case the
+                    // compressed size is the best guess there is.
+                    long size = entry.getSize() >= 0L ? entry.getSize() : entry.getCompressedSize();
+                    total += Math.max(0L, size);
+                }
+            }
+            return total;
+        } catch (IOException ex) {
+            // The import will fail on its own when it cannot be read.
+            LOGGER.debug("Could not read the size of {}.", file, ex);
+            return file.length();
+        }
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.services;
+
+import com.redsaz.lognition.convert.AvroWriterSettings;
+import com.redsaz.lognition.stats.StreamingStatsBuilder;
+
+/**
+ * Immutable settings for how logs are imported by the {@link ProcessorImportService}. Use the
+ * builder to create one.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class ImportSettings {
+
+    private static final ImportSettings DEFAULTS = new Builder().build();
+
+    /**
+     * The order that queued logs are imported in.
+     */
+    public static enum Scheduling {
+        /**
+         * Import logs in the order they were uploaded.
+         */
+        FIFO,
+        /**
+         * Import the smallest logs first, so that they do not wait behind large ones. Logs of the
+         * same size are imported in the order they were uploaded.
+         */
+        SMALLEST_FIRST
+    }
+
+    private final boolean streaming;
+    private final boolean importWhileUploading;
+    private final int parseThreads;
+    private final int statsThreads;
+    private final int importThreads;
+    private final Scheduling scheduling;
+    private final long maxConcurrentImportBytes;
+    private final AvroWriterSettings avroSettings;
+    private final boolean backfillFieldPresence;
+    private final long liveStatsIntervalMillis;
+    private final long mergeMemoryBytes;
+    private final int binSignificantDigits;
+    private final int aggregateSignificantDigits;
+
+    private ImportSettings(Builder builder) {
+        streaming = builder.streaming;
+        importWhileUploading = builder.importWhileUploading;
+        parseThreads = builder.parseThreads;
+        statsThreads = builder.statsThreads;
+        importThreads = builder.importThreads;
+        scheduling = builder.scheduling;
+        maxConcurrentImportBytes = builder.maxConcurrentImportBytes;
+        avroSettings = builder.avroSettings;
+        backfillFieldPresence = builder.backfillFieldPresence;
+        liveStatsIntervalMillis = builder.liveStatsIntervalMillis;
+        mergeMemoryBytes = builder.mergeMemoryBytes;
+        binSignificantDigits = builder.binSignificantDigits;
+        aggregateSignificantDigits = builder.aggregateSignificantDigits;
+    }
+
+    /**
+     * @return the settings used when none are specified.
+     */
+    public static ImportSettings defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * @return true if logs are converted and their stats calculated one sample at a time, rather
+     * than reading all samples into memory first.
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * @return true if uploaded logs are converted as they are received, rather than queued to be
+     * imported once stored.
+     */
+    public boolean isImportWhileUploading() {
+        return importWhileUploading;
+    }
+
+    /**
+     * @return how many threads each log is parsed with. Streamed logs are parsed with them
+     * between checkpoints.
+     */
+    public int getParseThreads() {
+        return parseThreads;
+    }
+
+    /**
+     * @return how many labels of each log have their stats calculated at the same time, when not
+     * streaming.
+     */
+    public int getStatsThreads() {
+        return statsThreads;
+    }
+
+    /**
+     * @return how many logs can be imported at the same time.
+     */
+    public int getImportThreads() {
+        return importThreads;
+    }
+
+    /**
+     * @return the order that queued logs are imported in.
+     */
+    public Scheduling getScheduling() {
+        return scheduling;
+    }
+
+    /**
+     * @return the most bytes of logs, uncompressed, that can be imported at the same time.
+     */
+    public long getMaxConcurrentImportBytes() {
+        return maxConcurrentImportBytes;
+    }
+
+    /**
+     * @return how the converted logs are compressed and blocked.
+     */
+    public AvroWriterSettings getAvroSettings() {
+        return avroSettings;
+    }
+
+    /**
+     * @return true if logs converted before their field presence was recorded have it added in
+     * the background when the service starts.
+     */
+    public boolean isBackfillFieldPresence() {
+        return backfillFieldPresence;
+    }
+
+    /**
+     * @return how often the stats of live logs are stored, in milliseconds.
+     */
+    public long getLiveStatsIntervalMillis() {
+        return liveStatsIntervalMillis;
+    }
+
+    /**
+     * @return about how much memory the samples being sorted can take when merging the logs of
+     * several load generators.
+     */
+    public long getMergeMemoryBytes() {
+        return mergeMemoryBytes;
+    }
+
+    /**
+     * @return the precision of the percentiles of each timeseries bin.
+     */
+    public int getBinSignificantDigits() {
+        return binSignificantDigits;
+    }
+
+    /**
+     * @return the precision of the percentiles of the aggregate stats.
+     */
+    public int getAggregateSignificantDigits() {
+        return aggregateSignificantDigits;
+    }
+
+    @Override
+    public String toString() {
+        return "streaming=" + streaming + " importWhileUploading=" + importWhileUploading
+                + " parseThreads=" + parseThreads + " statsThreads=" + statsThreads
+                + " importThreads=" + importThreads + " scheduling=" + scheduling
+                + " maxConcurrentImportBytes=" + maxConcurrentImportBytes
+                + " avro=(" + avroSettings + ")"
+                + " backfillFieldPresence=" + backfillFieldPresence
+                + " liveStatsIntervalMillis=" + liveStatsIntervalMillis
+                + " mergeMemoryBytes=" + mergeMemoryBytes
+                + " binSignificantDigits=" + binSignificantDigits
+                + " aggregateSignificantDigits=" + aggregateSignificantDigits;
+    }
+
+    public static class Builder {
+
+        private boolean streaming;
+        private boolean importWhileUploading;
+        private int parseThreads = 1;
+        private int statsThreads = 1;
+        private int importThreads = 1;
+        private Scheduling scheduling = Scheduling.SMALLEST_FIRST;
+        private long maxConcurrentImportBytes = Long.MAX_VALUE;
+        private AvroWriterSettings avroSettings = AvroWriterSettings.defaults();
+        private boolean backfillFieldPresence;
+        private long liveStatsIntervalMillis = 5000L;
+        private long mergeMemoryBytes = 256L * 1024L * 1024L;
+        private int binSignificantDigits = StreamingStatsBuilder.DEFAULT_BIN_DIGITS;
+        private int aggregateSignificantDigits = StreamingStatsBuilder.DEFAULT_AGGREGATE_DIGITS;
+
+        /**
+         * Whether to import logs one sample at a time. Streaming imports can handle logs larger
+         * than the available memory, but cannot be parsed with several threads. Defaults to false.
+         *
+         * @param value true to stream imports
+         * @return this builder
+         */
+        public Builder streaming(boolean value) {
+            streaming = value;
+            return this;
+        }
+
+        /**
+         * Whether to convert uploaded logs as they are received, at the same time as they are
+         * stored. The conversion is streamed (see {@link #streaming(boolean)}) no matter that
+         * setting, and is finished shortly after the upload is, rather than waiting in the queue
+         * and then reading the log back from disk. If the conversion fails, the stored log is
+         * queued to be imported as usual. Defaults to false.
+         *
+         * @param value true to import while uploading
+         * @return this builder
+         */
+        public Builder importWhileUploading(boolean value) {
+            importWhileUploading = value;
+            return this;
+        }
+
+        /**
+         * How many threads to parse each log with, when not streaming. Each thread parses a
+         * different part of the log, so large logs load faster with more threads. Defaults to 1.
+         *
+         * @param value the number of threads, at least 1
+         * @return this builder
+         */
+        public Builder parseThreads(int value) {
+            if (value < 1) {
+                throw new IllegalArgumentException("Must parse with at least 1 thread, but was " + value + ".");
+            }
+            parseThreads = value;
+            return this;
+        }
+
+        /**
+         * How many threads to calculate the stats of each label with, when not streaming. The
+         * labels are independent of each other, so logs with many labels are finished sooner
+         * with more threads, at the cost of taking more of the CPU from everything else. The
+         * stats are the same, and stored in the same order, however many threads there are.
+         * Defaults to 1.
+         *
+         * @param value the number of threads, at least 1
+         * @return this builder
+         */
+        public Builder statsThreads(int value) {
+            if (value < 1) {
+                throw new IllegalArgumentException("Must calculate stats with at least 1 thread, but was " + value + ".");
+            }
+            statsThreads = value;
+            return this;
+        }
+
+        /**
+         * How many logs can be imported at the same time, each on its own thread. Defaults to 1.
+         *
+         * @param value the number of threads, at least 1
+         * @return this builder
+         */
+        public Builder importThreads(int value) {
+            if (value < 1) {
+                throw new IllegalArgumentException("Must import with at least 1 thread, but was " + value + ".");
+            }
+            importThreads = value;
+            return this;
+        }
+
+        /**
+         * The order that queued logs are imported in. Defaults to smallest first.
+         *
+         * @param value the order
+         * @return this builder
+         */
+        public Builder scheduling(Scheduling value) {
+            if (value == null) {
+                throw new NullPointerException("Scheduling must be specified.");
+            }
+            scheduling = value;
+            return this;
+        }
+
+        /**
+         * The most bytes of logs that can be imported at the same time. Non-streamed imports read
+         * all of the samples into memory, so this keeps two huge logs from being imported together
+         * and running out of memory. Streamed imports spool every row to disk first, so for them
+         * it keeps the spooled files from filling the disk. Merges count as the total of the logs
+         * in the zip, uncompressed. A log larger than this is still imported, but only when no
+         * other log is. Defaults to no limit.
+         *
+         * @param value the number of bytes, at least 1
+         * @return this builder
+         */
+        public Builder maxConcurrentImportBytes(long value) {
+            if (value < 1L) {
+                throw new IllegalArgumentException("Must allow at least 1 byte to be imported, but was " + value + ".");
+            }
+            maxConcurrentImportBytes = value;
+            return this;
+        }
+
+        /**
+         * How the converted logs are compressed and blocked. Only logs converted afterwards are
+         * affected. Defaults to uncompressed.
+         *
+         * @param value the settings
+         * @return this builder
+         */
+        public Builder avroSettings(AvroWriterSettings value) {
+            if (value == null) {
+                throw new NullPointerException("Avro settings must be specified.");
+            }
+            avroSettings = value;
+            return this;
+        }
+
+        /**
+         * Whether to add which fields are used to logs converted before that was recorded, so
+         * that they no longer need to be read twice to be exported. Done in the background, one
+         * log at a time, when the service starts. Each log is written again, which changes its
+         * hash and ETag. Logs that are being read when their turn comes are skipped, and are
+         * backfilled the next time the service starts. Defaults to false.
+         *
+         * @param value true to backfill
+         * @return this builder
+         */
+        public Builder backfillFieldPresence(boolean value) {
+            backfillFieldPresence = value;
+            return this;
+        }
+
+        /**
+         * How often the stats calculated so far for live logs are stored, so that the logs can be
+         * viewed while their tests are still running. Only the logs that have changed since their
+         * stats were last stored are stored again. Defaults to 5 seconds.
+         *
+         * @param value the milliseconds between storing, at least 1
+         * @return this builder
+         */
+        public Builder liveStatsIntervalMillis(long value) {
+            if (value < 1L) {
+                throw new IllegalArgumentException("Must store live stats at least every 1ms, but was " + value + ".");
+            }
+            liveStatsIntervalMillis = value;
+            return this;
+        }
+
+        /**
+         * About how much memory the samples being sorted can take when merging the logs of
+         * several load generators into one. The logs are sorted externally, in runs that fit in
+         * this much memory. Defaults to 256MiB.
+         *
+         * @param value the bytes, at least 1
+         * @return this builder
+         */
+        public Builder mergeMemoryBytes(long value) {
+            if (value < 1L) {
+                throw new IllegalArgumentException("Merge memory must be at least 1 byte, but was " + value + ".");
+            }
+            mergeMemoryBytes = value;
+            return this;
+        }
+
+        /**
+         * The precision of the percentiles of each timeseries bin. The percentiles are taken from
+         * a histogram rather than by sorting every bin, so each is at most one part in
+         * 10^digits above the exact value. More digits take more memory per bin. Defaults to 2.
+         *
+         * @param value the significant digits, 0-5
+         * @return this builder
+         */
+        public Builder binSignificantDigits(int value) {
+            binSignificantDigits = checkDigits(value);
+            return this;
+        }
+
+        /**
+         * The precision of the percentiles of the aggregate stats, which are taken from a
+         * histogram like those of the timeseries bins. Defaults to 3.
+         *
+         * @param value the significant digits, 0-5
+         * @return this builder
+         */
+        public Builder aggregateSignificantDigits(int value) {
+            aggregateSignificantDigits = checkDigits(value);
+            return this;
+        }
+
+        private static int checkDigits(int value) {
+            if (value < 0 || value > 5) {
+                throw new IllegalArgumentException("Significant digits must be 0-5, but was " + value + ".");
+            }
+            return value;
+        }
+
+        public ImportSettings build() {
+            return new ImportSettings(this);
+        }
+    }
+}
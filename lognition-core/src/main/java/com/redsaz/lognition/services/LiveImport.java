@@ -0,0 +1,137 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.services;
+
+import com.redsaz.lognition.api.model.Sample;
+import com.redsaz.lognition.convert.CsvJtlChunkParser;
+import com.redsaz.lognition.convert.SampleListener;
+import com.redsaz.lognition.stats.StreamingStatsBuilder;
+
+/**
+ * A log that is still being written by a running test. Each part of the log is read as it is
+ * appended, and the stats of the samples so far are kept, so that they can be stored every so
+ * often without reading the log again.
+ * <p>
+ * The offsets are from the first sample read rather than the earliest sample, since the earliest
+ * is not known until the test ends. JMeter writes samples as they finish, so a sample started
+ * before the first one is counted in the first time bin, and one that is written minutes after
+ * later samples is only counted in the aggregate. Once sealed, the log is imported as usual, which
+ * replaces these stats with exact ones.
+ * <p>
+ * Appending, storing and sealing are synchronized on the instance, so that the stats are never
+ * stored part of the way through a chunk.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+/*package protected*/ class LiveImport implements SampleListener {
+
+    private final long logId;
+    private final CsvJtlChunkParser parser = new CsvJtlChunkParser(this);
+    private final StreamingStatsBuilder statsBuilder;
+    private long firstTimestamp;
+    private boolean started;
+    private boolean changed;
+    private boolean sealed;
+
+    /**
+     * @param logId the log being written
+     * @param statsBuilder keeps the stats of the samples so far
+     */
+    public LiveImport(long logId, StreamingStatsBuilder statsBuilder) {
+        this.logId = logId;
+        this.statsBuilder = statsBuilder;
+    }
+
+    public long getLogId() {
+        return logId;
+    }
+
+    /**
+     * Reads the samples that the chunk finishes.
+     *
+     * @param chunk the next part of the log
+     * @param offset where in the chunk the part starts
+     * @param length how many bytes of the chunk are the part
+     * @throws IllegalArgumentException if the start of the log is not a usable CSV-based JTL
+     */
+    public synchronized void append(byte[] chunk, int offset, int length) {
+        parser.parse(chunk, offset, length);
+    }
+
+    /**
+     * Checks that the chunk can be appended, without reading it.
+     *
+     * @param chunk the next part of the log
+     * @throws IllegalArgumentException if the chunk leaves too long a row unfinished
+     */
+    public synchronized void check(byte[] chunk) {
+        parser.check(chunk, 0, chunk.length);
+    }
+
+    @Override
+    public void sampleProcessed(Sample sample) {
+        if (!started) {
+            firstTimestamp = sample.getOffset();
+            started = true;
+        }
+        sample.setOffset(sample.getOffset() - firstTimestamp);
+        statsBuilder.sampleProcessed(sample);
+        changed = true;
+    }
+
+    /**
+     * @return true once the first row, and so the columns, have been read.
+     */
+    public synchronized boolean hasColumns() {
+        return parser.hasColumns();
+    }
+
+    /**
+     * @return true if nothing more may be appended.
+     */
+    public synchronized boolean isSealed() {
+        return sealed;
+    }
+
+    public synchronized void seal() {
+        sealed = true;
+    }
+
+    /**
+     * Gives the stats to the consumer if there are samples that it has not been given yet, and
+     * the log has not been sealed.
+     *
+     * @param consumer stores the stats
+     * @return true if the stats were given
+     */
+    public synchronized boolean storeIfChanged(StatsConsumer consumer) {
+        if (!changed || sealed) {
+            return false;
+        }
+        consumer.accept(logId, statsBuilder);
+        changed = false;
+        return true;
+    }
+
+    /**
+     * Stores the stats of a log.
+     */
+    @FunctionalInterface
+    public static interface StatsConsumer {
+
+        void accept(long logId, StreamingStatsBuilder statsBuilder);
+    }
+}
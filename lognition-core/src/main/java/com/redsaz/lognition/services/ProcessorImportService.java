@@ -18,32 +18,60 @@ package com.redsaz.lognition.services;
 import com.redsaz.lognition.api.ImportService;
 import com.redsaz.lognition.api.LogsService;
 import com.redsaz.lognition.api.StatsService;
+import com.redsaz.lognition.api.model.BinHistogram;
 import com.redsaz.lognition.api.model.CodeCounts;
 import com.redsaz.lognition.api.model.ImportInfo;
+import com.redsaz.lognition.api.model.ImportStatus;
 import com.redsaz.lognition.api.model.Log;
-import com.redsaz.lognition.api.model.Sample;
 import com.redsaz.lognition.api.model.Stats;
 import com.redsaz.lognition.api.model.Timeseries;
+import com.redsaz.lognition.api.model.Timing;
+import com.redsaz.lognition.api.exceptions.AppClientException;
+import com.redsaz.lognition.api.exceptions.AppServerException;
+import com.redsaz.lognition.convert.AvroFileLocks;
 import com.redsaz.lognition.convert.AvroSamplesWriter;
+import com.redsaz.lognition.convert.AvroToCsvJtlConverter;
+import com.redsaz.lognition.convert.BadRows;
+import com.redsaz.lognition.convert.BlockIndex;
+import com.redsaz.lognition.convert.ColumnarSamples;
 import com.redsaz.lognition.convert.CsvJtlSource;
-import com.redsaz.lognition.convert.Samples;
+import com.redsaz.lognition.convert.CsvJtlToAvroOrderedConverter;
+import com.redsaz.lognition.convert.CsvJtlToAvroStreamingConverter;
+import com.redsaz.lognition.convert.CsvLength;
+import com.redsaz.lognition.convert.Decompressor;
+import com.redsaz.lognition.convert.FieldPresence;
+import com.redsaz.lognition.convert.ParallelAvroScanner;
 import com.redsaz.lognition.convert.SamplesWriter;
+import com.redsaz.lognition.convert.XmlJtlSource;
+import com.redsaz.lognition.stats.Rollups;
 import com.redsaz.lognition.stats.StatsBuilder;
 import com.redsaz.lognition.stats.StatsBuilder.StatsItems;
+import com.redsaz.lognition.stats.StreamingStatsBuilder;
 import com.redsaz.lognition.store.ConnectionPool;
 import com.redsaz.lognition.store.JooqImportService;
 import com.redsaz.lognition.store.JooqLogsService;
 import com.redsaz.lognition.store.JooqStatsService;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Lock;
 import org.jooq.SQLDialect;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,13 +91,30 @@ public class ProcessorImportService implements ImportService {
     private static final Logger LOGGER = LoggerFactory.getLogger(ProcessorImportService.class);
     private static final long OVERALL_LABEL_ID = 0; // label ID for "Overall" category.
     private static final long DEFAULT_SPAN_MILLIS = 60000L;
+    // Elapsed is always stored; these only when the samples have them.
+    private static final Timing[] OTHER_TIMINGS = {Timing.LATENCY, Timing.CONNECT};
+    // Imports that were cut short this many times, such as by running out of memory, are failed.
+    private static final int MAX_IMPORT_ATTEMPTS = 3;
+    // How many reads of an upload can be held for the import while uploading, before the upload
+    // waits for the import to catch up.
+    private static final int MAX_UPLOAD_CHUNKS_AHEAD = 256;
+    // JMeter writes a sample once it finishes, so samples are out of order by about as long as
+    // the slowest ones take. Those later than this are only in the aggregate until the seal.
+    private static final long LIVE_MAX_LATE_MILLIS = 300000L;
 
     private final ImportService srv;
     private final LogsService logsSrv;
     private final StatsService statsSrv;
     private final String convertedDir;
+    private final ImportSettings settings;
+    private final ImportQueue queue;
     private final Importer importer;
-    private final Thread importerThread;
+    private final List<Thread> importerThreads;
+    // Converts uploads as they are received. The queue limits how many run at once.
+    private final ExecutorService uploadImporters;
+    // By log id, the logs still being written by running tests.
+    private final Map<Long, LiveImport> liveImports = new ConcurrentHashMap<>();
+    private final Thread liveStatsThread;
 
     public static void main(String[] args) throws Exception {
         final ConnectionPool pool = ConnectionPoolInit.initPool();
@@ -80,24 +125,44 @@ public class ProcessorImportService implements ImportService {
         final StatsService jooqStatsSrv = new JooqStatsService(pool, SQLDialect.HSQLDB);
         final long now = System.currentTimeMillis();
 
-        Importer imp = new Importer(saniImportSrv, saniLogSrv, jooqStatsSrv, convertedDir);
+        ImportQueue queue = new ImportQueue(ImportSettings.defaults());
+        Importer imp = new Importer(saniImportSrv, saniLogSrv, jooqStatsSrv, convertedDir,
+                ImportSettings.defaults(), queue);
         Thread impThread = new Thread(imp, "LogImporter-" + System.identityHashCode(imp));
         impThread.start();
 
         ImportInfo ii = new ImportInfo(now, "jtls/target/real-without-header.jtl", now);
         imp.addJob(ii);
 
-        imp.shutdown();
+        queue.shutdown();
     }
 
     public ProcessorImportService(ImportService importService, LogsService logsService,
             StatsService statsService, String convertedDirectory) {
+        this(importService, logsService, statsService, convertedDirectory, ImportSettings.defaults());
+    }
+
+    public ProcessorImportService(ImportService importService, LogsService logsService,
+            StatsService statsService, String convertedDirectory, ImportSettings importSettings) {
         srv = importService;
         logsSrv = logsService;
         statsSrv = statsService;
         convertedDir = convertedDirectory;
-        importer = new Importer(srv, logsSrv, statsSrv, convertedDir);
-        importerThread = new Thread(importer, "LogImporter-" + System.identityHashCode(importer));
+        settings = importSettings;
+        LOGGER.info("Import settings: {}", importSettings);
+        queue = new ImportQueue(importSettings);
+        importer = new Importer(srv, logsSrv, statsSrv, convertedDir, importSettings, queue);
+        importerThreads = new ArrayList<>(importSettings.getImportThreads());
+        for (int i = 0; i < importSettings.getImportThreads(); ++i) {
+            importerThreads.add(new Thread(importer, "LogImporter-" + System.identityHashCode(importer) + "-" + i));
+        }
+        uploadImporters = Executors.newFixedThreadPool(importSettings.getImportThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "LogUploadImporter-" + System.identityHashCode(importer));
+            thread.setDaemon(true);
+            return thread;
+        });
+        liveStatsThread = new Thread(this::storeLiveStats, "LiveStatsStorer-" + System.identityHashCode(importer));
+        liveStatsThread.setDaemon(true);
         init();
     }
 
@@ -116,11 +181,35 @@ public class ProcessorImportService implements ImportService {
         return srv.list();
     }
 
+    @Override
+    public List<ImportStatus> listStatuses() {
+        return queue.listStatuses();
+    }
+
     @Override
     public ImportInfo upload(InputStream raw, Log log, String importedFilename, long uploadedUtcMillis) {
         logsSrv.updateStatus(log.getId(), Log.Status.UPLOADING);
+        // Compressed uploads are stored decompressed, so that they can be imported like any other.
+        InputStream contents;
         try {
-            ImportInfo result = srv.upload(raw, log, importedFilename, uploadedUtcMillis);
+            contents = Decompressor.decompress(raw);
+        } catch (IOException ex) {
+            logsSrv.updateStatus(log.getId(), Log.Status.UPLOAD_FAILED);
+            throw new AppServerException("Failed to upload content.", ex);
+        } catch (RuntimeException ex) {
+            logsSrv.updateStatus(log.getId(), Log.Status.UPLOAD_FAILED);
+            throw ex;
+        }
+        if (settings.isImportWhileUploading()) {
+            ImportQueue.Job job = queue.tryStart(new ImportInfo(log.getId(), importedFilename, uploadedUtcMillis));
+            if (job != null) {
+                return uploadAndImport(contents, log, importedFilename, uploadedUtcMillis, job);
+            }
+            LOGGER.info("No importer is free to import log id={} while uploading, so it will be queued once stored.",
+                    log.getId());
+        }
+        try {
+            ImportInfo result = srv.upload(contents, log, importedFilename, uploadedUtcMillis);
             importer.addJob(result);
             return result;
         } catch (Exception ex) {
@@ -129,6 +218,45 @@ public class ProcessorImportService implements ImportService {
         }
     }
 
+    /**
+     * Stores the upload and converts it at the same time, so that the import finishes shortly
+     * after the upload does. The conversion takes one of the importer slots of the queue, and is
+     * counted as an attempt once the upload is stored, the same as a queued import, so it is
+     * resumed like one if the service stops before it finishes.
+     *
+     * @param job the slot the conversion runs in, finished once the conversion is done
+     */
+    private ImportInfo uploadAndImport(InputStream raw, Log log, String importedFilename, long uploadedUtcMillis,
+            ImportQueue.Job job) {
+        TeeInputStream tee = new TeeInputStream(raw, MAX_UPLOAD_CHUNKS_AHEAD);
+        CompletableFuture<ImportInfo> uploaded = new CompletableFuture<>();
+        try {
+            uploadImporters.execute(() -> {
+                try {
+                    importer.importWhileUploading(log.getId(), tee.getBranch(), uploaded);
+                } finally {
+                    queue.finish(job);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            queue.finish(job);
+            logsSrv.updateStatus(log.getId(), Log.Status.UPLOAD_FAILED);
+            throw new AppServerException("The importer is shut down.", ex);
+        }
+        try {
+            ImportInfo result = srv.upload(tee, log, importedFilename, uploadedUtcMillis);
+            queue.updateSize(job, new File(result.getImportedFilename()).length());
+            logsSrv.updateStatus(log.getId(), Log.Status.IMPORTING);
+            uploaded.complete(result);
+            return result;
+        } catch (Exception ex) {
+            tee.fail();
+            uploaded.completeExceptionally(ex);
+            logsSrv.updateStatus(log.getId(), Log.Status.UPLOAD_FAILED);
+            throw ex;
+        }
+    }
+
     @Override
     public ImportInfo update(ImportInfo source) {
         ImportInfo result = srv.update(source);
@@ -136,8 +264,392 @@ public class ProcessorImportService implements ImportService {
         return result;
     }
 
+    /**
+     * Stores the start of a log that is still being written, and reads its samples so that the
+     * stats can be viewed before the test ends. Only CSV-based JTLs can be imported live, since
+     * an XML-based JTL is not well-formed until it is finished.
+     */
+    @Override
+    public ImportInfo uploadLive(InputStream raw, Log log, String importedFilename, long uploadedUtcMillis) {
+        logsSrv.updateStatus(log.getId(), Log.Status.UPLOADING);
+        LiveImport live = new LiveImport(log.getId(), createLiveStatsBuilder(settings));
+        try {
+            byte[] chunk = readChunk(raw);
+            if (XmlJtlSource.isXml(new BufferedInputStream(new ByteArrayInputStream(chunk)))) {
+                throw new AppClientException("Only CSV-based JTLs can be imported live.");
+            }
+            appendLive(live, chunk);
+            if (!live.hasColumns()) {
+                throw new AppClientException("The start of a live log must have at least the first row.");
+            }
+            ImportInfo result = srv.uploadLive(new ByteArrayInputStream(chunk), log, importedFilename, uploadedUtcMillis);
+            liveImports.put(log.getId(), live);
+            logsSrv.updateStatus(log.getId(), Log.Status.LIVE);
+            return result;
+        } catch (IOException ex) {
+            logsSrv.updateStatus(log.getId(), Log.Status.UPLOAD_FAILED);
+            throw new AppServerException("Failed to upload content.", ex);
+        } catch (RuntimeException ex) {
+            logsSrv.updateStatus(log.getId(), Log.Status.UPLOAD_FAILED);
+            throw ex;
+        }
+    }
+
+    /**
+     * Stores the next part of a live log and reads its samples. The stats are stored on the next
+     * interval rather than after every part, since a test can append many times a second.
+     */
+    @Override
+    public ImportInfo append(long id, InputStream raw) {
+        LiveImport live = liveImports.get(id);
+        if (live == null) {
+            throw new AppClientException("Log id=" + id + " is not live.");
+        }
+        byte[] chunk;
+        try {
+            chunk = readChunk(raw);
+        } catch (IOException ex) {
+            throw new AppServerException("Failed to append content.", ex);
+        }
+        // The stored log and the stats must be appended to in the same order.
+        synchronized (live) {
+            if (live.isSealed()) {
+                throw new AppClientException("Log id=" + id + " is not live.");
+            }
+            // Checked before it is stored, so that a rejected chunk is not stored either.
+            try {
+                live.check(chunk);
+            } catch (IllegalArgumentException ex) {
+                throw new AppClientException("Cannot append to the log: " + ex.getMessage(), ex);
+            }
+            ImportInfo result = srv.append(id, new ByteArrayInputStream(chunk));
+            appendLive(live, chunk);
+            return result;
+        }
+    }
+
+    /**
+     * Ends a live log and queues it to be imported, which replaces the live stats with exact
+     * ones.
+     */
+    @Override
+    public ImportInfo seal(long id) {
+        LiveImport live = liveImports.remove(id);
+        if (live == null) {
+            throw new AppClientException("Log id=" + id + " is not live.");
+        }
+        live.seal();
+        ImportInfo result = srv.seal(id);
+        importer.addJob(result);
+        return result;
+    }
+
+    /**
+     * Stores the zip as it is rather than decompressed, and queues it to be merged into one log.
+     * Other uploads are always stored decompressed, so a stored zip is always to be merged, even
+     * when the import is resumed after a restart.
+     */
+    @Override
+    public ImportInfo uploadMerged(InputStream raw, Log log, String importedFilename, long uploadedUtcMillis) {
+        logsSrv.updateStatus(log.getId(), Log.Status.UPLOADING);
+        try {
+            InputStream contents = new BufferedInputStream(raw);
+            if (!isZip(contents)) {
+                throw new AppClientException("The logs to merge must be sent in a zip.");
+            }
+            ImportInfo result = srv.uploadMerged(contents, log, importedFilename, uploadedUtcMillis);
+            importer.addJob(result);
+            return result;
+        } catch (IOException ex) {
+            logsSrv.updateStatus(log.getId(), Log.Status.UPLOAD_FAILED);
+            throw new AppServerException("Failed to upload content.", ex);
+        } catch (RuntimeException ex) {
+            logsSrv.updateStatus(log.getId(), Log.Status.UPLOAD_FAILED);
+            throw ex;
+        }
+    }
+
+    private static boolean isZip(InputStream contents) throws IOException {
+        byte[] start = new byte[4];
+        contents.mark(start.length);
+        int length = contents.readNBytes(start, 0, start.length);
+        contents.reset();
+        return Decompressor.detect(start, length) == Decompressor.Format.ZIP;
+    }
+
+    /**
+     * Stops the importers once they have finished the imports they are working on. Any imports
+     * still queued will not be processed.
+     */
     public void shutdown() {
-        importer.shutdown();
+        queue.shutdown();
+        uploadImporters.shutdown();
+        liveStatsThread.interrupt();
+    }
+
+    private static byte[] readChunk(InputStream raw) throws IOException {
+        // Parts of a live log are sent compressed the same as whole logs can be.
+        try (InputStream contents = Decompressor.decompress(raw)) {
+            return contents.readAllBytes();
+        }
+    }
+
+    private static void appendLive(LiveImport live, byte[] chunk) {
+        try {
+            live.append(chunk, 0, chunk.length);
+        } catch (IllegalArgumentException ex) {
+            throw new AppClientException("Cannot import the log live: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Stores the stats of the live logs that have changed, every interval, until shut down.
+     */
+    private void storeLiveStats() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(settings.getLiveStatsIntervalMillis());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            for (LiveImport live : liveImports.values()) {
+                try {
+                    live.storeIfChanged((logId, statsBuilder) -> storeLiveStats(statsSrv, logId, statsBuilder));
+                } catch (RuntimeException ex) {
+                    LOGGER.error("Hit exception while storing live stats for log id={}. They will be stored again next time.",
+                            live.getLogId(), ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * A live log is read again from the start to rebuild its stats. Until it has been read, the
+     * parts appended to it wait.
+     */
+    private void resumeLive(ImportInfo info) {
+        LiveImport live = new LiveImport(info.getId(), createLiveStatsBuilder(settings));
+        synchronized (live) {
+            liveImports.put(info.getId(), live);
+            try (InputStream in = new FileInputStream(info.getImportedFilename())) {
+                byte[] buff = new byte[64 * 1024];
+                int num;
+                while ((num = in.read(buff)) >= 0) {
+                    live.append(buff, 0, num);
+                }
+                LOGGER.info("Resumed live log id={} from {}.", info.getId(), info.getImportedFilename());
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.error("Could not read live log id={} again. Its stats will only have what is appended from now on.",
+                        info.getId(), ex);
+            }
+        }
+    }
+
+    /**
+     * Stores the labels, and only the stats of each series that are viewed while a log is live:
+     * the elapsed time series at the finest span, and the aggregate. The rollups, bin histograms,
+     * histograms and other timings are rewritten in full each time, and grow with the log, so
+     * they are left for the import that follows the seal.
+     */
+    private static void storeLiveStats(StatsService statsSrv, long logId, StreamingStatsBuilder statsBuilder) {
+        List<String> labels = new ArrayList<>();
+        labels.add("Overall"); // Overall is always labelId=0
+        labels.addAll(statsBuilder.getLabels());
+        statsSrv.createSampleLabels(logId, labels);
+
+        storeLiveSeries(statsSrv, logId, OVERALL_LABEL_ID, statsBuilder.getOverall());
+        for (int labelId = 1; labelId < labels.size(); ++labelId) {
+            storeLiveSeries(statsSrv, logId, labelId, statsBuilder.getSeries(labels.get(labelId)));
+        }
+    }
+
+    private static void storeLiveSeries(StatsService statsSrv, long logId, long labelId, StreamingStatsBuilder.Series series) {
+        statsSrv.createOrUpdateCodeCounts(logId, labelId, series.getAggregateCounts());
+        statsSrv.createOrUpdateCodeCounts(logId, labelId, series.getTimeseriesCounts());
+        statsSrv.createOrUpdateTimeseries(logId, labelId, series.getTimeseries());
+        statsSrv.createOrUpdateAggregate(logId, labelId, series.getAggregate());
+    }
+
+    /**
+     * Stores the labels and all of the stats of each series.
+     */
+    private static void storeStats(StatsService statsSrv, long logId, StreamingStatsBuilder statsBuilder) {
+        List<String> labels = new ArrayList<>();
+        labels.add("Overall"); // Overall is always labelId=0
+        labels.addAll(statsBuilder.getLabels());
+        statsSrv.createSampleLabels(logId, labels);
+
+        storeSeries(statsSrv, logId, OVERALL_LABEL_ID, statsBuilder.getOverall());
+        for (int labelId = 1; labelId < labels.size(); ++labelId) {
+            storeSeries(statsSrv, logId, labelId, statsBuilder.getSeries(labels.get(labelId)));
+        }
+        for (Timing timing : OTHER_TIMINGS) {
+            storeTimingSeries(statsSrv, logId, OVERALL_LABEL_ID, timing, statsBuilder.getOverall(timing));
+            for (int labelId = 1; labelId < labels.size(); ++labelId) {
+                storeTimingSeries(statsSrv, logId, labelId, timing,
+                        statsBuilder.getSeries(labels.get(labelId), timing));
+            }
+        }
+    }
+
+    private static void storeSeries(StatsService statsSrv, long logId, long labelId, StreamingStatsBuilder.Series series) {
+        StatsItems histAndPercs = series.getHistogram();
+        statsSrv.createOrUpdateCodeCounts(logId, labelId, series.getAggregateCounts());
+        statsSrv.createOrUpdateCodeCounts(logId, labelId, series.getTimeseriesCounts());
+        series.getRollups().forEach(timeseries -> statsSrv.createOrUpdateTimeseries(logId, labelId, timeseries));
+        statsSrv.createOrUpdateBinHistograms(logId, labelId, series.getBinHistograms());
+        statsSrv.createOrUpdateAggregate(logId, labelId, series.getAggregate());
+        statsSrv.createOrUpdateHistogram(logId, labelId, histAndPercs.getHistogram());
+        statsSrv.createOrUpdatePercentiles(logId, labelId, histAndPercs.getPercentiles());
+    }
+
+    /**
+     * Stores the stats of a timing other than elapsed. The code counts are the same for every
+     * timing, so are only stored for elapsed.
+     *
+     * @param series the series of the timing, or null if the samples do not have it
+     */
+    private static void storeTimingSeries(StatsService statsSrv, long logId, long labelId,
+            Timing timing, StreamingStatsBuilder.Series series) {
+        if (series == null) {
+            return;
+        }
+        StatsItems histAndPercs = series.getHistogram();
+        series.getRollups().forEach(timeseries -> statsSrv.createOrUpdateTimeseries(logId, labelId, timing, timeseries));
+        statsSrv.createOrUpdateAggregate(logId, labelId, timing, series.getAggregate());
+        statsSrv.createOrUpdateHistogram(logId, labelId, timing, histAndPercs.getHistogram());
+        statsSrv.createOrUpdatePercentiles(logId, labelId, timing, histAndPercs.getPercentiles());
+    }
+
+    /**
+     * Creates the stats builder of an import, with the same spans that the eager calculation
+     * stores.
+     */
+    private static StreamingStatsBuilder createStatsBuilder(ImportSettings settings) {
+        return new StreamingStatsBuilder(Rollups.FINEST_SPAN_MILLIS, DEFAULT_SPAN_MILLIS,
+                settings.getBinSignificantDigits(), settings.getAggregateSignificantDigits());
+    }
+
+    /**
+     * Creates the stats builder of a live log, which only keeps the bins that are still being
+     * filled, since the length of the test is not known until it is sealed.
+     */
+    private static StreamingStatsBuilder createLiveStatsBuilder(ImportSettings settings) {
+        StreamingStatsBuilder statsBuilder = new StreamingStatsBuilder(DEFAULT_SPAN_MILLIS,
+                settings.getBinSignificantDigits(), settings.getAggregateSignificantDigits());
+        statsBuilder.setMaxLateMillis(LIVE_MAX_LATE_MILLIS);
+        return statsBuilder;
+    }
+
+    /**
+     * Calculates the stats of the timings other than elapsed that the samples have.
+     *
+     * @param samples the samples, sorted by offset
+     * @param settings the precision of the percentiles
+     * @return the stats of each timing the samples have.
+     */
+    private static Map<Timing, TimingStats> calcTimingStats(ColumnarSamples samples, ImportSettings settings) {
+        Map<Timing, TimingStats> timingStats = new EnumMap<>(Timing.class);
+        for (Timing timing : OTHER_TIMINGS) {
+            if (samples.hasTime(timing)) {
+                timingStats.put(timing, new TimingStats(
+                        StatsBuilder.calcRollups(samples, timing, settings.getBinSignificantDigits()),
+                        StatsBuilder.calcAggregateStats(samples, timing, settings.getAggregateSignificantDigits()),
+                        StatsBuilder.calcHistogram(samples, timing)));
+            }
+        }
+        return timingStats;
+    }
+
+    private static void storeTimingStats(StatsService statsSrv, long logId, long labelId,
+            Map<Timing, TimingStats> timingStats) {
+        timingStats.forEach((timing, stats) -> {
+            stats.rollups.forEach(timeseries -> statsSrv.createOrUpdateTimeseries(logId, labelId, timing, timeseries));
+            statsSrv.createOrUpdateAggregate(logId, labelId, timing, stats.aggregate);
+            statsSrv.createOrUpdateHistogram(logId, labelId, timing, stats.histAndPercs.getHistogram());
+            statsSrv.createOrUpdatePercentiles(logId, labelId, timing, stats.histAndPercs.getPercentiles());
+        });
+    }
+
+    /**
+     * The stats of one timing of a group of samples.
+     */
+    private static final class TimingStats {
+
+        private final List<Timeseries> rollups;
+        private final Stats aggregate;
+        private final StatsItems histAndPercs;
+
+        TimingStats(List<Timeseries> rollups, Stats aggregate, StatsItems histAndPercs) {
+            this.rollups = rollups;
+            this.aggregate = aggregate;
+            this.histAndPercs = histAndPercs;
+        }
+    }
+
+    /**
+     * The stats of all of the timings of a group of samples, such as those of one label.
+     */
+    private static final class LabelStats {
+
+        private final CodeCounts codeCounts;
+        private final CodeCounts codeCountsTimeseries;
+        private final List<Timeseries> rollups;
+        private final List<BinHistogram> bins;
+        private final Stats aggregate;
+        private final StatsItems histAndPercs;
+        private final Map<Timing, TimingStats> timingStats;
+
+        private LabelStats(CodeCounts codeCounts, CodeCounts codeCountsTimeseries,
+                List<Timeseries> rollups, List<BinHistogram> bins, Stats aggregate,
+                StatsItems histAndPercs, Map<Timing, TimingStats> timingStats) {
+            this.codeCounts = codeCounts;
+            this.codeCountsTimeseries = codeCountsTimeseries;
+            this.rollups = rollups;
+            this.bins = bins;
+            this.aggregate = aggregate;
+            this.histAndPercs = histAndPercs;
+            this.timingStats = timingStats;
+        }
+
+        /**
+         * Calculates the stats without changing the samples, so several groups that share the
+         * same storage can be calculated at the same time.
+         *
+         * @param samples the samples, sorted by offset
+         * @param settings the precision of the percentiles
+         * @return the stats of the samples.
+         */
+        static LabelStats calc(ColumnarSamples samples, ImportSettings settings) {
+            List<BinHistogram> bins = new ArrayList<>();
+            List<Timeseries> rollups = StatsBuilder.calcRollups(samples, Timing.ELAPSED,
+                    settings.getBinSignificantDigits(), bins);
+            return new LabelStats(
+                    StatsBuilder.calcAggregateCounts(samples),
+                    StatsBuilder.calcTimeseriesCounts(samples, DEFAULT_SPAN_MILLIS),
+                    rollups,
+                    bins,
+                    StatsBuilder.calcAggregateStats(samples, Timing.ELAPSED,
+                            settings.getAggregateSignificantDigits()),
+                    StatsBuilder.calcHistogram(samples),
+                    calcTimingStats(samples, settings));
+        }
+
+        void store(StatsService statsSrv, long logId, long labelId) {
+            statsSrv.createOrUpdateCodeCounts(logId, labelId, codeCounts);
+            statsSrv.createOrUpdateCodeCounts(logId, labelId, codeCountsTimeseries);
+            rollups.forEach(timeseries -> statsSrv.createOrUpdateTimeseries(logId, labelId, timeseries));
+            statsSrv.createOrUpdateBinHistograms(logId, labelId, bins);
+            statsSrv.createOrUpdateAggregate(logId, labelId, aggregate);
+            statsSrv.createOrUpdateHistogram(logId, labelId, histAndPercs.getHistogram());
+            statsSrv.createOrUpdatePercentiles(logId, labelId, histAndPercs.getPercentiles());
+            storeTimingStats(statsSrv, logId, labelId, timingStats);
+        }
+    }
+
+    private static File avroFileOf(String convertedDir, long logId) {
+        return new File(convertedDir, String.format("%d.avro", logId));
     }
 
     private void init() {
@@ -148,24 +660,114 @@ public class ProcessorImportService implements ImportService {
             LOGGER.error(msg, ex);
             throw new RuntimeException(msg, ex);
         }
-        importerThread.start();
+        importerThreads.forEach(Thread::start);
+        resumeUnfinishedImports();
+        liveStatsThread.start();
+        if (settings.isBackfillFieldPresence()) {
+            Thread backfillThread = new Thread(this::backfillFieldPresence, "FieldPresenceBackfill");
+            backfillThread.setDaemon(true);
+            backfillThread.start();
+        }
+    }
+
+    /**
+     * Logs converted before the fields they use were recorded are read in full every time they
+     * are exported, just to find which fields to export. Those logs get the fields recorded, one
+     * at a time and on one thread, so that imports are not slowed down much. Only complete logs
+     * are backfilled, so none that are being imported or appended to are rewritten.
+     */
+    private void backfillFieldPresence() {
+        List<Log> logs;
+        try {
+            logs = logsSrv.list();
+        } catch (RuntimeException ex) {
+            LOGGER.error("Could not list logs. Field presence will not be backfilled.", ex);
+            return;
+        }
+        ParallelAvroScanner scanner = new ParallelAvroScanner(1);
+        int numBackfilled = 0;
+        for (Log log : logs) {
+            if (log.getStatus() != Log.Status.COMPLETE) {
+                continue;
+            }
+            try {
+                File avro = logsSrv.getAvroFile(log.getId());
+                if (FieldPresence.backfill(avro, scanner)) {
+                    LOGGER.info("Backfilled field presence of log id={}.", log.getId());
+                    ++numBackfilled;
+                }
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.warn("Could not backfill field presence of log id={}.", log.getId(), ex);
+            }
+        }
+        LOGGER.info("Backfilled field presence of {} logs.", numBackfilled);
     }
 
+    /**
+     * The imports stay in the store until they are done, so any that were queued or in progress
+     * when the service last stopped are queued again. A streamed import carries on from where it
+     * was checkpointed. Live logs can still be appended to.
+     */
+    private void resumeUnfinishedImports() {
+        List<ImportInfo> unfinished;
+        try {
+            unfinished = srv.list();
+        } catch (RuntimeException ex) {
+            LOGGER.error("Could not list unfinished imports. They will not be resumed.", ex);
+            return;
+        }
+        for (ImportInfo info : unfinished) {
+            Log log = logsSrv.get(info.getId());
+            if (log == null) {
+                continue;
+            }
+            switch (log.getStatus()) {
+                case UPLOADING:
+                case QUEUED:
+                case IMPORTING:
+                    if (info.getImportAttempts() >= MAX_IMPORT_ATTEMPTS) {
+                        LOGGER.error("Import of log id={} was started {} times without finishing. It will not be tried again.",
+                                info.getId(), info.getImportAttempts());
+                        CsvJtlToAvroStreamingConverter.discardCheckpoint(avroFileOf(convertedDir, info.getId()));
+                        logsSrv.updateStatus(info.getId(), Log.Status.IMPORT_FAILED);
+                    } else {
+                        LOGGER.info("Resuming import of log id={} from {}.", info.getId(), info.getImportedFilename());
+                        importer.addJob(info);
+                    }
+                    break;
+                case LIVE:
+                    resumeLive(info);
+                    break;
+                default:
+                    // Failed imports are only retried when asked to.
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Imports the logs from the queue. The same importer is run by each of the importer threads.
+     */
     private static class Importer implements Runnable {
 
         private final ImportService importSrv;
         private final LogsService logsSrv;
         private final StatsService statsSrv;
         private final String convertedDir;
-        private final BlockingQueue<ImportInfo> awaitingImport = new LinkedBlockingQueue<>();
-        private final AtomicBoolean shutdown = new AtomicBoolean();
+        private final ImportSettings settings;
+        private final ImportQueue awaitingImport;
+        private final AvroToCsvJtlConverter csvConverter;
 
         public Importer(ImportService importService, LogsService logsService,
-                StatsService statsService, String convertedDirectory) {
+                StatsService statsService, String convertedDirectory, ImportSettings importSettings,
+                ImportQueue importQueue) {
             importSrv = importService;
             logsSrv = logsService;
             statsSrv = statsService;
             convertedDir = convertedDirectory;
+            settings = importSettings;
+            awaitingImport = importQueue;
+            csvConverter = new AvroToCsvJtlConverter(importSettings.getParseThreads());
         }
 
         public void addJob(ImportInfo info) {
@@ -175,100 +777,341 @@ public class ProcessorImportService implements ImportService {
 
         @Override
         public void run() {
-            while (!Thread.interrupted() && !shutdown.get()) {
+            while (!Thread.interrupted()) {
+                ImportQueue.Job job = null;
                 try {
-                    ImportInfo source = awaitingImport.take();
-                    processImport(source);
+                    job = awaitingImport.take();
+                    if (job == null) {
+                        LOGGER.info("Import queue shut down. Closing thread.");
+                        return;
+                    }
+                    processImport(job.getInfo());
                 } catch (InterruptedException ex) {
                     LOGGER.info("Interrupted while importing file. Closing thread.");
                     Thread.currentThread().interrupt();
                 } catch (Exception ex) {
                     LOGGER.error("Unhandled exception while importing file: " + ex.getMessage(), ex);
+                } finally {
+                    if (job != null) {
+                        awaitingImport.finish(job);
+                    }
                 }
             }
         }
 
-        private void processImport(ImportInfo source) {
-            Samples sourceSamples = null;
+        private void processImport(ImportInfo queued) {
+            ImportInfo source = recordAttempt(queued);
+            if (isMerge(source)) {
+                processMergedImport(source);
+                return;
+            }
+            if (settings.isStreaming()) {
+                processStreamingImport(source);
+                return;
+            }
+            ColumnarSamples sourceSamples = null;
+            BadRows badRows = new BadRows();
             try {
                 LOGGER.info("...importing...");
                 logsSrv.updateStatus(source.getId(), Log.Status.IMPORTING);
-                sourceSamples = new CsvJtlSource(new File(source.getImportedFilename()));
-                SamplesWriter writer = new AvroSamplesWriter();
+                File imported = new File(source.getImportedFilename());
+                if (XmlJtlSource.isXml(imported)) {
+                    sourceSamples = new XmlJtlSource(imported, false, badRows);
+                } else {
+                    sourceSamples = new CsvJtlSource(imported, settings.getParseThreads(), badRows);
+                }
+                SamplesWriter writer = new AvroSamplesWriter(settings.getAvroSettings());
 
-                File avro = new File(convertedDir, String.format("%d.avro", source.getId()));
+                File avro = avroFileOf(convertedDir, source.getId());
                 String hash = writer.write(sourceSamples, avro);
                 LOGGER.info("...SHA-256: {}...", hash);
             } catch (IOException ex) {
+                storeDiagnostics(source.getId(), badRows);
                 logsSrv.updateStatus(source.getId(), Log.Status.IMPORT_FAILED);
                 LOGGER.error("Could not import " + source.getImportedFilename(), ex);
 
                 return;
             }
 
+            storeDiagnostics(source.getId(), badRows);
             logsSrv.updateStatus(source.getId(), Log.Status.COMPLETE);
             LOGGER.info("...imported log id={}.", source.getId());
 
             importSrv.delete(source.getId());
 
             eagerCalculateStats(source, sourceSamples);
+            storeCsvLength(source.getId());
         }
 
-        private void eagerCalculateStats(ImportInfo source, Samples sourceSamples) {
+        /**
+         * Counts the import as started in the store, so that an import which keeps taking down
+         * the service is not retried forever.
+         *
+         * @return the import, with the attempt counted.
+         */
+        private ImportInfo recordAttempt(ImportInfo source) {
+            ImportInfo attempted = new ImportInfo(source.getId(), source.getImportedFilename(),
+                    source.getUploadedUtcMillis(), source.getImportAttempts() + 1);
+            try {
+                importSrv.update(attempted);
+            } catch (RuntimeException ex) {
+                LOGGER.warn("Could not record import attempt for log id={}.", source.getId(), ex);
+            }
+            return attempted;
+        }
+
+        /**
+         * Converts the log and calculates its stats in the same pass, one sample at a time, so
+         * that the samples are never all in memory at once.
+         */
+        private void processStreamingImport(ImportInfo source) {
+            StreamingStatsBuilder statsBuilder = createStatsBuilder(settings);
+            BadRows badRows = new BadRows();
+            try {
+                LOGGER.info("...importing (streaming)...");
+                logsSrv.updateStatus(source.getId(), Log.Status.IMPORTING);
+                CsvJtlToAvroStreamingConverter converter = new CsvJtlToAvroStreamingConverter(
+                        settings.getAvroSettings(), settings.getParseThreads());
+
+                File avro = avroFileOf(convertedDir, source.getId());
+                String hash = converter.convert(new File(source.getImportedFilename()), avro, statsBuilder, badRows);
+                LOGGER.info("...SHA-256: {}...", hash);
+            } catch (RuntimeException ex) {
+                // The conversion kept its checkpoint, so trying again carries on from there. Any
+                // failure is retried, or else the log would be left importing, and be picked up
+                // again every time the service starts.
+                if (source.getImportAttempts() < MAX_IMPORT_ATTEMPTS) {
+                    LOGGER.warn("Could not import {} on attempt {}. It will be tried again from its last checkpoint.",
+                            source.getImportedFilename(), source.getImportAttempts(), ex);
+                    addJob(source);
+                    return;
+                }
+                CsvJtlToAvroStreamingConverter.discardCheckpoint(avroFileOf(convertedDir, source.getId()));
+                storeDiagnostics(source.getId(), badRows);
+                logsSrv.updateStatus(source.getId(), Log.Status.IMPORT_FAILED);
+                LOGGER.error("Could not import " + source.getImportedFilename(), ex);
+
+                return;
+            }
+
+            storeDiagnostics(source.getId(), badRows);
+            logsSrv.updateStatus(source.getId(), Log.Status.COMPLETE);
+            LOGGER.info("...imported log id={}.", source.getId());
+
+            importSrv.delete(source.getId());
+
+            storeStreamedStats(source, statsBuilder);
+            storeCsvLength(source.getId());
+        }
+
+        private boolean isMerge(ImportInfo source) {
+            try {
+                return Decompressor.detect(new File(source.getImportedFilename())) == Decompressor.Format.ZIP;
+            } catch (IOException ex) {
+                // Failed the same as any other import that cannot be read.
+                return false;
+            }
+        }
+
+        /**
+         * Merges the logs of each load generator in the zip into one log, and calculates the
+         * stats of the merged log as it is written. The logs are sorted externally, so none of
+         * them needs to fit in memory.
+         */
+        private void processMergedImport(ImportInfo source) {
+            StreamingStatsBuilder statsBuilder = createStatsBuilder(settings);
+            BadRows badRows = new BadRows();
+            try {
+                LOGGER.info("...importing (merging load generators)...");
+                logsSrv.updateStatus(source.getId(), Log.Status.IMPORTING);
+                CsvJtlToAvroOrderedConverter converter = new CsvJtlToAvroOrderedConverter(
+                        settings.getAvroSettings(), settings.getMergeMemoryBytes());
+
+                File avro = avroFileOf(convertedDir, source.getId());
+                String hash = converter.mergeZip(new File(source.getImportedFilename()), avro, statsBuilder, badRows);
+                LOGGER.info("...SHA-256: {}...", hash);
+            } catch (AppServerException ex) {
+                storeDiagnostics(source.getId(), badRows);
+                logsSrv.updateStatus(source.getId(), Log.Status.IMPORT_FAILED);
+                LOGGER.error("Could not import " + source.getImportedFilename(), ex);
+
+                return;
+            }
+
+            storeDiagnostics(source.getId(), badRows);
+            logsSrv.updateStatus(source.getId(), Log.Status.COMPLETE);
+            LOGGER.info("...imported log id={}.", source.getId());
+
+            importSrv.delete(source.getId());
+
+            storeStreamedStats(source, statsBuilder);
+            storeCsvLength(source.getId());
+        }
+
+        /**
+         * Converts the log and calculates its stats from the upload as it is received. Once the
+         * upload is stored, the import is finished the same as a streamed import. If the upload
+         * could not be converted, then the stored upload is queued to be imported as usual.
+         *
+         * @param logId the log being uploaded
+         * @param upload the contents of the upload as they are received
+         * @param uploaded gives the stored upload, once it is stored
+         */
+        public void importWhileUploading(long logId, InputStream upload, Future<ImportInfo> uploaded) {
+            StreamingStatsBuilder statsBuilder = createStatsBuilder(settings);
+            BadRows badRows = new BadRows();
+            File avro = avroFileOf(convertedDir, logId);
+            String hash = null;
+            Exception convertFailure = null;
+            LOGGER.info("...importing while uploading log id={}...", logId);
+            try (InputStream in = upload) {
+                hash = new CsvJtlToAvroStreamingConverter(settings.getAvroSettings()).convert(in, avro, statsBuilder, badRows);
+            } catch (AppServerException | IOException ex) {
+                convertFailure = ex;
+            }
+
+            ImportInfo source;
+            try {
+                source = recordAttempt(uploaded.get());
+            } catch (ExecutionException ex) {
+                // Nothing will import the log, so what was converted of it is not kept.
+                LOGGER.warn("Upload of log id={} failed, so it was not imported.", logId, ex.getCause());
+                discardConverted(avro);
+                logsSrv.updateStatus(logId, Log.Status.UPLOAD_FAILED);
+                return;
+            } catch (InterruptedException ex) {
+                LOGGER.info("Interrupted while waiting for log id={} to upload.", logId);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (convertFailure != null) {
+                LOGGER.warn("Could not import log id={} while uploading. It will be imported from {} instead.",
+                        logId, source.getImportedFilename(), convertFailure);
+                addJob(source);
+                return;
+            }
+
+            LOGGER.info("...SHA-256: {}...", hash);
+            storeDiagnostics(source.getId(), badRows);
+            logsSrv.updateStatus(source.getId(), Log.Status.COMPLETE);
+            LOGGER.info("...imported log id={}.", source.getId());
+
+            importSrv.delete(source.getId());
+
+            storeStreamedStats(source, statsBuilder);
+            storeCsvLength(source.getId());
+        }
+
+        /**
+         * Deletes the Avro file of a log that was converted but will not be imported, along with
+         * its block index and anything kept to resume the conversion.
+         */
+        private static void discardConverted(File avro) {
+            CsvJtlToAvroStreamingConverter.discardCheckpoint(avro);
+            Lock lock = AvroFileLocks.writeLock(avro);
+            lock.lock();
+            try {
+                for (File file : new File[]{avro, BlockIndex.indexFileFor(avro), CsvLength.fileFor(avro)}) {
+                    if (file.exists() && !file.delete()) {
+                        LOGGER.error("Could not delete {}! It is not used and must be deleted manually.", file);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Stores the rows that were skipped while importing, with a summary in the log in place
+         * of a line for each row.
+         */
+        private void storeDiagnostics(long logId, BadRows badRows) {
+            if (badRows.getTotal() > 0) {
+                LOGGER.warn("...skipped {} bad rows of log id={}: {}...", badRows.getTotal(), logId, badRows);
+            }
+            try {
+                logsSrv.setImportDiagnostics(badRows.toDiagnostics(logId));
+            } catch (RuntimeException ex) {
+                LOGGER.warn("Could not store import diagnostics for log id={}.", logId, ex);
+            }
+        }
+
+        private void storeStreamedStats(ImportInfo source, StreamingStatsBuilder statsBuilder) {
+            try {
+                storeStats(statsSrv, source.getId(), statsBuilder);
+            } catch (Exception ex) {
+                LOGGER.error("Hit exception while storing stats for log id={}. No more stats will be stored for this log.", source.getId(), ex);
+            }
+        }
+
+        /**
+         * Counts how long the CSV download of the log is, so that an interrupted download of it
+         * can be resumed. The log is already complete, so if it cannot be counted then the CSV
+         * can still be downloaded, only not resumed.
+         */
+        private void storeCsvLength(long logId) {
+            File avro = avroFileOf(convertedDir, logId);
+            long startMillis = System.currentTimeMillis();
+            // Held so that the field presence backfill cannot replace the log part way through.
+            Lock lock = AvroFileLocks.readLock(avro);
+            lock.lock();
+            try {
+                long csvLength = CsvLength.count(avro, csvConverter);
+                CsvLength.write(avro, csvLength);
+                LOGGER.debug("{}ms to count the {} byte CSV of log id={}.",
+                        System.currentTimeMillis() - startMillis, csvLength, logId);
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.warn("Could not count the CSV of log id={}. Its CSV download cannot be resumed.", logId, ex);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void eagerCalculateStats(ImportInfo source, ColumnarSamples sourceSamples) {
             // label, samples, average, median, p90, p95, p99, min, max, error %, throughput,
             try {
                 long logId = source.getId();
-                CodeCounts overallCodeCounts = StatsBuilder.calcAggregateCounts(sourceSamples.getSamples());
-                CodeCounts overallCodeCountsTimeseries = StatsBuilder.calcTimeseriesCounts(sourceSamples.getSamples(), DEFAULT_SPAN_MILLIS);
-                Timeseries overall = StatsBuilder.calcTimeseriesStats(sourceSamples.getSamples(), DEFAULT_SPAN_MILLIS);
-                Stats overallAggregate = StatsBuilder.calcAggregateStats(sourceSamples.getSamples());
-                StatsItems histAndPercs = StatsBuilder.calcHistogram(sourceSamples.getSamples());
+                // Splitting by label changes the order of the samples, so the whole log is
+                // calculated first.
+                LabelStats overall = LabelStats.calc(sourceSamples, settings);
 
-                Map<String, List<Sample>> labelsSamples = StatsBuilder.sortAndSplitByLabel(sourceSamples.getSamples());
+                Map<String, ColumnarSamples> labelsSamples = StatsBuilder.sortAndSplitByLabel(sourceSamples);
 
                 List<String> labels = new ArrayList<>(labelsSamples.size() + 1);
                 labels.add("Overall"); // Overall is always labelId=0
                 labels.addAll(sourceSamples.getLabels());
                 statsSrv.createSampleLabels(logId, labels);
 
-                statsSrv.createOrUpdateCodeCounts(logId, OVERALL_LABEL_ID, overallCodeCounts);
-                statsSrv.createOrUpdateCodeCounts(logId, OVERALL_LABEL_ID, overallCodeCountsTimeseries);
-                statsSrv.createOrUpdateTimeseries(logId, OVERALL_LABEL_ID, overall);
-                statsSrv.createOrUpdateAggregate(logId, OVERALL_LABEL_ID, overallAggregate);
-                statsSrv.createOrUpdateHistogram(logId, OVERALL_LABEL_ID, histAndPercs.getHistogram());
-                statsSrv.createOrUpdatePercentiles(logId, OVERALL_LABEL_ID, histAndPercs.getPercentiles());
-
-                for (int labelId = 1; labelId < labels.size(); ++labelId) {
-                    String label = labels.get(labelId);
-                    List<Sample> labelSamples = labelsSamples.get(label);
-                    if (labelSamples == null) {
-                        LOGGER.warn("Encountered null logId={} labelId={} while eagerly calculating stats, which shouldn't happen! Skipping.", logId, labelId);
-                        continue;
+                overall.store(statsSrv, logId, OVERALL_LABEL_ID);
+
+                // Each label is a separate range of the samples, and is only read, so the labels
+                // are calculated in parallel. They are stored in label order as they are joined.
+                ForkJoinPool pool = new ForkJoinPool(settings.getStatsThreads());
+                try {
+                    List<ForkJoinTask<LabelStats>> tasks = new ArrayList<>(labels.size());
+                    tasks.add(null); // Overall is already stored.
+                    for (int labelId = 1; labelId < labels.size(); ++labelId) {
+                        ColumnarSamples labelSamples = labelsSamples.get(labels.get(labelId));
+                        if (labelSamples == null) {
+                            LOGGER.warn("Encountered null logId={} labelId={} while eagerly calculating stats, which shouldn't happen! Skipping.", logId, labelId);
+                            tasks.add(null);
+                        } else {
+                            tasks.add(pool.submit(() -> LabelStats.calc(labelSamples, settings)));
+                        }
+                    }
+                    for (int labelId = 1; labelId < tasks.size(); ++labelId) {
+                        ForkJoinTask<LabelStats> task = tasks.get(labelId);
+                        if (task != null) {
+                            task.join().store(statsSrv, logId, labelId);
+                            tasks.set(labelId, null);
+                        }
                     }
-                    CodeCounts labelCodeCounts = StatsBuilder.calcAggregateCounts(labelSamples);
-                    CodeCounts labelCodeCountsTimeseries = StatsBuilder.calcTimeseriesCounts(labelSamples, DEFAULT_SPAN_MILLIS);
-                    Timeseries labelTimeseries = StatsBuilder.calcTimeseriesStats(labelSamples, DEFAULT_SPAN_MILLIS);
-                    Stats labelAggregate = StatsBuilder.calcAggregateStats(labelSamples);
-                    histAndPercs = StatsBuilder.calcHistogram(labelSamples);
-
-                    statsSrv.createOrUpdateCodeCounts(logId, labelId, labelCodeCounts);
-                    statsSrv.createOrUpdateCodeCounts(logId, labelId, labelCodeCountsTimeseries);
-                    statsSrv.createOrUpdateTimeseries(logId, labelId, labelTimeseries);
-                    statsSrv.createOrUpdateAggregate(logId, labelId, labelAggregate);
-                    statsSrv.createOrUpdateHistogram(logId, labelId, histAndPercs.getHistogram());
-                    statsSrv.createOrUpdatePercentiles(logId, labelId, histAndPercs.getPercentiles());
+                } finally {
+                    pool.shutdownNow();
                 }
             } catch (Exception ex) {
                 LOGGER.error("Hit exception while calculating stats for log id={}. No more stats will be eagerly processed for this log.", source.getId(), ex);
             }
         }
-
-        /**
-         * Signals the instance that once it has finished work on the current item, it is to stop.
-         * If there are any additionl items waiting in the queue, they will not be processed.
-         */
-        public void shutdown() {
-            shutdown.set(true);
-        }
     }
 }
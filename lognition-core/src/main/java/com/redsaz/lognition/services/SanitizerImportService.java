@@ -17,6 +17,7 @@ package com.redsaz.lognition.services;
 
 import com.redsaz.lognition.api.ImportService;
 import com.redsaz.lognition.api.model.ImportInfo;
+import com.redsaz.lognition.api.model.ImportStatus;
 import com.redsaz.lognition.api.model.Log;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
@@ -73,12 +74,39 @@ public class SanitizerImportService implements ImportService {
         return srv.list();
     }
 
+    @Override
+    public List<ImportStatus> listStatuses() {
+        return srv.listStatuses();
+    }
+
     @Override
     public ImportInfo upload(InputStream raw, Log log, String importedFilename, long uploadedUtcMillis) {
         importedFilename = sanitizeFilename(importedFilename);
         return srv.upload(raw, log, importedFilename, uploadedUtcMillis);
     }
 
+    @Override
+    public ImportInfo uploadLive(InputStream raw, Log log, String importedFilename, long uploadedUtcMillis) {
+        importedFilename = sanitizeFilename(importedFilename);
+        return srv.uploadLive(raw, log, importedFilename, uploadedUtcMillis);
+    }
+
+    @Override
+    public ImportInfo append(long id, InputStream raw) {
+        return srv.append(id, raw);
+    }
+
+    @Override
+    public ImportInfo uploadMerged(InputStream raw, Log log, String importedFilename, long uploadedUtcMillis) {
+        importedFilename = sanitizeFilename(importedFilename);
+        return srv.uploadMerged(raw, log, importedFilename, uploadedUtcMillis);
+    }
+
+    @Override
+    public ImportInfo seal(long id) {
+        return srv.seal(id);
+    }
+
     @Override
     public ImportInfo update(ImportInfo source) {
         source = sanitize(source);
@@ -18,6 +18,7 @@ package com.redsaz.lognition.services;
 import com.github.slugify.Slugify;
 import com.redsaz.lognition.api.LogsService;
 import com.redsaz.lognition.api.labelselector.LabelSelectorExpression;
+import com.redsaz.lognition.api.model.ImportDiagnostics;
 import com.redsaz.lognition.api.model.Label;
 import com.redsaz.lognition.api.model.Log;
 import com.redsaz.lognition.api.model.Log.Status;
@@ -161,6 +162,19 @@ public class SanitizerLogsService implements LogsService {
         return srv.getLabels(logId);
     }
 
+    @Override
+    public void setImportDiagnostics(ImportDiagnostics diagnostics) {
+        if (diagnostics == null) {
+            throw new NullPointerException("No import diagnostics were specified.");
+        }
+        srv.setImportDiagnostics(diagnostics);
+    }
+
+    @Override
+    public ImportDiagnostics getImportDiagnostics(long logId) {
+        return srv.getImportDiagnostics(logId);
+    }
+
     /**
      * Ensures nothing is null. The ID will remain unchanged.
      *
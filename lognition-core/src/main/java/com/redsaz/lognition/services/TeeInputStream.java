@@ -0,0 +1,177 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.services;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passes along what is read from a stream, while also handing a copy of the bytes to a branch
+ * stream that is read on another thread. This way an upload can be stored and converted at the
+ * same time, without reading it back from disk.
+ * <p>
+ * Only so many chunks are held for the branch, so if the branch is read slower than the stream,
+ * reading the stream waits for the branch to catch up. Once the branch is closed, it no longer
+ * receives anything, and the stream is read at full speed again.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+/*package protected*/ class TeeInputStream extends FilterInputStream {
+
+    private static final byte[] END = new byte[0];
+    private static final byte[] FAILED = new byte[0];
+
+    private final BlockingQueue<byte[]> chunks;
+    private final Branch branch = new Branch();
+    private volatile boolean branchClosed;
+    private boolean ended;
+
+    /**
+     * @param in the stream to read and copy from
+     * @param maxChunks how many reads can be held for the branch before reading waits for it
+     */
+    /*package protected*/ TeeInputStream(InputStream in, int maxChunks) {
+        super(in);
+        chunks = new ArrayBlockingQueue<>(maxChunks);
+    }
+
+    /**
+     * @return the stream that receives a copy of everything read, to be read on another thread,
+     * and closed when no more is wanted from it.
+     */
+    public InputStream getBranch() {
+        return branch;
+    }
+
+    /**
+     * Tells the branch that the stream could not be read in full, so that reading the branch
+     * fails rather than seeing the partial contents as complete.
+     */
+    public void fail() {
+        chunks.clear();
+        chunks.offer(FAILED);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        if (read < 1) {
+            return -1;
+        }
+        return single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = in.read(b, off, len);
+        if (read > 0) {
+            toBranch(Arrays.copyOfRange(b, off, off + read));
+        } else if (read < 0 && !ended) {
+            ended = true;
+            toBranch(END);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes must still go to the branch.
+        byte[] skipped = new byte[(int) Math.min(n, 8192L)];
+        int read = read(skipped, 0, skipped.length);
+        return Math.max(0, read);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void toBranch(byte[] chunk) throws IOException {
+        try {
+            while (!branchClosed && !chunks.offer(chunk, 100L, TimeUnit.MILLISECONDS)) {
+                // Wait for the branch to catch up, or to be closed.
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the branch to be read.");
+        }
+    }
+
+    private class Branch extends InputStream {
+
+        private byte[] chunk = new byte[0];
+        private int position;
+        private boolean done;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            if (read < 1) {
+                return -1;
+            }
+            return single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position >= chunk.length) {
+                if (done) {
+                    return -1;
+                }
+                nextChunk();
+            }
+            int toRead = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, toRead);
+            position += toRead;
+            return toRead;
+        }
+
+        @Override
+        public void close() {
+            branchClosed = true;
+            chunks.clear();
+        }
+
+        private void nextChunk() throws IOException {
+            byte[] next;
+            try {
+                next = chunks.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the stream to be read.");
+            }
+            if (next == FAILED) {
+                done = true;
+                throw new IOException("The stream could not be read in full.");
+            } else if (next == END) {
+                done = true;
+            }
+            chunk = next;
+            position = 0;
+        }
+    }
+}
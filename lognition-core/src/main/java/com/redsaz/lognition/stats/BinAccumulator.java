@@ -0,0 +1,228 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.stats;
+
+import com.redsaz.lognition.api.model.BinHistogram;
+import com.redsaz.lognition.api.model.Sample;
+import com.redsaz.lognition.api.model.Stats;
+import com.redsaz.lognition.api.model.Timing;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import org.HdrHistogram.AbstractHistogram;
+import org.HdrHistogram.HistogramIterationValue;
+import org.HdrHistogram.IntCountsHistogram;
+
+/**
+ * Collects what is needed to create the stats of a group of samples without keeping the samples
+ * themselves. Durations are recorded into a histogram, so the percentiles are accurate to the
+ * number of significant digits given, while the min, max, average, and counts are exact.
+ * <p>
+ * The durations are one of the timings of the samples. Samples without that timing are skipped.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+/*package protected*/ final class BinAccumulator {
+
+    private static final double[] PERCENTS = {0.25D, 0.50D, 0.75D, 0.90D, 0.95D, 0.99D};
+
+    private final Timing timing;
+    private final AbstractHistogram histogram;
+    private final Map<String, int[]> codeCounts = new HashMap<>();
+    private long numSamples;
+    private long totalDuration;
+    private long totalResponseBytes;
+    private long numErrors;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    BinAccumulator(int significantDigits, Timing timing) {
+        this.timing = timing;
+        // Auto-resizing, so only as many buckets as needed for the largest duration are used.
+        histogram = new IntCountsHistogram(significantDigits);
+    }
+
+    void add(Sample sample) {
+        long duration = timing.of(sample);
+        if (!record(duration, sample.getResponseBytes(), sample.isSuccess())) {
+            return;
+        }
+        // The codes are the same whichever timing is collected, so are only counted for elapsed.
+        String code = sample.getStatusCode();
+        if (timing == Timing.ELAPSED && code != null && !code.isEmpty()) {
+            codeCounts.computeIfAbsent(code, k -> new int[1])[0]++;
+        }
+    }
+
+    /**
+     * Same as {@link #add(Sample)}, but without needing a sample instance, and the status code is
+     * not counted.
+     *
+     * @param duration the time of the sample, for the timing of this accumulator
+     * @param responseBytes the size of the response of the sample
+     * @param success true if the sample succeeded
+     * @return true if recorded, or false if skipped because the sample does not have the timing.
+     */
+    boolean record(long duration, long responseBytes, boolean success) {
+        if (duration < 0 && timing != Timing.ELAPSED) {
+            return false;
+        }
+        histogram.recordValue(Math.max(0L, duration));
+        ++numSamples;
+        totalDuration += duration;
+        totalResponseBytes += responseBytes;
+        if (!success) {
+            ++numErrors;
+        }
+        if (duration < min) {
+            min = duration;
+        }
+        if (duration > max) {
+            max = duration;
+        }
+        return true;
+    }
+
+    /**
+     * Adds everything collected by another accumulator of the same timing, as if its samples had
+     * been added to this one, so that a coarser bin can be made from finer bins without going
+     * back to the samples.
+     *
+     * @param other the accumulator to add, which is not changed
+     */
+    void add(BinAccumulator other) {
+        if (other.numSamples == 0L) {
+            return;
+        }
+        histogram.add(other.histogram);
+        other.codeCounts.forEach((code, count) -> codeCounts.computeIfAbsent(code, k -> new int[1])[0] += count[0]);
+        numSamples += other.numSamples;
+        totalDuration += other.totalDuration;
+        totalResponseBytes += other.totalResponseBytes;
+        numErrors += other.numErrors;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Adds a stored bin, as {@link #add(BinAccumulator)} does. The status codes are not stored
+     * with bins, so are not counted.
+     *
+     * @param bin the bin to add
+     * @throws IllegalArgumentException if the histogram of the bin cannot be read
+     */
+    void add(BinHistogram bin) {
+        histogram.add(decode(bin));
+        numSamples += bin.getNumSamples();
+        totalDuration += bin.getTotalDuration();
+        totalResponseBytes += bin.getTotalResponseBytes();
+        numErrors += bin.getNumErrors();
+        min = Math.min(min, bin.getMin());
+        max = Math.max(max, bin.getMax());
+    }
+
+    /**
+     * @param bin a stored bin
+     * @return the durations recorded in the bin.
+     * @throws IllegalArgumentException if the histogram of the bin cannot be read
+     */
+    static AbstractHistogram decode(BinHistogram bin) {
+        try {
+            return IntCountsHistogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(bin.getHistogram()), 0L);
+        } catch (DataFormatException ex) {
+            throw new IllegalArgumentException("Cannot read the histogram of the bin at "
+                    + bin.getOffsetMillis() + "ms: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Gives what has been collected so far in a form that can be stored, and added to other bins
+     * later. The histogram is compressed.
+     *
+     * @param offsetMillis when the bin starts, from the start of the test
+     * @param spanMillis how long the bin is
+     * @return the bin, or null if nothing has been collected.
+     */
+    BinHistogram toBinHistogram(long offsetMillis, long spanMillis) {
+        if (numSamples == 0L) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        return new BinHistogram(offsetMillis, spanMillis, numSamples, min, max, totalDuration,
+                totalResponseBytes, numErrors, Arrays.copyOf(buffer.array(), length));
+    }
+
+    /**
+     * Forgets everything collected so far, so that the accumulator, and the space its histogram
+     * has grown to, can be used for the next bin.
+     */
+    void reset() {
+        histogram.reset();
+        codeCounts.clear();
+        numSamples = 0L;
+        totalDuration = 0L;
+        totalResponseBytes = 0L;
+        numErrors = 0L;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+    }
+
+    AbstractHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @return key=status code, value=single-element array of the number of times it was seen.
+     */
+    Map<String, int[]> getCodeCounts() {
+        return codeCounts;
+    }
+
+    /**
+     * Creates the stats for the samples collected so far. The percentiles are picked the same way
+     * as when all of the samples are sorted by duration, but the value is the highest value
+     * equivalent to it in the histogram, no larger than the actual max.
+     *
+     * @param offsetMillis The point in time, with 0 being the start of the test, that these stats
+     * start at
+     * @return the stats
+     */
+    Stats toStats(long offsetMillis) {
+        if (numSamples == 0) {
+            return new Stats(offsetMillis, null, null, null, null, null, null, null, null, null, 0L, 0L, 0L);
+        }
+        Long[] percs = new Long[PERCENTS.length];
+        int percIndex = 0;
+        long cumulative = 0;
+        for (HistogramIterationValue value : histogram.recordedValues()) {
+            cumulative += value.getCountAtValueIteratedTo();
+            while (percIndex < PERCENTS.length
+                    && cumulative > (long) Math.ceil((numSamples - 1) * PERCENTS[percIndex])) {
+                percs[percIndex] = Math.max(min, Math.min(max, value.getValueIteratedTo()));
+                ++percIndex;
+            }
+            if (percIndex >= PERCENTS.length) {
+                break;
+            }
+        }
+        long avg = totalDuration / numSamples;
+        return new Stats(offsetMillis, min, percs[0], percs[1], percs[2], percs[3], percs[4],
+                percs[5], max, avg, numSamples, totalResponseBytes, numErrors);
+    }
+}
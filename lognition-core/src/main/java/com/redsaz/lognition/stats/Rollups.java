@@ -0,0 +1,168 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.stats;
+
+import com.redsaz.lognition.api.model.Stats;
+import com.redsaz.lognition.api.model.Timeseries;
+import com.redsaz.lognition.api.model.Timing;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Builds the timeseries of a group of samples at several resolutions in one pass. Only the bins
+ * of the finest resolution are made from the samples. Each coarser bin is made by adding together
+ * the finer bins it covers, preferring the coarsest resolution that fits evenly into it, so the
+ * samples are never looked at again. Only the bin currently being filled is kept for each
+ * resolution.
+ * <p>
+ * The resolutions are the fixed spans from 1 second to 1 hour, plus the spans that split the
+ * test into 100 and into 600 frames. The length of the test, for the frames, is the time covered
+ * by the finest bins, and each frame is a whole number of finest bins.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public final class Rollups {
+
+    public static final long FINEST_SPAN_MILLIS = 1000L;
+
+    private static final long[] FIXED_SPANS_MILLIS = {
+        1000L, 5000L, 15000L, 30000L,
+        60000L, 300000L, 900000L, 1800000L,
+        3600000L};
+    private static final int[] FRAMES = {100, 600};
+
+    private final long finestSpanMillis;
+    private final Level[] levels;
+
+    /**
+     * @param finestSpanMillis the span of the bins that will be given
+     * @param spansMillis the spans to build, in ascending order, each a multiple of the finest
+     * @param significantDigits the precision of the percentiles of the coarser bins, 0-5
+     * @param timing which time of the samples the bins are of
+     */
+    /*package protected*/ Rollups(long finestSpanMillis, long[] spansMillis, int significantDigits, Timing timing) {
+        this.finestSpanMillis = finestSpanMillis;
+        levels = new Level[spansMillis.length];
+        for (int i = 0; i < spansMillis.length; ++i) {
+            long spanMillis = spansMillis[i];
+            if (spanMillis % finestSpanMillis != 0L || (i > 0 && spanMillis <= spansMillis[i - 1])) {
+                throw new IllegalArgumentException("Spans must be ascending multiples of "
+                        + finestSpanMillis + "ms, but " + spanMillis + "ms was not.");
+            }
+            Level level = new Level(spanMillis, significantDigits, timing);
+            // Fill from the coarsest finer level that fits evenly, or else the finest bins.
+            for (int j = i - 1; j >= 0; --j) {
+                if (spanMillis % levels[j].spanMillis == 0L) {
+                    levels[j].coarser.add(level);
+                    level.fromFinest = false;
+                    break;
+                }
+            }
+            levels[i] = level;
+        }
+    }
+
+    /**
+     * Gives the spans to build for a test of the given length, in ascending order: the fixed
+     * spans that are multiples of the finest span, and the spans of the frames, rounded up to a
+     * whole number of finest bins.
+     *
+     * @param numFinestBins how many finest bins the test covers
+     * @param finestSpanMillis the span of the finest bins
+     * @return the spans, with no duplicates.
+     */
+    public static long[] spansFor(int numFinestBins, long finestSpanMillis) {
+        TreeSet<Long> spans = new TreeSet<>();
+        spans.add(finestSpanMillis);
+        for (long span : FIXED_SPANS_MILLIS) {
+            if (span > finestSpanMillis && span % finestSpanMillis == 0L) {
+                spans.add(span);
+            }
+        }
+        for (int frames : FRAMES) {
+            int binsPerFrame = Math.max(1, (numFinestBins + frames - 1) / frames);
+            spans.add(binsPerFrame * finestSpanMillis);
+        }
+        return spans.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Adds the next finest bin. The first one given starts at offset 0, and each after that
+     * follows the one before it.
+     *
+     * @param finestBin the samples of the bin, which is not kept, so can be reused
+     */
+    /*package protected*/ void next(BinAccumulator finestBin) {
+        for (Level level : levels) {
+            if (level.fromFinest) {
+                level.add(finestBin, finestSpanMillis);
+            }
+        }
+    }
+
+    /**
+     * Finishes the bins that are partly filled.
+     *
+     * @return the timeseries of every span, in ascending order of span.
+     */
+    /*package protected*/ List<Timeseries> finish() {
+        List<Timeseries> series = new ArrayList<>(levels.length);
+        for (Level level : levels) {
+            level.flush();
+            series.add(new Timeseries(level.spanMillis, level.statsList));
+        }
+        return series;
+    }
+
+    private static final class Level {
+
+        private final long spanMillis;
+        private final BinAccumulator current;
+        private final List<Level> coarser = new ArrayList<>();
+        private final List<Stats> statsList = new ArrayList<>();
+        private boolean fromFinest = true;
+        private long filledMillis;
+
+        private Level(long spanMillis, int significantDigits, Timing timing) {
+            this.spanMillis = spanMillis;
+            current = new BinAccumulator(significantDigits, timing);
+        }
+
+        private void add(BinAccumulator finer, long finerSpanMillis) {
+            current.add(finer);
+            filledMillis += finerSpanMillis;
+            if (filledMillis == spanMillis) {
+                emit();
+            }
+        }
+
+        private void flush() {
+            if (filledMillis > 0L) {
+                emit();
+            }
+        }
+
+        private void emit() {
+            statsList.add(current.toStats(statsList.size() * spanMillis));
+            for (Level level : coarser) {
+                level.add(current, filledMillis);
+            }
+            current.reset();
+            filledMillis = 0L;
+        }
+    }
+}
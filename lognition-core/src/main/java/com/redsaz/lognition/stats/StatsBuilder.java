@@ -17,13 +17,17 @@ package com.redsaz.lognition.stats;
 
 import com.google.common.hash.Hashing;
 import com.google.common.hash.HashingOutputStream;
+import com.redsaz.lognition.api.model.BinHistogram;
 import com.redsaz.lognition.api.model.CodeCounts;
 import com.redsaz.lognition.api.model.Histogram;
 import com.redsaz.lognition.api.model.Percentiles;
 import com.redsaz.lognition.api.model.Sample;
 import com.redsaz.lognition.api.model.Stats;
 import com.redsaz.lognition.api.model.Timeseries;
+import com.redsaz.lognition.api.model.Timing;
+import com.redsaz.lognition.api.model.WindowStats;
 import com.redsaz.lognition.convert.AvroSamplesWriter;
+import com.redsaz.lognition.convert.ColumnarSamples;
 import com.redsaz.lognition.convert.CsvJtlSource;
 import com.redsaz.lognition.convert.Samples;
 import com.redsaz.lognition.convert.SamplesWriter;
@@ -37,6 +41,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -98,10 +103,248 @@ public class StatsBuilder {
         return builder.commitBin().build();
     }
 
+    public static CodeCounts calcAggregateCounts(ColumnarSamples samples) {
+        CodeCounts.Builder builder = new CodeCounts.Builder(0L);
+        countCodes(builder, samples, 0, samples.size(), newSlotsOfStatuses(samples));
+
+        return builder.commitBin().build();
+    }
+
+    public static Stats calcAggregateStats(ColumnarSamples samples) {
+        return calcAggregateStats(samples, Timing.ELAPSED);
+    }
+
+    /**
+     * Calculates the stats of one of the times of the samples. Samples that do not have the time
+     * are left out.
+     *
+     * @param samples the samples
+     * @param timing which time of the samples
+     * @return the stats.
+     */
+    public static Stats calcAggregateStats(ColumnarSamples samples, Timing timing) {
+        return calcAggregateStats(samples, timing, StreamingStatsBuilder.DEFAULT_AGGREGATE_DIGITS);
+    }
+
+    /**
+     * Same as {@link #calcAggregateStats(ColumnarSamples, Timing)}, but with the given precision.
+     * The percentiles are taken from a histogram of the times rather than by sorting them, so are
+     * no more than one part in 10^significantDigits above the exact percentile, and never above
+     * the max. The min, max, average and counts are exact.
+     *
+     * @param significantDigits the precision of the percentiles, 0-5
+     */
+    public static Stats calcAggregateStats(ColumnarSamples samples, Timing timing, int significantDigits) {
+        BinAccumulator acc = new BinAccumulator(significantDigits, timing);
+        record(acc, samples, 0, samples.size(), timing);
+        return acc.toStats(0L);
+    }
+
+    public static StatsItems calcHistogram(ColumnarSamples samples) {
+        return calcHistogram(samples, Timing.ELAPSED);
+    }
+
+    /**
+     * Same as {@link #calcHistogram(ColumnarSamples)}, but of one of the times of the samples.
+     * Samples that do not have the time are left out.
+     */
+    public static StatsItems calcHistogram(ColumnarSamples samples, Timing timing) {
+        long maxValue = -1L;
+        for (int i = 0; i < samples.size(); ++i) {
+            if (maxValue < samples.getTime(i, timing)) {
+                maxValue = samples.getTime(i, timing);
+            }
+        }
+        AbstractHistogram hist = new IntCountsHistogram(Math.max(2L, maxValue), 5);
+        for (int i = 0; i < samples.size(); ++i) {
+            long time = samples.getTime(i, timing);
+            if (time >= 0) {
+                hist.recordValue(time);
+            }
+        }
+        return createStatsItems(hist);
+    }
+
+    /**
+     * Calculates time series code counts on previously sorted (by offset) samples.
+     *
+     * @param offsetSortedSamples samples, sorted in the order that they occurred
+     * @param spanMillis The time that each bucket spans
+     * @return the timeseries code counts.
+     */
+    public static CodeCounts calcTimeseriesCounts(ColumnarSamples offsetSortedSamples, long spanMillis) {
+        int numBins = calcNumBins(offsetSortedSamples, spanMillis);
+
+        CodeCounts.Builder builder = new CodeCounts.Builder(spanMillis);
+        int[] slotsOfStatuses = newSlotsOfStatuses(offsetSortedSamples);
+        int binStart = 0;
+        for (int i = 0; i < numBins; ++i) {
+            long endOffset = spanMillis * (i + 1);
+            int binEnd = findEndOfBin(offsetSortedSamples, binStart, endOffset);
+            countCodes(builder, offsetSortedSamples, binStart, binEnd, slotsOfStatuses);
+            builder.commitBin();
+            binStart = binEnd;
+        }
+        return builder.build();
+    }
+
+    /**
+     * Calculates time series stats on previously sorted (by offset) samples. Unlike the list
+     * form, the order of the samples is not changed.
+     *
+     * @param offsetSortedSamples samples, sorted in the order that they occurred
+     * @param spanMillis The time that each bucket spans
+     * @return the timeseries.
+     */
+    public static Timeseries calcTimeseriesStats(ColumnarSamples offsetSortedSamples, long spanMillis) {
+        return calcTimeseriesStats(offsetSortedSamples, spanMillis, Timing.ELAPSED);
+    }
+
+    /**
+     * Same as {@link #calcTimeseriesStats(ColumnarSamples, long)}, but of one of the times of the
+     * samples. Samples that do not have the time are left out.
+     *
+     * @param timing which time of the samples
+     */
+    public static Timeseries calcTimeseriesStats(ColumnarSamples offsetSortedSamples, long spanMillis,
+            Timing timing) {
+        return calcTimeseriesStats(offsetSortedSamples, spanMillis, timing, StreamingStatsBuilder.DEFAULT_BIN_DIGITS);
+    }
+
+    /**
+     * Same as {@link #calcTimeseriesStats(ColumnarSamples, long, Timing)}, but with the given
+     * precision. Like {@link #calcAggregateStats(ColumnarSamples, Timing, int)}, the percentiles
+     * of each bin are taken from a histogram, which is reused from bin to bin, so each sample is
+     * only looked at once.
+     *
+     * @param significantDigits the precision of the percentiles, 0-5
+     */
+    public static Timeseries calcTimeseriesStats(ColumnarSamples offsetSortedSamples, long spanMillis,
+            Timing timing, int significantDigits) {
+        int numBins = calcNumBins(offsetSortedSamples, spanMillis);
+
+        List<Stats> statsList = new ArrayList<>(numBins);
+        BinAccumulator acc = new BinAccumulator(significantDigits, timing);
+        int binStart = 0;
+        for (int i = 0; i < numBins; ++i) {
+            long endOffset = spanMillis * (i + 1);
+            int binEnd = findEndOfBin(offsetSortedSamples, binStart, endOffset);
+            acc.reset();
+            record(acc, offsetSortedSamples, binStart, binEnd, timing);
+            statsList.add(acc.toStats(i * spanMillis));
+            binStart = binEnd;
+        }
+
+        return new Timeseries(spanMillis, statsList);
+    }
+
+    /**
+     * Creates the timeseries of one of the times of the samples at every resolution that
+     * {@link Rollups} builds, from 1 second up. The samples are gone through once, in 1 second
+     * bins, and the coarser bins are made from the finer ones.
+     *
+     * @param offsetSortedSamples The samples, sorted from earliest offset to latest
+     * @param timing which time of the samples, where samples without it are skipped
+     * @param significantDigits the precision of the percentiles of each bin, 0-5
+     * @return the timeseries, in ascending order of span, or empty if there are no samples.
+     */
+    public static List<Timeseries> calcRollups(ColumnarSamples offsetSortedSamples, Timing timing,
+            int significantDigits) {
+        return calcRollups(offsetSortedSamples, timing, significantDigits, null);
+    }
+
+    /**
+     * Same as {@link #calcRollups(ColumnarSamples, Timing, int)}, but also gives the histogram of
+     * each 1 second bin that has samples, to be stored so that the stats of any window of time
+     * can be made later with {@link #calcWindowStats(long, long, List, List)}.
+     *
+     * @param binHistograms where to add the histograms of the bins, or null if not wanted
+     */
+    public static List<Timeseries> calcRollups(ColumnarSamples offsetSortedSamples, Timing timing,
+            int significantDigits, List<BinHistogram> binHistograms) {
+        if (offsetSortedSamples.size() == 0) {
+            return Collections.emptyList();
+        }
+        long spanMillis = Rollups.FINEST_SPAN_MILLIS;
+        long lastOffset = Math.max(0L, offsetSortedSamples.getOffset(offsetSortedSamples.size() - 1));
+        int numBins = (int) (lastOffset / spanMillis) + 1;
+        Rollups rollups = new Rollups(spanMillis, Rollups.spansFor(numBins, spanMillis),
+                significantDigits, timing);
+
+        BinAccumulator acc = new BinAccumulator(significantDigits, timing);
+        int binStart = 0;
+        for (int i = 0; i < numBins; ++i) {
+            long endOffset = spanMillis * (i + 1);
+            int binEnd = findEndOfBin(offsetSortedSamples, binStart, endOffset);
+            acc.reset();
+            record(acc, offsetSortedSamples, binStart, binEnd, timing);
+            rollups.next(acc);
+            if (binHistograms != null) {
+                BinHistogram binHistogram = acc.toBinHistogram(i * spanMillis, spanMillis);
+                if (binHistogram != null) {
+                    binHistograms.add(binHistogram);
+                }
+            }
+            binStart = binEnd;
+        }
+        return rollups.finish();
+    }
+
+    /**
+     * Creates the stats of a window of time from the stored histograms of the bins within it,
+     * without the samples. The min, max, average and counts are exact. The percentiles are as
+     * precise as the histograms of the bins.
+     *
+     * @param fromMillis The start of the window, inclusive
+     * @param toMillis The end of the window, exclusive
+     * @param labelIds The labels the bins are of
+     * @param bins The bins within the window, of those labels
+     * @return the stats of the window.
+     * @throws IllegalArgumentException if the histogram of a bin cannot be read
+     */
+    public static WindowStats calcWindowStats(long fromMillis, long toMillis, List<Long> labelIds,
+            List<BinHistogram> bins) {
+        // Added at the precision the bins were stored at, so that no percentile is made lower.
+        int significantDigits = StreamingStatsBuilder.DEFAULT_BIN_DIGITS;
+        if (!bins.isEmpty()) {
+            significantDigits = BinAccumulator.decode(bins.get(0)).getNumberOfSignificantValueDigits();
+        }
+        BinAccumulator acc = new BinAccumulator(significantDigits, Timing.ELAPSED);
+        bins.forEach(acc::add);
+        StatsItems histAndPercs = createStatsItems(acc.getHistogram());
+        return new WindowStats(fromMillis, toMillis, labelIds, acc.toStats(fromMillis),
+                histAndPercs.getHistogram(), histAndPercs.getPercentiles());
+    }
+
+    /**
+     * Sorts the samples by label and then by offset, and gives a view of the samples of each
+     * label. Samples without a label are not included in any view.
+     *
+     * @param samples The samples to sort and return views of.
+     * @return a map where key=label, value=view of the samples for that label.
+     */
+    public static Map<String, ColumnarSamples> sortAndSplitByLabel(ColumnarSamples samples) {
+        samples.sortByLabel();
+        Map<String, ColumnarSamples> labelSamples = new TreeMap<>();
+        int startIndex = 0;
+        while (startIndex < samples.size()) {
+            int labelId = samples.getLabelId(startIndex);
+            int endIndex = startIndex + 1;
+            while (endIndex < samples.size() && samples.getLabelId(endIndex) == labelId) {
+                ++endIndex;
+            }
+            if (labelId >= 0) {
+                labelSamples.put(samples.getLabels().get(labelId), samples.subSamples(startIndex, endIndex));
+            }
+            startIndex = endIndex;
+        }
+        return labelSamples;
+    }
+
     public static Stats calcAggregateStats(List<Sample> samples) {
-        Collections.sort(samples, DURATION_COMPARATOR);
-        Stats stats = createStats(0, samples);
-        return stats;
+        BinAccumulator acc = new BinAccumulator(StreamingStatsBuilder.DEFAULT_AGGREGATE_DIGITS, Timing.ELAPSED);
+        samples.forEach(acc::add);
+        return acc.toStats(0L);
     }
 
     public static StatsItems calcHistogram(List<Sample> samples) {
@@ -115,6 +358,16 @@ public class StatsBuilder {
         for (Sample sample : samples) {
             hist.recordValue(sample.getDuration());
         }
+        return createStatsItems(hist);
+    }
+
+    /**
+     * Creates the histogram and percentiles from the recorded durations.
+     *
+     * @param hist the recorded durations
+     * @return the histogram and percentiles.
+     */
+    /*package protected*/ static StatsItems createStatsItems(AbstractHistogram hist) {
 //        Note: It seems "From" is exclusive and "To" is inclusive
         LogarithmicBucketValues buckets = hist.logarithmicBucketValues(1, 1.1d);
         List<Long> counts = new ArrayList<>();
@@ -240,9 +493,6 @@ public class StatsBuilder {
      * <p>
      * NOTE: The samples will need to be sorted by offset (earliest to latest) for this method to
      * work right. work.
-     * <p>
-     * WARNING: This alters the order of the samples. The samples will need to be resorted by offset
-     * if further stats will be taken.
      *
      * @param samples data which is already-ordered-by-earliest-to-latest-offset
      * @param numBins How many elements the resulting list will have
@@ -251,17 +501,17 @@ public class StatsBuilder {
      */
     private static List<Stats> createStatsList(List<Sample> samples, int numBins, long interval) {
         List<Stats> list = new ArrayList<>(numBins);
+        BinAccumulator acc = new BinAccumulator(StreamingStatsBuilder.DEFAULT_BIN_DIGITS, Timing.ELAPSED);
         int samplesToSkip = 0;
         for (int i = 0; i < numBins; ++i) {
             long endOffset = interval * (i + 1);
             // First find the samples for the timerange of the bin
             List<Sample> binSamples = getSamplesWithinOffsets(samples, samplesToSkip, endOffset);
             samplesToSkip += binSamples.size();
-            // Then sort those samples in order from shortest duration to longest so that we
-            // can calculate the percentiles.
-            Collections.sort(binSamples, DURATION_COMPARATOR);
-            Stats binStats = createStats(i * interval, binSamples);
-            list.add(i, binStats);
+            // Then take the percentiles from a histogram of the durations, rather than sorting.
+            acc.reset();
+            binSamples.forEach(acc::add);
+            list.add(i, acc.toStats(i * interval));
         }
         return list;
     }
@@ -512,55 +762,62 @@ public class StatsBuilder {
     };
 
     /**
-     * Creates stats based on the provided samples which should already be ordered from shortest
-     * duration to longest.
+     * Records one of the times of a range of the samples, which can be in any order.
      *
-     * @param offsetMillis The point in time, with 0 being the start of the test, that these stats
-     * start at
-     * @param durationOrderedSamples The samples to calculate the stats on.
+     * @param acc what to record the times in
+     * @param samples The samples to record
+     * @param from the first sample of the range, inclusive
+     * @param to the last sample of the range, exclusive
+     * @param timing which time of the samples, where samples without it are skipped
      */
-    private static Stats createStats(long offsetMillis, List<Sample> durationOrderedSamples) {
-        Long min = null;
-        Long p25 = null;
-        Long p50 = null;
-        Long p75 = null;
-        Long p90 = null;
-        Long p95 = null;
-        Long p99 = null;
-        Long max = null;
-
-        if (!durationOrderedSamples.isEmpty()) {
-            min = durationOrderedSamples.get(0).getDuration();
-            p25 = getElement(durationOrderedSamples, 0.25D).getDuration();
-            p50 = getElement(durationOrderedSamples, 0.50D).getDuration();
-            p75 = getElement(durationOrderedSamples, 0.75D).getDuration();
-            p90 = getElement(durationOrderedSamples, 0.90D).getDuration();
-            p95 = getElement(durationOrderedSamples, 0.95D).getDuration();
-            p99 = getElement(durationOrderedSamples, 0.99D).getDuration();
-            max = durationOrderedSamples.get(durationOrderedSamples.size() - 1).getDuration();
-        }
-        long numSamples = durationOrderedSamples.size();
-        long cumulativeDuration = 0;
-        long cumulativeResponseBytes = 0;
-        long cumulativeErrors = 0;
-        for (int i = 0; i < durationOrderedSamples.size(); ++i) {
-            Sample sample = durationOrderedSamples.get(i);
-            cumulativeDuration += sample.getDuration();
-            cumulativeResponseBytes += sample.getResponseBytes();
-            if (!sample.isSuccess()) {
-                ++cumulativeErrors;
-            }
+    private static void record(BinAccumulator acc, ColumnarSamples samples, int from, int to, Timing timing) {
+        for (int i = from; i < to; ++i) {
+            acc.record(samples.getTime(i, timing), samples.getResponseBytes(i), samples.isSuccess(i));
         }
-        Long avg = null;
-        if (numSamples != 0) {
-            avg = cumulativeDuration / numSamples;
+    }
+
+    private static int[] newSlotsOfStatuses(ColumnarSamples samples) {
+        return new int[samples.getStatusIndexCount()];
+    }
+
+    /**
+     * Counts the status codes of a range of samples into the current bin of the builder, by the
+     * status of each sample rather than its code, so the code of each status is only looked up
+     * once. Samples without a status code are not counted, the same as when streaming.
+     *
+     * @param slotsOfStatuses by the status index of each sample, its slot in the builder plus
+     * one, -1 if it has no code, or 0 if it has not been seen yet. Kept between bins.
+     */
+    private static void countCodes(CodeCounts.Builder builder, ColumnarSamples samples, int from, int to, int[] slotsOfStatuses) {
+        for (int i = from; i < to; ++i) {
+            int status = samples.getStatusIndex(i);
+            int slot = slotsOfStatuses[status];
+            if (slot == 0) {
+                String code = samples.getStatusCode(i);
+                slot = code == null || code.isEmpty() ? -1 : builder.slot(code) + 1;
+                slotsOfStatuses[status] = slot;
+            }
+            if (slot > 0) {
+                builder.incrementSlot(slot - 1, 1);
+            }
         }
-        return new Stats(offsetMillis, min, p25, p50, p75, p90, p95, p99, max, avg, numSamples, cumulativeResponseBytes, cumulativeErrors);
     }
 
-    private static <T> T getElement(List<T> items, double percent) {
-        int index = (int) Math.ceil(((double) (items.size() - 1)) * percent);
-        return items.get(index);
+    private static int calcNumBins(ColumnarSamples offsetSortedSamples, long spanMillis) {
+        long lastOffset = offsetSortedSamples.getOffset(offsetSortedSamples.size() - 1);
+        return (int) Math.ceil((double) lastOffset / spanMillis);
+    }
+
+    /**
+     * Finds the end (exclusive) of the bin starting at binStart, which is the first sample at or
+     * after binStart with an offset equal to or greater than the endOffset.
+     */
+    private static int findEndOfBin(ColumnarSamples offsetSortedSamples, int binStart, long endOffset) {
+        int i = binStart;
+        while (i < offsetSortedSamples.size() && offsetSortedSamples.getOffset(i) < endOffset) {
+            ++i;
+        }
+        return i;
     }
 
     public static class StatsItems {
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.stats;
+
+import com.redsaz.lognition.api.model.BinHistogram;
+import com.redsaz.lognition.api.model.CodeCounts;
+import com.redsaz.lognition.api.model.Sample;
+import com.redsaz.lognition.api.model.Stats;
+import com.redsaz.lognition.api.model.Timeseries;
+import com.redsaz.lognition.api.model.Timing;
+import com.redsaz.lognition.convert.SampleListener;
+import com.redsaz.lognition.stats.StatsBuilder.StatsItems;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Creates the same kinds of stats as {@link StatsBuilder}, but is given the samples one at a time
+ * rather than needing all of them in a list. Memory use depends upon the number of labels and time
+ * bins, rather than the number of samples.
+ * <p>
+ * Because the samples are not kept, the percentiles come from histograms of the durations, and are
+ * only accurate to the number of significant digits that the histograms are created with. The
+ * offsets of the samples must already be relative to the start of the test.
+ * <p>
+ * The histogram of a time bin is only kept while the bin can still get samples. Once a bin is
+ * finished, only its stats, and the compressed histogram that is stored for it, are kept, and it
+ * is added to the coarser resolutions of the rollups. When bins are finished depends on how out
+ * of order the samples are, given by {@link #samplesStarting(long, long)} or
+ * {@link #setMaxLateMillis(long)}. If neither is given, every bin is kept until the rollups are
+ * asked for.
+ * <p>
+ * The elapsed times are always collected. The latency and connect times are only collected once
+ * a sample has them, so there are no series for them if the log does not record them.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+public class StreamingStatsBuilder implements SampleListener {
+
+    public static final int DEFAULT_BIN_DIGITS = 2;
+    public static final int DEFAULT_AGGREGATE_DIGITS = 3;
+
+    private final long spanMs;
+    private final long countsSpanMs;
+    private final int binDigits;
+    private final int aggregateDigits;
+    private final Map<Timing, Series> overall = new EnumMap<>(Timing.class);
+    private final Map<Timing, Map<String, Series>> labelsSeries = new EnumMap<>(Timing.class);
+    private long maxLateMs = Long.MAX_VALUE;
+    private int numBins = -1;
+    private long latestOffset = Long.MIN_VALUE;
+
+    public StreamingStatsBuilder(long spanMillis) {
+        this(spanMillis, DEFAULT_BIN_DIGITS, DEFAULT_AGGREGATE_DIGITS);
+    }
+
+    /**
+     * @param spanMillis The time that each bin of the timeseries and the code counts spans
+     * @param binSignificantDigits The precision of the percentiles for each timeseries bin, 0-5
+     * @param aggregateSignificantDigits The precision of the percentiles and histogram for the
+     * aggregate stats, 0-5
+     */
+    public StreamingStatsBuilder(long spanMillis, int binSignificantDigits, int aggregateSignificantDigits) {
+        this(spanMillis, spanMillis, binSignificantDigits, aggregateSignificantDigits);
+    }
+
+    /**
+     * @param spanMillis The time that each bin of the timeseries spans
+     * @param countsSpanMillis The time that each bin of the code counts spans
+     * @param binSignificantDigits The precision of the percentiles for each timeseries bin, 0-5
+     * @param aggregateSignificantDigits The precision of the percentiles and histogram for the
+     * aggregate stats, 0-5
+     */
+    public StreamingStatsBuilder(long spanMillis, long countsSpanMillis, int binSignificantDigits,
+            int aggregateSignificantDigits) {
+        spanMs = spanMillis;
+        countsSpanMs = countsSpanMillis;
+        binDigits = binSignificantDigits;
+        aggregateDigits = aggregateSignificantDigits;
+        overall.put(Timing.ELAPSED, createSeries(Timing.ELAPSED));
+        labelsSeries.put(Timing.ELAPSED, new HashMap<>());
+    }
+
+    /**
+     * Finishes each bin as soon as no later sample can be in it, and builds the rollups as the
+     * bins are finished, with the frames of the whole test. Must be called before any samples.
+     */
+    @Override
+    public void samplesStarting(long lastOffsetMillis, long maxLateMillis) {
+        numBins = (int) (Math.max(0L, lastOffsetMillis) / spanMs) + 1;
+        // Made again, now that the rollups of the series can be built as it goes.
+        overall.put(Timing.ELAPSED, createSeries(Timing.ELAPSED));
+        setMaxLateMillis(maxLateMillis);
+    }
+
+    /**
+     * Finishes each bin once a sample this far past its end is seen, for when how out of order
+     * the samples are is not known up front. A sample later than that is still counted in the
+     * aggregate and the code counts, but not in its bin. The rollups cannot be built once bins
+     * are finished this way, since the length of the test was not known.
+     *
+     * @param maxLateMillis the furthest a sample can be behind the latest offset seen before it
+     * and still be counted in its bin
+     */
+    public void setMaxLateMillis(long maxLateMillis) {
+        maxLateMs = maxLateMillis;
+    }
+
+    @Override
+    public void sampleProcessed(Sample sample) {
+        latestOffset = Math.max(latestOffset, sample.getOffset());
+        long finishedBefore = maxLateMs == Long.MAX_VALUE ? 0L : latestOffset - maxLateMs;
+        for (Timing timing : Timing.values()) {
+            if (timing == Timing.ELAPSED || timing.of(sample) >= 0) {
+                add(sample, timing, finishedBefore);
+            }
+        }
+    }
+
+    private void add(Sample sample, Timing timing, long finishedBefore) {
+        overall.computeIfAbsent(timing, this::createSeries)
+                .add(sample, finishedBefore);
+        String label = sample.getLabel();
+        if (label != null) {
+            labelsSeries.computeIfAbsent(timing, k -> new HashMap<>())
+                    .computeIfAbsent(label, k -> createSeries(timing))
+                    .add(sample, finishedBefore);
+        }
+    }
+
+    private Series createSeries(Timing timing) {
+        return new Series(spanMs, countsSpanMs, binDigits, aggregateDigits, timing, numBins);
+    }
+
+    /**
+     * @return the labels of all samples seen so far, sorted.
+     */
+    public List<String> getLabels() {
+        return new ArrayList<>(new TreeSet<>(labelsSeries.get(Timing.ELAPSED).keySet()));
+    }
+
+    /**
+     * @return the series for all samples, regardless of label.
+     */
+    public Series getOverall() {
+        return getOverall(Timing.ELAPSED);
+    }
+
+    /**
+     * @param timing which time of the samples
+     * @return the series of the time for all samples, regardless of label, or null if no
+     * samples had the time.
+     */
+    public Series getOverall(Timing timing) {
+        return overall.get(timing);
+    }
+
+    /**
+     * @param label the label of the samples
+     * @return the series of the samples for the label, or null if no samples had that label.
+     */
+    public Series getSeries(String label) {
+        return getSeries(label, Timing.ELAPSED);
+    }
+
+    /**
+     * @param label the label of the samples
+     * @param timing which time of the samples
+     * @return the series of the time of the samples for the label, or null if no samples had
+     * that label and time.
+     */
+    public Series getSeries(String label, Timing timing) {
+        Map<String, Series> series = labelsSeries.get(timing);
+        return series == null ? null : series.get(label);
+    }
+
+    /**
+     * The accumulated stats of a group of samples, both in aggregate and binned over time.
+     */
+    public static class Series {
+
+        private final long spanMs;
+        private final long countsSpanMs;
+        private final int binDigits;
+        private final Timing timing;
+        private final BinAccumulator aggregate;
+        private final BinAccumulator emptyBin;
+        // The bins that can still get samples, starting with the bin at firstOpenBin, and null
+        // where a bin has no samples yet. Finished bins are reset and reused.
+        private final List<BinAccumulator> openBins = new ArrayList<>();
+        private final ArrayDeque<BinAccumulator> spareBins = new ArrayDeque<>();
+        private int firstOpenBin;
+        private final List<Stats> finishedStats = new ArrayList<>();
+        private final List<BinHistogram> binHistograms = new ArrayList<>();
+        private final List<Map<String, int[]>> countBins = new ArrayList<>();
+        private Rollups rollups;
+        private List<Timeseries> allRollups;
+
+        private Series(long spanMillis, long countsSpanMillis, int binSignificantDigits,
+                int aggregateSignificantDigits, Timing timing, int numBins) {
+            spanMs = spanMillis;
+            countsSpanMs = countsSpanMillis;
+            binDigits = binSignificantDigits;
+            this.timing = timing;
+            aggregate = new BinAccumulator(aggregateSignificantDigits, timing);
+            emptyBin = new BinAccumulator(binSignificantDigits, timing);
+            if (numBins >= 0) {
+                rollups = createRollups(numBins);
+            }
+        }
+
+        /**
+         * @param finishedBefore the offset that no later sample can be before, or 0 if not known
+         */
+        private void add(Sample sample, long finishedBefore) {
+            aggregate.add(sample);
+            long offset = Math.max(0L, sample.getOffset());
+            countCode(sample, offset);
+            int binIndex = (int) (offset / spanMs);
+            if (finishedBefore > 0L) {
+                // Bins past the latest of this series are left for when it gets there, so that
+                // the series ends with its own last sample.
+                finishBins((int) Math.min(binIndex, finishedBefore / spanMs));
+            }
+            if (binIndex < firstOpenBin) {
+                // Its bin was finished before it arrived.
+                return;
+            }
+            int openIndex = binIndex - firstOpenBin;
+            while (openBins.size() <= openIndex) {
+                openBins.add(null);
+            }
+            BinAccumulator bin = openBins.get(openIndex);
+            if (bin == null) {
+                bin = spareBins.isEmpty() ? new BinAccumulator(binDigits, timing) : spareBins.pop();
+                openBins.set(openIndex, bin);
+            }
+            bin.add(sample);
+        }
+
+        private void countCode(Sample sample, long offset) {
+            int countIndex = (int) (offset / countsSpanMs);
+            while (countBins.size() <= countIndex) {
+                countBins.add(null);
+            }
+            // The codes are the same whichever timing is collected, so are only counted for elapsed.
+            String code = sample.getStatusCode();
+            if (timing == Timing.ELAPSED && code != null && !code.isEmpty()) {
+                Map<String, int[]> counts = countBins.get(countIndex);
+                if (counts == null) {
+                    counts = new HashMap<>();
+                    countBins.set(countIndex, counts);
+                }
+                counts.computeIfAbsent(code, k -> new int[1])[0]++;
+            }
+        }
+
+        /**
+         * Finishes every bin before the given one, including any empty bins not yet seen.
+         */
+        private void finishBins(int before) {
+            if (before <= firstOpenBin) {
+                return;
+            }
+            int numFinished = Math.min(before - firstOpenBin, openBins.size());
+            for (int i = 0; i < numFinished; ++i) {
+                finishBin(firstOpenBin + i, openBins.get(i));
+            }
+            openBins.subList(0, numFinished).clear();
+            for (int i = firstOpenBin + numFinished; i < before; ++i) {
+                finishBin(i, null);
+            }
+            firstOpenBin = before;
+        }
+
+        private void finishBin(int index, BinAccumulator bin) {
+            BinAccumulator filled = bin == null ? emptyBin : bin;
+            long offsetMillis = index * spanMs;
+            finishedStats.add(filled.toStats(offsetMillis));
+            if (rollups != null) {
+                rollups.next(filled);
+            }
+            if (bin != null) {
+                BinHistogram binHistogram = timing == Timing.ELAPSED ? bin.toBinHistogram(offsetMillis, spanMs) : null;
+                if (binHistogram != null) {
+                    binHistograms.add(binHistogram);
+                }
+                bin.reset();
+                spareBins.push(bin);
+            }
+        }
+
+        private Rollups createRollups(int numBins) {
+            // The finest bins are kept by the series, so only the coarser spans are built.
+            long[] spans = Rollups.spansFor(numBins, spanMs);
+            return new Rollups(spanMs, Arrays.copyOfRange(spans, 1, spans.length), binDigits, timing);
+        }
+
+        public CodeCounts getAggregateCounts() {
+            return createCodeCounts(0L, Collections.singletonList(aggregate.getCodeCounts()));
+        }
+
+        public CodeCounts getTimeseriesCounts() {
+            return createCodeCounts(countsSpanMs, countBins);
+        }
+
+        public Stats getAggregate() {
+            return aggregate.toStats(0L);
+        }
+
+        public Timeseries getTimeseries() {
+            List<Stats> statsList = new ArrayList<>(finishedStats.size() + openBins.size());
+            statsList.addAll(finishedStats);
+            for (int i = 0; i < openBins.size(); ++i) {
+                BinAccumulator bin = openBins.get(i);
+                statsList.add((bin == null ? emptyBin : bin).toStats((firstOpenBin + i) * spanMs));
+            }
+            return new Timeseries(spanMs, statsList);
+        }
+
+        /**
+         * Gives the timeseries at every resolution that {@link Rollups} builds from the span of
+         * this series up, made from the bins of this series rather than from the samples. This
+         * finishes every bin, so no more samples can be given afterwards.
+         *
+         * @return the timeseries, in ascending order of span, starting with this series.
+         * @throws IllegalStateException if bins were finished before the length of the test was
+         * known
+         */
+        public List<Timeseries> getRollups() {
+            if (allRollups != null) {
+                return allRollups;
+            }
+            if (rollups == null) {
+                if (firstOpenBin > 0) {
+                    throw new IllegalStateException("Cannot roll up bins that were finished before the length of the test was known.");
+                }
+                rollups = createRollups(openBins.size());
+            }
+            finishBins(firstOpenBin + openBins.size());
+            allRollups = new ArrayList<>();
+            allRollups.add(new Timeseries(spanMs, finishedStats));
+            allRollups.addAll(rollups.finish());
+            return allRollups;
+        }
+
+        /**
+         * @return the histogram of each bin of elapsed times that has samples, to be stored so
+         * that the stats of any window of time can be made later. Empty for the other timings.
+         */
+        public List<BinHistogram> getBinHistograms() {
+            List<BinHistogram> allBins = new ArrayList<>(binHistograms);
+            if (timing == Timing.ELAPSED) {
+                for (int i = 0; i < openBins.size(); ++i) {
+                    BinAccumulator bin = openBins.get(i);
+                    BinHistogram binHistogram = bin == null ? null : bin.toBinHistogram((firstOpenBin + i) * spanMs, spanMs);
+                    if (binHistogram != null) {
+                        allBins.add(binHistogram);
+                    }
+                }
+            }
+            return allBins;
+        }
+
+        public StatsItems getHistogram() {
+            return StatsBuilder.createStatsItems(aggregate.getHistogram());
+        }
+
+        private static CodeCounts createCodeCounts(long spanMillis, List<Map<String, int[]>> binList) {
+            CodeCounts.Builder builder = new CodeCounts.Builder(spanMillis);
+            for (Map<String, int[]> counts : binList) {
+                if (counts != null) {
+                    counts.forEach((code, count) -> builder.increment(code, count[0]));
+                }
+                builder.commitBin();
+            }
+            return builder.build();
+        }
+    }
+}
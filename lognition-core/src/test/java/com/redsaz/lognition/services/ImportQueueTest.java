@@ -0,0 +1,231 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.services;
+
+import com.redsaz.lognition.api.model.ImportInfo;
+import com.redsaz.lognition.api.model.ImportStatus;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImportQueueTest {
+
+    @Rule
+    public TemporaryFolder importDir = new TemporaryFolder();
+
+    @Test
+    public void testSmallestFirst() throws Exception {
+        // Given imports of different sizes queued largest first,
+        ImportQueue unit = new ImportQueue(new ImportSettings.Builder().importThreads(4).build());
+        unit.add(createImport(1L, 300));
+        unit.add(createImport(2L, 100));
+        unit.add(createImport(3L, 200));
+        unit.add(createImport(4L, 100));
+
+        // Then the queue shows them smallest first, same sizes in the order queued,
+        List<ImportStatus> statuses = unit.listStatuses();
+        assertEquals(4, statuses.size());
+        long[] expectedIds = {2L, 4L, 3L, 1L};
+        for (int i = 0; i < expectedIds.length; ++i) {
+            assertEquals(expectedIds[i], statuses.get(i).getId());
+            assertEquals(ImportStatus.State.QUEUED, statuses.get(i).getState());
+            assertEquals(i, statuses.get(i).getPosition());
+            assertEquals(4, statuses.get(i).getQueueDepth());
+        }
+        // and they are taken in that order.
+        for (long expectedId : expectedIds) {
+            assertEquals(expectedId, unit.take().getInfo().getId());
+        }
+    }
+
+    @Test
+    public void testFifo() throws Exception {
+        ImportQueue unit = new ImportQueue(new ImportSettings.Builder()
+                .scheduling(ImportSettings.Scheduling.FIFO).importThreads(3).build());
+        unit.add(createImport(1L, 300));
+        unit.add(createImport(2L, 100));
+        unit.add(createImport(3L, 200));
+
+        assertEquals(1L, unit.take().getInfo().getId());
+        assertEquals(2L, unit.take().getInfo().getId());
+        assertEquals(3L, unit.take().getInfo().getId());
+    }
+
+    @Test
+    public void testAdmissionLimit() throws Exception {
+        // Given a limit on how many bytes can be imported at once,
+        ImportQueue unit = new ImportQueue(new ImportSettings.Builder()
+                .scheduling(ImportSettings.Scheduling.FIFO)
+                .importThreads(2)
+                .maxConcurrentImportBytes(250L).build());
+        unit.add(createImport(1L, 200));
+        unit.add(createImport(2L, 100));
+        unit.add(createImport(3L, 50));
+
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        try {
+            // When an import is in progress, and the next one would go over the limit,
+            ImportQueue.Job first = unit.take();
+            assertEquals(1L, first.getInfo().getId());
+            Future<ImportQueue.Job> second = exec.submit(unit::take);
+
+            // Then the next one waits,
+            assertWaiting(second);
+            List<ImportStatus> statuses = unit.listStatuses();
+            assertEquals(ImportStatus.State.IMPORTING, statuses.get(0).getState());
+            assertEquals(-1, statuses.get(0).getPosition());
+            assertEquals(2, statuses.get(0).getQueueDepth());
+            assertEquals(2L, statuses.get(1).getId());
+
+            // and starts once the first import finishes,
+            unit.finish(first);
+            assertEquals(2L, second.get(10, TimeUnit.SECONDS).getInfo().getId());
+
+            // and imports that fit within the limit start alongside it.
+            assertEquals(3L, unit.take().getInfo().getId());
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLargerThanLimitRunsAlone() throws Exception {
+        ImportQueue unit = new ImportQueue(new ImportSettings.Builder()
+                .maxConcurrentImportBytes(100L).build());
+        unit.add(createImport(1L, 500));
+
+        // An import larger than the limit still starts when nothing else is importing.
+        assertEquals(1L, unit.take().getInfo().getId());
+    }
+
+    @Test
+    public void testStreamingLimited() throws Exception {
+        // Streamed imports still spool each log to disk, so are limited the same.
+        ImportQueue unit = new ImportQueue(new ImportSettings.Builder()
+                .streaming(true)
+                .maxConcurrentImportBytes(600L).build());
+        unit.add(createImport(1L, 500));
+        unit.add(createImport(2L, 500));
+
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        try {
+            ImportQueue.Job first = unit.take();
+            assertEquals(1L, first.getInfo().getId());
+            Future<ImportQueue.Job> second = exec.submit(unit::take);
+            assertWaiting(second);
+
+            unit.finish(first);
+            assertEquals(2L, second.get(10, TimeUnit.SECONDS).getInfo().getId());
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMergeWeighedUncompressed() throws Exception {
+        // Given a zip of logs that are much larger than the zip,
+        File zip = importDir.newFile("1.zip");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip))) {
+            for (int i = 0; i < 2; ++i) {
+                zos.putNextEntry(new ZipEntry("gen" + i + ".jtl"));
+                zos.write(new byte[10000]);
+                zos.closeEntry();
+            }
+        }
+
+        // Then the size of the merge is the size of the logs, not of the zip.
+        assertTrue("Zip should be compressed", zip.length() < 1000L);
+        assertEquals(20000L, ImportQueue.uncompressedSize(zip));
+        ImportQueue unit = new ImportQueue(ImportSettings.defaults());
+        unit.add(new ImportInfo(1L, zip.getPath(), 1595126270000L));
+        assertEquals(20000L, unit.listStatuses().get(0).getSizeBytes());
+    }
+
+    @Test
+    public void testTryStartTakesAnImporter() throws Exception {
+        // Given one importer thread,
+        ImportQueue unit = new ImportQueue(new ImportSettings.Builder()
+                .maxConcurrentImportBytes(1000L).build());
+
+        // When an import is started straight away,
+        ImportQueue.Job uploading = unit.tryStart(new ImportInfo(1L, "1.jtl", 1595126270000L));
+        assertNotNull(uploading);
+        unit.updateSize(uploading, 800L);
+
+        // Then no other import can start until it is done,
+        assertNull(unit.tryStart(new ImportInfo(2L, "2.jtl", 1595126270000L)));
+        unit.add(createImport(3L, 100));
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        try {
+            Future<ImportQueue.Job> queued = exec.submit(unit::take);
+            assertWaiting(queued);
+            assertEquals(800L, unit.listStatuses().get(0).getSizeBytes());
+
+            unit.finish(uploading);
+            assertEquals(3L, queued.get(10, TimeUnit.SECONDS).getInfo().getId());
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        ImportQueue unit = new ImportQueue(ImportSettings.defaults());
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        try {
+            Future<ImportQueue.Job> waiting = exec.submit(unit::take);
+            assertWaiting(waiting);
+
+            unit.shutdown();
+
+            assertNull(waiting.get(10, TimeUnit.SECONDS));
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    private ImportInfo createImport(long id, int sizeBytes) throws IOException {
+        File file = importDir.newFile(id + ".jtl");
+        Files.write(file.toPath(), new byte[sizeBytes]);
+        return new ImportInfo(id, file.getPath(), 1595126270000L);
+    }
+
+    private static void assertWaiting(Future<?> future) throws Exception {
+        try {
+            future.get(200, TimeUnit.MILLISECONDS);
+            fail("Should still be waiting.");
+        } catch (TimeoutException ex) {
+            // Expected.
+        }
+    }
+}
@@ -18,26 +18,49 @@ package com.redsaz.lognition.services;
 import com.redsaz.lognition.api.ImportService;
 import com.redsaz.lognition.api.LogsService;
 import com.redsaz.lognition.api.StatsService;
+import com.redsaz.lognition.api.exceptions.AppClientException;
 import com.redsaz.lognition.api.model.ImportInfo;
 import com.redsaz.lognition.api.model.Log;
+import com.redsaz.lognition.api.model.Timeseries;
+import com.redsaz.lognition.convert.AvroToCsvJtlConverter;
+import com.redsaz.lognition.convert.CsvLength;
+import com.redsaz.lognition.stats.Rollups;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -49,13 +72,310 @@ public class ProcessorImportServiceTest {
 
     @Test
     public void testUpload() throws IOException {
-        // Given a CSV-based JTL file,
+        assertUploadImported(null);
+    }
+
+    @Test
+    public void testUploadStreaming() throws IOException {
+        assertUploadImported(new ImportSettings.Builder().streaming(true).build());
+    }
+
+    @Test
+    public void testUploadParallel() throws IOException {
+        assertUploadImported(new ImportSettings.Builder().parseThreads(4).build());
+    }
+
+    @Test
+    public void testUploadParallelStats() throws IOException {
+        assertUploadImported(new ImportSettings.Builder().statsThreads(4).build());
+    }
+
+    @Test
+    public void testUploadImportWhileUploading() throws IOException {
+        assertUploadImported(new ImportSettings.Builder().importWhileUploading(true).build());
+    }
+
+    @Test
+    public void testUploadGzipped() throws IOException {
+        assertUploadImported(null, true);
+    }
+
+    @Test
+    public void testUploadGzippedImportWhileUploading() throws IOException {
+        assertUploadImported(new ImportSettings.Builder().importWhileUploading(true).build(), true);
+    }
+
+    @Test
+    public void testStreamingImportRetried() throws IOException {
+        // Given a streamed import that fails unexpectedly on its first attempt,
         ImportService impSvc = mock(ImportService.class);
         LogsService logSvc = mock(LogsService.class);
         StatsService statsSvc = mock(StatsService.class);
         String importDirStr = importDir.getRoot().toString();
+        String filename = "src/test/resources/test.jtl";
+        Log log = new Log(1L, Log.Status.AWAITING_UPLOAD, "test", "Test", "testtest.csv", "notes");
+        when(impSvc.upload(anyObject(), same(log), eq(importDirStr), anyLong()))
+                .thenReturn(new ImportInfo(1L, filename, 1595126270000L));
+        doThrow(new IllegalStateException("Store unavailable.")).doNothing()
+                .when(logSvc).updateStatus(eq(log.getId()), eq(Log.Status.IMPORTING));
+        ProcessorImportService unit = new ProcessorImportService(impSvc, logSvc, statsSvc, importDirStr,
+                new ImportSettings.Builder().streaming(true).build());
+
+        // When it is uploaded,
+        unit.upload(new ByteArrayInputStream(new byte[0]), log, importDirStr, 1595126270000L);
 
+        // Then it is tried again, with both attempts counted, and finishes.
+        verify(logSvc, timeout(10000)).updateStatus(eq(log.getId()), eq(Log.Status.COMPLETE));
+        verify(impSvc).update(eq(new ImportInfo(1L, filename, 1595126270000L, 1)));
+        verify(impSvc).update(eq(new ImportInfo(1L, filename, 1595126270000L, 2)));
+        verify(logSvc, never()).updateStatus(eq(log.getId()), eq(Log.Status.IMPORT_FAILED));
+        assertTrue(Files.exists(Paths.get(importDirStr, "1.avro")));
+
+        unit.shutdown();
+    }
+
+    @Test
+    public void testStreamingImportFailsOnceAttemptsUsedUp() throws IOException {
+        // Given a streamed import that fails unexpectedly on every attempt,
+        ImportService impSvc = mock(ImportService.class);
+        LogsService logSvc = mock(LogsService.class);
+        StatsService statsSvc = mock(StatsService.class);
+        String importDirStr = importDir.getRoot().toString();
+        Log log = new Log(1L, Log.Status.AWAITING_UPLOAD, "test", "Test", "testtest.csv", "notes");
+        when(impSvc.upload(anyObject(), same(log), eq(importDirStr), anyLong()))
+                .thenReturn(new ImportInfo(1L, "src/test/resources/test.jtl", 1595126270000L));
+        doThrow(new IllegalStateException("Store unavailable."))
+                .when(logSvc).updateStatus(eq(log.getId()), eq(Log.Status.IMPORTING));
+        ProcessorImportService unit = new ProcessorImportService(impSvc, logSvc, statsSvc, importDirStr,
+                new ImportSettings.Builder().streaming(true).build());
+
+        // When it is uploaded,
+        unit.upload(new ByteArrayInputStream(new byte[0]), log, importDirStr, 1595126270000L);
+
+        // Then it is failed once all of its attempts are used, rather than left importing.
+        verify(logSvc, timeout(10000)).updateStatus(eq(log.getId()), eq(Log.Status.IMPORT_FAILED));
+        verify(logSvc, times(3)).updateStatus(eq(log.getId()), eq(Log.Status.IMPORTING));
+        verify(logSvc, never()).updateStatus(eq(log.getId()), eq(Log.Status.COMPLETE));
+        verify(impSvc, never()).delete(anyLong());
+
+        unit.shutdown();
+    }
+
+    @Test
+    public void testImportWhileUploadingDiscardsFailedUpload() throws IOException {
+        // Given an upload that is converted as it is received, but fails to be stored,
+        ImportService impSvc = mock(ImportService.class);
+        LogsService logSvc = mock(LogsService.class);
+        StatsService statsSvc = mock(StatsService.class);
+        String importDirStr = importDir.getRoot().toString();
+        ProcessorImportService unit = new ProcessorImportService(impSvc, logSvc, statsSvc, importDirStr,
+                new ImportSettings.Builder().importWhileUploading(true).build());
+        Log log = new Log(1L, Log.Status.AWAITING_UPLOAD, "test", "Test", "testtest.csv", "notes");
+        when(impSvc.upload(anyObject(), same(log), eq(importDirStr), anyLong())).thenAnswer((invocation) -> {
+            copy((InputStream) invocation.getArguments()[0], new ByteArrayOutputStream());
+            throw new IllegalStateException("Disk full.");
+        });
+
+        // When it is uploaded,
+        try (InputStream is = Files.newInputStream(Paths.get("src/test/resources/test.jtl"))) {
+            unit.upload(is, log, importDirStr, 1595126270000L);
+            fail("The upload should have failed.");
+        } catch (IllegalStateException ex) {
+            // Expected.
+        }
+
+        // Then the failure is shown by both the upload and the conversion,
+        verify(logSvc, timeout(10000).times(2)).updateStatus(eq(log.getId()), eq(Log.Status.UPLOAD_FAILED));
+        // and nothing converted is kept.
+        assertFalse(Files.exists(Paths.get(importDirStr, "1.avro")));
+        assertFalse(Files.exists(Paths.get(importDirStr, "1.avro.blocks")));
+        assertFalse(Files.exists(Paths.get(importDirStr, "1.avro.csvlength")));
+        verify(logSvc, never()).updateStatus(eq(log.getId()), eq(Log.Status.COMPLETE));
+
+        unit.shutdown();
+    }
+
+    @Test
+    public void testResumeUnfinishedImports() {
+        // Given imports left unfinished by a previous run, one of which keeps being cut short,
+        ImportService impSvc = mock(ImportService.class);
+        LogsService logSvc = mock(LogsService.class);
+        StatsService statsSvc = mock(StatsService.class);
+        String importDirStr = importDir.getRoot().toString();
+        String filename = "src/test/resources/test.jtl";
+        ImportInfo unfinished = new ImportInfo(1L, filename, 1595126270000L, 1);
+        ImportInfo keepsFailing = new ImportInfo(2L, filename, 1595126270000L, 3);
+        ImportInfo alreadyFailed = new ImportInfo(3L, filename, 1595126270000L, 1);
+        when(impSvc.list()).thenReturn(Arrays.asList(unfinished, keepsFailing, alreadyFailed));
+        when(logSvc.get(1L)).thenReturn(new Log(1L, Log.Status.IMPORTING, "a", "A", "a.csv", "notes"));
+        when(logSvc.get(2L)).thenReturn(new Log(2L, Log.Status.QUEUED, "b", "B", "b.csv", "notes"));
+        when(logSvc.get(3L)).thenReturn(new Log(3L, Log.Status.IMPORT_FAILED, "c", "C", "c.csv", "notes"));
+
+        CountDownLatch lastStatsComplete = new CountDownLatch(1);
+        doAnswer((invocation) -> {
+            lastStatsComplete.countDown();
+            return null;
+        }).when(statsSvc).createOrUpdatePercentiles(eq(1L), eq(2L), anyObject());
+
+        // When the service starts,
         ProcessorImportService unit = new ProcessorImportService(impSvc, logSvc, statsSvc, importDirStr);
+        await(lastStatsComplete);
+
+        // Then the unfinished import is imported again, with the attempt counted,
+        assertTrue(Files.exists(Paths.get(importDirStr, "1.avro")));
+        verify(impSvc).update(eq(new ImportInfo(1L, filename, 1595126270000L, 2)));
+        verify(logSvc).updateStatus(eq(1L), eq(Log.Status.COMPLETE));
+        // the one that keeps being cut short is failed,
+        verify(logSvc).updateStatus(eq(2L), eq(Log.Status.IMPORT_FAILED));
+        verify(logSvc, never()).updateStatus(eq(2L), eq(Log.Status.IMPORTING));
+        // and the already failed import is left alone.
+        verify(logSvc, never()).updateStatus(eq(3L), anyObject());
+
+        unit.shutdown();
+    }
+
+    @Test
+    public void testLiveImport() throws IOException {
+        // Given a live log, and a test that has written a JTL in parts,
+        ImportService impSvc = mock(ImportService.class);
+        LogsService logSvc = mock(LogsService.class);
+        StatsService statsSvc = mock(StatsService.class);
+        String importDirStr = importDir.getRoot().toString();
+        ProcessorImportService unit = new ProcessorImportService(impSvc, logSvc, statsSvc, importDirStr,
+                new ImportSettings.Builder().liveStatsIntervalMillis(10L).build());
+
+        Log log = new Log(1L, Log.Status.AWAITING_UPLOAD, "test", "Test", "testtest.csv", "notes");
+        String filename = "src/test/resources/test.jtl";
+        byte[] contents = Files.readAllBytes(Paths.get(filename));
+        int firstRowEnd = indexOf(contents, '\n', 0) + 1;
+        int secondRowEnd = indexOf(contents, '\n', firstRowEnd) + 1;
+        ImportInfo live = new ImportInfo(1L, filename, 1595126270000L);
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        when(impSvc.uploadLive(anyObject(), same(log), eq("test"), eq(1595126270000L))).thenAnswer((invocation) -> {
+            copy((InputStream) invocation.getArguments()[0], stored);
+            return live;
+        });
+        when(impSvc.append(eq(1L), anyObject())).thenAnswer((invocation) -> {
+            copy((InputStream) invocation.getArguments()[1], stored);
+            return live;
+        });
+        when(impSvc.seal(1L)).thenReturn(live);
+
+        // with the stats stored while live,
+        long lastLabelId = 2L;
+        CountDownLatch liveStatsStored = new CountDownLatch(1);
+        doAnswer((invocation) -> {
+            liveStatsStored.countDown();
+            return null;
+        }).when(statsSvc).createOrUpdateAggregate(eq(log.getId()), eq(lastLabelId), anyObject());
+        CountDownLatch imported = new CountDownLatch(1);
+        doAnswer((invocation) -> {
+            imported.countDown();
+            return null;
+        }).when(impSvc).delete(1L);
+
+        // When the log is started with its header and first row, and the rest is appended with a
+        // row split between appends,
+        unit.uploadLive(new ByteArrayInputStream(contents, 0, firstRowEnd + 10), log, "test", 1595126270000L);
+        unit.append(1L, new ByteArrayInputStream(contents, firstRowEnd + 10, secondRowEnd - firstRowEnd - 10));
+        unit.append(1L, new ByteArrayInputStream(contents, secondRowEnd, contents.length - secondRowEnd));
+
+        // Then the stats of all the labels are stored while the log is live,
+        await(liveStatsStored);
+        verify(logSvc).updateStatus(eq(log.getId()), eq(Log.Status.LIVE));
+        // but not the stats that are only needed once it has ended,
+        verify(statsSvc, never()).createOrUpdateBinHistograms(anyLong(), anyLong(), anyObject());
+        verify(statsSvc, never()).createOrUpdatePercentiles(anyLong(), anyLong(), anyObject());
+        // and all of the log is stored,
+        assertArrayEquals(contents, stored.toByteArray());
+
+        // and when sealed, the log is imported as any other.
+        unit.seal(1L);
+        await(imported);
+        assertTrue(Files.exists(Paths.get(importDirStr, log.getId() + ".avro")));
+        verify(logSvc).updateStatus(eq(log.getId()), eq(Log.Status.COMPLETE));
+
+        unit.shutdown();
+    }
+
+    @Test
+    public void testLiveImportRejectsXml() {
+        ImportService impSvc = mock(ImportService.class);
+        LogsService logSvc = mock(LogsService.class);
+        StatsService statsSvc = mock(StatsService.class);
+        ProcessorImportService unit = new ProcessorImportService(impSvc, logSvc, statsSvc,
+                importDir.getRoot().toString());
+        Log log = new Log(1L, Log.Status.AWAITING_UPLOAD, "test", "Test", "testtest.xml", "notes");
+
+        try {
+            unit.uploadLive(new ByteArrayInputStream("<testResults>\n".getBytes(StandardCharsets.UTF_8)),
+                    log, "test", 1595126270000L);
+            fail("XML-based JTLs cannot be imported live.");
+        } catch (AppClientException ex) {
+            // Expected.
+        }
+        verify(logSvc).updateStatus(eq(log.getId()), eq(Log.Status.UPLOAD_FAILED));
+        verify(impSvc, never()).uploadLive(anyObject(), anyObject(), anyObject(), anyLong());
+
+        unit.shutdown();
+    }
+
+    @Test
+    public void testMergedImportRejectsNonZip() {
+        ImportService impSvc = mock(ImportService.class);
+        LogsService logSvc = mock(LogsService.class);
+        StatsService statsSvc = mock(StatsService.class);
+        ProcessorImportService unit = new ProcessorImportService(impSvc, logSvc, statsSvc,
+                importDir.getRoot().toString());
+        Log log = new Log(1L, Log.Status.AWAITING_UPLOAD, "test", "Test", "testtest.jtl", "notes");
+
+        try {
+            unit.uploadMerged(new ByteArrayInputStream("timeStamp,elapsed\n".getBytes(StandardCharsets.UTF_8)),
+                    log, "test", 1595126270000L);
+            fail("Only zips of JTLs can be merged.");
+        } catch (AppClientException ex) {
+            // Expected.
+        }
+        verify(logSvc).updateStatus(eq(log.getId()), eq(Log.Status.UPLOAD_FAILED));
+        verify(impSvc, never()).uploadMerged(anyObject(), anyObject(), anyObject(), anyLong());
+
+        unit.shutdown();
+    }
+
+    private static int indexOf(byte[] bytes, char c, int from) {
+        for (int i = from; i < bytes.length; ++i) {
+            if (bytes[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void copy(InputStream in, ByteArrayOutputStream out) throws IOException {
+        byte[] buff = new byte[4096];
+        int num;
+        while ((num = in.read(buff)) >= 0) {
+            out.write(buff, 0, num);
+        }
+    }
+
+    private void assertUploadImported(ImportSettings settings) throws IOException {
+        assertUploadImported(settings, false);
+    }
+
+    private void assertUploadImported(ImportSettings settings, boolean gzip) throws IOException {
+        // Given a CSV-based JTL file,
+        ImportService impSvc = mock(ImportService.class);
+        LogsService logSvc = mock(LogsService.class);
+        StatsService statsSvc = mock(StatsService.class);
+        String importDirStr = importDir.getRoot().toString();
+
+        ProcessorImportService unit;
+        if (settings == null) {
+            unit = new ProcessorImportService(impSvc, logSvc, statsSvc, importDirStr);
+        } else {
+            unit = new ProcessorImportService(impSvc, logSvc, statsSvc, importDirStr, settings);
+        }
 
         long uploadedUtc = 1595126270000L;
         long importedUtc = 1595126271000L;
@@ -64,9 +384,30 @@ public class ProcessorImportServiceTest {
 
         doNothing().when(logSvc).updateStatus(anyLong(), anyObject());
         String filename = "src/test/resources/test.jtl";
-        InputStream is = Files.newInputStream(Paths.get(filename));
+        InputStream is;
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzos = new GZIPOutputStream(compressed)) {
+                Files.copy(Paths.get(filename), gzos);
+            }
+            is = new ByteArrayInputStream(compressed.toByteArray());
+        } else {
+            is = Files.newInputStream(Paths.get(filename));
+        }
         ImportInfo imported = new ImportInfo(1L, filename, importedUtc);
-        when(impSvc.upload(same(is), same(log), eq(importDirStr), eq(uploadedUtc))).thenReturn(imported);
+        // The upload may be decompressed or converted as it is read, so it must actually be read.
+        byte[] expectedContents = Files.readAllBytes(Paths.get(filename));
+        when(impSvc.upload(anyObject(), same(log), eq(importDirStr), eq(uploadedUtc))).thenAnswer((invocation) -> {
+            InputStream uploading = (InputStream) invocation.getArguments()[0];
+            ByteArrayOutputStream stored = new ByteArrayOutputStream();
+            byte[] buff = new byte[4096];
+            int num;
+            while ((num = uploading.read(buff)) >= 0) {
+                stored.write(buff, 0, num);
+            }
+            assertArrayEquals(expectedContents, stored.toByteArray());
+            return imported;
+        });
 
         // This is how to wait for the eager stats calc to complete since it is async.
         long lastLabelId = 2L;
@@ -87,7 +428,14 @@ public class ProcessorImportServiceTest {
 
         for (long i = 0; i <= lastLabelId; ++i) {
             verify(statsSvc, times(2)).createOrUpdateCodeCounts(eq(log.getId()), eq(i), anyObject());
-            verify(statsSvc).createOrUpdateTimeseries(eq(log.getId()), eq(i), anyObject());
+            // Every resolution is stored once, from the finest up, including the default of 1
+            // minute, however the log is imported.
+            ArgumentCaptor<Timeseries> timeseries = ArgumentCaptor.forClass(Timeseries.class);
+            verify(statsSvc, atLeastOnce()).createOrUpdateTimeseries(eq(log.getId()), eq(i), timeseries.capture());
+            List<Long> spans = timeseries.getAllValues().stream().map(Timeseries::getSpanMillis).collect(Collectors.toList());
+            assertTrue("Spans were " + spans, spans.contains(Rollups.FINEST_SPAN_MILLIS));
+            assertTrue("Spans were " + spans, spans.contains(60000L));
+            assertEquals(spans.size(), new HashSet<>(spans).size());
             verify(statsSvc).createOrUpdateAggregate(eq(log.getId()), eq(i), anyObject());
             verify(statsSvc).createOrUpdateHistogram(eq(log.getId()), eq(i), anyObject());
             verify(statsSvc).createOrUpdatePercentiles(eq(log.getId()), eq(i), anyObject());
@@ -101,7 +449,27 @@ public class ProcessorImportServiceTest {
         verify(logSvc).updateStatus(eq(log.getId()), eq(Log.Status.COMPLETE));
         // Data-to-import should be deleted after successfully being imported.
         verify(impSvc).delete(eq(ii.getId()));
+        // The CSV is counted after the stats are stored, so that its download can be resumed.
+        File avro = Paths.get(importDirStr, log.getId() + ".avro").toFile();
+        assertEquals(CsvLength.count(avro, new AvroToCsvJtlConverter(1)), (long) awaitCsvLength(avro));
+
+        unit.shutdown();
+    }
 
+    private static Long awaitCsvLength(File avro) {
+        long deadline = System.currentTimeMillis() + 10000L;
+        Long csvLength = CsvLength.forFile(avro);
+        while (csvLength == null && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10L);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                fail("Test interrupted.");
+            }
+            csvLength = CsvLength.forFile(avro);
+        }
+        assertNotNull("CSV was not counted.", csvLength);
+        return csvLength;
     }
 
     private static boolean await(CountDownLatch latch) {
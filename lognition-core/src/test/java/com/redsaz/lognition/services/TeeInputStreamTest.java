@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class TeeInputStreamTest {
+
+    @Test
+    public void testBranchGetsEverything() throws Exception {
+        // Given a stream read in odd sizes, and a branch that can only hold a few reads,
+        byte[] contents = new byte[100000];
+        new Random(1234L).nextBytes(contents);
+        TeeInputStream unit = new TeeInputStream(new ByteArrayInputStream(contents), 2);
+
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        try {
+            // When both the stream and the branch are read,
+            Future<byte[]> branchRead = exec.submit(() -> readAll(unit.getBranch(), 13));
+            byte[] streamRead = readAll(unit, 777);
+
+            // Then both have read the same contents.
+            assertArrayEquals(contents, streamRead);
+            assertArrayEquals(contents, branchRead.get(10, TimeUnit.SECONDS));
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testClosedBranchDoesNotBlock() throws Exception {
+        byte[] contents = new byte[10000];
+        TeeInputStream unit = new TeeInputStream(new ByteArrayInputStream(contents), 1);
+
+        // If the branch is no longer wanted, then the stream can be read without it.
+        unit.getBranch().close();
+
+        assertEquals(contents.length, readAll(unit, 10).length);
+    }
+
+    @Test
+    public void testFailureReachesBranch() throws Exception {
+        byte[] contents = new byte[100];
+        TeeInputStream unit = new TeeInputStream(new ByteArrayInputStream(contents), 100);
+        unit.read(new byte[50]);
+
+        unit.fail();
+
+        try {
+            readAll(unit.getBranch(), 10);
+            fail("Reading the branch should fail when the stream could not be read in full.");
+        } catch (IOException ex) {
+            // Expected.
+        }
+    }
+
+    private static byte[] readAll(InputStream in, int readSize) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buff = new byte[readSize];
+        int num;
+        while ((num = in.read(buff)) >= 0) {
+            baos.write(buff, 0, num);
+        }
+        return baos.toByteArray();
+    }
+}
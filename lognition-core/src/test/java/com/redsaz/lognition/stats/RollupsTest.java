@@ -0,0 +1,165 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.stats;
+
+import com.redsaz.lognition.api.model.BinHistogram;
+import com.redsaz.lognition.api.model.Sample;
+import com.redsaz.lognition.api.model.Stats;
+import com.redsaz.lognition.api.model.Timeseries;
+import com.redsaz.lognition.api.model.Timing;
+import com.redsaz.lognition.api.model.WindowStats;
+import com.redsaz.lognition.convert.CsvJtlSource;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class RollupsTest {
+
+    @Test
+    public void testSpansFor() {
+        // An hour of 1 second bins has frames of 36 and 6 seconds,
+        assertArrayEquals(new long[]{1000L, 5000L, 6000L, 15000L, 30000L, 36000L, 60000L,
+            300000L, 900000L, 1800000L, 3600000L},
+                Rollups.spansFor(3600, 1000L));
+        // the frames of short tests are no shorter than a bin, and with 1 minute bins the fixed
+        // spans under a minute are not possible.
+        assertArrayEquals(new long[]{60000L, 300000L, 900000L, 1800000L, 3600000L},
+                Rollups.spansFor(5, 60000L));
+        // Frames are whole bins, rounded up.
+        assertArrayEquals(new long[]{60000L, 120000L, 300000L, 420000L, 900000L, 1800000L, 3600000L},
+                Rollups.spansFor(601, 60000L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSpansMustBeMultiples() {
+        new Rollups(1000L, new long[]{1000L, 1500L}, 2, Timing.ELAPSED);
+    }
+
+    @Test
+    public void testColumnarSameAsEachSpan() {
+        // Given the samples of a log,
+        CsvJtlSource source = new CsvJtlSource(new File("src/test/resources/test.jtl"));
+        source.sort();
+
+        // When the timeseries at every resolution are built at once,
+        List<Timeseries> rollups = StatsBuilder.calcRollups(source, Timing.ELAPSED, StreamingStatsBuilder.DEFAULT_BIN_DIGITS);
+
+        // Then each is the same as the timeseries built directly from the samples at that span.
+        assertEquals(Rollups.FINEST_SPAN_MILLIS, rollups.get(0).getSpanMillis());
+        for (Timeseries actual : rollups) {
+            Timeseries expected = StatsBuilder.calcTimeseriesStats(source, actual.getSpanMillis());
+            assertTimeseriesEquals(expected, actual);
+            assertEquals("Every sample is in a bin at span " + actual.getSpanMillis(),
+                    source.size(), actual.getStatsList().stream().mapToLong(Stats::getNumSamples).sum());
+        }
+    }
+
+    @Test
+    public void testStreamingSameAsEachSpan() {
+        // Given two hours of samples, streamed into one minute bins,
+        Random random = new Random(42L);
+        List<Sample> samples = new ArrayList<>();
+        for (long offset = 0L; offset < 7_200_000L; offset += random.nextInt(2000)) {
+            long duration = 1L + random.nextInt(random.nextInt(100) == 0 ? 30000 : 500);
+            samples.add(new Sample(offset, duration, "a", "t1", "200", "OK", random.nextInt(50) != 0, 100L, 1));
+        }
+        StreamingStatsBuilder unit = new StreamingStatsBuilder(60000L);
+        samples.forEach(unit::sampleProcessed);
+
+        // When the coarser resolutions are made from those bins,
+        List<Timeseries> rollups = unit.getOverall().getRollups();
+
+        // Then each is the same as streaming the samples into bins of that span.
+        assertEquals(60000L, rollups.get(0).getSpanMillis());
+        assertEquals(6, rollups.size());
+        for (Timeseries actual : rollups) {
+            StreamingStatsBuilder direct = new StreamingStatsBuilder(actual.getSpanMillis());
+            samples.forEach(direct::sampleProcessed);
+            assertTimeseriesEquals(direct.getOverall().getTimeseries(), actual);
+        }
+    }
+
+    @Test
+    public void testWindowStatsFromBins() {
+        // Given the samples of a log, and the histograms of its 1 second bins,
+        CsvJtlSource source = new CsvJtlSource(new File("src/test/resources/test.jtl"));
+        source.sort();
+        List<BinHistogram> bins = new ArrayList<>();
+        StatsBuilder.calcRollups(source, Timing.ELAPSED, StreamingStatsBuilder.DEFAULT_BIN_DIGITS, bins);
+        long from = 5000L;
+        long to = 20000L;
+        List<BinHistogram> windowBins = bins.stream()
+                .filter(bin -> bin.getOffsetMillis() >= from && bin.getOffsetMillis() < to)
+                .collect(Collectors.toList());
+
+        // When the stats of a window are made from the bins within it,
+        WindowStats actual = StatsBuilder.calcWindowStats(from, to, Collections.singletonList(0L), windowBins);
+
+        // Then they are the same as the stats of the samples within it.
+        List<Sample> windowSamples = source.getSamples().stream()
+                .filter(sample -> sample.getOffset() >= from && sample.getOffset() < to)
+                .collect(Collectors.toList());
+        Stats expected = StatsBuilder.calcAggregateStats(windowSamples);
+        assertEquals(from, actual.getAggregate().getOffsetMillis().longValue());
+        assertEquals(expected.getNumSamples(), actual.getAggregate().getNumSamples());
+        assertEquals(expected.getMin(), actual.getAggregate().getMin());
+        assertEquals(expected.getMax(), actual.getAggregate().getMax());
+        assertEquals(expected.getAvg(), actual.getAggregate().getAvg());
+        assertEquals(expected.getNumErrors(), actual.getAggregate().getNumErrors());
+        assertEquals(expected.getTotalResponseBytes(), actual.getAggregate().getTotalResponseBytes());
+        // The percentiles are as precise as the bins, which are at 2 digits.
+        long[] durations = windowSamples.stream().mapToLong(Sample::getDuration).sorted().toArray();
+        long exactP90 = durations[(int) Math.ceil((durations.length - 1) * 0.90D)];
+        long actualP90 = actual.getAggregate().getP90();
+        assertTrue("p90 was " + actualP90 + " but exact is " + exactP90,
+                exactP90 <= actualP90 && actualP90 - exactP90 <= exactP90 / 100L);
+        assertEquals(expected.getNumSamples(),
+                actual.getHistogram().getCounts().stream().mapToLong(Long::longValue).sum());
+    }
+
+    private static void assertTimeseriesEquals(Timeseries expected, Timeseries actual) {
+        assertEquals(expected.getSpanMillis(), actual.getSpanMillis());
+        List<Stats> expectedBins = expected.getStatsList();
+        List<Stats> actualBins = actual.getStatsList();
+        // Binning directly leaves out a sample at the very end of the last bin, so may be short.
+        for (int i = 0; i < Math.min(expectedBins.size(), actualBins.size()); ++i) {
+            assertStatsEquals(expectedBins.get(i), actualBins.get(i));
+        }
+    }
+
+    private static void assertStatsEquals(Stats expected, Stats actual) {
+        assertEquals(expected.getOffsetMillis(), actual.getOffsetMillis());
+        assertEquals(expected.getMin(), actual.getMin());
+        assertEquals(expected.getP25(), actual.getP25());
+        assertEquals(expected.getP50(), actual.getP50());
+        assertEquals(expected.getP75(), actual.getP75());
+        assertEquals(expected.getP90(), actual.getP90());
+        assertEquals(expected.getP95(), actual.getP95());
+        assertEquals(expected.getP99(), actual.getP99());
+        assertEquals(expected.getMax(), actual.getMax());
+        assertEquals(expected.getAvg(), actual.getAvg());
+        assertEquals(expected.getNumSamples(), actual.getNumSamples());
+        assertEquals(expected.getTotalResponseBytes(), actual.getTotalResponseBytes());
+        assertEquals(expected.getNumErrors(), actual.getNumErrors());
+    }
+}
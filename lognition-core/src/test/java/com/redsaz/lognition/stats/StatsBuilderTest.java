@@ -0,0 +1,144 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.stats;
+
+import com.redsaz.lognition.api.model.Sample;
+import com.redsaz.lognition.api.model.Stats;
+import com.redsaz.lognition.convert.ColumnarSamples;
+import com.redsaz.lognition.convert.CsvJtlSource;
+import com.redsaz.lognition.api.model.Timing;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class StatsBuilderTest {
+
+    private static final long SPAN_MILLIS = 60000L;
+
+    @Test
+    public void testColumnarSameAsList() {
+        // Given the samples of a log, both as a list and as columns,
+        CsvJtlSource source = new CsvJtlSource(new File("src/test/resources/test.jtl"));
+        List<Sample> samples = new ArrayList<>(source.getSamples());
+
+        // When the stats are built from both,
+        // Then the overall stats should be the same,
+        assertSameStats(samples, source);
+        // and the stats for each label should be the same.
+        Map<String, List<Sample>> expectedLabels = StatsBuilder.sortAndSplitByLabel(samples);
+        Map<String, ColumnarSamples> actualLabels = StatsBuilder.sortAndSplitByLabel(source);
+        assertEquals(expectedLabels.keySet(), actualLabels.keySet());
+        for (Map.Entry<String, List<Sample>> entry : expectedLabels.entrySet()) {
+            assertEquals(entry.getValue(), actualLabels.get(entry.getKey()).getSamples());
+            assertSameStats(entry.getValue(), actualLabels.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testPercentilesWithinPrecision() {
+        // Given samples with durations from a few ms to several minutes,
+        Random random = new Random(1234L);
+        List<Sample> samples = new ArrayList<>();
+        for (int i = 0; i < 20000; ++i) {
+            long duration = (long) Math.pow(10.0, random.nextDouble() * 5.5);
+            samples.add(new Sample(i * 30L, duration, "a", "t1", "200", "OK", i % 7 != 0, i, 1));
+        }
+
+        // When the stats are built from histograms rather than by sorting,
+        Stats aggregate = StatsBuilder.calcAggregateStats(samples);
+        List<Stats> bins = StatsBuilder.calcTimeseriesStats(samples, SPAN_MILLIS).getStatsList();
+
+        // Then the percentiles are no further above the exact ones than the precision allows,
+        // and the rest of the stats are exact.
+        assertWithinPrecision(samples, aggregate, StreamingStatsBuilder.DEFAULT_AGGREGATE_DIGITS);
+        int perBin = (int) (SPAN_MILLIS / 30L);
+        for (int i = 0; i < bins.size(); ++i) {
+            List<Sample> binSamples = samples.subList(i * perBin, Math.min(samples.size(), (i + 1) * perBin));
+            assertWithinPrecision(binSamples, bins.get(i), StreamingStatsBuilder.DEFAULT_BIN_DIGITS);
+        }
+    }
+
+    @Test
+    public void testColumnarPercentilesWithinPrecision() {
+        CsvJtlSource source = new CsvJtlSource(new File("src/test/resources/test.jtl"));
+        List<Sample> samples = source.getSamples();
+        for (int digits = 0; digits <= 5; ++digits) {
+            assertWithinPrecision(samples, StatsBuilder.calcAggregateStats(source, Timing.ELAPSED, digits), digits);
+        }
+    }
+
+    private static void assertWithinPrecision(List<Sample> samples, Stats actual, int digits) {
+        long[] durations = samples.stream().mapToLong(Sample::getDuration).sorted().toArray();
+        assertEquals(durations[0], actual.getMin().longValue());
+        assertEquals(durations[durations.length - 1], actual.getMax().longValue());
+        assertEquals(Arrays.stream(durations).sum() / durations.length, actual.getAvg().longValue());
+        assertEquals(durations.length, actual.getNumSamples());
+        assertEquals(samples.stream().filter(s -> !s.isSuccess()).count(), actual.getNumErrors());
+        assertWithinPrecision(durations, 0.25D, actual.getP25(), digits);
+        assertWithinPrecision(durations, 0.50D, actual.getP50(), digits);
+        assertWithinPrecision(durations, 0.75D, actual.getP75(), digits);
+        assertWithinPrecision(durations, 0.90D, actual.getP90(), digits);
+        assertWithinPrecision(durations, 0.95D, actual.getP95(), digits);
+        assertWithinPrecision(durations, 0.99D, actual.getP99(), digits);
+    }
+
+    private static void assertWithinPrecision(long[] sortedDurations, double percent, long actual, int digits) {
+        long exact = sortedDurations[(int) Math.ceil((sortedDurations.length - 1) * percent)];
+        long allowed = exact / (long) Math.pow(10.0, digits);
+        assertTrue("p" + percent + " was " + actual + " but exact is " + exact + " with " + digits + " digits.",
+                exact <= actual && actual - exact <= allowed);
+    }
+
+    private static void assertSameStats(List<Sample> expected, ColumnarSamples actual) {
+        assertEquals(StatsBuilder.calcTimeseriesCounts(expected, SPAN_MILLIS).getCounts(),
+                StatsBuilder.calcTimeseriesCounts(actual, SPAN_MILLIS).getCounts());
+
+        List<Stats> expectedBins = StatsBuilder.calcTimeseriesStats(expected, SPAN_MILLIS).getStatsList();
+        List<Stats> actualBins = StatsBuilder.calcTimeseriesStats(actual, SPAN_MILLIS).getStatsList();
+        assertEquals(expectedBins.size(), actualBins.size());
+        for (int i = 0; i < expectedBins.size(); ++i) {
+            assertStatsEquals(expectedBins.get(i), actualBins.get(i));
+        }
+
+        assertStatsEquals(StatsBuilder.calcAggregateStats(expected), StatsBuilder.calcAggregateStats(actual));
+        assertEquals(StatsBuilder.calcAggregateCounts(expected).getCounts(),
+                StatsBuilder.calcAggregateCounts(actual).getCounts());
+        assertEquals(StatsBuilder.calcHistogram(expected).getHistogram().getCounts(),
+                StatsBuilder.calcHistogram(actual).getHistogram().getCounts());
+    }
+
+    private static void assertStatsEquals(Stats expected, Stats actual) {
+        assertEquals(expected.getOffsetMillis(), actual.getOffsetMillis());
+        assertEquals(expected.getMin(), actual.getMin());
+        assertEquals(expected.getP25(), actual.getP25());
+        assertEquals(expected.getP50(), actual.getP50());
+        assertEquals(expected.getP75(), actual.getP75());
+        assertEquals(expected.getP90(), actual.getP90());
+        assertEquals(expected.getP95(), actual.getP95());
+        assertEquals(expected.getP99(), actual.getP99());
+        assertEquals(expected.getMax(), actual.getMax());
+        assertEquals(expected.getAvg(), actual.getAvg());
+        assertEquals(expected.getNumSamples(), actual.getNumSamples());
+        assertEquals(expected.getTotalResponseBytes(), actual.getTotalResponseBytes());
+        assertEquals(expected.getNumErrors(), actual.getNumErrors());
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.stats;
+
+import com.redsaz.lognition.api.model.BinHistogram;
+import com.redsaz.lognition.api.model.Sample;
+import com.redsaz.lognition.api.model.Stats;
+import com.redsaz.lognition.api.model.Timeseries;
+import com.redsaz.lognition.api.model.Timing;
+import com.redsaz.lognition.convert.CsvJtlSource;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class StreamingStatsBuilderTest {
+
+    private static final long SPAN_MILLIS = 60000L;
+
+    @Test
+    public void testSameAsStatsBuilder() {
+        // Given all of the samples of a log, and the same samples, one at a time,
+        CsvJtlSource source = new CsvJtlSource(new File("src/test/resources/test.jtl"));
+        List<Sample> samples = new ArrayList<>(source.getSamples());
+        StreamingStatsBuilder unit = new StreamingStatsBuilder(SPAN_MILLIS);
+        samples.forEach(unit::sampleProcessed);
+
+        // When the stats are built from both,
+        // Then the overall stats should be the same,
+        assertSeriesEquals(samples, unit.getOverall());
+        // and the stats for each label should be the same.
+        Map<String, List<Sample>> labelsSamples = StatsBuilder.sortAndSplitByLabel(samples);
+        assertEquals(new ArrayList<>(labelsSamples.keySet()), unit.getLabels());
+        for (Map.Entry<String, List<Sample>> entry : labelsSamples.entrySet()) {
+            assertSeriesEquals(entry.getValue(), unit.getSeries(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testTimingsSameAsStatsBuilder() {
+        // Given a log with latency and connect times, streamed one sample at a time,
+        CsvJtlSource source = new CsvJtlSource(new File("src/test/resources/test.jtl"));
+        StreamingStatsBuilder unit = new StreamingStatsBuilder(SPAN_MILLIS);
+        source.getSamples().forEach(unit::sampleProcessed);
+
+        for (Timing timing : new Timing[]{Timing.LATENCY, Timing.CONNECT}) {
+            // When the stats of the times are built,
+            StreamingStatsBuilder.Series actual = unit.getOverall(timing);
+
+            // Then they are the same as when built from all of the samples,
+            assertStatsEquals(StatsBuilder.calcAggregateStats(source, timing), actual.getAggregate());
+            assertEquals(StatsBuilder.calcHistogram(source, timing).getHistogram().getCounts(),
+                    actual.getHistogram().getHistogram().getCounts());
+            List<Stats> expectedBins = StatsBuilder.calcTimeseriesStats(source, SPAN_MILLIS, timing).getStatsList();
+            List<Stats> actualBins = actual.getTimeseries().getStatsList();
+            for (int i = 0; i < expectedBins.size(); ++i) {
+                assertStatsEquals(expectedBins.get(i), actualBins.get(i));
+            }
+            // and the codes are only counted with the elapsed times.
+            assertTrue(actual.getAggregateCounts().getCodes().isEmpty());
+        }
+    }
+
+    @Test
+    public void testTimingsOnlyWhenPresent() {
+        // Given samples where only some have a latency, and none a connect time,
+        StreamingStatsBuilder unit = new StreamingStatsBuilder(SPAN_MILLIS);
+        Sample withLatency = new Sample(0L, 10L, "a", "t", "200", "OK", true, 100L, 1);
+        withLatency.setLatency(4L);
+        unit.sampleProcessed(withLatency);
+        unit.sampleProcessed(new Sample(10L, 20L, "a", "t", "200", "OK", true, 100L, 1));
+
+        // When the stats are built,
+        Stats latency = unit.getSeries("a", Timing.LATENCY).getAggregate();
+
+        // Then the samples without the time are left out of its stats.
+        assertEquals(1L, latency.getNumSamples());
+        assertEquals(Long.valueOf(4L), latency.getMax());
+        assertEquals(2L, unit.getOverall().getAggregate().getNumSamples());
+        assertNull(unit.getOverall(Timing.CONNECT));
+        assertNull(unit.getSeries("a", Timing.CONNECT));
+    }
+
+    @Test
+    public void testEmptyBins() {
+        // Given samples that are more than a span apart,
+        StreamingStatsBuilder unit = new StreamingStatsBuilder(SPAN_MILLIS);
+        unit.sampleProcessed(new Sample(0L, 10L, "a", "t", "200", "OK", true, 100L, 1));
+        unit.sampleProcessed(new Sample(2 * SPAN_MILLIS, 20L, "a", "t", "500", "Error", false, 50L, 1));
+
+        // When the timeseries is built,
+        List<Stats> bins = unit.getOverall().getTimeseries().getStatsList();
+
+        // Then the bin without samples is empty rather than missing.
+        assertEquals(3, bins.size());
+        assertEquals(0L, bins.get(1).getNumSamples());
+        assertNull(bins.get(1).getMin());
+        assertEquals(Long.valueOf(SPAN_MILLIS), bins.get(1).getOffsetMillis());
+        assertEquals(1L, bins.get(2).getNumErrors());
+        assertEquals(3, unit.getOverall().getTimeseriesCounts().getCounts().size());
+    }
+
+    @Test
+    public void testFinishedBinsSameAsKept() {
+        // Given the samples of a log, out of order the way JMeter writes them,
+        CsvJtlSource source = new CsvJtlSource(new File("src/test/resources/test.jtl"));
+        List<Sample> samples = new ArrayList<>(source.getSamples());
+        long latest = Long.MIN_VALUE;
+        long maxLate = 0L;
+        for (Sample sample : samples) {
+            latest = Math.max(latest, sample.getOffset());
+            maxLate = Math.max(maxLate, latest - sample.getOffset());
+        }
+
+        // When the bins are finished as soon as no later sample can be in them,
+        StreamingStatsBuilder unit = new StreamingStatsBuilder(Rollups.FINEST_SPAN_MILLIS);
+        unit.samplesStarting(latest, maxLate);
+        samples.forEach(unit::sampleProcessed);
+        StreamingStatsBuilder kept = new StreamingStatsBuilder(Rollups.FINEST_SPAN_MILLIS);
+        samples.forEach(kept::sampleProcessed);
+
+        // Then the stats are the same as when every bin is kept until the end.
+        List<Timeseries> expectedRollups = kept.getOverall().getRollups();
+        List<Timeseries> actualRollups = unit.getOverall().getRollups();
+        assertEquals(expectedRollups.size(), actualRollups.size());
+        for (int i = 0; i < expectedRollups.size(); ++i) {
+            List<Stats> expectedBins = expectedRollups.get(i).getStatsList();
+            List<Stats> actualBins = actualRollups.get(i).getStatsList();
+            assertEquals(expectedRollups.get(i).getSpanMillis(), actualRollups.get(i).getSpanMillis());
+            assertEquals(expectedBins.size(), actualBins.size());
+            for (int j = 0; j < expectedBins.size(); ++j) {
+                assertStatsEquals(expectedBins.get(j), actualBins.get(j));
+            }
+        }
+        List<BinHistogram> expectedHistograms = kept.getOverall().getBinHistograms();
+        List<BinHistogram> actualHistograms = unit.getOverall().getBinHistograms();
+        assertEquals(expectedHistograms.size(), actualHistograms.size());
+        for (int i = 0; i < expectedHistograms.size(); ++i) {
+            assertEquals(expectedHistograms.get(i).getOffsetMillis(), actualHistograms.get(i).getOffsetMillis());
+            assertArrayEquals(expectedHistograms.get(i).getHistogram(), actualHistograms.get(i).getHistogram());
+        }
+        assertEquals(kept.getOverall().getTimeseriesCounts().getCounts(),
+                unit.getOverall().getTimeseriesCounts().getCounts());
+    }
+
+    @Test
+    public void testTooLateOnlyInAggregate() {
+        // Given bins that are finished once samples are a span past them,
+        StreamingStatsBuilder unit = new StreamingStatsBuilder(SPAN_MILLIS);
+        unit.setMaxLateMillis(SPAN_MILLIS);
+        unit.sampleProcessed(new Sample(0L, 10L, "a", "t", "200", "OK", true, 100L, 1));
+        unit.sampleProcessed(new Sample(3 * SPAN_MILLIS, 20L, "a", "t", "200", "OK", true, 100L, 1));
+
+        // When a sample arrives for a finished bin,
+        unit.sampleProcessed(new Sample(10L, 30L, "a", "t", "500", "Error", false, 100L, 1));
+
+        // Then it is counted in the aggregate and the codes, but not in its bin,
+        assertEquals(3L, unit.getOverall().getAggregate().getNumSamples());
+        List<Stats> bins = unit.getOverall().getTimeseries().getStatsList();
+        assertEquals(4, bins.size());
+        assertEquals(1L, bins.get(0).getNumSamples());
+        assertEquals(Long.valueOf(10L), bins.get(0).getMax());
+        assertEquals(2, unit.getOverall().getTimeseriesCounts().getCodes().size());
+        // and the rollups cannot be made, since the length of the test was not known.
+        try {
+            unit.getOverall().getRollups();
+            fail("The finished bins were not kept, so cannot be rolled up.");
+        } catch (IllegalStateException ex) {
+            // Expected.
+        }
+    }
+
+    private static void assertSeriesEquals(List<Sample> samples, StreamingStatsBuilder.Series actual) {
+        // The test log durations are small enough for the histograms to be exact.
+        assertStatsEquals(StatsBuilder.calcAggregateStats(samples), actual.getAggregate());
+        assertEquals(StatsBuilder.calcAggregateCounts(samples).getCounts(),
+                actual.getAggregateCounts().getCounts());
+        assertEquals(StatsBuilder.calcAggregateCounts(samples).getCodes(),
+                actual.getAggregateCounts().getCodes());
+        assertEquals(StatsBuilder.calcHistogram(samples).getHistogram().getCounts(),
+                actual.getHistogram().getHistogram().getCounts());
+
+        samples.sort(StatsBuilder.TEMPORAL_COMPARATOR);
+        List<Stats> expectedBins = StatsBuilder.calcTimeseriesStats(samples, SPAN_MILLIS).getStatsList();
+        List<Stats> actualBins = actual.getTimeseries().getStatsList();
+        // The streamed timeseries includes the bin of the very last sample.
+        for (int i = 0; i < expectedBins.size(); ++i) {
+            assertStatsEquals(expectedBins.get(i), actualBins.get(i));
+        }
+    }
+
+    private static void assertStatsEquals(Stats expected, Stats actual) {
+        assertEquals(expected.getOffsetMillis(), actual.getOffsetMillis());
+        assertEquals(expected.getMin(), actual.getMin());
+        assertEquals(expected.getP25(), actual.getP25());
+        assertEquals(expected.getP50(), actual.getP50());
+        assertEquals(expected.getP75(), actual.getP75());
+        assertEquals(expected.getP90(), actual.getP90());
+        assertEquals(expected.getP95(), actual.getP95());
+        assertEquals(expected.getP99(), actual.getP99());
+        assertEquals(expected.getMax(), actual.getMax());
+        assertEquals(expected.getAvg(), actual.getAvg());
+        assertEquals(expected.getNumSamples(), actual.getNumSamples());
+        assertEquals(expected.getTotalResponseBytes(), actual.getTotalResponseBytes());
+        assertEquals(expected.getNumErrors(), actual.getNumErrors());
+    }
+}
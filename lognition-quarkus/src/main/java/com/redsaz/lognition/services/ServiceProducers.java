@@ -19,6 +19,8 @@ import com.redsaz.lognition.api.ImportService;
 import com.redsaz.lognition.api.LogsService;
 import com.redsaz.lognition.api.ReviewsService;
 import com.redsaz.lognition.api.StatsService;
+import com.redsaz.lognition.convert.AvroWriterSettings;
+import com.redsaz.lognition.stats.StreamingStatsBuilder;
 import com.redsaz.lognition.store.ConnectionPool;
 import com.redsaz.lognition.store.JooqImportService;
 import com.redsaz.lognition.store.JooqLogsService;
@@ -31,6 +33,8 @@ import javax.enterprise.context.Destroyed;
 import javax.enterprise.context.Initialized;
 import javax.enterprise.event.Observes;
 import javax.enterprise.inject.Produces;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
 import org.jooq.SQLDialect;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,7 +53,8 @@ public class ServiceProducers {
     private static final ImportService SANITIZER_IMPORT_SERVICE = new SanitizerImportService(new JooqImportService(POOL, SQLDialect.HSQLDB));
     private static final StatsService STATS_SERVICE = new JooqStatsService(POOL, SQLDialect.HSQLDB);
     private static final ProcessorImportService PROCESSOR_IMPORT_SERVICE = new ProcessorImportService(
-            SANITIZER_IMPORT_SERVICE, SANITIZER_LOGS_SERVICE, STATS_SERVICE, LOGS_DIR
+            SANITIZER_IMPORT_SERVICE, SANITIZER_LOGS_SERVICE, STATS_SERVICE, LOGS_DIR,
+            createImportSettings()
     );
 
     @Produces
@@ -79,6 +84,35 @@ public class ServiceProducers {
         return STATS_SERVICE;
     }
 
+    private static ImportSettings createImportSettings() {
+        Config config = ConfigProvider.getConfig();
+        return new ImportSettings.Builder()
+                .streaming(config.getOptionalValue("lognition.import.streaming", Boolean.class).orElse(true))
+                .importWhileUploading(config.getOptionalValue("lognition.import.while-uploading", Boolean.class).orElse(false))
+                .parseThreads(config.getOptionalValue("lognition.import.parse-threads", Integer.class).orElse(1))
+                .statsThreads(config.getOptionalValue("lognition.import.stats-threads", Integer.class).orElse(1))
+                .importThreads(config.getOptionalValue("lognition.import.threads", Integer.class).orElse(1))
+                .scheduling(config.getOptionalValue("lognition.import.scheduling", ImportSettings.Scheduling.class)
+                        .orElse(ImportSettings.Scheduling.SMALLEST_FIRST))
+                .maxConcurrentImportBytes(config.getOptionalValue("lognition.import.max-concurrent-bytes", Long.class)
+                        .orElse(Long.MAX_VALUE))
+                .avroSettings(new AvroWriterSettings.Builder()
+                        .codec(config.getOptionalValue("lognition.import.avro-codec", String.class).orElse("null"))
+                        .syncInterval(config.getOptionalValue("lognition.import.avro-sync-interval", Integer.class)
+                                .orElse(AvroWriterSettings.DEFAULT_SYNC_INTERVAL))
+                        .build())
+                .backfillFieldPresence(config.getOptionalValue("lognition.import.backfill-field-presence", Boolean.class).orElse(false))
+                .liveStatsIntervalMillis(config.getOptionalValue("lognition.import.live-stats-interval-millis", Long.class)
+                        .orElse(5000L))
+                .mergeMemoryBytes(config.getOptionalValue("lognition.import.merge-memory-bytes", Long.class)
+                        .orElse(256L * 1024L * 1024L))
+                .binSignificantDigits(config.getOptionalValue("lognition.import.bin-significant-digits", Integer.class)
+                        .orElse(StreamingStatsBuilder.DEFAULT_BIN_DIGITS))
+                .aggregateSignificantDigits(config.getOptionalValue("lognition.import.aggregate-significant-digits", Integer.class)
+                        .orElse(StreamingStatsBuilder.DEFAULT_AGGREGATE_DIGITS))
+                .build();
+    }
+
     public void init(@Observes @Initialized(ApplicationScoped.class) Object init) {
         SANITIZER_LOGS_SERVICE.get(-1L); // Grab any non-existing item from the service
         LOGGER.info("Started Lognition.");
@@ -31,6 +31,7 @@ import com.redsaz.lognition.api.model.Percentiles;
 import com.redsaz.lognition.api.model.Review;
 import com.redsaz.lognition.api.model.Stats;
 import com.redsaz.lognition.api.model.Timeseries;
+import com.redsaz.lognition.api.model.Timing;
 import com.redsaz.lognition.services.LabelSelectorParser;
 import io.vertx.core.http.HttpServerRequest;
 import java.io.IOException;
@@ -54,6 +55,7 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -125,13 +127,15 @@ public class BrowserLogsResource {
      *
      * @param req The request for the page.
      * @param logId The id of the brief.
+     * @param spanMillis The resolution of the timeseries graphs, or null for the default.
      * @return Brief view page.
      */
     @GET
     @Produces(MediaType.TEXT_HTML)
     @Path("{id}")
-    public Response getLogBriefById(@Context HttpServerRequest req, @PathParam("id") long logId) {
-        return getLogBrief(logId, null);
+    public Response getLogBriefById(@Context HttpServerRequest req, @PathParam("id") long logId,
+            @QueryParam("span") Long spanMillis) {
+        return getLogBrief(logId, null, spanMillis);
     }
 
     /**
@@ -140,14 +144,16 @@ public class BrowserLogsResource {
      * @param req The request for the page.
      * @param logId The id of the brief.
      * @param urlName The urlName of the brief.
+     * @param spanMillis The resolution of the timeseries graphs, or null for the default.
      * @return Brief view page.
      */
     @GET
     @Produces(MediaType.TEXT_HTML)
     @Path("{id}/{urlName}")
     public Response getLogBriefByIdWithName(@Context HttpServerRequest req,
-            @PathParam("id") long logId, @PathParam("urlName") String urlName) {
-        return getLogBrief(logId, urlName);
+            @PathParam("id") long logId, @PathParam("urlName") String urlName,
+            @QueryParam("span") Long spanMillis) {
+        return getLogBrief(logId, urlName, spanMillis);
     }
 
     @POST
@@ -390,9 +396,11 @@ public class BrowserLogsResource {
      *
      * @param logId The id of the brief.
      * @param uriName The optional log URI name. May be null.
+     * @param spanMillis The resolution of the timeseries graphs, such as 1000 to zoom in to
+     * seconds. If null, or if the log does not have that resolution, 1 minute is shown.
      * @return Brief view page if the urlName matches the reall urlName for the log with the id.
      */
-    private Response getLogBrief(long logId, String uriName) {
+    private Response getLogBrief(long logId, String uriName, Long spanMillis) {
         String dist = "/dist";
         Log log = logsSrv.get(logId);
         if (log == null) {
@@ -401,7 +409,8 @@ public class BrowserLogsResource {
                 && log.getUriName() != null
                 && !log.getUriName().isEmpty()) {
             LOGGER.debug("logId={} provided name was \"{}\" but expected \"{}\".", logId, uriName, log.getUriName());
-            return Response.seeOther(URI.create("logs/" + logId + "/" + log.getUriName()))
+            String query = spanMillis == null ? "" : "?span=" + spanMillis;
+            return Response.seeOther(URI.create("logs/" + logId + "/" + log.getUriName() + query))
                     .status(Response.Status.MOVED_PERMANENTLY)
                     .build();
         }
@@ -417,10 +426,14 @@ public class BrowserLogsResource {
 
         List<String> errorTimeseriesGraphs = new ArrayList<>(sampleLabels.size());
         List<String> errorPercentTimeseriesGraphs = new ArrayList<>(sampleLabels.size());
+        // Only logs from JTLs with the Latency or Connect columns have these, and the graph of a
+        // label without them is empty.
+        List<String> latencyGraphs = new ArrayList<>(sampleLabels.size());
+        List<String> connectGraphs = new ArrayList<>(sampleLabels.size());
         for (int i = 0; i < sampleLabels.size(); ++i) {
             String label = sampleLabels.get(i);
 
-            Timeseries timeseries = statsSrv.getTimeseries(logId, i);
+            Timeseries timeseries = getTimeseries(logId, i, Timing.ELAPSED, spanMillis);
             String dygraph = createTimeseriesGraph(timeseries, label, i);
             graphs.add(dygraph);
 
@@ -446,6 +459,18 @@ public class BrowserLogsResource {
 
             String errorPercentGraph = createTimeseriesErrorPercentGraph(timeseries, label, i);
             errorPercentTimeseriesGraphs.add(errorPercentGraph);
+
+            Timeseries latency = getTimeseries(logId, i, Timing.LATENCY, spanMillis);
+            latencyGraphs.add(createTimeseriesGraph(latency, label, i, "latencygraphdiv", "Latency (ms)"));
+
+            Timeseries connect = getTimeseries(logId, i, Timing.CONNECT, spanMillis);
+            connectGraphs.add(createTimeseriesGraph(connect, label, i, "connectgraphdiv", "Connect Time (ms)"));
+        }
+        if (latencyGraphs.stream().allMatch(String::isEmpty)) {
+            latencyGraphs.clear();
+        }
+        if (connectGraphs.stream().allMatch(String::isEmpty)) {
+            connectGraphs.clear();
         }
         List<Label> labels = logsSrv.getLabels(logId);
 
@@ -460,6 +485,9 @@ public class BrowserLogsResource {
         root.put("percentileGraphs", percentileGraphs);
         root.put("errorTimeseriesGraphs", errorTimeseriesGraphs);
         root.put("errorPercentTimeseriesGraphs", errorPercentTimeseriesGraphs);
+        root.put("latencyGraphs", latencyGraphs);
+        root.put("connectGraphs", connectGraphs);
+        root.put("diagnostics", logsSrv.getImportDiagnostics(logId));
         if (aggregateCodeCounts.size() > 0) {
             root.put("aggregateCodes", aggregateCodeCounts.get(0).getCodes());
             root.put("aggregateCodeCounts", aggregateCodeCounts);
@@ -571,13 +599,35 @@ public class BrowserLogsResource {
         return HTML_RENDERER.render(document);
     }
 
+    /**
+     * Gets the timeseries at the resolution asked for, falling back to the default resolution if
+     * there is none, such as for logs imported before there were other resolutions.
+     */
+    private Timeseries getTimeseries(long logId, int labelId, Timing timing, Long spanMillis) {
+        if (spanMillis != null) {
+            Timeseries timeseries = statsSrv.getTimeseries(logId, labelId, timing, spanMillis);
+            if (timeseries != null) {
+                return timeseries;
+            }
+        }
+        if (timing == Timing.ELAPSED) {
+            return statsSrv.getTimeseries(logId, labelId);
+        }
+        return statsSrv.getTimeseries(logId, labelId, timing);
+    }
+
     private static String createTimeseriesGraph(Timeseries timeseries, String label, int index) {
+        return createTimeseriesGraph(timeseries, label, index, "graphdiv", "Response Time (ms)");
+    }
+
+    private static String createTimeseriesGraph(Timeseries timeseries, String label, int index,
+            String divPrefix, String ylabel) {
         if (timeseries == null) {
             LOGGER.debug("Timeseries is empty.");
             return "";
         }
         StringBuilder sb = new StringBuilder();
-        sb.append("new Dygraph(document.getElementById(\"graphdiv").append(index).append("\"),\n");
+        sb.append("new Dygraph(document.getElementById(\"").append(divPrefix).append(index).append("\"),\n");
         String csvRowTail = " +\n";
         sb.append("\"offsetMillis,p50,p25,p75\\n\"").append(csvRowTail);
         List<Stats> statsList = timeseries.getStatsList();
@@ -613,7 +663,7 @@ public class BrowserLogsResource {
         sb.append("title: '").append(label).append("',\n");
         sb.append("customBars: true,\n");
         sb.append("xlabel: 'Time',\n");
-        sb.append("ylabel: 'Response Time (ms)',\n");
+        sb.append("ylabel: '").append(ylabel).append("',\n");
         sb.append("});");
         return sb.toString();
     }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2021 Redsaz <redsaz@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.redsaz.lognition.view;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A single range of bytes asked for with an HTTP Range header, so that interrupted downloads can
+ * be resumed. Only single ranges in bytes are supported; when several ranges are asked for, or
+ * the header cannot be understood, the whole content is sent instead, as RFC 7233 allows.
+ *
+ * @author Redsaz <redsaz@gmail.com>
+ */
+/*package protected*/ class ByteRange {
+
+    private static final String UNIT = "bytes=";
+
+    private final long first;
+    private final long last;
+    private final long completeLength;
+
+    private ByteRange(long first, long last, long completeLength) {
+        this.first = first;
+        this.last = last;
+        this.completeLength = completeLength;
+    }
+
+    /**
+     * @param rangeHeader the value of the Range header, if any
+     * @param completeLength how many bytes the whole content is
+     * @return the range to send, or null if the whole content should be sent.
+     */
+    public static ByteRange parse(String rangeHeader, long completeLength) {
+        if (rangeHeader == null) {
+            return null;
+        }
+        String spec = rangeHeader.trim();
+        if (!spec.startsWith(UNIT) || spec.indexOf(',') >= 0) {
+            return null;
+        }
+        spec = spec.substring(UNIT.length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String firstText = spec.substring(0, dash).trim();
+            String lastText = spec.substring(dash + 1).trim();
+            if (firstText.isEmpty()) {
+                // A suffix range, the last so many bytes.
+                long suffixLength = Long.parseLong(lastText);
+                if (suffixLength <= 0) {
+                    return unsatisfiable(completeLength);
+                }
+                long first = Math.max(0L, completeLength - suffixLength);
+                return satisfiable(first, completeLength - 1L, completeLength);
+            }
+            long first = Long.parseLong(firstText);
+            long last = lastText.isEmpty() ? Long.MAX_VALUE : Long.parseLong(lastText);
+            if (first < 0L || last < first) {
+                return null;
+            }
+            return satisfiable(first, Math.min(last, completeLength - 1L), completeLength);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * A range should only be sent if the content has not changed since the first part was
+     * downloaded, which is what the If-Range header is for.
+     *
+     * @param ifRangeHeader the value of the If-Range header, if any
+     * @param etag the entity tag of the content as it is now
+     * @return true if the range can be sent, or false if the whole content must be sent.
+     */
+    public static boolean ifRangeMatches(String ifRangeHeader, String etag) {
+        return ifRangeHeader == null || ifRangeHeader.trim().equals(etag);
+    }
+
+    private static ByteRange satisfiable(long first, long last, long completeLength) {
+        if (first >= completeLength) {
+            return unsatisfiable(completeLength);
+        }
+        return new ByteRange(first, last, completeLength);
+    }
+
+    private static ByteRange unsatisfiable(long completeLength) {
+        return new ByteRange(-1L, -1L, completeLength);
+    }
+
+    /**
+     * @return false if none of the range is in the content, in which case a 416 is sent.
+     */
+    public boolean isSatisfiable() {
+        return first >= 0L;
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getLength() {
+        return last - first + 1L;
+    }
+
+    /**
+     * @return the value of the Content-Range header to send.
+     */
+    public String contentRange() {
+        if (!isSatisfiable()) {
+            return "bytes */" + completeLength;
+        }
+        return "bytes " + first + "-" + last + "/" + completeLength;
+    }
+
+    /**
+     * Passes only the bytes in this range on to the stream, for content that is made as it is
+     * sent and so cannot be started part of the way through. The bytes before and after the
+     * range are discarded.
+     *
+     * @param out where the bytes of the range are written
+     * @return a stream for writing the whole content to
+     */
+    public OutputStream slice(OutputStream out) {
+        return new FilterOutputStream(out) {
+            private long position;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (position >= first && position <= last) {
+                    out.write(b);
+                }
+                ++position;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                long start = Math.max(position, first);
+                long end = Math.min(position + len - 1L, last);
+                if (start <= end) {
+                    out.write(b, off + (int) (start - position), (int) (end - start + 1L));
+                }
+                position += len;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return contentRange();
+    }
+}
@@ -15,40 +15,54 @@
  */
 package com.redsaz.lognition.view;
 
+import com.google.common.io.ByteStreams;
 import com.redsaz.lognition.api.ImportService;
 import com.redsaz.lognition.api.LognitionMediaType;
 import com.redsaz.lognition.api.LogsService;
 import com.redsaz.lognition.api.ReviewsService;
+import com.redsaz.lognition.api.StatsService;
+import com.redsaz.lognition.api.exceptions.AppClientException;
 import com.redsaz.lognition.api.labelselector.LabelSelectorExpression;
 import com.redsaz.lognition.api.labelselector.LabelSelectorSyntaxException;
+import com.redsaz.lognition.api.model.BinHistogram;
 import com.redsaz.lognition.api.model.Label;
 import com.redsaz.lognition.api.model.Log;
 import com.redsaz.lognition.api.model.Review;
+import com.redsaz.lognition.convert.AvroFileLocks;
 import com.redsaz.lognition.convert.AvroToCsvJtlConverter;
+import com.redsaz.lognition.convert.CsvLength;
 import com.redsaz.lognition.services.LabelSelectorParser;
+import com.redsaz.lognition.stats.StatsBuilder;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,18 +80,27 @@ public class LogsResource {
     private ReviewsService reviewsSrv;
     private LogsService logsSrv;
     private ImportService importSrv;
+    private StatsService statsSrv;
     private static final ExecutorService REVIEWS_CALC_EXEC = Executors.newSingleThreadExecutor();
     private static final AvroToCsvJtlConverter CONVERTER = new AvroToCsvJtlConverter();
 
+    private static final String AVRO = "application/avro";
+    private static final String ACCEPT_RANGES = "Accept-Ranges";
+    private static final String CONTENT_RANGE = "Content-Range";
+    private static final String RANGE = "Range";
+    private static final String IF_RANGE = "If-Range";
+
     public LogsResource() {
     }
 
     @Inject
     public LogsResource(@Sanitizer ReviewsService reviewsService,
-            @Sanitizer LogsService logsService, @Processor ImportService importService) {
+            @Sanitizer LogsService logsService, @Processor ImportService importService,
+            StatsService statsService) {
         reviewsSrv = reviewsService;
         logsSrv = logsService;
         importSrv = importService;
+        statsSrv = statsService;
     }
 
     /**
@@ -103,6 +126,19 @@ public class LogsResource {
         return Response.ok(logs).build();
     }
 
+    /**
+     * Lists the imports that are in progress or waiting to be imported, with how long each has
+     * waited and where the queued ones are in line.
+     *
+     * @return Import statuses, in progress first, then queued in the order they will start.
+     */
+    @GET
+    @Produces({LognitionMediaType.IMPORTSTATUSES_V1_JSON, MediaType.APPLICATION_JSON})
+    @Path("imports")
+    public Response listImportStatuses() {
+        return Response.ok(importSrv.listStatuses()).build();
+    }
+
     /**
      * Get the note contents.
      *
@@ -121,18 +157,137 @@ public class LogsResource {
     }
 
     /**
-     * Download the log data in CSV form.
+     * Gets the rows that were skipped when the log was imported, because they could not be
+     * converted.
+     *
+     * @param id The id of the log.
+     * @return How many rows were skipped for each kind of problem, and the first few of them.
+     */
+    @GET
+    @Produces({LognitionMediaType.IMPORTDIAGNOSTICS_V1_JSON, MediaType.APPLICATION_JSON})
+    @Path("{id}/diagnostics")
+    public Response getImportDiagnostics(@PathParam("id") long id) {
+        if (logsSrv.get(id) == null) {
+            throw new NotFoundException("Could not find log id=" + id);
+        }
+        return Response.ok(logsSrv.getImportDiagnostics(id)).build();
+    }
+
+    /**
+     * Gives the stats of some labels of a log within a window of time, such as the p99 after the
+     * ramp-up, made from the stored histogram of each time bin rather than from the samples. The
+     * window is made of whole bins, so its ends are rounded to the bins the log was imported with.
+     *
+     * @param id The id of the log.
+     * @param fromMillis The start of the window in milliseconds from the start of the test,
+     * inclusive. Defaults to the start.
+     * @param toMillis The end of the window, exclusive. Defaults to the end.
+     * @param labelIds The labels to include. Defaults to 0, all samples.
+     * @return the stats, histogram and percentiles of the window.
+     */
+    @GET
+    @Produces({LognitionMediaType.WINDOWSTATS_V1_JSON, MediaType.APPLICATION_JSON})
+    @Path("{id}/window")
+    public Response getWindowStats(@PathParam("id") long id,
+            @QueryParam("from") Long fromMillis, @QueryParam("to") Long toMillis,
+            @QueryParam("label") List<Long> labelIds) {
+        if (logsSrv.get(id) == null) {
+            throw new NotFoundException("Could not find log id=" + id);
+        }
+        long from = fromMillis == null ? 0L : fromMillis;
+        long to = toMillis == null ? Long.MAX_VALUE : toMillis;
+        if (from >= to) {
+            throw new AppClientException("The window must end after it starts, but was from="
+                    + from + " to=" + to + ".");
+        }
+        List<Long> labels = labelIds == null || labelIds.isEmpty() ? Collections.singletonList(0L) : labelIds;
+        List<BinHistogram> bins = statsSrv.getBinHistograms(id, labels, from, to);
+        return Response.ok(StatsBuilder.calcWindowStats(from, to, labels, bins)).build();
+    }
+
+    /**
+     * Download the log data in CSV form. The CSV is written straight to the response as it is
+     * made. A single byte range can be asked for, to resume an interrupted download; because the
+     * CSV is made as it is sent, the bytes before the range are made but not sent. The length of
+     * the CSV is counted when the log is imported; logs imported before lengths were counted send
+     * the whole CSV even if a range is asked for.
      *
      * @param id The id of the log.
+     * @param range Range header, if any.
+     * @param ifRange If-Range header, if any.
      * @return log data.
      */
     @GET
     @Produces({"text/csv"})
     @Path("{id}/content")
-    public Response getCsvContent(@PathParam("id") long id) throws IOException {
+    public Response getCsvContent(@PathParam("id") long id,
+            @HeaderParam(RANGE) String range,
+            @HeaderParam(IF_RANGE) String ifRange) throws IOException {
+        try {
+            File file = logsSrv.getAvroFile(id);
+            String etag = etagOf(file, "csv");
+            Long csvLength = CsvLength.forFile(file);
+            ByteRange byteRange = null;
+            if (range != null && csvLength != null && ByteRange.ifRangeMatches(ifRange, etag)) {
+                byteRange = ByteRange.parse(range, csvLength);
+            }
+            if (byteRange == null) {
+                StreamingOutput body = out -> convert(file, out);
+                Response.ResponseBuilder response = Response.ok(body, "text/csv");
+                if (csvLength != null) {
+                    response.header(HttpHeaders.CONTENT_LENGTH, csvLength);
+                }
+                return withRangeHeaders(response, etag).build();
+            }
+            if (!byteRange.isSatisfiable()) {
+                return rangeNotSatisfiable(byteRange, etag);
+            }
+            ByteRange sent = byteRange;
+            StreamingOutput body = out -> convert(file, sent.slice(out));
+            return partialContent(body, "text/csv", byteRange, etag);
+        } catch (FileNotFoundException ex) {
+            throw new NotFoundException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Download the log data as it is stored, in Avro form. A single byte range can be asked for,
+     * to resume an interrupted download.
+     *
+     * @param id The id of the log.
+     * @param range Range header, if any.
+     * @param ifRange If-Range header, if any.
+     * @return log data.
+     */
+    @GET
+    @Produces({AVRO})
+    @Path("{id}/content")
+    public Response getAvroContent(@PathParam("id") long id,
+            @HeaderParam(RANGE) String range,
+            @HeaderParam(IF_RANGE) String ifRange) throws IOException {
         try {
             File file = logsSrv.getAvroFile(id);
-            return Response.ok(CONVERTER.convertStreaming(file), "text/csv").build();
+            if (!file.exists()) {
+                throw new FileNotFoundException("No content file exists for " + file.getName());
+            }
+            String etag = etagOf(file, "avro");
+            long length = file.length();
+            ByteRange byteRange = null;
+            if (range != null && ByteRange.ifRangeMatches(ifRange, etag)) {
+                byteRange = ByteRange.parse(range, length);
+            }
+            if (byteRange == null) {
+                StreamingOutput body = out -> transfer(file, length, 0L, length, out);
+                return withRangeHeaders(Response.ok(body, AVRO), etag)
+                        .header(HttpHeaders.CONTENT_LENGTH, length)
+                        .build();
+            }
+            if (!byteRange.isSatisfiable()) {
+                return rangeNotSatisfiable(byteRange, etag);
+            }
+            ByteRange sent = byteRange;
+            StreamingOutput body = out -> transfer(file, length, sent.getFirst(), sent.getLength(), out);
+            return partialContent(body, AVRO, byteRange, etag);
         } catch (FileNotFoundException ex) {
             throw new NotFoundException(ex.getMessage());
         }
@@ -141,7 +296,7 @@ public class LogsResource {
     @POST
     @Consumes({MediaType.APPLICATION_OCTET_STREAM, "text/csv", MediaType.TEXT_PLAIN,
         MediaType.TEXT_XML, MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON,
-        "application/zip"})
+        "application/zip", "application/gzip", "application/x-gzip", "application/x-xz"})
     @Produces({LognitionMediaType.LOGBRIEF_V1_JSON, MediaType.APPLICATION_JSON})
     public Response importLog(InputStream source,
             @QueryParam("name") String name, @QueryParam("notes") String notes,
@@ -164,6 +319,109 @@ public class LogsResource {
         return Response.status(Status.CREATED).entity(importSrv.upload(source, resultLog, name, System.currentTimeMillis())).build();
     }
 
+    /**
+     * Starts a log for a test that is still running. The rest of the log is appended as the test
+     * writes it, and the stats can be viewed in the meantime.
+     *
+     * @param source the start of a CSV-based JTL, with at least the first row
+     * @param name name of the log
+     * @param notes notes about the log
+     * @param labelsText labels of the log
+     * @return the import of the live log
+     */
+    @POST
+    @Path("live")
+    @Consumes({MediaType.APPLICATION_OCTET_STREAM, "text/csv", MediaType.TEXT_PLAIN,
+        "application/gzip", "application/x-gzip", "application/x-xz"})
+    @Produces({LognitionMediaType.LOGBRIEF_V1_JSON, MediaType.APPLICATION_JSON})
+    public Response importLiveLog(InputStream source,
+            @QueryParam("name") String name, @QueryParam("notes") String notes,
+            @QueryParam("labels") String labelsText) {
+        if (name == null) {
+            name = "live";
+        }
+        List<Label> labels = toLabelsList(labelsText);
+
+        Log sourceLog = new Log(0L, Log.Status.AWAITING_UPLOAD, null, name, null, notes);
+        Log resultLog = logsSrv.create(sourceLog);
+        if (!labels.isEmpty()) {
+            logsSrv.setLabels(resultLog.getId(), labels);
+        }
+
+        REVIEWS_CALC_EXEC.execute(() -> {
+            calculateAllReviewLogs();
+        });
+
+        return Response.status(Status.CREATED).entity(importSrv.uploadLive(source, resultLog, name, System.currentTimeMillis())).build();
+    }
+
+    /**
+     * Appends the rows that a running test has written since last time. The rows do not need to
+     * be whole; a row cut short is finished by the next append.
+     *
+     * @param id the live log
+     * @param source the next rows of the CSV-based JTL, without the header
+     * @return the import of the live log
+     */
+    @POST
+    @Path("{id}/live")
+    @Consumes({MediaType.APPLICATION_OCTET_STREAM, "text/csv", MediaType.TEXT_PLAIN,
+        "application/gzip", "application/x-gzip", "application/x-xz"})
+    @Produces({LognitionMediaType.LOGBRIEF_V1_JSON, MediaType.APPLICATION_JSON})
+    public Response appendLiveLog(@PathParam("id") long id, InputStream source) {
+        return Response.ok(importSrv.append(id, source)).build();
+    }
+
+    /**
+     * Ends a live log once its test has finished, after which it is imported like any uploaded
+     * log.
+     *
+     * @param id the live log
+     * @return the import of the log
+     */
+    @POST
+    @Path("{id}/seal")
+    @Produces({LognitionMediaType.LOGBRIEF_V1_JSON, MediaType.APPLICATION_JSON})
+    public Response sealLiveLog(@PathParam("id") long id) {
+        return Response.ok(importSrv.seal(id)).build();
+    }
+
+    /**
+     * Imports the logs of a distributed test as one log. Each load generator writes its own
+     * CSV-based JTL, and the JTLs are sent together in a zip, each named for its generator. The
+     * samples are merged in the order they were taken, and each keeps the name of its generator.
+     *
+     * @param source a zip of the JTL of each load generator
+     * @param name name of the log
+     * @param notes notes about the log
+     * @param labelsText labels of the log
+     * @return the import of the merged log
+     */
+    @POST
+    @Path("merge")
+    @Consumes({"application/zip", MediaType.APPLICATION_OCTET_STREAM})
+    @Produces({LognitionMediaType.LOGBRIEF_V1_JSON, MediaType.APPLICATION_JSON})
+    public Response importMergedLog(InputStream source,
+            @QueryParam("name") String name, @QueryParam("notes") String notes,
+            @QueryParam("labels") String labelsText) {
+        if (name == null) {
+            name = "merged";
+        }
+        List<Label> labels = toLabelsList(labelsText);
+
+        Log sourceLog = new Log(0L, Log.Status.AWAITING_UPLOAD, null, name, null, notes);
+        Log resultLog = logsSrv.create(sourceLog);
+        if (!labels.isEmpty()) {
+            logsSrv.setLabels(resultLog.getId(), labels);
+        }
+
+        REVIEWS_CALC_EXEC.execute(() -> {
+            calculateAllReviewLogs();
+        });
+
+        return Response.status(Status.CREATED).entity(importSrv.uploadMerged(source, resultLog, name, System.currentTimeMillis())).build();
+    }
+
     @DELETE
     @Path("{id}")
     public Response deleteLog(@PathParam("id") long id) {
@@ -187,6 +445,62 @@ public class LogsResource {
         }
     }
 
+    /**
+     * The CSV is made from the Avro file, so both change only when the Avro file does.
+     */
+    private static String etagOf(File file, String form) {
+        return "\"" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified())
+                + "-" + form + "\"";
+    }
+
+    /**
+     * The CSV is made while holding the read lock of the Avro file, so that it is not replaced
+     * part way through by the field presence backfill.
+     */
+    private static void convert(File file, OutputStream out) {
+        Lock lock = AvroFileLocks.readLock(file);
+        lock.lock();
+        try {
+            CONVERTER.convert(file, out);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void transfer(File file, long fileLength, long position, long length, OutputStream out) throws IOException {
+        Lock lock = AvroFileLocks.readLock(file);
+        lock.lock();
+        try (FileInputStream in = new FileInputStream(file)) {
+            if (in.getChannel().size() != fileLength) {
+                throw new IOException(file + " changed after its response was started.");
+            }
+            ByteStreams.skipFully(in, position);
+            long sent = ByteStreams.copy(ByteStreams.limit(in, length), out);
+            if (sent < length) {
+                throw new EOFException("Only " + sent + " of " + length + " bytes of " + file + " could be sent.");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Response.ResponseBuilder withRangeHeaders(Response.ResponseBuilder response, String etag) {
+        return response.header(ACCEPT_RANGES, "bytes").header(HttpHeaders.ETAG, etag);
+    }
+
+    private static Response partialContent(StreamingOutput body, String type, ByteRange byteRange, String etag) {
+        return withRangeHeaders(Response.status(Status.PARTIAL_CONTENT).entity(body).type(type), etag)
+                .header(CONTENT_RANGE, byteRange.contentRange())
+                .header(HttpHeaders.CONTENT_LENGTH, byteRange.getLength())
+                .build();
+    }
+
+    private static Response rangeNotSatisfiable(ByteRange byteRange, String etag) {
+        return withRangeHeaders(Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE), etag)
+                .header(CONTENT_RANGE, byteRange.contentRange())
+                .build();
+    }
+
     private static List<Label> toLabelsList(String labelsText) {
         LOGGER.info("Labelizing labels=\"{}\"", labelsText);
         if (labelsText == null || labelsText.isEmpty()) {
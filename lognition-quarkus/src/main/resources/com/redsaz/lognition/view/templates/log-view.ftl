@@ -52,12 +52,27 @@
         <li class="nav-item">
           <a class="nav-link" id="responses-timeseries-tab" data-toggle="tab" href="#responses-timeseries" role="tab" aria-controls="responses-timeseries" aria-selected="false" onclick="switchActiveNav('nav-link', this)">Responses Timeseries</a>
         </li>
+        <#if latencyGraphs?has_content>
+        <li class="nav-item">
+          <a class="nav-link" id="latency-timeseries-tab" data-toggle="tab" href="#latency-timeseries" role="tab" aria-controls="latency-timeseries" aria-selected="false" onclick="switchActiveNav('nav-link', this)">Latency Timeseries</a>
+        </li>
+        </#if>
+        <#if connectGraphs?has_content>
+        <li class="nav-item">
+          <a class="nav-link" id="connect-timeseries-tab" data-toggle="tab" href="#connect-timeseries" role="tab" aria-controls="connect-timeseries" aria-selected="false" onclick="switchActiveNav('nav-link', this)">Connect Timeseries</a>
+        </li>
+        </#if>
         <li class="nav-item">
           <a class="nav-link" id="error-timeseries-tab" data-toggle="tab" href="#error-timeseries" role="tab" aria-controls="error-timeseries" aria-selected="false" onclick="switchActiveNav('nav-link', this)">Error Timeseries</a>
         </li>
         <li class="nav-item">
           <a class="nav-link" id="error-percent-timeseries-tab" data-toggle="tab" href="#error-percent-timeseries" role="tab" aria-controls="error-percent-timeseries" aria-selected="false" onclick="switchActiveNav('nav-link', this)">Error% Timeseries</a>
         </li>
+        <#if diagnostics?? && (diagnostics.total > 0)>
+        <li class="nav-item">
+          <a class="nav-link" id="import-problems-tab" data-toggle="tab" href="#import-problems" role="tab" aria-controls="import-problems" aria-selected="false" onclick="switchActiveNav('nav-link', this)">Import Problems</a>
+        </li>
+        </#if>
       </ul>
       </div>
   <div class="tab-content">
@@ -179,6 +194,32 @@
       </div>
       </#list>
     </div>
+    <div class="tab-pane" id="latency-timeseries" role="tabpanel" aria-labelledby="latency-timeseries-tab">
+      <#list latencyGraphs as graph>
+      <#if graph?has_content>
+      <div class="row">
+        <div class="col-sm-12 col-md-12">
+          <div class="graph loggraph">
+            <div id="latencygraphdiv${graph?index}" style="width: 100%"></div>
+          </div>
+        </div>
+      </div>
+      </#if>
+      </#list>
+    </div>
+    <div class="tab-pane" id="connect-timeseries" role="tabpanel" aria-labelledby="connect-timeseries-tab">
+      <#list connectGraphs as graph>
+      <#if graph?has_content>
+      <div class="row">
+        <div class="col-sm-12 col-md-12">
+          <div class="graph loggraph">
+            <div id="connectgraphdiv${graph?index}" style="width: 100%"></div>
+          </div>
+        </div>
+      </div>
+      </#if>
+      </#list>
+    </div>
     <div class="tab-pane" id="error-timeseries" role="tabpanel" aria-labelledby="error-timeseries-tab">
       <#list errorTimeseriesGraphs as etg>
       <div class="row">
@@ -201,6 +242,50 @@
       </div>
       </#list>
     </div>
+    <#if diagnostics?? && (diagnostics.total > 0)>
+    <div class="tab-pane" id="import-problems" role="tabpanel" aria-labelledby="import-problems-tab">
+      <div class="container">
+        <p>${diagnostics.total} rows could not be imported, and were skipped.</p>
+        <table class="table table-hover">
+          <thead>
+          <tr>
+            <th>Wrong Column Count</th>
+            <th>Bad Number</th>
+            <th>Missing Required Field</th>
+          </tr>
+          </thead>
+          <tbody>
+          <tr>
+            <td>${diagnostics.wrongColumnCount}</td>
+            <td>${diagnostics.badNumberCount}</td>
+            <td>${diagnostics.missingRequiredFieldCount}</td>
+          </tr>
+          </tbody>
+        </table>
+        <#if diagnostics.examples?has_content>
+        <h4>First skipped rows</h4>
+        <table class="table table-hover">
+          <thead>
+          <tr>
+            <th>Problem</th>
+            <th>Detail</th>
+            <th>Contents</th>
+          </tr>
+          </thead>
+          <tbody>
+          <#list diagnostics.examples as example>
+          <tr>
+            <td>${example.problem}</td>
+            <td>${example.detail}</td>
+            <td><code>${example.contents}</code></td>
+          </tr>
+          </#list>
+          </tbody>
+        </table>
+        </#if>
+      </div>
+    </div>
+    </#if>
   </div>
 </div>
       <script src="${dist}/js/dygraph.min.js"></script>
@@ -224,6 +309,16 @@
           <#noescape>${graph}</#noescape>
         </script>
       </#list>
+      <#list latencyGraphs as graph>
+        <script>
+          <#noescape>${graph}</#noescape>
+        </script>
+      </#list>
+      <#list connectGraphs as graph>
+        <script>
+          <#noescape>${graph}</#noescape>
+        </script>
+      </#list>
       <#list errorTimeseriesGraphs as etg>
         <script>
           <#noescape>${etg}</#noescape>
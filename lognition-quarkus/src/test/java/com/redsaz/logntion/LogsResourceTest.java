@@ -18,21 +18,35 @@ package com.redsaz.logntion;
 import com.google.common.hash.Hashing;
 import com.redsaz.lognition.api.LognitionMediaType;
 import com.redsaz.lognition.api.LogsService;
+import com.redsaz.lognition.api.StatsService;
+import com.redsaz.lognition.api.model.BinHistogram;
 import com.redsaz.lognition.api.model.Log;
+import com.redsaz.lognition.convert.AvroToCsvJtlConverter;
+import com.redsaz.lognition.convert.CsvLength;
 import com.redsaz.lognition.view.Sanitizer;
 import io.quarkus.test.junit.QuarkusTest;
 import io.quarkus.test.junit.mockito.InjectMock;
+import io.restassured.response.Response;
 import static io.restassured.RestAssured.given;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
+import java.util.Collections;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.startsWith;
+import org.HdrHistogram.IntCountsHistogram;
 import org.hamcrest.Matchers;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import org.junit.jupiter.api.Test;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -43,6 +57,9 @@ public class LogsResourceTest {
     @InjectMock
     LogsService logs;
 
+    @InjectMock
+    StatsService stats;
+
     @Test
     public void testListLogsBrief() {
         when(logs.list()).thenReturn(Arrays.asList(new Log(1L, Log.Status.COMPLETE, "test", "Test Name", "test.hsqldb", "Test notes.")));
@@ -108,6 +125,164 @@ public class LogsResourceTest {
         assertEquals("39d2b0c0bb2fdf2de6a94a3ab30a88d289704a7b974ca8227c11dd3fe54bdf92", actualHash);
     }
 
+    @Test
+    public void testGetCsvContent_Range() throws IOException {
+        when(logs.getAvroFile(anyLong())).thenReturn(countedAvro());
+        Response response = given()
+                .when().accept("text/csv").get("/logs/1/content")
+                .then()
+                .statusCode(200)
+                .header("Accept-Ranges", "bytes")
+                .extract().response();
+        byte[] whole = response.asByteArray();
+        // The length counted when the log was imported is sent with the whole CSV too.
+        assertEquals(Integer.toString(whole.length), response.header("Content-Length"));
+
+        // Resuming a download part of the way through should give the rest of the CSV.
+        byte[] rest = given()
+                .when().accept("text/csv").header("Range", "bytes=100-").get("/logs/1/content")
+                .then()
+                .statusCode(206)
+                .header("Content-Range", "bytes 100-" + (whole.length - 1) + "/" + whole.length)
+                .extract().asByteArray();
+
+        assertArrayEquals(Arrays.copyOfRange(whole, 100, whole.length), rest);
+    }
+
+    @Test
+    public void testGetCsvContent_RangeLengthUnknown() throws IOException {
+        // If the CSV was not counted when the log was imported, its length is not known, so the
+        // whole CSV is sent instead of making it once just to count it.
+        when(logs.getAvroFile(anyLong())).thenReturn(new File("src/test/resources/test.avro"));
+
+        byte[] contentBytes = given()
+                .when().accept("text/csv").header("Range", "bytes=100-").get("/logs/1/content")
+                .then()
+                .statusCode(200)
+                .extract().asByteArray();
+
+        String actualHash = Hashing.sha256().hashBytes(contentBytes).toString();
+        assertEquals("39d2b0c0bb2fdf2de6a94a3ab30a88d289704a7b974ca8227c11dd3fe54bdf92", actualHash);
+    }
+
+    @Test
+    public void testGetCsvContent_RangeChanged() throws FileNotFoundException {
+        // If the log changed since the download started, then the whole CSV is sent instead.
+        when(logs.getAvroFile(anyLong())).thenReturn(new File("src/test/resources/test.avro"));
+
+        byte[] contentBytes = given()
+                .when().accept("text/csv").header("Range", "bytes=100-").header("If-Range", "\"old\"")
+                .get("/logs/1/content")
+                .then()
+                .statusCode(200)
+                .extract().asByteArray();
+
+        String actualHash = Hashing.sha256().hashBytes(contentBytes).toString();
+        assertEquals("39d2b0c0bb2fdf2de6a94a3ab30a88d289704a7b974ca8227c11dd3fe54bdf92", actualHash);
+    }
+
+    @Test
+    public void testGetCsvContent_RangeNotSatisfiable() throws IOException {
+        when(logs.getAvroFile(anyLong())).thenReturn(countedAvro());
+
+        given()
+                .when().accept("text/csv").header("Range", "bytes=999999999-").get("/logs/1/content")
+                .then()
+                .statusCode(416)
+                .header("Content-Range", startsWith("bytes */"));
+    }
+
+    @Test
+    public void testGetAvroContent() throws IOException {
+        File avro = new File("src/test/resources/test.avro");
+        when(logs.getAvroFile(anyLong())).thenReturn(avro);
+
+        byte[] contentBytes = given()
+                .when().accept("application/avro").get("/logs/1/content")
+                .then()
+                .statusCode(200)
+                .header("Content-Length", Long.toString(avro.length()))
+                .extract().asByteArray();
+
+        assertArrayEquals(Files.readAllBytes(avro.toPath()), contentBytes);
+    }
+
+    @Test
+    public void testGetContent_AnyType() throws FileNotFoundException {
+        // Browsers accept anything, and should get the CSV rather than the Avro.
+        when(logs.getAvroFile(anyLong())).thenReturn(new File("src/test/resources/test.avro"));
+
+        given()
+                .when().accept("*/*").get("/logs/1/content")
+                .then()
+                .statusCode(200)
+                .contentType(startsWith("text/csv"));
+    }
+
+    @Test
+    public void testGetAvroContent_Range() throws IOException {
+        File avro = new File("src/test/resources/test.avro");
+        when(logs.getAvroFile(anyLong())).thenReturn(avro);
+
+        byte[] contentBytes = given()
+                .when().accept("application/avro").header("Range", "bytes=10-19").get("/logs/1/content")
+                .then()
+                .statusCode(206)
+                .header("Content-Range", "bytes 10-19/" + avro.length())
+                .extract().asByteArray();
+
+        assertArrayEquals(Arrays.copyOfRange(Files.readAllBytes(avro.toPath()), 10, 20), contentBytes);
+    }
+
+    @Test
+    public void testAppendLiveLog_NotLive() {
+        given()
+                .when().contentType("text/csv").accept(LognitionMediaType.LOGBRIEF_V1_JSON)
+                .body("1623989620936,18,GET /logs,200,OK,Thread Group 1-1,text,true,,4102,121,1,1\n")
+                .post("/logs/999999/live")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    public void testGetWindowStats() {
+        when(logs.get(anyLong())).thenReturn(
+                new Log(1L, Log.Status.COMPLETE, "test", "Test Name", "test.hsqldb", "Test notes."));
+        IntCountsHistogram histogram = new IntCountsHistogram(2);
+        histogram.recordValue(10L);
+        histogram.recordValue(20L);
+        histogram.recordValue(30L);
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        BinHistogram bin = new BinHistogram(6000L, 1000L, 3L, 10L, 30L, 60L, 300L, 1L,
+                Arrays.copyOf(buffer.array(), length));
+        when(stats.getBinHistograms(eq(1L), eq(Arrays.asList(1L, 2L)), eq(5000L), eq(10000L)))
+                .thenReturn(Collections.singletonList(bin));
+
+        given()
+                .when().accept(LognitionMediaType.WINDOWSTATS_V1_JSON)
+                .get("/logs/1/window?from=5000&to=10000&label=1&label=2")
+                .then()
+                .statusCode(200)
+                .body("aggregate.numSamples", equalTo(3))
+                .body("aggregate.p50", equalTo(20))
+                .body("aggregate.avg", equalTo(20))
+                .body("aggregate.numErrors", equalTo(1))
+                .body("labelIds", equalTo(Arrays.asList(1, 2)));
+    }
+
+    @Test
+    public void testGetWindowStats_BadWindow() {
+        when(logs.get(anyLong())).thenReturn(
+                new Log(1L, Log.Status.COMPLETE, "test", "Test Name", "test.hsqldb", "Test notes."));
+
+        given()
+                .when().accept(LognitionMediaType.WINDOWSTATS_V1_JSON)
+                .get("/logs/1/window?from=5000&to=5000")
+                .then()
+                .statusCode(400);
+    }
+
     @Test
     public void testGetCsvContent_BadLogId() throws FileNotFoundException {
         when(logs.getAvroFile(anyLong())).thenThrow(new FileNotFoundException("No content file exists for 1.avro"));
@@ -119,4 +294,17 @@ public class LogsResourceTest {
                 .body(equalTo("{\"error\":\"NotFound\",\"message\":\"No content file exists for 1.avro\"}"));
     }
 
+    /**
+     * @return a copy of the test log, with its CSV counted the same as when a log is imported.
+     */
+    private static File countedAvro() throws IOException {
+        File avro = File.createTempFile("counted", ".avro");
+        avro.deleteOnExit();
+        Files.copy(new File("src/test/resources/test.avro").toPath(), avro.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        CsvLength.write(avro, CsvLength.count(avro, new AvroToCsvJtlConverter(1)));
+        CsvLength.fileFor(avro).deleteOnExit();
+        return avro;
+    }
+
 }
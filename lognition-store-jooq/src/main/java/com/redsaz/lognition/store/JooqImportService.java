@@ -19,6 +19,7 @@ import com.redsaz.lognition.api.ImportService;
 import com.redsaz.lognition.api.exceptions.AppClientException;
 import com.redsaz.lognition.api.exceptions.AppServerException;
 import com.redsaz.lognition.api.model.ImportInfo;
+import com.redsaz.lognition.api.model.ImportStatus;
 import com.redsaz.lognition.api.model.Log;
 import static com.redsaz.lognition.model.tables.ImportInfo.IMPORT_INFO;
 import com.redsaz.lognition.model.tables.records.ImportInfoRecord;
@@ -29,12 +30,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import org.jooq.DSLContext;
 import org.jooq.RecordHandler;
 import org.jooq.RecordMapper;
@@ -75,6 +81,7 @@ public class JooqImportService implements ImportService {
         } catch (IOException ex) {
             throw new RuntimeException("Unable to create data directories.", ex);
         }
+        deleteOrphanedUploads();
     }
 
     @Override
@@ -91,7 +98,7 @@ public class JooqImportService implements ImportService {
         LOGGER.info("Storing into {}", destFile.getAbsolutePath());
         try (OutputStream os = new BufferedOutputStream(new FileOutputStream(destFile))) {
             MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] buff = new byte[4096];
+            byte[] buff = new byte[64 * 1024];
             int num;
             while ((num = raw.read(buff)) >= 0) {
                 md.update(buff, 0, num);
@@ -154,6 +161,72 @@ public class JooqImportService implements ImportService {
         }
     }
 
+    /**
+     * The store only holds the imports, it does not process them, so none are queued or in
+     * progress as far as it knows.
+     *
+     * @return an empty list
+     */
+    @Override
+    public List<ImportStatus> listStatuses() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * The store does not tell a live import from any other, so this is the same as an upload.
+     */
+    @Override
+    public ImportInfo uploadLive(InputStream raw, Log log, String importedFilename, long uploadedUtcMillis) {
+        return upload(raw, log, importedFilename, uploadedUtcMillis);
+    }
+
+    /**
+     * The store does not tell a merged import from any other, so this is the same as an upload.
+     */
+    @Override
+    public ImportInfo uploadMerged(InputStream raw, Log log, String importedFilename, long uploadedUtcMillis) {
+        return upload(raw, log, importedFilename, uploadedUtcMillis);
+    }
+
+    @Override
+    public ImportInfo append(long id, InputStream raw) {
+        if (raw == null) {
+            throw new NullPointerException("No import was specified.");
+        }
+        ImportInfo info = get(id);
+        if (info == null) {
+            throw new AppClientException("No import_id=" + id + " exists to append to.");
+        }
+        File destFile = new File(info.getImportedFilename());
+        long bytesRead = 0;
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(destFile, true))) {
+            byte[] buff = new byte[64 * 1024];
+            int num;
+            while ((num = raw.read(buff)) >= 0) {
+                os.write(buff, 0, num);
+                bytesRead += num;
+            }
+            os.flush();
+        } catch (IOException ex) {
+            LOGGER.error("Exception when appending to log.", ex);
+            throw new AppServerException("Failed to append content.", ex);
+        }
+        LOGGER.debug("Appended {} bytes to file {}.", bytesRead, destFile.getAbsolutePath());
+        return info;
+    }
+
+    /**
+     * The store only holds the imports, so there is nothing to do other than find it.
+     */
+    @Override
+    public ImportInfo seal(long id) {
+        ImportInfo info = get(id);
+        if (info == null) {
+            throw new AppClientException("No import_id=" + id + " exists to seal.");
+        }
+        return info;
+    }
+
     @Override
     public void delete(long id) {
         try (Connection c = pool.getConnection()) {
@@ -193,6 +266,9 @@ public class JooqImportService implements ImportService {
             if (source.getUploadedUtcMillis() != 0) {
                 up.set(IMPORT_INFO.UPLOADED_UTC_MILLIS, source.getUploadedUtcMillis());
             }
+            if (source.getImportAttempts() != 0) {
+                up.set(IMPORT_INFO.IMPORT_ATTEMPTS, source.getImportAttempts());
+            }
             ImportInfoRecord result = up.where(IMPORT_INFO.ID.eq(source.getId())).returning().fetchOne();
             LOGGER.debug("...Updated entry in DB.");
             return R2I.map(result);
@@ -201,6 +277,29 @@ public class JooqImportService implements ImportService {
         }
     }
 
+    /**
+     * Uploads that were cut short, such as by a restart, leave behind files that no import refers
+     * to. Since uploads only happen after the service is created, any such files are removed.
+     */
+    private void deleteOrphanedUploads() {
+        File[] files = uploadedLogsDir.listFiles((dir, name) -> name.startsWith("log-") && name.endsWith(".tmp"));
+        if (files == null || files.length == 0) {
+            return;
+        }
+        Set<Path> referenced = new HashSet<>();
+        for (ImportInfo info : list()) {
+            referenced.add(Paths.get(info.getImportedFilename()).toAbsolutePath().normalize());
+        }
+        for (File file : files) {
+            if (!referenced.contains(file.toPath().toAbsolutePath().normalize())) {
+                LOGGER.info("Deleting orphaned upload {}.", file);
+                if (!file.delete()) {
+                    LOGGER.error("Unable to delete orphaned upload {}.", file);
+                }
+            }
+        }
+    }
+
     private File createUploadFile() {
         try {
             return File.createTempFile("log-", ".tmp", uploadedLogsDir);
@@ -231,7 +330,8 @@ public class JooqImportService implements ImportService {
             }
             return new ImportInfo(record.getId(),
                     record.getImportedFilename(),
-                    record.getUploadedUtcMillis()
+                    record.getUploadedUtcMillis(),
+                    record.getImportAttempts()
             );
         }
     }
@@ -21,11 +21,18 @@ import com.redsaz.lognition.api.exceptions.AppServerException;
 import com.redsaz.lognition.api.labelselector.LabelSelectorExpression;
 import com.redsaz.lognition.api.labelselector.LabelSelectorExpressionListener;
 import com.redsaz.lognition.api.labelselector.LabelSelectorSyntaxException;
+import com.redsaz.lognition.api.model.ImportDiagnostics;
+import com.redsaz.lognition.api.model.ImportDiagnostics.BadRow;
+import com.redsaz.lognition.api.model.ImportDiagnostics.Problem;
 import com.redsaz.lognition.api.model.Label;
 import com.redsaz.lognition.api.model.Log;
 import com.redsaz.lognition.api.model.Log.Status;
+import static com.redsaz.lognition.model.tables.BadRow.BAD_ROW;
+import static com.redsaz.lognition.model.tables.ImportDiagnostics.IMPORT_DIAGNOSTICS;
 import static com.redsaz.lognition.model.tables.Label.LABEL;
 import static com.redsaz.lognition.model.tables.Log.LOG;
+import com.redsaz.lognition.model.tables.records.BadRowRecord;
+import com.redsaz.lognition.model.tables.records.ImportDiagnosticsRecord;
 import com.redsaz.lognition.model.tables.records.LabelRecord;
 import com.redsaz.lognition.model.tables.records.LogRecord;
 import java.io.File;
@@ -49,6 +56,7 @@ import java.util.stream.Collectors;
 import org.jooq.Condition;
 import org.jooq.DSLContext;
 import org.jooq.InsertValuesStep3;
+import org.jooq.InsertValuesStep5;
 import org.jooq.Record;
 import org.jooq.Record1;
 import org.jooq.RecordHandler;
@@ -340,6 +348,64 @@ public class JooqLogsService implements LogsService {
         }
     }
 
+    @Override
+    public void setImportDiagnostics(ImportDiagnostics diagnostics) {
+        long logId = diagnostics.getLogId();
+        try (Connection c = pool.getConnection()) {
+            DSLContext context = DSL.using(c, dialect);
+            // The bad rows are deleted with the diagnostics they are for.
+            context.deleteFrom(IMPORT_DIAGNOSTICS).where(IMPORT_DIAGNOSTICS.LOG_ID.eq(logId)).execute();
+            context.insertInto(IMPORT_DIAGNOSTICS,
+                    IMPORT_DIAGNOSTICS.LOG_ID,
+                    IMPORT_DIAGNOSTICS.WRONG_COLUMN_COUNT,
+                    IMPORT_DIAGNOSTICS.BAD_NUMBER_COUNT,
+                    IMPORT_DIAGNOSTICS.MISSING_REQUIRED_FIELD_COUNT)
+                    .values(logId,
+                            diagnostics.getWrongColumnCount(),
+                            diagnostics.getBadNumberCount(),
+                            diagnostics.getMissingRequiredFieldCount())
+                    .execute();
+            List<BadRow> examples = diagnostics.getExamples();
+            if (!examples.isEmpty()) {
+                InsertValuesStep5<BadRowRecord, Long, Integer, String, String, String> insert = context.insertInto(BAD_ROW)
+                        .columns(BAD_ROW.LOG_ID, BAD_ROW.ROW_INDEX, BAD_ROW.PROBLEM, BAD_ROW.DETAIL, BAD_ROW.CONTENTS);
+                for (int i = 0; i < examples.size(); ++i) {
+                    BadRow example = examples.get(i);
+                    insert = insert.values(logId, i, example.getProblem().name(),
+                            example.getDetail(), example.getContents());
+                }
+                insert.execute();
+            }
+        } catch (SQLException ex) {
+            throw new AppServerException("Failed to store import diagnostics for log_id=" + logId
+                    + " because: " + ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public ImportDiagnostics getImportDiagnostics(long logId) {
+        try (Connection c = pool.getConnection()) {
+            DSLContext context = DSL.using(c, dialect);
+            ImportDiagnosticsRecord record = context.selectFrom(IMPORT_DIAGNOSTICS)
+                    .where(IMPORT_DIAGNOSTICS.LOG_ID.eq(logId))
+                    .fetchOne();
+            if (record == null) {
+                return ImportDiagnostics.none(logId);
+            }
+            List<BadRow> examples = context.selectFrom(BAD_ROW)
+                    .where(BAD_ROW.LOG_ID.eq(logId))
+                    .orderBy(BAD_ROW.ROW_INDEX)
+                    .fetch(r -> new BadRow(Problem.valueOf(r.getProblem()), r.getDetail(), r.getContents()));
+            return new ImportDiagnostics(logId,
+                    record.getWrongColumnCount(),
+                    record.getBadNumberCount(),
+                    record.getMissingRequiredFieldCount(),
+                    examples);
+        } catch (SQLException ex) {
+            throw new AppServerException("Failed to load import diagnostics for log_id=" + logId, ex);
+        }
+    }
+
     private static class RecordToLogMapper implements RecordMapper<LogRecord, Log> {
 
         @Override
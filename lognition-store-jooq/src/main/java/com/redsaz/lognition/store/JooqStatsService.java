@@ -17,18 +17,22 @@ package com.redsaz.lognition.store;
 
 import com.redsaz.lognition.api.StatsService;
 import com.redsaz.lognition.api.exceptions.AppServerException;
+import com.redsaz.lognition.api.model.BinHistogram;
 import com.redsaz.lognition.api.model.CodeCounts;
 import com.redsaz.lognition.api.model.Histogram;
 import com.redsaz.lognition.api.model.Percentiles;
 import com.redsaz.lognition.api.model.Stats;
 import com.redsaz.lognition.api.model.Timeseries;
+import com.redsaz.lognition.api.model.Timing;
 import static com.redsaz.lognition.model.tables.Aggregate.AGGREGATE;
+import static com.redsaz.lognition.model.tables.BinHistogram.BIN_HISTOGRAM;
 import static com.redsaz.lognition.model.tables.CodeCount.CODE_COUNT;
 import static com.redsaz.lognition.model.tables.Histogram.HISTOGRAM;
 import static com.redsaz.lognition.model.tables.Percentile.PERCENTILE;
 import static com.redsaz.lognition.model.tables.SampleLabel.SAMPLE_LABEL;
 import static com.redsaz.lognition.model.tables.Timeseries.TIMESERIES;
 import com.redsaz.lognition.model.tables.records.AggregateRecord;
+import com.redsaz.lognition.model.tables.records.BinHistogramRecord;
 import com.redsaz.lognition.model.tables.records.CodeCountRecord;
 import com.redsaz.lognition.model.tables.records.HistogramRecord;
 import com.redsaz.lognition.model.tables.records.PercentileRecord;
@@ -71,12 +75,15 @@ public class JooqStatsService implements StatsService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(JooqStatsService.class);
 
+    private static final long DEFAULT_SPAN_MILLIS = 60000L;
+
     private static final RecordToTimeseriesMapper R2TIMESERIES = new RecordToTimeseriesMapper();
     private static final RecordToHistogramMapper R2HISTOGRAM = new RecordToHistogramMapper();
     private static final RecordToPercentilesMapper R2PERCENTILES = new RecordToPercentilesMapper();
     private static final RecordToCodeCountsMapper R2CODE_COUNTS = new RecordToCodeCountsMapper();
     private static final RecordToSampleLabelMapper R2SAMPLE_LABEL = new RecordToSampleLabelMapper();
     private static final RecordToStatsMapper R2STATS = new RecordToStatsMapper();
+    private static final RecordToBinHistogramMapper R2BIN_HISTOGRAM = new RecordToBinHistogramMapper();
 
     private final ConnectionPool pool;
     private final SQLDialect dialect;
@@ -103,21 +110,46 @@ public class JooqStatsService implements StatsService {
 
         LOGGER.info("Creating sample labels in DB for logId={}...", logId);
         try (Connection c = pool.getConnection()) {
-            DSLContext context = DSL.using(c, dialect);
-
-            InsertValuesStep3<SampleLabelRecord, Long, Long, String> inserts = context.insertInto(
-                    SAMPLE_LABEL,
-                    SAMPLE_LABEL.LOG_ID,
-                    SAMPLE_LABEL.LABEL_ID,
-                    SAMPLE_LABEL.LABEL);
-            for (int i = 0; i < labels.size(); ++i) {
-                String label = labels.get(i);
-                inserts = inserts.values(
-                        logId,
-                        Long.valueOf(i),
-                        label);
-            }
-            inserts.execute();
+            // All or none of the labels are changed, so that stats are never stored against a
+            // mix of old and new labels.
+            DSL.using(c, dialect).transaction(configuration -> {
+                DSLContext context = DSL.using(configuration);
+                // The labels of a live log are stored again as more are seen, so the labels already
+                // stored are renamed in place rather than replaced, which would delete their stats.
+                List<String> existing = context.selectFrom(SAMPLE_LABEL)
+                        .where(SAMPLE_LABEL.LOG_ID.eq(logId))
+                        .orderBy(SAMPLE_LABEL.LABEL_ID)
+                        .fetch(SAMPLE_LABEL.LABEL);
+                for (int i = 0; i < existing.size() && i < labels.size(); ++i) {
+                    if (!existing.get(i).equals(labels.get(i))) {
+                        context.update(SAMPLE_LABEL)
+                                .set(SAMPLE_LABEL.LABEL, labels.get(i))
+                                .where(SAMPLE_LABEL.LOG_ID.eq(logId))
+                                .and(SAMPLE_LABEL.LABEL_ID.eq(Long.valueOf(i)))
+                                .execute();
+                    }
+                }
+                if (existing.size() > labels.size()) {
+                    context.delete(SAMPLE_LABEL)
+                            .where(SAMPLE_LABEL.LOG_ID.eq(logId))
+                            .and(SAMPLE_LABEL.LABEL_ID.ge(Long.valueOf(labels.size())))
+                            .execute();
+                } else if (existing.size() < labels.size()) {
+                    InsertValuesStep3<SampleLabelRecord, Long, Long, String> inserts = context.insertInto(
+                            SAMPLE_LABEL,
+                            SAMPLE_LABEL.LOG_ID,
+                            SAMPLE_LABEL.LABEL_ID,
+                            SAMPLE_LABEL.LABEL);
+                    for (int i = existing.size(); i < labels.size(); ++i) {
+                        String label = labels.get(i);
+                        inserts = inserts.values(
+                                logId,
+                                Long.valueOf(i),
+                                label);
+                    }
+                    inserts.execute();
+                }
+            });
             LOGGER.info("...Created sample labels in DB for logId={}.", logId);
         } catch (SQLException ex) {
             throw new AppServerException("Failed to create timeseries: " + ex.getMessage(), ex);
@@ -139,11 +171,17 @@ public class JooqStatsService implements StatsService {
 
     @Override
     public Stats getAggregate(long logId, long labelId) {
+        return getAggregate(logId, labelId, Timing.ELAPSED);
+    }
+
+    @Override
+    public Stats getAggregate(long logId, long labelId, Timing timing) {
         try (Connection c = pool.getConnection()) {
             DSLContext context = DSL.using(c, dialect);
             return context.selectFrom(AGGREGATE)
                     .where(AGGREGATE.LOG_ID.eq(logId))
                     .and(AGGREGATE.LABEL_ID.eq(labelId))
+                    .and(AGGREGATE.TIMING.eq(timing.name()))
                     .fetchOne(R2STATS);
         } catch (SQLException ex) {
             throw new AppServerException("Cannot get aggregate for log=" + logId + " labelId="
@@ -153,12 +191,28 @@ public class JooqStatsService implements StatsService {
 
     @Override
     public Timeseries getTimeseries(long logId, long labelId) {
+        return getTimeseries(logId, labelId, Timing.ELAPSED);
+    }
+
+    @Override
+    public Timeseries getTimeseries(long logId, long labelId, Timing timing) {
+        return getTimeseries(logId, labelId, timing, DEFAULT_SPAN_MILLIS);
+    }
+
+    @Override
+    public Timeseries getTimeseries(long logId, long labelId, long spanMillis) {
+        return getTimeseries(logId, labelId, Timing.ELAPSED, spanMillis);
+    }
+
+    @Override
+    public Timeseries getTimeseries(long logId, long labelId, Timing timing, long spanMillis) {
         try (Connection c = pool.getConnection()) {
             DSLContext context = DSL.using(c, dialect);
             return context.selectFrom(TIMESERIES)
                     .where(TIMESERIES.LOG_ID.eq(logId))
                     .and(TIMESERIES.LABEL_ID.eq(labelId))
-                    .and(TIMESERIES.SPAN_MILLIS.eq(60000L))
+                    .and(TIMESERIES.SPAN_MILLIS.eq(spanMillis))
+                    .and(TIMESERIES.TIMING.eq(timing.name()))
                     .fetchOne(R2TIMESERIES);
         } catch (SQLException ex) {
             throw new AppServerException("Cannot get timeseries_id=" + logId + " because: " + ex.getMessage(), ex);
@@ -167,11 +221,17 @@ public class JooqStatsService implements StatsService {
 
     @Override
     public Histogram getHistogram(long logId, long labelId) {
+        return getHistogram(logId, labelId, Timing.ELAPSED);
+    }
+
+    @Override
+    public Histogram getHistogram(long logId, long labelId, Timing timing) {
         try (Connection c = pool.getConnection()) {
             DSLContext context = DSL.using(c, dialect);
             return context.selectFrom(HISTOGRAM)
                     .where(HISTOGRAM.LOG_ID.eq(logId))
                     .and(HISTOGRAM.LABEL_ID.eq(labelId))
+                    .and(HISTOGRAM.TIMING.eq(timing.name()))
                     .fetchOne(R2HISTOGRAM);
         } catch (SQLException ex) {
             throw new AppServerException("Cannot get histogram_id=" + logId + " label_id=" + labelId + " because: " + ex.getMessage(), ex);
@@ -180,11 +240,17 @@ public class JooqStatsService implements StatsService {
 
     @Override
     public Percentiles getPercentiles(long logId, long labelId) {
+        return getPercentiles(logId, labelId, Timing.ELAPSED);
+    }
+
+    @Override
+    public Percentiles getPercentiles(long logId, long labelId, Timing timing) {
         try (Connection c = pool.getConnection()) {
             DSLContext context = DSL.using(c, dialect);
             return context.selectFrom(PERCENTILE)
                     .where(PERCENTILE.LOG_ID.eq(logId))
                     .and(PERCENTILE.LABEL_ID.eq(labelId))
+                    .and(PERCENTILE.TIMING.eq(timing.name()))
                     .fetchOne(R2PERCENTILES);
         } catch (SQLException ex) {
             throw new AppServerException("Cannot get percentiles_id=" + logId + " label_id=" + labelId + " because: " + ex.getMessage(), ex);
@@ -220,6 +286,11 @@ public class JooqStatsService implements StatsService {
 
     @Override
     public void createOrUpdateAggregate(long logId, long labelId, Stats aggregate) {
+        createOrUpdateAggregate(logId, labelId, Timing.ELAPSED, aggregate);
+    }
+
+    @Override
+    public void createOrUpdateAggregate(long logId, long labelId, Timing timing, Stats aggregate) {
         if (aggregate == null) {
             throw new NullPointerException("No aggregate was specified.");
         } else if (logId < 1L) {
@@ -233,6 +304,7 @@ public class JooqStatsService implements StatsService {
             context.mergeInto(AGGREGATE,
                     AGGREGATE.LOG_ID,
                     AGGREGATE.LABEL_ID,
+                    AGGREGATE.TIMING,
                     AGGREGATE.MIN,
                     AGGREGATE.P25,
                     AGGREGATE.P50,
@@ -248,6 +320,7 @@ public class JooqStatsService implements StatsService {
             ).values(
                     logId,
                     labelId,
+                    timing.name(),
                     aggregate.getMin(),
                     aggregate.getP25(),
                     aggregate.getP50(),
@@ -269,6 +342,11 @@ public class JooqStatsService implements StatsService {
 
     @Override
     public void createOrUpdateTimeseries(long logId, long labelId, Timeseries timeseries) {
+        createOrUpdateTimeseries(logId, labelId, Timing.ELAPSED, timeseries);
+    }
+
+    @Override
+    public void createOrUpdateTimeseries(long logId, long labelId, Timing timing, Timeseries timeseries) {
         if (timeseries == null) {
             throw new NullPointerException("No timeseries was specified.");
         } else if (timeseries.getStatsList() == null) {
@@ -289,10 +367,12 @@ public class JooqStatsService implements StatsService {
                     TIMESERIES.LOG_ID,
                     TIMESERIES.LABEL_ID,
                     TIMESERIES.SPAN_MILLIS,
+                    TIMESERIES.TIMING,
                     TIMESERIES.SERIES_DATA).values(
                             logId,
                             labelId,
                             timeseries.getSpanMillis(),
+                            timing.name(),
                             statsBytes)
                     .execute();
             LOGGER.info("...Created timeseries entry in DB.");
@@ -303,6 +383,11 @@ public class JooqStatsService implements StatsService {
 
     @Override
     public void createOrUpdateHistogram(long logId, long labelId, Histogram histogram) {
+        createOrUpdateHistogram(logId, labelId, Timing.ELAPSED, histogram);
+    }
+
+    @Override
+    public void createOrUpdateHistogram(long logId, long labelId, Timing timing, Histogram histogram) {
         if (histogram == null) {
             throw new NullPointerException("No histogram was specified.");
         } else if (histogram.getBucketMaximums() == null) {
@@ -322,9 +407,11 @@ public class JooqStatsService implements StatsService {
             context.mergeInto(HISTOGRAM,
                     HISTOGRAM.LOG_ID,
                     HISTOGRAM.LABEL_ID,
+                    HISTOGRAM.TIMING,
                     HISTOGRAM.SERIES_DATA).values(
                             logId,
                             labelId,
+                            timing.name(),
                             statsBytes)
                     .execute();
             LOGGER.info("...Created histogram entry in DB.");
@@ -335,6 +422,11 @@ public class JooqStatsService implements StatsService {
 
     @Override
     public void createOrUpdatePercentiles(long logId, long labelId, Percentiles percentiles) {
+        createOrUpdatePercentiles(logId, labelId, Timing.ELAPSED, percentiles);
+    }
+
+    @Override
+    public void createOrUpdatePercentiles(long logId, long labelId, Timing timing, Percentiles percentiles) {
         if (percentiles == null) {
             throw new NullPointerException("No percentiles object was specified.");
         } else if (percentiles.getCounts() == null) {
@@ -356,9 +448,11 @@ public class JooqStatsService implements StatsService {
             context.mergeInto(PERCENTILE,
                     PERCENTILE.LOG_ID,
                     PERCENTILE.LABEL_ID,
+                    PERCENTILE.TIMING,
                     PERCENTILE.SERIES_DATA).values(
                             logId,
                             labelId,
+                            timing.name(),
                             statsBytes)
                     .execute();
             LOGGER.info("...Created percentiles entry in DB.");
@@ -474,6 +568,64 @@ public class JooqStatsService implements StatsService {
         return histogram;
     }
 
+    @Override
+    public void createOrUpdateBinHistograms(long logId, long labelId, List<BinHistogram> bins) {
+        if (bins == null) {
+            throw new NullPointerException("No bins were specified.");
+        } else if (logId < 1L) {
+            throw new IllegalArgumentException("Bad log id.");
+        }
+        List<BinHistogramRecord> records = new ArrayList<>(bins.size());
+        for (BinHistogram bin : bins) {
+            BinHistogramRecord record = new BinHistogramRecord();
+            record.setLogId(logId);
+            record.setLabelId(labelId);
+            record.setOffsetMillis(bin.getOffsetMillis());
+            record.setSpanMillis(bin.getSpanMillis());
+            record.setNumSamples(bin.getNumSamples());
+            record.setMin(bin.getMin());
+            record.setMax(bin.getMax());
+            record.setTotalDuration(bin.getTotalDuration());
+            record.setTotalResponseBytes(bin.getTotalResponseBytes());
+            record.setNumErrors(bin.getNumErrors());
+            record.setHistogramData(bin.getHistogram());
+            records.add(record);
+        }
+        try (Connection c = pool.getConnection()) {
+            // The old bins are only replaced once the new bins are all stored, so that a window
+            // is never made from some of each, or from none.
+            DSL.using(c, dialect).transaction(configuration -> {
+                DSLContext context = DSL.using(configuration);
+                context.deleteFrom(BIN_HISTOGRAM)
+                        .where(BIN_HISTOGRAM.LOG_ID.eq(logId))
+                        .and(BIN_HISTOGRAM.LABEL_ID.eq(labelId))
+                        .execute();
+                if (!records.isEmpty()) {
+                    context.batchInsert(records).execute();
+                }
+            });
+        } catch (SQLException ex) {
+            throw new AppServerException("Failed to store bin histograms of log_id=" + logId
+                    + " label_id=" + labelId + " because: " + ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public List<BinHistogram> getBinHistograms(long logId, Collection<Long> labelIds, long fromMillis, long toMillis) {
+        try (Connection c = pool.getConnection()) {
+            DSLContext context = DSL.using(c, dialect);
+            return context.selectFrom(BIN_HISTOGRAM)
+                    .where(BIN_HISTOGRAM.LOG_ID.eq(logId))
+                    .and(BIN_HISTOGRAM.LABEL_ID.in(labelIds))
+                    .and(BIN_HISTOGRAM.OFFSET_MILLIS.ge(fromMillis))
+                    .and(BIN_HISTOGRAM.OFFSET_MILLIS.lt(toMillis))
+                    .orderBy(BIN_HISTOGRAM.OFFSET_MILLIS, BIN_HISTOGRAM.LABEL_ID)
+                    .fetch(R2BIN_HISTOGRAM);
+        } catch (SQLException ex) {
+            throw new AppServerException("Cannot get bin histograms of log_id=" + logId + " because: " + ex.getMessage(), ex);
+        }
+    }
+
     private static byte[] convertToSeriesData(Percentiles percentiles) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try (Writer w = new OutputStreamWriter(baos)) {
@@ -774,4 +926,18 @@ public class JooqStatsService implements StatsService {
         }
     }
 
+    private static class RecordToBinHistogramMapper implements RecordMapper<BinHistogramRecord, BinHistogram> {
+
+        @Override
+        public BinHistogram map(BinHistogramRecord record) {
+            if (record == null) {
+                return null;
+            }
+            return new BinHistogram(record.getOffsetMillis(), record.getSpanMillis(),
+                    record.getNumSamples(), record.getMin(), record.getMax(),
+                    record.getTotalDuration(), record.getTotalResponseBytes(),
+                    record.getNumErrors(), record.getHistogramData());
+        }
+    }
+
 }
@@ -16,6 +16,7 @@
 package com.redsaz.lognition.store;
 
 import com.redsaz.lognition.api.exceptions.AppServerException;
+import com.redsaz.lognition.api.model.BinHistogram;
 import com.redsaz.lognition.api.model.CodeCounts;
 import com.redsaz.lognition.api.model.Log;
 import com.redsaz.lognition.api.model.Log.Status;
@@ -25,9 +26,11 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import org.hsqldb.jdbc.JDBCPool;
 import org.jooq.SQLDialect;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import org.junit.Rule;
@@ -70,6 +73,31 @@ public class JooqStatsServiceTest {
         }
     }
 
+    @Test
+    public void testCreateSampleLabels_again() throws IOException, SQLException {
+        try (CloseableConnectionPool cp = createConnectionPool()) {
+            // Given a log with labels and stats,
+            JooqStatsService unit = new JooqStatsService(cp, SQLDialect.HSQLDB);
+            JooqLogsService logSvc = new JooqLogsService(cp, SQLDialect.HSQLDB,
+                    connectionDir.newFolder().toString());
+            Log log = new Log(1L, Status.LIVE, "test", "Test", "test.jtl", "notes");
+            log = logSvc.create(log);
+            unit.createSampleLabels(log.getId(), Arrays.asList("overall", "b"));
+            unit.createOrUpdateCodeCounts(log.getId(), 0L, CODE_COUNTS);
+
+            // When the labels are stored again with more labels, such as for a live log,
+            unit.createSampleLabels(log.getId(), Arrays.asList("overall", "a", "b"));
+
+            // Then the labels are replaced and the stats of the remaining ids kept,
+            assertEquals(Arrays.asList("overall", "a", "b"), unit.getSampleLabels(log.getId()));
+            assertEquals(CODE_COUNTS.getCounts(), unit.getCodeCounts(log.getId(), 0L, 0L).getCounts());
+
+            // and fewer labels removes the rest.
+            unit.createSampleLabels(log.getId(), Arrays.asList("overall"));
+            assertEquals(Arrays.asList("overall"), unit.getSampleLabels(log.getId()));
+        }
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testCreateOrUpdateCodeCounts_badLogId() throws IOException, SQLException {
         try (CloseableConnectionPool cp = createConnectionPool()) {
@@ -197,6 +225,40 @@ public class JooqStatsServiceTest {
         }
     }
 
+    @Test
+    public void testGetBinHistograms() throws IOException, SQLException {
+        try (CloseableConnectionPool cp = createConnectionPool()) {
+            // Given a log with two labels, each with a bin every second,
+            JooqStatsService unit = new JooqStatsService(cp, SQLDialect.HSQLDB);
+            JooqLogsService logSvc = new JooqLogsService(cp, SQLDialect.HSQLDB,
+                    connectionDir.newFolder().toString());
+            Log log = logSvc.create(new Log(1L, Status.COMPLETE, "test", "Test", "test.jtl", "notes"));
+            unit.createSampleLabels(log.getId(), Arrays.asList("overall", "a", "b"));
+            unit.createOrUpdateBinHistograms(log.getId(), 1L, Arrays.asList(bin(0L), bin(1000L), bin(2000L)));
+            unit.createOrUpdateBinHistograms(log.getId(), 2L, Arrays.asList(bin(1000L), bin(3000L)));
+
+            // When the bins of both labels within a window are retrieved,
+            List<BinHistogram> actual = unit.getBinHistograms(log.getId(), Arrays.asList(1L, 2L), 1000L, 3000L);
+
+            // Then only the bins starting within the window are given, in order of offset.
+            assertEquals(3, actual.size());
+            assertEquals(1000L, actual.get(0).getOffsetMillis());
+            assertEquals(1000L, actual.get(1).getOffsetMillis());
+            assertEquals(2000L, actual.get(2).getOffsetMillis());
+            assertEquals(7L, actual.get(2).getNumSamples());
+            assertArrayEquals(bin(2000L).getHistogram(), actual.get(2).getHistogram());
+
+            // Storing a label again replaces its bins.
+            unit.createOrUpdateBinHistograms(log.getId(), 1L, Collections.singletonList(bin(5000L)));
+            assertEquals(1, unit.getBinHistograms(log.getId(), Collections.singletonList(1L), 0L, Long.MAX_VALUE).size());
+        }
+    }
+
+    private static BinHistogram bin(long offsetMillis) {
+        return new BinHistogram(offsetMillis, 1000L, 7L, 1L, 9L, 35L, 700L, 1L,
+                new byte[]{1, 2, 3, (byte) offsetMillis});
+    }
+
     private CloseableConnectionPool createConnectionPool() throws IOException {
         File hsqldbFile = connectionDir.newFile();
         JDBCPool jdbc = new JDBCPool();